@@ -0,0 +1,38 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common;
+
+import java.util.Map;
+
+/**
+ * 运行指标，由 /check/metrics 统一返回
+ */
+public interface MetricsProvider {
+
+    /**
+     * 指标名，作为返回结果中的 key
+     *
+     * @return
+     */
+    String getMetricsName();
+
+    Map<String, Object> getMetrics();
+}
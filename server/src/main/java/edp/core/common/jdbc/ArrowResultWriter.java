@@ -0,0 +1,509 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import edp.core.exception.ServerException;
+import edp.core.model.QueryColumn;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.*;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以 Arrow IPC stream 格式流式写出结果集，编码由 Apache Arrow 的 ArrowStreamWriter 完成
+ * <p>
+ * 按 ResultSetMetaData 的列类型确定 Arrow 类型，逐行读取 ResultSet 填充 VectorSchemaRoot，每 batchRows 行写出一个 RecordBatch：
+ * 整数为 Int64，浮点数为 Float64，精度不超过 38 的 DECIMAL 为 Decimal128，无精度的 NUMBER 为 Float64，
+ * 无符号 BIGINT 为 Decimal128(20, 0)，布尔为 Bool，DATE 为 Date32，TIMESTAMP / DATETIME 为不带时区的 Timestamp(微秒，服务端时区的本地时间)，
+ * 其余为 Utf8。每个字段的 metadata 中 type 为 QueryColumn 的类型。
+ * <p>
+ * 第一个批次读取成功后才打开输出，之前的错误（如列类型不支持、取值失败）仍可按普通错误响应返回；
+ * 之后的错误不会写出 stream 结束标记。每个实例只能使用一次
+ */
+public class ArrowResultWriter implements RowStreamHandler<Integer> {
+
+    private static final BufferAllocator ROOT_ALLOCATOR = new RootAllocator(Long.MAX_VALUE);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_DECIMAL_PRECISION = 38;
+
+    private static final String TYPE_KEY = "type";
+
+    /**
+     * 延迟打开的输出
+     */
+    @FunctionalInterface
+    public interface Output {
+
+        OutputStream open() throws IOException;
+    }
+
+    private final Output output;
+
+    private final int batchRows;
+
+    private final int offset;
+
+    private final int maxRows;
+
+    /**
+     * @param output
+     * @param batchRows 每个 RecordBatch 的行数
+     * @param offset    跳过的行数
+     * @param maxRows   最多写出的行数，小于 1 时不限
+     */
+    public ArrowResultWriter(Output output, int batchRows, int offset, int maxRows) {
+        this.output = output;
+        this.batchRows = Math.max(1, batchRows);
+        this.offset = Math.max(0, offset);
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * 写出只有 schema 的 stream，schema 的 metadata 为 metadata
+     *
+     * @param out
+     * @param metadata
+     * @throws IOException
+     */
+    public static void writeEmpty(OutputStream out, Map<String, String> metadata) throws IOException {
+        try (BufferAllocator allocator = ROOT_ALLOCATOR.newChildAllocator("arrow-empty", 0, Long.MAX_VALUE);
+             VectorSchemaRoot root = VectorSchemaRoot.create(new Schema(Collections.emptyList(), metadata), allocator)) {
+            ArrowStreamWriter writer = new ArrowStreamWriter(root, null, out);
+            writer.start();
+            writer.end();
+            out.flush();
+        }
+    }
+
+    @Override
+    public Integer handle(RowDecoder decoder, ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        List<QueryColumn> queryColumns = decoder.getQueryColumns();
+        List<Field> fields = new ArrayList<>(decoder.size());
+        for (int i = 0; i < decoder.size(); i++) {
+            int index = decoder.getColumnIndex(i);
+            QueryColumn column = queryColumns.get(i);
+            ArrowType type = arrowType(column, metaData.getColumnType(index), metaData.getPrecision(index), metaData.getScale(index));
+            fields.add(new Field(column.getName(), new FieldType(true, type, null,
+                    Collections.singletonMap(TYPE_KEY, column.getType())), null));
+        }
+
+        try (BufferAllocator allocator = ROOT_ALLOCATOR.newChildAllocator("arrow-result", 0, Long.MAX_VALUE);
+             VectorSchemaRoot root = VectorSchemaRoot.create(new Schema(fields), allocator)) {
+
+            Column[] columns = new Column[fields.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = Column.of(root.getVector(i));
+            }
+
+            boolean hasNext = true;
+            for (int skipped = 0; skipped < offset && hasNext; skipped++) {
+                hasNext = rs.next();
+            }
+
+            OutputStream out = null;
+            ArrowStreamWriter writer = null;
+            int rows = 0;
+            while (true) {
+                root.allocateNew();
+                int size = 0;
+                while (hasNext && size < batchRows && (maxRows < 1 || rows < maxRows)) {
+                    hasNext = rs.next();
+                    if (!hasNext) {
+                        break;
+                    }
+                    for (int i = 0; i < columns.length; i++) {
+                        columns[i].set(size, decoder.getValue(rs, i));
+                    }
+                    size++;
+                    rows++;
+                }
+                root.setRowCount(size);
+
+                if (null == writer) {
+                    out = new BufferedOutputStream(output.open(), BUFFER_SIZE);
+                    writer = new ArrowStreamWriter(root, null, out);
+                    writer.start();
+                }
+                if (size > 0) {
+                    writer.writeBatch();
+                }
+                out.flush();
+                if (size < batchRows) {
+                    break;
+                }
+            }
+            writer.end();
+            out.flush();
+            return rows;
+        } catch (IOException e) {
+            throw new ServerException("Write arrow stream error: " + e.getMessage());
+        }
+    }
+
+    private static ArrowType arrowType(QueryColumn column, int sqlType, int precision, int scale) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return new ArrowType.Int(64, true);
+            case Types.BIGINT:
+                return column.getType().contains("UNSIGNED") ? new ArrowType.Decimal(20, 0, 128) : new ArrowType.Int(64, true);
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                if (precision > 0 && precision <= MAX_DECIMAL_PRECISION && scale >= 0 && scale <= precision) {
+                    return new ArrowType.Decimal(precision, scale, 128);
+                }
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case Types.BOOLEAN:
+                return ArrowType.Bool.INSTANCE;
+            case Types.BIT:
+                return precision <= 1 ? ArrowType.Bool.INSTANCE : ArrowType.Utf8.INSTANCE;
+            case Types.DATE:
+                return new ArrowType.Date(DateUnit.DAY);
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return new ArrowType.Timestamp(TimeUnit.MICROSECOND, null);
+            default:
+                return ArrowType.Utf8.INSTANCE;
+        }
+    }
+
+    /**
+     * 将 ResultSet 的值转换后写入对应类型的向量
+     */
+    private abstract static class Column {
+
+        private final String name;
+
+        Column(FieldVector vector) {
+            this.name = vector.getName();
+        }
+
+        static Column of(FieldVector vector) {
+            if (vector instanceof BigIntVector) {
+                return new Int64Column((BigIntVector) vector);
+            }
+            if (vector instanceof Float8Vector) {
+                return new Float64Column((Float8Vector) vector);
+            }
+            if (vector instanceof DecimalVector) {
+                return new DecimalColumn((DecimalVector) vector);
+            }
+            if (vector instanceof BitVector) {
+                return new BoolColumn((BitVector) vector);
+            }
+            if (vector instanceof DateDayVector) {
+                return new DateColumn((DateDayVector) vector);
+            }
+            if (vector instanceof TimeStampMicroVector) {
+                return new TimestampColumn((TimeStampMicroVector) vector);
+            }
+            return new Utf8Column((VarCharVector) vector);
+        }
+
+        void set(int row, Object value) {
+            if (null == value) {
+                setNull(row);
+            } else {
+                setValue(row, value);
+            }
+        }
+
+        ServerException unexpected(Object value) {
+            return new ServerException("Unexpected value of column " + name + ": " + value);
+        }
+
+        abstract void setNull(int row);
+
+        abstract void setValue(int row, Object value);
+    }
+
+    private static class Int64Column extends Column {
+
+        private final BigIntVector vector;
+
+        Int64Column(BigIntVector vector) {
+            super(vector);
+            this.vector = vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            long longValue;
+            if (value instanceof BigInteger || value instanceof BigDecimal) {
+                try {
+                    longValue = value instanceof BigInteger ? ((BigInteger) value).longValueExact() : ((BigDecimal) value).longValueExact();
+                } catch (ArithmeticException e) {
+                    throw unexpected(value);
+                }
+            } else if (value instanceof Number) {
+                longValue = ((Number) value).longValue();
+            } else if (value instanceof Boolean) {
+                longValue = (Boolean) value ? 1L : 0L;
+            } else {
+                try {
+                    longValue = Long.parseLong(value.toString().trim());
+                } catch (NumberFormatException e) {
+                    throw unexpected(value);
+                }
+            }
+            vector.setSafe(row, longValue);
+        }
+    }
+
+    private static class Float64Column extends Column {
+
+        private final Float8Vector vector;
+
+        Float64Column(Float8Vector vector) {
+            super(vector);
+            this.vector = vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            double doubleValue;
+            if (value instanceof Number) {
+                doubleValue = ((Number) value).doubleValue();
+            } else {
+                try {
+                    doubleValue = Double.parseDouble(value.toString().trim());
+                } catch (NumberFormatException e) {
+                    throw unexpected(value);
+                }
+            }
+            vector.setSafe(row, doubleValue);
+        }
+    }
+
+    /**
+     * 按列的 scale 四舍五入后写入，超出列精度时报错
+     */
+    private static class DecimalColumn extends Column {
+
+        private final DecimalVector vector;
+
+        DecimalColumn(DecimalVector vector) {
+            super(vector);
+            this.vector = vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            BigDecimal decimal;
+            try {
+                decimal = value instanceof BigDecimal ? (BigDecimal) value
+                        : value instanceof BigInteger ? new BigDecimal((BigInteger) value) : new BigDecimal(value.toString().trim());
+            } catch (NumberFormatException e) {
+                throw unexpected(value);
+            }
+            decimal = decimal.setScale(vector.getScale(), RoundingMode.HALF_UP);
+            if (decimal.precision() > vector.getPrecision()) {
+                throw unexpected(value);
+            }
+            vector.setSafe(row, decimal);
+        }
+    }
+
+    private static class BoolColumn extends Column {
+
+        private final BitVector vector;
+
+        BoolColumn(BitVector vector) {
+            super(vector);
+            this.vector = vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            boolean bool;
+            if (value instanceof Boolean) {
+                bool = (Boolean) value;
+            } else if (value instanceof Number) {
+                bool = ((Number) value).intValue() != 0;
+            } else {
+                String text = value.toString().trim();
+                bool = "1".equals(text) || "true".equalsIgnoreCase(text);
+            }
+            vector.setSafe(row, bool ? 1 : 0);
+        }
+    }
+
+    /**
+     * Date32，1970-01-01 起的天数
+     */
+    private static class DateColumn extends Column {
+
+        private final DateDayVector vector;
+
+        DateColumn(DateDayVector vector) {
+            super(vector);
+            this.vector = vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            LocalDate date;
+            if (value instanceof java.sql.Date) {
+                date = ((java.sql.Date) value).toLocalDate();
+            } else if (value instanceof Timestamp) {
+                date = ((Timestamp) value).toLocalDateTime().toLocalDate();
+            } else if (value instanceof java.util.Date) {
+                date = Instant.ofEpochMilli(((java.util.Date) value).getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+            } else if (value instanceof LocalDate) {
+                date = (LocalDate) value;
+            } else if (value instanceof LocalDateTime) {
+                date = ((LocalDateTime) value).toLocalDate();
+            } else {
+                try {
+                    String text = value.toString().trim();
+                    date = LocalDate.parse(text.length() > 10 ? text.substring(0, 10) : text);
+                } catch (DateTimeException e) {
+                    throw unexpected(value);
+                }
+            }
+            vector.setSafe(row, (int) date.toEpochDay());
+        }
+    }
+
+    /**
+     * 不带时区的 Timestamp(微秒)，与 json 结果一致为服务端时区的本地时间
+     */
+    private static class TimestampColumn extends Column {
+
+        private final TimeStampMicroVector vector;
+
+        TimestampColumn(TimeStampMicroVector vector) {
+            super(vector);
+            this.vector = vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            LocalDateTime dateTime;
+            if (value instanceof Timestamp) {
+                dateTime = ((Timestamp) value).toLocalDateTime();
+            } else if (value instanceof java.sql.Date) {
+                dateTime = ((java.sql.Date) value).toLocalDate().atStartOfDay();
+            } else if (value instanceof java.util.Date) {
+                dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(((java.util.Date) value).getTime()), ZoneId.systemDefault());
+            } else if (value instanceof LocalDateTime) {
+                dateTime = (LocalDateTime) value;
+            } else if (value instanceof LocalDate) {
+                dateTime = ((LocalDate) value).atStartOfDay();
+            } else if (value instanceof OffsetDateTime) {
+                dateTime = ((OffsetDateTime) value).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            } else if (value instanceof ZonedDateTime) {
+                dateTime = ((ZonedDateTime) value).withZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            } else {
+                try {
+                    dateTime = Timestamp.valueOf(value.toString().trim()).toLocalDateTime();
+                } catch (IllegalArgumentException e) {
+                    throw unexpected(value);
+                }
+            }
+            vector.setSafe(row, dateTime.toEpochSecond(ZoneOffset.UTC) * 1000000L + dateTime.getNano() / 1000);
+        }
+    }
+
+    private static class Utf8Column extends Column {
+
+        private final VarCharVector vector;
+
+        Utf8Column(VarCharVector vector) {
+            super(vector);
+            this.vector = vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            String text = value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString();
+            vector.setSafe(row, text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
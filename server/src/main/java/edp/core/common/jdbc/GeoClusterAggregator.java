@@ -0,0 +1,122 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.exception.ServerException;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * 不支持在 sql 中按表达式分组的数据源，流式读取点并在内存中按网格聚合
+ */
+public class GeoClusterAggregator implements RowStreamHandler<PaginateWithQueryColumns> {
+
+    private final String latColumn;
+
+    private final String lngColumn;
+
+    private final String countLabel;
+
+    private final double south;
+
+    private final double west;
+
+    private final double cellSize;
+
+    public GeoClusterAggregator(String latColumn, String lngColumn, String countLabel, double south, double west, double cellSize) {
+        this.latColumn = latColumn;
+        this.lngColumn = lngColumn;
+        this.countLabel = countLabel;
+        this.south = south;
+        this.west = west;
+        this.cellSize = cellSize;
+    }
+
+    @Override
+    public PaginateWithQueryColumns handle(RowDecoder decoder, ResultSet rs) throws SQLException {
+        int latIndex = -1;
+        int lngIndex = -1;
+        for (int i = 0; i < decoder.size(); i++) {
+            if (decoder.getLabel(i).equals(latColumn)) {
+                latIndex = i;
+            }
+            if (decoder.getLabel(i).equals(lngColumn)) {
+                lngIndex = i;
+            }
+        }
+        if (latIndex < 0 || lngIndex < 0) {
+            throw new ServerException("Geo cluster column not found: " + (latIndex < 0 ? latColumn : lngColumn));
+        }
+
+        // 网格 -> {纬度和, 经度和, 点数}
+        Map<Long, double[]> cells = new LinkedHashMap<>();
+        while (rs.next()) {
+            Double latValue = toDouble(decoder.getValue(rs, latIndex));
+            Double lngValue = toDouble(decoder.getValue(rs, lngIndex));
+            if (null == latValue || null == lngValue) {
+                continue;
+            }
+            long x = (long) Math.floor((lngValue - west) / cellSize);
+            long y = (long) Math.floor((latValue - south) / cellSize);
+            double[] cell = cells.computeIfAbsent((x << 32) | (y & 0xFFFFFFFFL), k -> new double[3]);
+            cell[0] += latValue;
+            cell[1] += lngValue;
+            cell[2] += 1;
+        }
+
+        List<Map<String, Object>> resultList = new ArrayList<>(cells.size());
+        for (double[] cell : cells.values()) {
+            Map<String, Object> row = new LinkedHashMap<>(4);
+            row.put(latColumn, cell[0] / cell[2]);
+            row.put(lngColumn, cell[1] / cell[2]);
+            row.put(countLabel, (long) cell[2]);
+            resultList.add(row);
+        }
+
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setColumns(Arrays.asList(
+                new QueryColumn(latColumn, "DOUBLE"),
+                new QueryColumn(lngColumn, "DOUBLE"),
+                new QueryColumn(countLabel, "BIGINT")));
+        paginate.setResultList(resultList);
+        paginate.setPageNo(1);
+        paginate.setPageSize(resultList.size());
+        paginate.setTotalCount(resultList.size());
+        return paginate;
+    }
+
+    private static Double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
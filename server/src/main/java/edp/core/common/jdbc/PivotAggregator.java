@@ -0,0 +1,363 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.exception.ServerException;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.PivotHeader;
+import edp.core.model.PivotTable;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * 透视表计算
+ * <p>
+ * 逐行读取分组结果，按行维度和列维度构建表头树并累加单元格，开启小计时每行同时累加到各级小计和总计；
+ * SUM、COUNT 小计为求和，MAX、MIN 取最值，其余聚合无法由分组结果得出小计，多行落入同一单元格时为 null。
+ * 表头顺序与分组结果中首次出现的顺序一致，每个实例只能使用一次
+ */
+public class PivotAggregator implements RowStreamHandler<PaginateWithQueryColumns> {
+
+    private final List<String> rows;
+
+    private final List<String> columns;
+
+    private final List<String> metrics;
+
+    private final String[] funcs;
+
+    private final boolean subtotals;
+
+    private final long maxCells;
+
+    private final Node rowRoot = new Node(null, 0);
+
+    private final Node columnRoot = new Node(null, 0);
+
+    private final List<Node> rowNodes = new ArrayList<>();
+
+    private final List<Node> columnNodes = new ArrayList<>();
+
+    /**
+     * (行节点, 列节点) -> 单元格
+     */
+    private final Map<Long, Object[]> cells = new HashMap<>();
+
+    private int count = 0;
+
+    /**
+     * @param rows      行维度
+     * @param columns   列维度
+     * @param metrics   指标列名
+     * @param funcs     指标对应的聚合函数
+     * @param subtotals 是否计算小计和总计
+     * @param maxCells  单元格数上限
+     */
+    public PivotAggregator(List<String> rows, List<String> columns, List<String> metrics, List<String> funcs,
+                           boolean subtotals, long maxCells) {
+        this.rows = rows;
+        this.columns = columns;
+        this.metrics = metrics;
+        this.funcs = new String[funcs.size()];
+        for (int i = 0; i < funcs.size(); i++) {
+            this.funcs[i] = funcs.get(i).trim().toUpperCase();
+        }
+        this.subtotals = subtotals;
+        this.maxCells = maxCells;
+        rowNodes.add(rowRoot);
+        columnNodes.add(columnRoot);
+    }
+
+    @Override
+    public PaginateWithQueryColumns handle(RowDecoder decoder, ResultSet rs) throws SQLException {
+        int[] rowIndexes = indexesOf(decoder, rows);
+        int[] columnIndexes = indexesOf(decoder, columns);
+        int[] metricIndexes = indexesOf(decoder, metrics);
+        Object[] rowValues = new Object[rowIndexes.length];
+        Object[] columnValues = new Object[columnIndexes.length];
+        Object[] metricValues = new Object[metricIndexes.length];
+        while (rs.next()) {
+            fill(decoder, rs, rowIndexes, rowValues);
+            fill(decoder, rs, columnIndexes, columnValues);
+            fill(decoder, rs, metricIndexes, metricValues);
+            add(rowValues, columnValues, metricValues);
+        }
+        PaginateWithQueryColumns paginate = toPaginate();
+        paginate.setColumns(decoder.getQueryColumns());
+        return paginate;
+    }
+
+    /**
+     * 对已在内存中的分组结果计算透视表
+     *
+     * @param resultList
+     * @return
+     */
+    public PaginateWithQueryColumns aggregate(List<Map<String, Object>> resultList) {
+        Object[] rowValues = new Object[rows.size()];
+        Object[] columnValues = new Object[columns.size()];
+        Object[] metricValues = new Object[metrics.size()];
+        for (Map<String, Object> row : resultList) {
+            fill(row, rows, rowValues);
+            fill(row, columns, columnValues);
+            fill(row, metrics, metricValues);
+            add(rowValues, columnValues, metricValues);
+        }
+        return toPaginate();
+    }
+
+    private static int[] indexesOf(RowDecoder decoder, List<String> labels) {
+        int[] indexes = new int[labels.size()];
+        for (int i = 0; i < labels.size(); i++) {
+            indexes[i] = -1;
+            for (int j = 0; j < decoder.size(); j++) {
+                if (decoder.getLabel(j).equals(labels.get(i))) {
+                    indexes[i] = j;
+                    break;
+                }
+            }
+            if (indexes[i] < 0) {
+                throw new ServerException("Pivot column not found: " + labels.get(i));
+            }
+        }
+        return indexes;
+    }
+
+    private static void fill(RowDecoder decoder, ResultSet rs, int[] indexes, Object[] values) throws SQLException {
+        for (int i = 0; i < indexes.length; i++) {
+            values[i] = decoder.getValue(rs, indexes[i]);
+        }
+    }
+
+    private static void fill(Map<String, Object> row, List<String> labels, Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.get(labels.get(i));
+        }
+    }
+
+    private void add(Object[] rowValues, Object[] columnValues, Object[] metricValues) {
+        count++;
+        Node[] rowPath = path(rowRoot, rowValues, rowNodes);
+        Node[] columnPath = path(columnRoot, columnValues, columnNodes);
+        if (subtotals) {
+            for (Node rowNode : rowPath) {
+                for (Node columnNode : columnPath) {
+                    accumulate(rowNode, columnNode, metricValues);
+                }
+            }
+        } else {
+            accumulate(rowPath[rowPath.length - 1], columnPath[columnPath.length - 1], metricValues);
+        }
+    }
+
+    private static Node[] path(Node root, Object[] values, List<Node> nodes) {
+        Node[] path = new Node[values.length + 1];
+        path[0] = root;
+        Node node = root;
+        for (int i = 0; i < values.length; i++) {
+            Node parent = node;
+            node = parent.children.get(values[i]);
+            if (null == node) {
+                node = new Node(values[i], nodes.size());
+                parent.children.put(values[i], node);
+                nodes.add(node);
+            }
+            path[i + 1] = node;
+        }
+        return path;
+    }
+
+    private void accumulate(Node rowNode, Node columnNode, Object[] metricValues) {
+        long key = ((long) rowNode.id << 32) | (columnNode.id & 0xFFFFFFFFL);
+        Object[] values = cells.get(key);
+        if (null == values) {
+            if (cells.size() >= maxCells) {
+                throw new ServerException("Pivot result exceeds " + maxCells + " cells, please narrow down the query");
+            }
+            cells.put(key, metricValues.clone());
+            return;
+        }
+        for (int i = 0; i < funcs.length; i++) {
+            values[i] = combine(funcs[i], values[i], metricValues[i]);
+        }
+    }
+
+    private static Object combine(String func, Object a, Object b) {
+        switch (func) {
+            case "SUM":
+            case "COUNT":
+                return add(a, b);
+            case "MAX":
+                return null == a ? b : null == b ? a : compare(a, b) >= 0 ? a : b;
+            case "MIN":
+                return null == a ? b : null == b ? a : compare(a, b) <= 0 ? a : b;
+            default:
+                return null;
+        }
+    }
+
+    private static Object add(Object a, Object b) {
+        if (null == a) {
+            return b;
+        }
+        if (null == b) {
+            return a;
+        }
+        if (!(a instanceof Number) || !(b instanceof Number)) {
+            return null;
+        }
+        if (isIntegral(a) && isIntegral(b)) {
+            return ((Number) a).longValue() + ((Number) b).longValue();
+        }
+        return toBigDecimal((Number) a).add(toBigDecimal((Number) b));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return toBigDecimal((Number) a).compareTo(toBigDecimal((Number) b));
+        }
+        if (a instanceof Comparable && a.getClass().isInstance(b)) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if (isIntegral(number)) {
+            return BigDecimal.valueOf(number.longValue());
+        }
+        return new BigDecimal(number.toString());
+    }
+
+    private PaginateWithQueryColumns toPaginate() {
+        int[] rowPosition = {0};
+        int[] columnPosition = {0};
+        List<PivotHeader> rowHeaders = layout(rowRoot, rows.size(), rowPosition);
+        List<PivotHeader> columnHeaders = layout(columnRoot, columns.size(), columnPosition);
+
+        int width = columnPosition[0] * metrics.size();
+        if ((long) rowPosition[0] * width > maxCells) {
+            throw new ServerException("Pivot result exceeds " + maxCells + " cells, please narrow down the query");
+        }
+        List<List<Object>> matrix = new ArrayList<>(rowPosition[0]);
+        for (int i = 0; i < rowPosition[0]; i++) {
+            matrix.add(Arrays.asList(new Object[width]));
+        }
+        for (Map.Entry<Long, Object[]> entry : cells.entrySet()) {
+            Node rowNode = rowNodes.get((int) (entry.getKey() >>> 32));
+            Node columnNode = columnNodes.get((int) (entry.getKey() & 0xFFFFFFFFL));
+            if (rowNode.index < 0 || columnNode.index < 0) {
+                continue;
+            }
+            List<Object> line = matrix.get(rowNode.index);
+            for (int m = 0; m < metrics.size(); m++) {
+                line.set(columnNode.index * metrics.size() + m, entry.getValue()[m]);
+            }
+        }
+
+        PivotTable pivot = new PivotTable();
+        pivot.setRows(rows);
+        pivot.setColumns(columns);
+        pivot.setMetrics(metrics);
+        pivot.setRowHeaders(rowHeaders);
+        pivot.setColumnHeaders(columnHeaders);
+        pivot.setRowCount(rowPosition[0]);
+        pivot.setColumnCount(columnPosition[0]);
+        pivot.setCells(matrix);
+
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setPivot(pivot);
+        paginate.setResultList(new ArrayList<>());
+        paginate.setPageNo(1);
+        paginate.setPageSize(count);
+        paginate.setTotalCount(count);
+        return paginate;
+    }
+
+    /**
+     * 按深度优先为叶子节点和小计分配矩阵位置，小计排在其子节点之后，总计排在最后
+     */
+    private List<PivotHeader> layout(Node root, int depth, int[] position) {
+        List<PivotHeader> headers = new ArrayList<>();
+        if (depth == 0) {
+            // 没有维度时只有一行（列）
+            root.index = position[0]++;
+            return headers;
+        }
+        for (Node child : root.children.values()) {
+            headers.add(layout(child, 1, depth, position));
+        }
+        if (subtotals) {
+            root.index = position[0]++;
+            PivotHeader total = new PivotHeader();
+            total.setIndex(root.index);
+            total.setTotal(true);
+            headers.add(total);
+        }
+        return headers;
+    }
+
+    private PivotHeader layout(Node node, int level, int depth, int[] position) {
+        PivotHeader header = new PivotHeader();
+        header.setValue(node.value);
+        if (level == depth) {
+            node.index = position[0]++;
+        } else {
+            List<PivotHeader> children = new ArrayList<>(node.children.size());
+            for (Node child : node.children.values()) {
+                children.add(layout(child, level + 1, depth, position));
+            }
+            header.setChildren(children);
+            if (subtotals) {
+                node.index = position[0]++;
+                header.setTotal(true);
+            }
+        }
+        header.setIndex(node.index);
+        return header;
+    }
+
+    private static class Node {
+
+        private final Object value;
+
+        private final int id;
+
+        private final Map<Object, Node> children = new LinkedHashMap<>();
+
+        private int index = -1;
+
+        private Node(Object value, int id) {
+            this.value = value;
+            this.id = id;
+        }
+    }
+}
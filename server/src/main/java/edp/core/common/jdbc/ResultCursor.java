@@ -0,0 +1,288 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import lombok.Getter;
+import sun.misc.Cleaner;
+import sun.nio.ch.DirectBuffer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 服务端结果游标
+ * <p>
+ * 查询结果一次性写入临时文件（数据文件按 ValueCodec 保存每行带类型的值，索引文件保存每行起始偏移），
+ * 两个文件以只读方式映射到堆外内存，之后按页从映射中读取，不再访问数据库，各页返回的值类型与驱动返回的一致
+ * <p>
+ * 读页持有读锁，destroy 持有写锁后释放映射并删除文件，已销毁的游标读页时返回 null
+ */
+public class ResultCursor {
+
+    private static final int OFFSET_BYTES = 8;
+
+    @Getter
+    private final String key;
+
+    private final File dataFile;
+
+    private final File indexFile;
+
+    @Getter
+    private final List<QueryColumn> columns;
+
+    private final String[] labels;
+
+    @Getter
+    private final int rowCount;
+
+    private final long dataLength;
+
+    @Getter
+    private final long expireAt;
+
+    private MappedByteBuffer data;
+
+    private MappedByteBuffer index;
+
+    private boolean destroyed = false;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ResultCursor(String key, File dataFile, File indexFile, RowDecoder decoder, int rowCount, long dataLength, long expireAt) throws IOException {
+        this.key = key;
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        this.columns = decoder.getQueryColumns();
+        this.labels = new String[decoder.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = decoder.getLabel(i);
+        }
+        this.rowCount = rowCount;
+        this.dataLength = dataLength;
+        this.expireAt = expireAt;
+        this.data = map(dataFile);
+        try {
+            this.index = map(indexFile);
+        } catch (IOException e) {
+            unmap(this.data);
+            throw e;
+        }
+    }
+
+    /**
+     * 只读映射整个文件，映射建立后即关闭 channel
+     */
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * 将结果集写入临时文件，超过 maxBytes 时放弃并返回 null
+     *
+     * @param key
+     * @param dir
+     * @param decoder
+     * @param rs
+     * @param maxBytes
+     * @param expireAt
+     * @return
+     * @throws SQLException
+     */
+    public static ResultCursor write(String key, File dir, RowDecoder decoder, ResultSet rs, long maxBytes, long expireAt) throws SQLException {
+        long limit = Math.min(maxBytes, Integer.MAX_VALUE);
+        String name = key + "_" + System.nanoTime();
+        File dataFile = new File(dir, name + ".dat");
+        File indexFile = new File(dir, name + ".idx");
+
+        int rowCount = 0;
+        long offset = 0L;
+        boolean completed = false;
+        try {
+            try (DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile)));
+                 DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+
+                int columnCount = decoder.size();
+                while (rs.next()) {
+                    indexOut.writeLong(offset);
+                    for (int i = 0; i < columnCount; i++) {
+                        ValueCodec.writeValue(dataOut, decoder.getValue(rs, i));
+                    }
+                    offset = dataOut.size();
+                    rowCount++;
+                    if (offset >= limit || (long) rowCount * OFFSET_BYTES > limit) {
+                        return null;
+                    }
+                }
+            }
+            ResultCursor cursor = new ResultCursor(key, dataFile, indexFile, decoder, rowCount, offset, expireAt);
+            completed = true;
+            return cursor;
+        } catch (IOException e) {
+            throw new SQLException("Write result cursor error: " + e.getMessage(), e);
+        } finally {
+            if (!completed) {
+                dataFile.delete();
+                indexFile.delete();
+            }
+        }
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expireAt;
+    }
+
+    /**
+     * 读取分页结果，游标已销毁时返回 null
+     *
+     * @param pageNo
+     * @param pageSize
+     * @return
+     */
+    public PaginateWithQueryColumns page(int pageNo, int pageSize) {
+        lock.readLock().lock();
+        try {
+            if (destroyed) {
+                return null;
+            }
+            return doPage(pageNo, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private PaginateWithQueryColumns doPage(int pageNo, int pageSize) {
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setPageNo(pageNo);
+        paginate.setPageSize(pageSize);
+        paginate.setTotalCount(rowCount);
+        paginate.setColumns(columns);
+
+        long startRow = (long) (pageNo - 1) * pageSize;
+        int from = (int) Math.min(startRow, rowCount);
+        int to = (int) Math.min(startRow + pageSize, rowCount);
+
+        List<Map<String, Object>> resultList = new ArrayList<>(Math.max(0, to - from));
+        if (from < to) {
+            try {
+                int start = (int) index.getLong(from * OFFSET_BYTES);
+                int end = to < rowCount ? (int) index.getLong(to * OFFSET_BYTES) : (int) dataLength;
+                ByteBuffer rows = data.duplicate();
+                rows.limit(end).position(start);
+                try (DataInputStream in = new DataInputStream(new ByteBufferInputStream(rows))) {
+                    for (int row = from; row < to; row++) {
+                        resultList.add(readRow(in));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Read result cursor error: " + e.getMessage(), e);
+            }
+        }
+        paginate.setResultList(resultList);
+        return paginate;
+    }
+
+    private Map<String, Object> readRow(DataInputStream in) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>((int) (labels.length / 0.75f) + 1);
+        for (String label : labels) {
+            map.put(label, ValueCodec.readValue(in));
+        }
+        return map;
+    }
+
+    /**
+     * 等待正在读取的分页完成后释放映射并删除文件
+     */
+    public void destroy() {
+        lock.writeLock().lock();
+        try {
+            if (destroyed) {
+                return;
+            }
+            destroyed = true;
+            unmap(data);
+            unmap(index);
+            data = null;
+            index = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (!dataFile.delete()) {
+            dataFile.deleteOnExit();
+        }
+        if (!indexFile.delete()) {
+            indexFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * 主动释放映射，使删除的文件立即归还磁盘和地址空间；调用方需保证之后不再访问该映射
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (buffer instanceof DirectBuffer) {
+            Cleaner cleaner = ((DirectBuffer) buffer).cleaner();
+            if (null != cleaner) {
+                cleaner.clean();
+            }
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, n);
+            return n;
+        }
+    }
+}
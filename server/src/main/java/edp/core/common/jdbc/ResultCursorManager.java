@@ -0,0 +1,205 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.consts.Consts;
+import edp.core.exception.ServerException;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.utils.FileUtils;
+import edp.core.utils.SqlUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 服务端结果游标管理
+ * <p>
+ * 同一查询（相同数据源、sql、limit 和排除列）的首次分页请求将全量结果写入游标，
+ * ttl 内的后续分页请求直接从游标按偏移读取
+ */
+@Slf4j
+@Component
+public class ResultCursorManager {
+
+    private static final String CURSOR_DIR = "cursor";
+
+    @Value("${source.result-cursor.enable:true}")
+    private boolean enable;
+
+    @Value("${source.result-cursor.ttl:600}")
+    private long ttl;
+
+    @Value("${source.result-cursor.max-bytes:536870912}")
+    private long maxBytes;
+
+    @Value("${source.result-cursor.max-cursors:64}")
+    private int maxCursors;
+
+    @Autowired
+    private FileUtils fileUtils;
+
+    private File cursorDir;
+
+    private final Map<String, FutureTask<ResultCursor>> cursorMap = new ConcurrentHashMap<>();
+
+    /**
+     * 超过 max-bytes 的查询在 ttl 内不再尝试建立游标
+     */
+    private final Map<String, Long> oversizedMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        cursorDir = new File(fileUtils.fileBasePath + Consts.DIR_TEMP + CURSOR_DIR);
+        if (cursorDir.exists()) {
+            FileUtils.deleteDir(cursorDir);
+        }
+    }
+
+    /**
+     * 从游标读取分页结果，无法使用游标时返回 null
+     *
+     * @param sqlUtils
+     * @param key
+     * @param sql
+     * @param pageNo
+     * @param pageSize
+     * @param limit
+     * @param excludeColumns
+     * @return
+     * @throws ServerException
+     */
+    public PaginateWithQueryColumns query(SqlUtils sqlUtils, String key, String sql, int pageNo, int pageSize, int limit, Set<String> excludeColumns) throws ServerException {
+        if (!enable || pageNo < 1 || pageSize < 1) {
+            return null;
+        }
+
+        Long oversizedExpireAt = oversizedMap.get(key);
+        if (null != oversizedExpireAt) {
+            if (oversizedExpireAt > System.currentTimeMillis()) {
+                return null;
+            }
+            oversizedMap.remove(key);
+        }
+
+        FutureTask<ResultCursor> task = cursorMap.get(key);
+        if (null != task) {
+            ResultCursor cursor = getCursor(key, task);
+            if (null != cursor && !cursor.isExpired()) {
+                // 与过期清理并发时游标可能已销毁，此时重新建立
+                PaginateWithQueryColumns paginate = cursor.page(pageNo, pageSize);
+                if (null != paginate) {
+                    return paginate;
+                }
+            }
+            if (cursorMap.remove(key, task) && null != cursor) {
+                cursor.destroy();
+            }
+        }
+
+        if (cursorMap.size() >= maxCursors) {
+            return null;
+        }
+
+        FutureTask<ResultCursor> newTask = new FutureTask<>(() -> {
+            if (!cursorDir.exists()) {
+                cursorDir.mkdirs();
+            }
+            long expireAt = System.currentTimeMillis() + ttl * 1000L;
+            return sqlUtils.query4Stream(sql, limit, excludeColumns,
+                    (decoder, rs) -> ResultCursor.write(key, cursorDir, decoder, rs, maxBytes, expireAt));
+        });
+
+        task = cursorMap.putIfAbsent(key, newTask);
+        if (null == task) {
+            task = newTask;
+            newTask.run();
+        }
+
+        ResultCursor cursor = getCursor(key, task);
+        if (null == cursor) {
+            cursorMap.remove(key, task);
+            oversizedMap.put(key, System.currentTimeMillis() + ttl * 1000L);
+            log.info("Result of query({}) exceeds cursor max bytes {}, skip cursor", key, maxBytes);
+            return null;
+        }
+        return cursor.page(pageNo, pageSize);
+    }
+
+    private ResultCursor getCursor(String key, FutureTask<ResultCursor> task) throws ServerException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException(e.getMessage());
+        } catch (ExecutionException e) {
+            cursorMap.remove(key, task);
+            Throwable cause = null == e.getCause() ? e : e.getCause();
+            log.error(cause.toString(), cause);
+            throw new ServerException(cause.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "0 0/1 * * * *")
+    public void clearExpired() {
+        long now = System.currentTimeMillis();
+        oversizedMap.entrySet().removeIf(entry -> entry.getValue() <= now);
+        cursorMap.forEach((key, task) -> {
+            if (!task.isDone()) {
+                return;
+            }
+            try {
+                ResultCursor cursor = task.get();
+                if (null != cursor && cursor.isExpired() && cursorMap.remove(key, task)) {
+                    cursor.destroy();
+                }
+            } catch (Exception e) {
+                cursorMap.remove(key, task);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        cursorMap.forEach((key, task) -> {
+            if (task.isDone()) {
+                try {
+                    ResultCursor cursor = task.get();
+                    if (null != cursor) {
+                        cursor.destroy();
+                    }
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        });
+        cursorMap.clear();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.common.MetricsProvider;
+import edp.core.exception.ServerException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 查询结果内存控制
+ * <p>
+ * 查询在物化结果行时按估算大小向节点预算申请内存，预算不足时等待其他查询释放，
+ * 超过 max-wait 或单个查询本身超出预算时失败；
+ * 在 scope 内（如一次请求）申请的内存在 scope 结束时才释放，覆盖结果缓存和序列化期间持有的结果
+ */
+@Slf4j
+@Component
+public class ResultMemoryGovernor implements MetricsProvider {
+
+    /**
+     * 每累计 1MB 向预算申请一次
+     */
+    private static final long CHUNK_BYTES = 1024L * 1024L;
+
+    @Value("${source.result-memory.enable:true}")
+    @Getter
+    protected boolean enable;
+
+    @Value("${source.result-memory.budget-ratio:0.4}")
+    @Getter
+    protected double budgetRatio;
+
+    @Value("${source.result-memory.max-wait:10000}")
+    @Getter
+    protected long maxWait;
+
+    @Getter
+    private long budget;
+
+    private long reserved = 0L;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    private final AtomicLong peakReserved = new AtomicLong(0L);
+
+    private final AtomicInteger activeLeases = new AtomicInteger(0);
+
+    private final AtomicInteger waitingLeases = new AtomicInteger(0);
+
+    private final AtomicLong rejectedCount = new AtomicLong(0L);
+
+    private final ThreadLocal<List<Lease>> scope = new ThreadLocal<>();
+
+    @PostConstruct
+    public void init() {
+        double ratio = budgetRatio > 0 && budgetRatio <= 1 ? budgetRatio : 0.4;
+        this.budget = (long) (Runtime.getRuntime().maxMemory() * ratio);
+    }
+
+    public Lease newLease() {
+        return new Lease(scope.get());
+    }
+
+    /**
+     * 开始 scope，当前线程此后申请的内存持有到 closeScope
+     */
+    public void openScope() {
+        if (null == scope.get()) {
+            scope.set(new ArrayList<>());
+        }
+    }
+
+    /**
+     * 结束 scope，释放 scope 内所有申请
+     */
+    public void closeScope() {
+        List<Lease> leases = scope.get();
+        scope.remove();
+        if (null != leases) {
+            leases.forEach(Lease::release);
+        }
+    }
+
+    private long scopeHeld(List<Lease> leases) {
+        long held = 0L;
+        for (Lease lease : leases) {
+            held += lease.held;
+        }
+        return held;
+    }
+
+    public long getReserved() {
+        lock.lock();
+        try {
+            return reserved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "memory";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Runtime runtime = Runtime.getRuntime();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enable", enable);
+        metrics.put("budget", budget);
+        metrics.put("reserved", getReserved());
+        metrics.put("peakReserved", peakReserved.get());
+        metrics.put("activeLeases", activeLeases.get());
+        metrics.put("waitingLeases", waitingLeases.get());
+        metrics.put("rejected", rejectedCount.get());
+        metrics.put("heapUsed", runtime.totalMemory() - runtime.freeMemory());
+        metrics.put("heapMax", runtime.maxMemory());
+        return metrics;
+    }
+
+    private void reserve(long bytes, long held) throws ServerException {
+        lock.lock();
+        try {
+            if (reserved + bytes > budget) {
+                // 仅当前查询持有预算时，等待不会有结果
+                if (reserved - held <= 0L || maxWait <= 0L) {
+                    reject(bytes);
+                }
+                long nanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+                waitingLeases.incrementAndGet();
+                try {
+                    while (reserved + bytes > budget) {
+                        if (nanos <= 0L || reserved - held <= 0L) {
+                            reject(bytes);
+                        }
+                        nanos = released.awaitNanos(nanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    reject(bytes);
+                } finally {
+                    waitingLeases.decrementAndGet();
+                }
+            }
+            reserved += bytes;
+            if (reserved > peakReserved.get()) {
+                peakReserved.set(reserved);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reject(long bytes) throws ServerException {
+        rejectedCount.incrementAndGet();
+        log.warn("Result memory budget exhausted, budget:{}, reserved:{}, request:{}", budget, reserved, bytes);
+        throw new ServerException("The server is busy with other large queries, please narrow down the query or try again later");
+    }
+
+    private void releaseBytes(long bytes) {
+        if (bytes <= 0L) {
+            return;
+        }
+        lock.lock();
+        try {
+            reserved = Math.max(0L, reserved - bytes);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 单个查询的内存申请，物化结果过程中累计申请；
+     * 不在 scope 内时 close 即释放，在 scope 内时由 closeScope 释放
+     */
+    public class Lease implements AutoCloseable {
+
+        private long held = 0L;
+
+        private long pending = 0L;
+
+        private boolean closed = false;
+
+        private final List<Lease> scopeLeases;
+
+        private Lease(List<Lease> scopeLeases) {
+            this.scopeLeases = scopeLeases;
+            activeLeases.incrementAndGet();
+            if (null != scopeLeases) {
+                scopeLeases.add(this);
+            }
+        }
+
+        public void acquire(long bytes) throws ServerException {
+            if (!enable) {
+                return;
+            }
+            pending += bytes;
+            if (pending >= CHUNK_BYTES) {
+                long chunk = pending;
+                pending = 0L;
+                // 同一 scope 内其他查询持有的内存也属于当前请求，不等待其释放
+                reserve(chunk, null == scopeLeases ? held : scopeHeld(scopeLeases));
+                held += chunk;
+            }
+        }
+
+        public long getHeld() {
+            return held + pending;
+        }
+
+        @Override
+        public void close() {
+            if (null == scopeLeases) {
+                release();
+            }
+        }
+
+        private void release() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            activeLeases.decrementAndGet();
+            releaseBytes(held);
+            held = 0L;
+            pending = 0L;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.model.QueryColumn;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.SqlUtils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * 结果集行解码器
+ * <p>
+ * 根据 ResultSetMetaData 一次性解析列标签、排除列和取值方式，之后每行按列下标取值，
+ * 避免逐行逐列地读取元数据、解析列前缀和按列名查找
+ */
+public class RowDecoder {
+
+    private static final int KIND_OBJECT = 0;
+
+    private static final int KIND_STRING = 1;
+
+    private static final int KIND_BYTES = 2;
+
+    private final int[] indexes;
+
+    private final String[] labels;
+
+    private final int[] kinds;
+
+    private final List<QueryColumn> queryColumns;
+
+    private final int mapCapacity;
+
+    private RowDecoder(int[] indexes, String[] labels, int[] kinds, List<QueryColumn> queryColumns) {
+        this.indexes = indexes;
+        this.labels = labels;
+        this.kinds = kinds;
+        this.queryColumns = queryColumns;
+        this.mapCapacity = (int) (indexes.length / 0.75f) + 1;
+    }
+
+    public static RowDecoder of(ResultSetMetaData metaData, Set<String> queryFromsAndJoins, Collection<String> excludeColumns) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        int[] indexes = new int[columnCount];
+        String[] labels = new String[columnCount];
+        int[] kinds = new int[columnCount];
+        List<QueryColumn> queryColumns = new ArrayList<>(columnCount);
+
+        int size = 0;
+        for (int i = 1; i <= columnCount; i++) {
+            String label = SqlUtils.getColumnLabel(queryFromsAndJoins, metaData.getColumnLabel(i));
+            if (!CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(label)) {
+                continue;
+            }
+            indexes[size] = i;
+            labels[size] = label;
+            kinds[size] = kindOf(metaData.getColumnType(i));
+            queryColumns.add(new QueryColumn(label, metaData.getColumnTypeName(i)));
+            size++;
+        }
+
+        return new RowDecoder(Arrays.copyOf(indexes, size), Arrays.copyOf(labels, size), Arrays.copyOf(kinds, size), queryColumns);
+    }
+
+    private static int kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return KIND_STRING;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return KIND_BYTES;
+            default:
+                return KIND_OBJECT;
+        }
+    }
+
+    public Map<String, Object> decode(ResultSet rs) throws SQLException {
+        Map<String, Object> map = new LinkedHashMap<>(mapCapacity);
+        for (int i = 0; i < indexes.length; i++) {
+            map.put(labels[i], getValue(rs, i));
+        }
+        return map;
+    }
+
+    public Object getValue(ResultSet rs, int i) throws SQLException {
+        int index = indexes[i];
+        switch (kinds[i]) {
+            case KIND_STRING:
+                return rs.getString(index);
+            case KIND_BYTES:
+                byte[] bytes = rs.getBytes(index);
+                return null == bytes ? null : new String(bytes);
+            default:
+                Object value = rs.getObject(index);
+                return value instanceof byte[] ? new String((byte[]) value) : value;
+        }
+    }
+
+    /**
+     * 粗略估算一行数据占用的堆内存（字节）
+     *
+     * @param row
+     * @return
+     */
+    public static long estimateRowBytes(Map<String, Object> row) {
+        long bytes = 48L;
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            bytes += 40L + estimateBytes(entry.getValue());
+        }
+        return bytes;
+    }
+
+    public static long estimateBytes(Object value) {
+        if (null == value) {
+            return 0L;
+        }
+        if (value instanceof String) {
+            return 40L + 2L * ((String) value).length();
+        }
+        if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return 40L;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return 16L;
+        }
+        if (value instanceof java.util.Date) {
+            return 32L;
+        }
+        if (value instanceof byte[]) {
+            return 16L + ((byte[]) value).length;
+        }
+        return 32L;
+    }
+
+    public int size() {
+        return indexes.length;
+    }
+
+    public String getLabel(int i) {
+        return labels[i];
+    }
+
+    /**
+     * 第 i 列在结果集中的列下标（从 1 开始）
+     *
+     * @param i
+     * @return
+     */
+    public int getColumnIndex(int i) {
+        return indexes[i];
+    }
+
+    public List<QueryColumn> getQueryColumns() {
+        return queryColumns;
+    }
+}
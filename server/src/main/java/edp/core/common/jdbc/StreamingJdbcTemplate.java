@@ -0,0 +1,55 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 按 StreamingProfile 在执行前设置连接的只读和自动提交，使驱动以游标方式流式读取结果；
+ * 连接归还连接池时由 druid 恢复 autoCommit 和 readOnly
+ */
+public class StreamingJdbcTemplate extends JdbcTemplate {
+
+    private final StreamingProfile profile;
+
+    public StreamingJdbcTemplate(DataSource dataSource, StreamingProfile profile) {
+        super(dataSource);
+        this.profile = profile;
+    }
+
+    @Override
+    protected void applyStatementSettings(Statement stmt) throws SQLException {
+        if (profile.isReadOnly() || profile.isDisableAutoCommit()) {
+            Connection connection = stmt.getConnection();
+            if (profile.isReadOnly() && !connection.isReadOnly()) {
+                connection.setReadOnly(true);
+            }
+            if (profile.isDisableAutoCommit() && connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+            }
+        }
+        super.applyStatementSettings(stmt);
+    }
+}
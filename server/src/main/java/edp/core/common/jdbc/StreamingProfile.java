@@ -0,0 +1,138 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.enums.DataTypeEnum;
+import edp.core.model.CustomDataSource;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 数据源流式读取配置
+ * <p>
+ * fetchSize: 每次从数据库拉取的行数，未显式配置时按观测到的平均行宽自适应调整
+ * rowStreaming: 驱动逐行流式读取（mysql 使用 Integer.MIN_VALUE）
+ * disableAutoCommit: 关闭自动提交后驱动才会使用游标读取（postgresql 兼容的数据源）
+ * readOnly: 流式读取时设置只读
+ */
+@Getter
+public class StreamingProfile {
+
+    private static final int DEFAULT_FETCH_SIZE = 500;
+
+    private static final int MIN_FETCH_SIZE = 100;
+
+    private static final int MAX_FETCH_SIZE = 10000;
+
+    /**
+     * 每次拉取期望的数据量
+     */
+    private static final long TARGET_FETCH_BYTES = 4L * 1024L * 1024L;
+
+    private static final Map<String, Long> rowWidthMap = new ConcurrentHashMap<>();
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    private boolean adaptive = true;
+
+    private boolean rowStreaming = false;
+
+    private boolean disableAutoCommit = false;
+
+    private boolean readOnly = false;
+
+    private StreamingProfile() {
+
+    }
+
+    public static StreamingProfile of(DataTypeEnum dataTypeEnum, CustomDataSource customDataSource) {
+        StreamingProfile profile = new StreamingProfile();
+
+        if (dataTypeEnum == DataTypeEnum.MYSQL) {
+            profile.rowStreaming = true;
+        }
+
+        if (null != customDataSource) {
+            if (null == dataTypeEnum && null != customDataSource.getDriver()
+                    && customDataSource.getDriver().toLowerCase().contains("postgresql")) {
+                profile.disableAutoCommit = true;
+                profile.readOnly = true;
+            }
+
+            if (null != customDataSource.getFetch_size() && customDataSource.getFetch_size() > 0) {
+                profile.fetchSize = customDataSource.getFetch_size();
+                profile.adaptive = false;
+            }
+
+            if (null != customDataSource.getStream_auto_commit()) {
+                profile.disableAutoCommit = !customDataSource.getStream_auto_commit();
+            }
+
+            if (null != customDataSource.getRead_only()) {
+                profile.readOnly = customDataSource.getRead_only();
+            }
+        }
+
+        return profile;
+    }
+
+    /**
+     * 普通查询的 fetch size
+     *
+     * @param sourceKey
+     * @return
+     */
+    public int getFetchSize(String sourceKey) {
+        if (!adaptive) {
+            return fetchSize;
+        }
+        Long rowWidth = rowWidthMap.get(sourceKey);
+        if (null == rowWidth || rowWidth <= 0L) {
+            return fetchSize;
+        }
+        long size = TARGET_FETCH_BYTES / rowWidth;
+        return (int) Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, size));
+    }
+
+    /**
+     * 全量读取（导出、不分页查询）的 fetch size
+     *
+     * @param sourceKey
+     * @return
+     */
+    public int getStreamFetchSize(String sourceKey) {
+        return rowStreaming ? Integer.MIN_VALUE : getFetchSize(sourceKey);
+    }
+
+    /**
+     * 记录数据源查询结果的平均行宽（字节）
+     *
+     * @param sourceKey
+     * @param rowWidth
+     */
+    public static void observeRowWidth(String sourceKey, long rowWidth) {
+        if (rowWidth <= 0L) {
+            return;
+        }
+        rowWidthMap.merge(sourceKey, rowWidth, (o, n) -> (o * 3 + n) / 4);
+    }
+}
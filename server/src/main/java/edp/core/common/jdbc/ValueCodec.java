@@ -0,0 +1,157 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * 结果值的二进制编码，按值类型写入标记，读取时还原为驱动返回的类型
+ */
+public class ValueCodec {
+
+    private static final byte TAG_NULL = 0;
+
+    private static final byte TAG_LONG = 1;
+
+    private static final byte TAG_DOUBLE = 2;
+
+    private static final byte TAG_DECIMAL = 3;
+
+    private static final byte TAG_STRING = 4;
+
+    private static final byte TAG_TIMESTAMP = 5;
+
+    private static final byte TAG_DATE = 6;
+
+    private static final byte TAG_TIME = 7;
+
+    private static final byte TAG_BOOLEAN = 8;
+
+    private static final byte TAG_BIGINTEGER = 9;
+
+    private static final byte TAG_INTEGER = 10;
+
+    private static final byte TAG_FLOAT = 11;
+
+    private ValueCodec() {
+
+    }
+
+    public static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (null == value) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TAG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(TAG_BIGINTEGER);
+            writeString(out, value.toString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TAG_TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(TAG_DATE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value instanceof Time) {
+            out.writeByte(TAG_TIME);
+            out.writeLong(((Time) value).getTime());
+        } else if (value instanceof java.util.Date) {
+            out.writeByte(TAG_TIMESTAMP);
+            out.writeLong(((java.util.Date) value).getTime());
+            out.writeInt(0);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else {
+            out.writeByte(TAG_STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    public static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_LONG:
+                return in.readLong();
+            case TAG_INTEGER:
+                return in.readInt();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case TAG_BIGINTEGER:
+                return new BigInteger(readString(in));
+            case TAG_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                int nanos = in.readInt();
+                if (nanos > 0) {
+                    timestamp.setNanos(nanos);
+                }
+                return timestamp;
+            case TAG_DATE:
+                return new java.sql.Date(in.readLong());
+            case TAG_TIME:
+                return new Time(in.readLong());
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            case TAG_STRING:
+                return readString(in);
+            default:
+                throw new IOException("Invalid value tag " + tag);
+        }
+    }
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
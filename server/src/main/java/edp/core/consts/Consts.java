@@ -174,6 +174,8 @@ public class Consts {
 
     public static final String DIR_TEMP = File.separator + "tempFiles" + File.separator;
 
+    public static final String DIR_EXTRACT = File.separator + "extract" + File.separator;
+
     public static final String HTTP_PROTOCOL = "http";
 
     public static final String HTTPS_PROTOCOL = "https";
@@ -184,6 +186,8 @@ public class Consts {
 
     public static final String QUERY_META_SQL = "SELECT * FROM (%s) MT WHERE 1=0";
 
+    public static final String QUERY_WATERMARK_SQL = "SELECT * FROM (%s) WT WHERE %s > %s";
+
     public static final String JDBC_PREFIX_FORMATTER = "jdbc:%s:";
 
     public static final String ORACLE_JDBC_PREFIX = "jdbc:oracle:thin:";
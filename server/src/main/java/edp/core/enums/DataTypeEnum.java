@@ -26,9 +26,11 @@ public enum DataTypeEnum {
 
     MYSQL("mysql", "mysql", "com.mysql.jdbc.Driver", "`", "`", "'", "'"),
 
-    ORACLE("oracle", "oracle", "oracle.jdbc.driver.OracleDriver", "\"", "\"", "\"", "\""),
+    ORACLE("oracle", "oracle", "oracle.jdbc.driver.OracleDriver", "\"", "\"", "\"", "\"",
+            "APPROX_COUNT_DISTINCT(%s)", "APPROX_MEDIAN(%s)"),
 
-    SQLSERVER("sqlserver", "sqlserver", "com.microsoft.sqlserver.jdbc.SQLServerDriver", "\"", "\"", "\"", "\""),
+    SQLSERVER("sqlserver", "sqlserver", "com.microsoft.sqlserver.jdbc.SQLServerDriver", "\"", "\"", "\"", "\"",
+            "APPROX_COUNT_DISTINCT(%s)", null),
 
     H2("h2", "h2", "org.h2.Driver", "`", "`", "\"", "\""),
 
@@ -38,21 +40,26 @@ public enum DataTypeEnum {
 
     ELASTICSEARCH("elasticsearch", "elasticsearch", "com.amazon.opendistroforelasticsearch.jdbc.Driver", "", "", "'", "'"),
 
-    PRESTO("presto", "presto", "com.facebook.presto.jdbc.PrestoDriver", "\"", "\"", "\"", "\""),
+    PRESTO("presto", "presto", "com.facebook.presto.jdbc.PrestoDriver", "\"", "\"", "\"", "\"",
+            "approx_distinct(%s)", "approx_percentile(%s, 0.5)"),
 
-    MOONBOX("moonbox", "moonbox", "moonbox.jdbc.MbDriver", "`", "`", "`", "`"),
+    MOONBOX("moonbox", "moonbox", "moonbox.jdbc.MbDriver", "`", "`", "`", "`",
+            "approx_count_distinct(%s)", "percentile_approx(%s, 0.5)"),
 
     CASSANDRA("cassandra", "cassandra", "com.github.adejanovski.cassandra.jdbc.CassandraDriver", "", "", "'", "'"),
 
-    CLICKHOUSE("clickhouse", "clickhouse", "ru.yandex.clickhouse.ClickHouseDriver", "", "", "\"", "\""),
+    CLICKHOUSE("clickhouse", "clickhouse", "ru.yandex.clickhouse.ClickHouseDriver", "", "", "\"", "\"",
+            "uniq(%s)", "quantile(0.5)(%s)"),
 
     KYLIN("kylin", "kylin", "org.apache.kylin.jdbc.Driver", "\"", "\"", "\"", "\""),
 
-    VERTICA("vertica", "vertica", "com.vertica.jdbc.Driver", "", "", "'", "'"),
+    VERTICA("vertica", "vertica", "com.vertica.jdbc.Driver", "", "", "'", "'",
+            "APPROXIMATE_COUNT_DISTINCT(%s)", "APPROXIMATE_MEDIAN(%s)"),
 
     HANA("sap", "sap hana", "com.sap.db.jdbc.Driver", "", "", "'", "'"),
 
-    IMPALA("impala", "impala", "com.cloudera.impala.jdbc41.Driver", "", "", "'", "'"),
+    IMPALA("impala", "impala", "com.cloudera.impala.jdbc41.Driver", "", "", "'", "'",
+            "NDV(%s)", "APPX_MEDIAN(%s)"),
 
     TDENGINE("TAOS", "TAOS", "com.taosdata.jdbc.TSDBDriver", "'", "'", "\"", "\"");
 
@@ -63,8 +70,21 @@ public enum DataTypeEnum {
     private String keywordSuffix;
     private String aliasPrefix;
     private String aliasSuffix;
+    /**
+     * 近似去重计数函数，%s 为列
+     */
+    private String approxCountDistinct;
+    /**
+     * 近似中位数函数，%s 为列
+     */
+    private String approxMedian;
 
     DataTypeEnum(String feature, String desc, String driver, String keywordPrefix, String keywordSuffix, String aliasPrefix, String aliasSuffix) {
+        this(feature, desc, driver, keywordPrefix, keywordSuffix, aliasPrefix, aliasSuffix, null, null);
+    }
+
+    DataTypeEnum(String feature, String desc, String driver, String keywordPrefix, String keywordSuffix, String aliasPrefix, String aliasSuffix,
+                 String approxCountDistinct, String approxMedian) {
         this.feature = feature;
         this.desc = desc;
         this.driver = driver;
@@ -72,6 +92,8 @@ public enum DataTypeEnum {
         this.keywordSuffix = keywordSuffix;
         this.aliasPrefix = aliasPrefix;
         this.aliasSuffix = aliasSuffix;
+        this.approxCountDistinct = approxCountDistinct;
+        this.approxMedian = approxMedian;
     }
 
     public static DataTypeEnum urlOf(String jdbcUrl) throws SourceException {
@@ -111,4 +133,12 @@ public enum DataTypeEnum {
     public String getAliasSuffix() {
         return aliasSuffix;
     }
+
+    public String getApproxCountDistinct() {
+        return approxCountDistinct;
+    }
+
+    public String getApproxMedian() {
+        return approxMedian;
+    }
 }
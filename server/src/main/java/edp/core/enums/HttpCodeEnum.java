@@ -26,7 +26,8 @@ public enum HttpCodeEnum {
     UNAUTHORIZED(401, "Unauthorized"),
     FORBIDDEN(403, "Forbidden"),
     NOT_FOUND(404, "Not Found"),
-    SERVER_ERROR(500, "Internal Server Error");
+    SERVER_ERROR(500, "Internal Server Error"),
+    SERVICE_UNAVAILABLE(503, "Service Unavailable");
 
     private int code;
     private String message;
@@ -0,0 +1,53 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.enums;
+
+public enum TimeGrainEnum {
+
+    MINUTE("minute"),
+    HOUR("hour"),
+    DAY("day"),
+    WEEK("week"),
+    MONTH("month"),
+    QUARTER("quarter"),
+    YEAR("year");
+
+    private String unit;
+
+    TimeGrainEnum(String unit) {
+        this.unit = unit;
+    }
+
+    public static TimeGrainEnum grainOf(String grain) {
+        if (null == grain) {
+            return null;
+        }
+        for (TimeGrainEnum grainEnum : values()) {
+            if (grainEnum.unit.equalsIgnoreCase(grain.trim())) {
+                return grainEnum;
+            }
+        }
+        return null;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+}
@@ -34,6 +34,12 @@ public class CustomDataSource {
     private String keyword_suffix;
     private String alias_prefix;
     private String alias_suffix;
+    private Integer fetch_size;
+    private Boolean stream_auto_commit;
+    private Boolean read_only;
+    private String approx_count_distinct;
+    private String approx_median;
+    private String time_trunc;
 
 
     public void setKeyword_prefix(String keyword_prefix) {
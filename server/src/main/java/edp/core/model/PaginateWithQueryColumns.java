@@ -27,4 +27,24 @@ import java.util.Map;
 @Data
 public class PaginateWithQueryColumns extends Paginate<Map<String, Object>> {
     List<QueryColumn> columns;
+
+    /**
+     * 最后一行排序列的值，用于 keyset 分页
+     */
+    List<Object> seek;
+
+    /**
+     * 结果来自 view 抽取时为抽取完成时间
+     */
+    Long extractedAt;
+
+    /**
+     * 透视模式下的单元格矩阵，此时 resultList 为空
+     */
+    PivotTable pivot;
+
+    /**
+     * 结果指纹，客户端以 If-None-Match 回传，结果未变化时返回 304
+     */
+    String fingerprint;
 }
@@ -0,0 +1,46 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.model;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 透视表行（列）表头树的节点
+ */
+@Data
+public class PivotHeader implements Serializable {
+
+    private Object value;
+
+    /**
+     * 叶子节点或小计在矩阵中的行（列）位置，未开启小计时非叶子节点为 -1
+     */
+    private int index = -1;
+
+    /**
+     * 是否为小计，value 为 null 的顶层小计节点为总计
+     */
+    private boolean total = false;
+
+    private List<PivotHeader> children;
+}
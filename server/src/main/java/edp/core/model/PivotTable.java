@@ -0,0 +1,57 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.model;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 透视表结果
+ * <p>
+ * cells 为 rowCount 行的矩阵，每行 columnCount * metrics.size() 个值，
+ * 第 r 行第 c 列的第 m 个指标为 cells.get(r).get(c * metrics.size() + m)，没有数据的单元格为 null
+ */
+@Data
+public class PivotTable implements Serializable {
+
+    /**
+     * 行维度
+     */
+    private List<String> rows;
+
+    /**
+     * 列维度
+     */
+    private List<String> columns;
+
+    private List<String> metrics;
+
+    private List<PivotHeader> rowHeaders;
+
+    private List<PivotHeader> columnHeaders;
+
+    private int rowCount;
+
+    private int columnCount;
+
+    private List<List<Object>> cells;
+}
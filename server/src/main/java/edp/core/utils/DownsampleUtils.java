@@ -0,0 +1,99 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+/**
+ * 时序数据降采样
+ */
+public class DownsampleUtils {
+
+    private DownsampleUtils() {
+
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets 降采样，x 需有序
+     *
+     * @param x
+     * @param y
+     * @param size      有效点数
+     * @param threshold 目标点数
+     * @return 保留点的下标（升序）
+     */
+    public static int[] lttb(double[] x, double[] y, int size, int threshold) {
+        if (threshold >= size || threshold < 3) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] sampled = new int[threshold];
+        int sampledIndex = 0;
+
+        // 首尾点总是保留，中间 size - 2 个点均分到 threshold - 2 个桶
+        double every = (double) (size - 2) / (threshold - 2);
+
+        int a = 0;
+        sampled[sampledIndex++] = a;
+
+        for (int i = 0; i < threshold - 2; i++) {
+            // 下一个桶的平均点
+            int avgRangeStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgRangeEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+            int avgRangeLength = avgRangeEnd - avgRangeStart;
+
+            double avgX = 0d;
+            double avgY = 0d;
+            for (int j = avgRangeStart; j < avgRangeEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            if (avgRangeLength > 0) {
+                avgX /= avgRangeLength;
+                avgY /= avgRangeLength;
+            }
+
+            // 当前桶中与上一个选中点、下一个桶平均点构成最大三角形的点
+            int rangeStart = (int) Math.floor(i * every) + 1;
+            int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+
+            double pointAX = x[a];
+            double pointAY = y[a];
+
+            double maxArea = -1d;
+            int next = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((pointAX - avgX) * (y[j] - pointAY) - (pointAX - x[j]) * (avgY - pointAY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+
+            sampled[sampledIndex++] = next;
+            a = next;
+        }
+
+        sampled[sampledIndex] = size - 1;
+        return sampled;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+import com.alibaba.druid.util.StringUtils;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.PivotHeader;
+import edp.core.model.PivotTable;
+import edp.core.model.QueryColumn;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查询结果指纹
+ * <p>
+ * 对列、分页信息和结果内容计算 128 位哈希，客户端以 If-None-Match 回传上次的指纹，一致时不再返回结果
+ */
+public class FingerprintUtils {
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private static final String QUOTE = "\"";
+
+    private FingerprintUtils() {
+
+    }
+
+    public static String fingerprint(PaginateWithQueryColumns paginate) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(paginate.getPageNo()).putInt(paginate.getPageSize()).putLong(paginate.getTotalCount());
+        putValue(hasher, paginate.getSeek());
+
+        List<QueryColumn> columns = paginate.getColumns();
+        if (null != columns) {
+            for (QueryColumn column : columns) {
+                putValue(hasher, column.getName());
+                putValue(hasher, column.getType());
+            }
+        }
+
+        List<Map<String, Object>> resultList = paginate.getResultList();
+        if (null != resultList) {
+            hasher.putInt(resultList.size());
+            for (Map<String, Object> row : resultList) {
+                if (null == columns) {
+                    row.values().forEach(value -> putValue(hasher, value));
+                } else {
+                    for (QueryColumn column : columns) {
+                        putValue(hasher, row.get(column.getName()));
+                    }
+                }
+            }
+        }
+
+        PivotTable pivot = paginate.getPivot();
+        if (null != pivot) {
+            putValue(hasher, pivot.getRows());
+            putValue(hasher, pivot.getColumns());
+            putValue(hasher, pivot.getMetrics());
+            putHeaders(hasher, pivot.getRowHeaders());
+            putHeaders(hasher, pivot.getColumnHeaders());
+            for (List<Object> line : pivot.getCells()) {
+                line.forEach(value -> putValue(hasher, value));
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * If-None-Match 中是否包含指纹，支持逗号分隔的多个值、引号和弱校验前缀
+     *
+     * @param ifNoneMatch
+     * @param fingerprint
+     * @return
+     */
+    public static boolean matches(String ifNoneMatch, String fingerprint) {
+        if (StringUtils.isEmpty(ifNoneMatch) || StringUtils.isEmpty(fingerprint)) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String value = tag.trim();
+            if (value.startsWith(WEAK_PREFIX)) {
+                value = value.substring(WEAK_PREFIX.length());
+            }
+            if (value.length() >= 2 && value.startsWith(QUOTE) && value.endsWith(QUOTE)) {
+                value = value.substring(1, value.length() - 1);
+            }
+            if (fingerprint.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void putHeaders(Hasher hasher, List<PivotHeader> headers) {
+        if (null == headers) {
+            hasher.putByte((byte) 0);
+            return;
+        }
+        hasher.putInt(headers.size());
+        for (PivotHeader header : headers) {
+            putValue(hasher, header.getValue());
+            hasher.putInt(header.getIndex()).putBoolean(header.isTotal());
+            putHeaders(hasher, header.getChildren());
+        }
+    }
+
+    private static void putValue(Hasher hasher, Object value) {
+        if (null == value) {
+            hasher.putByte((byte) 0);
+            return;
+        }
+        // 类型与值一起参与计算，避免 1 与 "1" 相同
+        String str = value.toString();
+        hasher.putByte((byte) 1);
+        hasher.putString(value.getClass().getSimpleName(), StandardCharsets.UTF_8);
+        hasher.putInt(str.length());
+        hasher.putString(str, StandardCharsets.UTF_8);
+    }
+}
@@ -18,9 +18,15 @@
 
 package edp.core.utils;
 
+import com.alibaba.druid.pool.DruidDataSource;
 import com.alibaba.druid.sql.SQLUtils;
 import com.alibaba.druid.util.StringUtils;
 import edp.core.common.jdbc.JdbcDataSource;
+import edp.core.common.jdbc.ResultMemoryGovernor;
+import edp.core.common.jdbc.RowDecoder;
+import edp.core.common.jdbc.RowStreamHandler;
+import edp.core.common.jdbc.StreamingJdbcTemplate;
+import edp.core.common.jdbc.StreamingProfile;
 import edp.core.consts.Consts;
 import edp.core.enums.DataTypeEnum;
 import edp.core.enums.SqlTypeEnum;
@@ -45,7 +51,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
@@ -68,7 +76,12 @@ public class SqlUtils {
     @Autowired
     private JdbcDataSource jdbcDataSource;
 
+    @Autowired
+    @Getter
+    private ResultMemoryGovernor memoryGovernor;
+
     @Value("${source.result-limit:1000000}")
+    @Getter
     private int resultLimit;
 
     @Value("${source.enable-query-log:false}")
@@ -91,6 +104,12 @@ public class SqlUtils {
 
     private SourceUtils sourceUtils;
 
+    private StreamingProfile streamingProfile;
+
+    private String sourceKey;
+
+    private static final int ROW_WIDTH_SAMPLES = 100;
+
     public SqlUtils init(BaseSource source) {
         // Password decryption
         String decrypt = SourcePasswordEncryptUtils.decrypt(source.getPassword());
@@ -105,6 +124,7 @@ public class SqlUtils {
                 .withJdbcDataSource(this.jdbcDataSource)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
+                .withMemoryGovernor(this.memoryGovernor)
                 .build();
     }
 
@@ -122,6 +142,7 @@ public class SqlUtils {
                 .withJdbcDataSource(this.jdbcDataSource)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
+                .withMemoryGovernor(this.memoryGovernor)
                 .build();
     }
 
@@ -165,7 +186,19 @@ public class SqlUtils {
 
         long before = System.currentTimeMillis();
 
-        List<Map<String, Object>> list = jdbcTemplate.queryForList(sql);
+        ColumnMapRowMapper rowMapper = new ColumnMapRowMapper();
+        List<Map<String, Object>> list = jdbcTemplate.query(sql, rs -> {
+            List<Map<String, Object>> rows = new ArrayList<>();
+            try (ResultMemoryGovernor.Lease lease = memoryGovernor.newLease()) {
+                int rowNum = 0;
+                while (rs.next()) {
+                    Map<String, Object> row = rowMapper.mapRow(rs, rowNum++);
+                    lease.acquire(RowDecoder.estimateRowBytes(row));
+                    rows.add(row);
+                }
+            }
+            return rows;
+        });
 
         if (isQueryLogEnable) {
             String md5 = MD5Util.getMD5(sql, true, 16);
@@ -175,6 +208,36 @@ public class SqlUtils {
         return list;
     }
 
+    /**
+     * 流式读取全量结果，不在内存中物化结果集
+     *
+     * @param sql
+     * @param limit
+     * @param excludeColumns
+     * @param handler
+     * @return
+     * @throws Exception
+     */
+    public <T> T query4Stream(String sql, int limit, Set<String> excludeColumns, RowStreamHandler<T> handler) throws Exception {
+        sql = filterAnnotate(sql);
+        checkSensitiveSql(sql);
+        JdbcTemplate jdbcTemplate = streamingJdbcTemplate();
+        jdbcTemplate.setMaxRows(limit > 0 ? Math.min(limit, resultLimit) : resultLimit);
+
+        long before = System.currentTimeMillis();
+
+        Set<String> queryFromsAndJoins = getQueryFromsAndJoins(sql);
+        T result = jdbcTemplate.query(sql, (ResultSetExtractor<T>) rs ->
+                handler.handle(RowDecoder.of(rs.getMetaData(), queryFromsAndJoins, excludeColumns), rs));
+
+        if (isQueryLogEnable) {
+            String md5 = MD5Util.getMD5(sql + limit, true, 16);
+            sqlLogger.info("{} stream query for {} ms, sql:{}", md5, System.currentTimeMillis() - before, formatSql(sql));
+        }
+
+        return result;
+    }
+
     public PaginateWithQueryColumns query4Paginate(String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns) throws Exception {
         PaginateWithQueryColumns paginateWithQueryColumns = new PaginateWithQueryColumns();
         sql = filterAnnotate(sql);
@@ -182,19 +245,15 @@ public class SqlUtils {
 
         long before = System.currentTimeMillis();
 
-        JdbcTemplate jdbcTemplate = jdbcTemplate();
+        boolean fullResult = pageNo < 1 && pageSize < 1;
+        JdbcTemplate jdbcTemplate = fullResult ? streamingJdbcTemplate() : jdbcTemplate();
         jdbcTemplate.setMaxRows(resultLimit);
-        if (pageNo < 1 && pageSize < 1) {
+        if (fullResult) {
 
             if (limit > 0) {
                 jdbcTemplate.setMaxRows(Math.min(limit, resultLimit));
             }
 
-            // special for mysql
-            if (getDataTypeEnum() == DataTypeEnum.MYSQL) {
-                jdbcTemplate.setFetchSize(Integer.MIN_VALUE);
-            }
-
             getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
             paginateWithQueryColumns.setPageNo(1);
             int size = paginateWithQueryColumns.getResultList().size();
@@ -245,6 +304,155 @@ public class SqlUtils {
         return paginateWithQueryColumns;
     }
 
+    /**
+     * 流式读取全量结果并按 LTTB 降采样，只保留选中的行
+     *
+     * @param sql
+     * @param limit
+     * @param excludeColumns
+     * @param xColumn
+     * @param yColumn
+     * @param threshold
+     * @return
+     * @throws Exception
+     */
+    public PaginateWithQueryColumns query4Downsample(String sql, int limit, Set<String> excludeColumns, String xColumn, String yColumn, int threshold) throws Exception {
+        PaginateWithQueryColumns paginateWithQueryColumns = new PaginateWithQueryColumns();
+        query4Stream(sql, limit, excludeColumns, (decoder, rs) -> {
+            int xIndex = -1;
+            int yIndex = -1;
+            for (int i = 0; i < decoder.size(); i++) {
+                if (decoder.getLabel(i).equals(xColumn)) {
+                    xIndex = i;
+                }
+                if (decoder.getLabel(i).equals(yColumn)) {
+                    yIndex = i;
+                }
+            }
+            if (xIndex < 0 || yIndex < 0) {
+                throw new ServerException("Downsample column not found: " + (xIndex < 0 ? xColumn : yColumn));
+            }
+
+            paginateWithQueryColumns.setColumns(decoder.getQueryColumns());
+
+            List<Object[]> rows = new ArrayList<>();
+            double[] xs = new double[1024];
+            double[] ys = new double[1024];
+            int size = 0;
+            try (ResultMemoryGovernor.Lease lease = memoryGovernor.newLease()) {
+                while (rs.next()) {
+                    Object[] row = new Object[decoder.size()];
+                    long bytes = 16L + 8L * row.length;
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = decoder.getValue(rs, i);
+                        bytes += RowDecoder.estimateBytes(row[i]);
+                    }
+                    lease.acquire(bytes);
+
+                    if (size == xs.length) {
+                        xs = Arrays.copyOf(xs, size * 2);
+                        ys = Arrays.copyOf(ys, size * 2);
+                    }
+                    xs[size] = toAxisValue(row[xIndex], size);
+                    double y = toAxisValue(row[yIndex], Double.NaN);
+                    ys[size] = Double.isNaN(y) ? 0d : y;
+                    rows.add(row);
+                    size++;
+                }
+
+                int[] sampled = DownsampleUtils.lttb(xs, ys, size, threshold);
+                List<Map<String, Object>> resultList = new ArrayList<>(sampled.length);
+                int mapCapacity = (int) (decoder.size() / 0.75f) + 1;
+                for (int index : sampled) {
+                    Object[] row = rows.get(index);
+                    Map<String, Object> map = new LinkedHashMap<>(mapCapacity);
+                    for (int i = 0; i < row.length; i++) {
+                        map.put(decoder.getLabel(i), row[i]);
+                    }
+                    resultList.add(map);
+                }
+                paginateWithQueryColumns.setResultList(resultList);
+            }
+            return paginateWithQueryColumns;
+        });
+
+        int size = paginateWithQueryColumns.getResultList().size();
+        paginateWithQueryColumns.setPageNo(1);
+        paginateWithQueryColumns.setPageSize(size);
+        paginateWithQueryColumns.setTotalCount(size);
+        return paginateWithQueryColumns;
+    }
+
+    /**
+     * 数值和日期按数值取值，其余（如字符串日期）按行号取值，行需按 x 排序
+     */
+    private static double toAxisValue(Object value, double defaultValue) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).getTime();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * keyset 分页，sql 中已包含 seek 条件，只读取一页且不再查询总数
+     *
+     * @param sql
+     * @param pageNo
+     * @param pageSize
+     * @param totalCount
+     * @param limit
+     * @param excludeColumns
+     * @return
+     * @throws Exception
+     */
+    public PaginateWithQueryColumns query4Seek(String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns) throws Exception {
+        PaginateWithQueryColumns paginateWithQueryColumns = new PaginateWithQueryColumns();
+        sql = filterAnnotate(sql);
+        checkSensitiveSql(sql);
+
+        long before = System.currentTimeMillis();
+
+        pageNo = Math.max(pageNo, 1);
+        int rows = pageSize;
+        if (limit > 0) {
+            rows = Math.max(0, Math.min(pageSize, Math.min(limit, resultLimit) - (pageNo - 1) * pageSize));
+            totalCount = totalCount > 0 ? Math.min(Math.min(limit, resultLimit), totalCount) : totalCount;
+        }
+
+        paginateWithQueryColumns.setPageNo(pageNo);
+        paginateWithQueryColumns.setPageSize(pageSize);
+        paginateWithQueryColumns.setTotalCount(totalCount);
+
+        if (rows < 1) {
+            return paginateWithQueryColumns;
+        }
+
+        JdbcTemplate jdbcTemplate = jdbcTemplate();
+        jdbcTemplate.setMaxRows(rows);
+        if (this.dataTypeEnum == MYSQL) {
+            sql = sql + " LIMIT " + rows;
+        }
+        getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
+
+        if (isQueryLogEnable) {
+            String md5 = MD5Util.getMD5(sql + pageNo + pageSize + limit, true, 16);
+            sqlLogger.info("{} seek query for {} ms, page size:{}, sql:{}",
+                    md5, System.currentTimeMillis() - before, pageSize, formatSql(sql));
+        }
+
+        return paginateWithQueryColumns;
+    }
+
     private void getResultForPaginate(String sql, PaginateWithQueryColumns paginateWithQueryColumns, JdbcTemplate jdbcTemplate, Set<String> excludeColumns, int startRow) {
         Set<String> queryFromsAndJoins = getQueryFromsAndJoins(sql);
         jdbcTemplate.query(sql, rs -> {
@@ -252,56 +460,42 @@ public class SqlUtils {
                 return paginateWithQueryColumns;
             }
 
-            ResultSetMetaData metaData = rs.getMetaData();
-            List<QueryColumn> queryColumns = new ArrayList<>();
-            for (int i = 1; i <= metaData.getColumnCount(); i++) {
-                String key = getColumnLabel(queryFromsAndJoins, metaData.getColumnLabel(i));
-                if (!CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(key)) {
-                    continue;
-                }
-                queryColumns.add(new QueryColumn(key, metaData.getColumnTypeName(i)));
-            }
-            paginateWithQueryColumns.setColumns(queryColumns);
+            RowDecoder decoder = RowDecoder.of(rs.getMetaData(), queryFromsAndJoins, excludeColumns);
+            paginateWithQueryColumns.setColumns(decoder.getQueryColumns());
 
             List<Map<String, Object>> resultList = new ArrayList<>();
 
-            try {
-                if (startRow > 0) {
-                    rs.absolute(startRow);
-                }
-                while (rs.next()) {
-                    resultList.add(getResultObjectMap(excludeColumns, rs, metaData, queryFromsAndJoins));
-                }
-            } catch (Throwable e) {
-                int currentRow = 0;
-                while (rs.next()) {
-                    if (currentRow >= startRow) {
-                        resultList.add(getResultObjectMap(excludeColumns, rs, metaData, queryFromsAndJoins));
+            try (ResultMemoryGovernor.Lease lease = memoryGovernor.newLease()) {
+                try {
+                    if (startRow > 0) {
+                        rs.absolute(startRow);
+                    }
+                    while (rs.next()) {
+                        addRow(resultList, decoder.decode(rs), lease);
+                    }
+                } catch (ServerException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    int currentRow = 0;
+                    while (rs.next()) {
+                        if (currentRow >= startRow) {
+                            addRow(resultList, decoder.decode(rs), lease);
+                        }
+                        currentRow++;
                     }
-                    currentRow++;
                 }
             }
 
             paginateWithQueryColumns.setResultList(resultList);
+            observeRowWidth(resultList);
 
             return paginateWithQueryColumns;
         });
     }
 
-    private Map<String, Object> getResultObjectMap(Set<String> excludeColumns, ResultSet rs, ResultSetMetaData metaData, Set<String> queryFromsAndJoins) throws SQLException {
-        Map<String, Object> map = new LinkedHashMap<>();
-
-        for (int i = 1; i <= metaData.getColumnCount(); i++) {
-            String key = metaData.getColumnLabel(i);
-            String label = getColumnLabel(queryFromsAndJoins, key);
-
-            if (!CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(label)) {
-                continue;
-            }
-            Object value = rs.getObject(key);
-            map.put(label, value instanceof byte[] ? new String((byte[]) value) : value);
-        }
-        return map;
+    private static void addRow(List<Map<String, Object>> resultList, Map<String, Object> row, ResultMemoryGovernor.Lease lease) {
+        lease.acquire(RowDecoder.estimateRowBytes(row));
+        resultList.add(row);
     }
 
     public static String getCountSql(String sql) {
@@ -387,14 +581,10 @@ public class SqlUtils {
     public static String getColumnLabel(Set<String> columnPrefixs, String columnLable) {
         if (!CollectionUtils.isEmpty(columnPrefixs)) {
             for (String prefix : columnPrefixs) {
-                if (columnLable.startsWith(prefix)) {
-                    return columnLable.replaceFirst(prefix, EMPTY);
-                }
-                if (columnLable.startsWith(prefix.toLowerCase())) {
-                    return columnLable.replaceFirst(prefix.toLowerCase(), EMPTY);
-                }
-                if (columnLable.startsWith(prefix.toUpperCase())) {
-                    return columnLable.replaceFirst(prefix.toUpperCase(), EMPTY);
+                if (columnLable.startsWith(prefix)
+                        || columnLable.startsWith(prefix.toLowerCase())
+                        || columnLable.startsWith(prefix.toUpperCase())) {
+                    return columnLable.substring(prefix.length());
                 }
             }
         }
@@ -666,6 +856,20 @@ public class SqlUtils {
     }
 
     public JdbcTemplate jdbcTemplate() throws SourceException {
+        return jdbcTemplate(false);
+    }
+
+    /**
+     * 用于全量读取（导出、不分页查询）的 JdbcTemplate，按数据源的 StreamingProfile 流式读取
+     *
+     * @return
+     * @throws SourceException
+     */
+    public JdbcTemplate streamingJdbcTemplate() throws SourceException {
+        return jdbcTemplate(true);
+    }
+
+    private JdbcTemplate jdbcTemplate(boolean streaming) throws SourceException {
         Connection connection = null;
         try {
             connection = sourceUtils.getConnection(jdbcSourceInfo);
@@ -673,12 +877,49 @@ public class SqlUtils {
             SourceUtils.releaseConnection(connection);
         }
         DataSource dataSource = sourceUtils.getDataSource(jdbcSourceInfo);
-        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        StreamingProfile profile = getStreamingProfile();
+        JdbcTemplate jdbcTemplate = streaming ? new StreamingJdbcTemplate(dataSource, profile) : new JdbcTemplate(dataSource);
         jdbcTemplate.setDatabaseProductName(jdbcSourceInfo.getDatabase());
-        jdbcTemplate.setFetchSize(500);
+        jdbcTemplate.setFetchSize(streaming ? profile.getStreamFetchSize(getSourceKey()) : profile.getFetchSize(getSourceKey()));
         return jdbcTemplate;
     }
 
+    public StreamingProfile getStreamingProfile() {
+        if (null == streamingProfile) {
+            streamingProfile = StreamingProfile.of(dataTypeEnum,
+                    CustomDataSourceUtils.getInstance(jdbcSourceInfo.getJdbcUrl(), jdbcSourceInfo.getDbVersion()));
+        }
+        return streamingProfile;
+    }
+
+    public String getSourceKey() {
+        if (null == sourceKey) {
+            sourceKey = SourceUtils.getKey(jdbcSourceInfo.getJdbcUrl(),
+                    jdbcSourceInfo.getUsername(),
+                    jdbcSourceInfo.getPassword(),
+                    jdbcSourceInfo.getDbVersion(),
+                    jdbcSourceInfo.isExt());
+        }
+        return sourceKey;
+    }
+
+    /**
+     * 采样前若干行估算平均行宽，用于调整后续查询的 fetch size
+     *
+     * @param resultList
+     */
+    private void observeRowWidth(List<Map<String, Object>> resultList) {
+        if (CollectionUtils.isEmpty(resultList)) {
+            return;
+        }
+        int samples = Math.min(resultList.size(), ROW_WIDTH_SAMPLES);
+        long bytes = 0L;
+        for (int i = 0; i < samples; i++) {
+            bytes += RowDecoder.estimateRowBytes(resultList.get(i));
+        }
+        StreamingProfile.observeRowWidth(getSourceKey(), bytes / samples);
+    }
+
     public boolean testConnection() throws SourceException {
         try (Connection connection = sourceUtils.getConnection(jdbcSourceInfo);) {
             if (null != connection) {
@@ -691,6 +932,44 @@ public class SqlUtils {
         }
     }
 
+    /**
+     * 预热连接池：初始化数据源并建立 min-idle 个连接后归还
+     *
+     * @throws SourceException
+     */
+    public void warmUp() throws SourceException {
+        int connections = Math.max(1, Math.min(jdbcDataSource.getMinIdle(), jdbcDataSource.getMaxActive()));
+        List<Connection> borrowed = new ArrayList<>(connections);
+        try {
+            DataSource dataSource = sourceUtils.getDataSource(jdbcSourceInfo);
+            for (int i = 0; i < connections; i++) {
+                borrowed.add(dataSource.getConnection());
+            }
+        } catch (SQLException e) {
+            log.error(e.toString(), e);
+            throw new SourceException(e.getMessage() + ", jdbcUrl=" + this.jdbcSourceInfo.getJdbcUrl());
+        } finally {
+            borrowed.forEach(SourceUtils::releaseConnection);
+        }
+    }
+
+    /**
+     * 连接池活跃连接不超过一半时认为空闲，用于后台低优先级查询的准入
+     *
+     * @return
+     */
+    public boolean isPoolIdle() {
+        if (!jdbcDataSource.isDataSourceExist(jdbcSourceInfo)) {
+            return false;
+        }
+        try {
+            DruidDataSource dataSource = jdbcDataSource.getDataSource(jdbcSourceInfo);
+            return dataSource.getActiveCount() < Math.max(1, dataSource.getMaxActive() / 2);
+        } catch (SourceException e) {
+            return false;
+        }
+    }
+
     public void executeBatch(String sql, Set<QueryColumn> headers, List<Map<String, Object>> datas) throws ServerException {
 
         if (StringUtils.isEmpty(sql)) {
@@ -852,6 +1131,38 @@ public class SqlUtils {
         return StringUtils.isEmpty(keywordSuffix) ? EMPTY : keywordSuffix;
     }
 
+    /**
+     * 数据源的近似去重计数函数（%s 为列），不支持时返回 null
+     *
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public static String getApproxCountDistinct(String jdbcUrl, String dbVersion) {
+        CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
+        if (null != customDataSource && !StringUtils.isEmpty(customDataSource.getApprox_count_distinct())) {
+            return customDataSource.getApprox_count_distinct();
+        }
+        DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
+        return null == dataTypeEnum ? null : dataTypeEnum.getApproxCountDistinct();
+    }
+
+    /**
+     * 数据源的近似中位数函数（%s 为列），不支持时返回 null
+     *
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public static String getApproxMedian(String jdbcUrl, String dbVersion) {
+        CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
+        if (null != customDataSource && !StringUtils.isEmpty(customDataSource.getApprox_median())) {
+            return customDataSource.getApprox_median();
+        }
+        DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
+        return null == dataTypeEnum ? null : dataTypeEnum.getApproxMedian();
+    }
+
     public static String getAliasPrefix(String jdbcUrl, String dbVersion) {
         String aliasPrefix = "";
         CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
@@ -880,6 +1191,23 @@ public class SqlUtils {
         return StringUtils.isEmpty(aliasSuffix) ? EMPTY : aliasSuffix;
     }
 
+    /**
+     * 时间字面量，不支持字符串与时间隐式比较的数据源使用 TIMESTAMP 字面量
+     *
+     * @param date
+     * @param jdbcUrl
+     * @return
+     */
+    public static String getTimeLiteral(java.util.Date date, String jdbcUrl) {
+        String pattern = date.getTime() % 1000L == 0L ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd HH:mm:ss.SSS";
+        String time = new java.text.SimpleDateFormat(pattern).format(date);
+        DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
+        if (dataTypeEnum == DataTypeEnum.ORACLE || dataTypeEnum == DataTypeEnum.PRESTO) {
+            return "TIMESTAMP '" + time + "'";
+        }
+        return "'" + time + "'";
+    }
+
 
     /**
      * 过滤sql中的注释
@@ -959,6 +1287,7 @@ public class SqlUtils {
         private List<Dict> properties;
         private String dbVersion;
         private boolean isExt;
+        private ResultMemoryGovernor memoryGovernor;
 
         private SqlUtilsBuilder() {
 
@@ -1013,6 +1342,11 @@ public class SqlUtils {
             return this;
         }
 
+        SqlUtilsBuilder withMemoryGovernor(ResultMemoryGovernor memoryGovernor) {
+            this.memoryGovernor = memoryGovernor;
+            return this;
+        }
+
         public SqlUtils build() throws ServerException {
             String datasource = SourceUtils.isSupportedDatasource(jdbcUrl);
             SourceUtils.checkDriver(datasource, jdbcUrl, dbVersion, isExt);
@@ -1033,6 +1367,7 @@ public class SqlUtils {
             sqlUtils.jdbcDataSource = this.jdbcDataSource;
             sqlUtils.resultLimit = this.resultLimit;
             sqlUtils.isQueryLogEnable = this.isQueryLogEnable;
+            sqlUtils.memoryGovernor = this.memoryGovernor;
             sqlUtils.sourceUtils = new SourceUtils(this.jdbcDataSource);
 
             return sqlUtils;
@@ -0,0 +1,228 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+import com.alibaba.druid.util.StringUtils;
+import edp.core.enums.DataTypeEnum;
+import edp.core.enums.TimeGrainEnum;
+import edp.core.exception.ServerException;
+import edp.core.model.CustomDataSource;
+
+import java.util.regex.Pattern;
+
+/**
+ * 按数据源方言生成时间截断表达式
+ */
+public class TimeGrainUtils {
+
+    private static final String COLUMN = "{column}";
+
+    private static final String UNIT = "{unit}";
+
+    private static final Pattern TIMEZONE_PATTERN = Pattern.compile("^[A-Za-z0-9_/+\\-:]+$");
+
+    private TimeGrainUtils() {
+
+    }
+
+    /**
+     * 时间截断表达式
+     *
+     * @param jdbcUrl
+     * @param dbVersion
+     * @param field       已加关键字前后缀的列
+     * @param grain
+     * @param sundayStart 周从周日开始，默认周一
+     * @param timezone    转换到的时区，为空时不转换
+     * @return
+     * @throws ServerException
+     */
+    public static String truncate(String jdbcUrl, String dbVersion, String field, TimeGrainEnum grain,
+                                  boolean sundayStart, String timezone) throws ServerException {
+
+        if (!StringUtils.isEmpty(timezone) && !TIMEZONE_PATTERN.matcher(timezone).matches()) {
+            throw new ServerException("Invalid timezone: " + timezone);
+        }
+
+        CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
+        if (null != customDataSource && !StringUtils.isEmpty(customDataSource.getTime_trunc())) {
+            // 自定义模板只有 {unit} 与 {column}，无法表达周起始日与时区
+            if ((grain == TimeGrainEnum.WEEK && sundayStart) || !StringUtils.isEmpty(timezone)) {
+                throw new ServerException("Week start and timezone are not supported by this source");
+            }
+            return customDataSource.getTime_trunc().replace(UNIT, grain.getUnit()).replace(COLUMN, field);
+        }
+
+        DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
+        String expression = null;
+        if (null != dataTypeEnum) {
+            switch (dataTypeEnum) {
+                case MYSQL:
+                    expression = mysql(zone(field, "CONVERT_TZ(" + field + ", @@session.time_zone, '%s')", timezone), grain, sundayStart);
+                    break;
+                case PRESTO:
+                    expression = dateTrunc(zone(field, field + " AT TIME ZONE '%s'", timezone), grain, sundayStart,
+                            "date_add('day', %d, %s)");
+                    break;
+                case VERTICA:
+                    expression = dateTrunc(zone(field, field + " AT TIME ZONE '%s'", timezone), grain, sundayStart,
+                            "TIMESTAMPADD(day, %d, %s)");
+                    break;
+                case IMPALA:
+                    // impala 的 date_trunc 不支持 quarter
+                    String impalaField = zone(field, "FROM_UTC_TIMESTAMP(" + field + ", '%s')", timezone);
+                    expression = grain == TimeGrainEnum.QUARTER ? "TRUNC(" + impalaField + ", 'Q')"
+                            : dateTrunc(impalaField, grain, sundayStart, "DATE_ADD(%2$s, %1$d)");
+                    break;
+                case MOONBOX:
+                    expression = dateTrunc(zone(field, "from_utc_timestamp(" + field + ", '%s')", timezone), grain, sundayStart,
+                            "date_add(%2$s, %1$d)");
+                    break;
+                case CLICKHOUSE:
+                    expression = clickhouse(zone(field, "toTimeZone(" + field + ", '%s')", timezone), grain, sundayStart);
+                    break;
+                case ORACLE:
+                    checkNoTimezone(timezone);
+                    expression = oracle(field, grain, sundayStart);
+                    break;
+                case SQLSERVER:
+                    checkNoTimezone(timezone);
+                    expression = sqlserver(field, grain, sundayStart);
+                    break;
+                case KYLIN:
+                    checkNoTimezone(timezone);
+                    expression = grain == TimeGrainEnum.WEEK && !sundayStart ? null
+                            : "FLOOR(" + field + " TO " + grain.name() + ")";
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (null == expression) {
+            throw new ServerException("Time grain " + grain.getUnit() + " is not supported by this source");
+        }
+        return expression;
+    }
+
+    /**
+     * 列的时区无法从表达式推断（如 oracle 的 DATE 没有时区），不做转换，避免按服务端时区分桶却当作指定时区返回
+     */
+    private static void checkNoTimezone(String timezone) throws ServerException {
+        if (!StringUtils.isEmpty(timezone)) {
+            throw new ServerException("Timezone is not supported by this source");
+        }
+    }
+
+    private static String zone(String field, String format, String timezone) {
+        return StringUtils.isEmpty(timezone) ? field : String.format(format, timezone);
+    }
+
+    /**
+     * date_trunc 的周从周一开始，周日开始时先加一天截断再减一天
+     */
+    private static String dateTrunc(String field, TimeGrainEnum grain, boolean sundayStart, String addDaysFormat) {
+        if (grain == TimeGrainEnum.WEEK && sundayStart) {
+            String shifted = String.format(addDaysFormat, 1, field);
+            return String.format(addDaysFormat, -1, "date_trunc('week', " + shifted + ")");
+        }
+        return "date_trunc('" + grain.getUnit() + "', " + field + ")";
+    }
+
+    /**
+     * DATE_FORMAT 返回字符串，统一转换为 DATETIME / DATE，与 DATE() 的结果类型一致
+     */
+    private static String mysql(String field, TimeGrainEnum grain, boolean sundayStart) {
+        switch (grain) {
+            case MINUTE:
+                return "CAST(DATE_FORMAT(" + field + ", '%Y-%m-%d %H:%i:00') AS DATETIME)";
+            case HOUR:
+                return "CAST(DATE_FORMAT(" + field + ", '%Y-%m-%d %H:00:00') AS DATETIME)";
+            case DAY:
+                return "DATE(" + field + ")";
+            case WEEK:
+                return sundayStart ? "DATE_SUB(DATE(" + field + "), INTERVAL DAYOFWEEK(" + field + ") - 1 DAY)"
+                        : "DATE_SUB(DATE(" + field + "), INTERVAL WEEKDAY(" + field + ") DAY)";
+            case MONTH:
+                return "CAST(DATE_FORMAT(" + field + ", '%Y-%m-01') AS DATE)";
+            case QUARTER:
+                return "(MAKEDATE(YEAR(" + field + "), 1) + INTERVAL QUARTER(" + field + ") - 1 QUARTER)";
+            default:
+                return "CAST(DATE_FORMAT(" + field + ", '%Y-01-01') AS DATE)";
+        }
+    }
+
+    private static String clickhouse(String field, TimeGrainEnum grain, boolean sundayStart) {
+        switch (grain) {
+            case MINUTE:
+                return "toStartOfMinute(" + field + ")";
+            case HOUR:
+                return "toStartOfHour(" + field + ")";
+            case DAY:
+                return "toStartOfDay(" + field + ")";
+            case WEEK:
+                return "toStartOfWeek(" + field + ", " + (sundayStart ? 0 : 1) + ")";
+            case MONTH:
+                return "toStartOfMonth(" + field + ")";
+            case QUARTER:
+                return "toStartOfQuarter(" + field + ")";
+            default:
+                return "toStartOfYear(" + field + ")";
+        }
+    }
+
+    private static String oracle(String field, TimeGrainEnum grain, boolean sundayStart) {
+        switch (grain) {
+            case MINUTE:
+                return "TRUNC(" + field + ", 'MI')";
+            case HOUR:
+                return "TRUNC(" + field + ", 'HH')";
+            case DAY:
+                return "TRUNC(" + field + ", 'DD')";
+            case WEEK:
+                return sundayStart ? "(TRUNC(" + field + " + 1, 'IW') - 1)" : "TRUNC(" + field + ", 'IW')";
+            case MONTH:
+                return "TRUNC(" + field + ", 'MM')";
+            case QUARTER:
+                return "TRUNC(" + field + ", 'Q')";
+            default:
+                return "TRUNC(" + field + ", 'YYYY')";
+        }
+    }
+
+    /**
+     * 以 1900-01-01（周一）为基准按单位取整，周日开始的周以 1899-12-31 为基准
+     */
+    private static String sqlserver(String field, TimeGrainEnum grain, boolean sundayStart) {
+        switch (grain) {
+            case MINUTE:
+            case HOUR:
+            case DAY:
+            case MONTH:
+            case QUARTER:
+            case YEAR:
+                String unit = grain.name();
+                return "DATEADD(" + unit + ", DATEDIFF(" + unit + ", 0, " + field + "), 0)";
+            default:
+                int base = sundayStart ? -1 : 0;
+                return "DATEADD(DAY, (DATEDIFF(DAY, " + base + ", " + field + ") / 7) * 7, " + base + ")";
+        }
+    }
+}
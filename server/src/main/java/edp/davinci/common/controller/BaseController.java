@@ -19,20 +19,110 @@
 
 package edp.davinci.common.controller;
 
+import com.alibaba.druid.util.StringUtils;
+import edp.core.common.jdbc.ArrowResultWriter;
+import edp.core.model.Paginate;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.utils.FingerprintUtils;
 import edp.core.utils.TokenUtils;
+import edp.davinci.core.common.Constants;
+import edp.davinci.core.common.ResultMap;
+import edp.davinci.core.config.ArrowHttpMessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 @Component
 public class BaseController {
 
     @Autowired
     public TokenUtils tokenUtils;
 
+    @Value("${source.fingerprint.enable:true}")
+    private boolean fingerprintEnable;
+
     public boolean invalidId(Long value) {
         if (null == value || value.longValue() < 1L) {
             return true;
         }
         return false;
     }
+
+    /**
+     * 返回查询结果，响应头带上结果指纹（ETag）；请求头 If-None-Match 与指纹一致时返回 304（不含结果）。
+     * 指纹随缓存结果一起保存，未缓存的结果只在请求携带 If-None-Match 时才计算；
+     * refreshToken 时在响应头中返回刷新后的 token
+     *
+     * @param request
+     * @param paginate
+     * @param refreshToken
+     * @return
+     */
+    public ResponseEntity paginateResponse(HttpServletRequest request, Paginate<?> paginate, boolean refreshToken) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        String fingerprint = null;
+        if (paginate instanceof PaginateWithQueryColumns) {
+            PaginateWithQueryColumns columnsPaginate = (PaginateWithQueryColumns) paginate;
+            if (fingerprintEnable && null == columnsPaginate.getFingerprint() && !StringUtils.isEmpty(ifNoneMatch)) {
+                columnsPaginate.setFingerprint(FingerprintUtils.fingerprint(columnsPaginate));
+            }
+            fingerprint = columnsPaginate.getFingerprint();
+        }
+
+        if (FingerprintUtils.matches(ifNoneMatch, fingerprint)) {
+            ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(fingerprint);
+            String token = request.getHeader(Constants.TOKEN_HEADER_STRING);
+            if (refreshToken && !StringUtils.isEmpty(token)) {
+                builder.header(Constants.TOKEN_HEADER_STRING, tokenUtils.refreshToken(token));
+            }
+            return builder.build();
+        }
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (!StringUtils.isEmpty(fingerprint)) {
+            builder.eTag(fingerprint);
+        }
+        ResultMap resultMap = refreshToken ? new ResultMap(tokenUtils).successAndRefreshToken(request) : new ResultMap().success();
+        return builder.body(resultMap.payload(paginate));
+    }
+
+    /**
+     * 请求是否要求 Arrow 格式（参数 format=arrow 或 Accept 为 Arrow stream）
+     *
+     * @param request
+     * @return
+     */
+    public boolean isArrowRequest(HttpServletRequest request) {
+        if (ArrowHttpMessageConverter.FORMAT.equals(request.getParameter("format"))) {
+            return true;
+        }
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        return !StringUtils.isEmpty(accept) && accept.contains(ArrowHttpMessageConverter.MEDIA_TYPE_VALUE);
+    }
+
+    /**
+     * 直接写出 Arrow stream 的输出，打开时才设置响应头，refreshToken 时在响应头中返回刷新后的 token；
+     * 打开前的错误仍按普通错误响应返回
+     *
+     * @param request
+     * @param response
+     * @param refreshToken
+     * @return
+     */
+    public ArrowResultWriter.Output arrowOutput(HttpServletRequest request, HttpServletResponse response, boolean refreshToken) {
+        return () -> {
+            response.setContentType(ArrowHttpMessageConverter.MEDIA_TYPE_VALUE);
+            String token = request.getHeader(Constants.TOKEN_HEADER_STRING);
+            if (refreshToken && !StringUtils.isEmpty(token)) {
+                response.setHeader(Constants.TOKEN_HEADER_STRING, tokenUtils.refreshToken(token));
+            }
+            return response.getOutputStream();
+        };
+    }
 }
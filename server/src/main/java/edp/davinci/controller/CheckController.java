@@ -19,11 +19,18 @@
 
 package edp.davinci.controller;
 
+import com.alibaba.druid.util.StringUtils;
 import edp.core.annotation.AuthIgnore;
+import edp.core.annotation.CurrentUser;
+import edp.core.common.MetricsProvider;
+import edp.core.consts.Consts;
 import edp.core.enums.HttpCodeEnum;
+import edp.davinci.common.controller.BaseController;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ResultMap;
 import edp.davinci.core.enums.CheckEntityEnum;
+import edp.davinci.model.User;
+import edp.davinci.runner.SourceWarmUpRunner;
 import edp.davinci.service.CheckService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -31,25 +38,37 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Api(value = "/check", tags = "check", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
 @ApiResponses(@ApiResponse(code = 404, message = "sources not found"))
 @Slf4j
 @RestController
 @RequestMapping(value = Constants.BASE_API_PATH + "/check", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
-public class CheckController {
+public class CheckController extends BaseController {
 
     @Autowired
     private CheckService checkService;
 
+    @Autowired
+    private List<MetricsProvider> metricsProviders;
+
+    @Value("${source.metrics.admins:}")
+    private String metricsAdmins;
+
     /**
      * 检查用户是否存在
      *
@@ -254,4 +273,54 @@ public class CheckController {
         }
     }
 
+
+    /**
+     * 检查服务是否就绪（数据源预热完成）
+     *
+     * @return
+     */
+    @ApiOperation(value = "check server readiness")
+    @AuthIgnore
+    @GetMapping("/ready")
+    public ResponseEntity checkReady() {
+        if (SourceWarmUpRunner.isReady()) {
+            return ResponseEntity.ok(new ResultMap().success());
+        }
+        ResultMap resultMap = new ResultMap().fail(HttpCodeEnum.SERVICE_UNAVAILABLE.getCode()).message("Source warm up in progress");
+        return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+    }
+
+    /**
+     * 运行指标（结果内存、预取、本地聚合、语义缓存、时间分桶、去重值字典、view 关联、分享推送），
+     * 只允许 source.metrics.admins 中的管理员查看
+     *
+     * @param name    指标名，为空时返回全部
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get server metrics")
+    @GetMapping("/metrics")
+    public ResponseEntity getMetrics(@RequestParam(required = false) String name,
+                                     @ApiIgnore @CurrentUser User user,
+                                     HttpServletRequest request) {
+        if (!isMetricsAdmin(user)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request, HttpCodeEnum.FORBIDDEN).message("You have not permission to view metrics");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (MetricsProvider provider : metricsProviders) {
+            if (StringUtils.isEmpty(name) || name.equals(provider.getMetricsName())) {
+                metrics.put(provider.getMetricsName(), provider.getMetrics());
+            }
+        }
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(metrics));
+    }
+
+    private boolean isMetricsAdmin(User user) {
+        if (null == user || null == user.getAdmin() || !user.getAdmin() || StringUtils.isEmpty(metricsAdmins)) {
+            return false;
+        }
+        return Arrays.stream(metricsAdmins.split(Consts.COMMA)).map(String::trim).anyMatch(user.getUsername()::equals);
+    }
 }
@@ -25,6 +25,8 @@ import edp.core.model.Paginate;
 import edp.davinci.common.controller.BaseController;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ResultMap;
+import edp.davinci.core.config.ArrowHttpMessageConverter;
+import edp.davinci.core.config.RowArrayJsonHttpMessageConverter;
 import edp.davinci.dto.shareDto.ShareDashboard;
 import edp.davinci.dto.shareDto.ShareDisplay;
 import edp.davinci.dto.shareDto.ShareWidget;
@@ -49,6 +51,7 @@ import org.springframework.web.bind.annotation.*;
 import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import java.sql.SQLException;
 import java.util.List;
@@ -193,23 +196,51 @@ public class ShareController extends BaseController {
      * @param executeParam
      * @param user
      * @param request
+     * @param response
      * @return
      */
     @ApiOperation(value = "get share data")
     @AuthShare(type = ShareType.DATA, operation = ShareOperation.LOAD_DATA)
-    @PostMapping(value = "/data/{token}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @PostMapping(value = "/data/{token}", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, RowArrayJsonHttpMessageConverter.MEDIA_TYPE_VALUE, ArrowHttpMessageConverter.MEDIA_TYPE_VALUE})
     public ResponseEntity getShareData(@PathVariable String token,
                                        @RequestParam(required = false) String password,
                                        @RequestBody(required = false) ViewExecuteParam executeParam,
                                        @ApiIgnore @CurrentUser User user,
-                                       HttpServletRequest request) throws SQLException {
+                                       HttpServletRequest request,
+                                       HttpServletResponse response) throws SQLException {
 
-        Paginate<Map<String, Object>> shareData = shareService.getShareData(executeParam, user);
-        if (null == user || user.getId() == null) {
-            return ResponseEntity.ok(new ResultMap().success().payload(shareData));
-        } else {
-            return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(shareData));
+        if (isArrowRequest(request)) {
+            shareService.writeShareArrowData(executeParam, user, arrowOutput(request, response, null != user && null != user.getId()));
+            return null;
         }
+
+        Paginate<Map<String, Object>> shareData = shareService.getShareData(executeParam, user);
+        return paginateResponse(request, shareData, null != user && null != user.getId());
+    }
+
+
+    /**
+     * share页订阅源数据，按 interval（秒）推送 data 或 unchanged 事件
+     *
+     * @param token
+     * @param interval
+     * @param executeParam
+     * @param lastEventId
+     * @param user
+     * @return
+     */
+    @ApiOperation(value = "subscribe share data")
+    @AuthShare(type = ShareType.DATA, operation = ShareOperation.LOAD_DATA)
+    @PostMapping(value = "/data/{token}/subscribe", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity subscribeShareData(@PathVariable String token,
+                                             @RequestParam(required = false) String password,
+                                             @RequestParam(required = false, defaultValue = "30") int interval,
+                                             @RequestBody(required = false) ViewExecuteParam executeParam,
+                                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                             @ApiIgnore @CurrentUser User user) {
+
+        return ResponseEntity.ok(shareService.subscribeShareData(executeParam, interval, lastEventId, user));
     }
 
 
@@ -221,11 +252,12 @@ public class ShareController extends BaseController {
      * @param bindingResult
      * @param user
      * @param request
+     * @param response
      * @return
      */
     @ApiOperation(value = "get share data")
     @AuthShare(type = ShareType.DATA, operation = ShareOperation.LOAD_DISTINCT_DATA)
-    @PostMapping(value = "/data/{token}/distinctvalue", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @PostMapping(value = "/data/{token}/distinctvalue", consumes = MediaType.APPLICATION_JSON_VALUE, produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, RowArrayJsonHttpMessageConverter.MEDIA_TYPE_VALUE})
     public ResponseEntity getDistinctValue(@PathVariable("token") String token,
                                            @Valid @RequestBody DistinctParam param,
                                            @ApiIgnore BindingResult bindingResult,
@@ -25,6 +25,8 @@ import edp.core.model.PaginateWithQueryColumns;
 import edp.davinci.common.controller.BaseController;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ResultMap;
+import edp.davinci.core.config.ArrowHttpMessageConverter;
+import edp.davinci.core.config.RowArrayJsonHttpMessageConverter;
 import edp.davinci.core.utils.DacChannelUtil;
 import edp.davinci.dto.viewDto.*;
 import edp.davinci.model.DacChannel;
@@ -43,6 +45,7 @@ import org.springframework.web.bind.annotation.*;
 import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import java.sql.SQLException;
 import java.util.List;
@@ -227,26 +230,66 @@ public class ViewController extends BaseController {
      * @param executeParam
      * @param user
      * @param request
+     * @param response
      * @return
      */
     @ApiOperation(value = "get data")
-    @PostMapping(value = "/{id}/getdata", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @PostMapping(value = "/{id}/getdata", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, RowArrayJsonHttpMessageConverter.MEDIA_TYPE_VALUE, ArrowHttpMessageConverter.MEDIA_TYPE_VALUE})
     public ResponseEntity getData(@PathVariable Long id,
                                   @RequestBody(required = false) ViewExecuteParam executeParam,
                                   @ApiIgnore @CurrentUser User user,
-                                  HttpServletRequest request) throws SQLException {
+                                  HttpServletRequest request,
+                                  HttpServletResponse response) throws SQLException {
         if (invalidId(id)) {
             ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid view id");
             return ResponseEntity.status(resultMap.getCode()).body(resultMap);
         }
 
+        if (isArrowRequest(request)) {
+            viewService.writeArrowData(id, executeParam, user, arrowOutput(request, response, true));
+            return null;
+        }
+
         Paginate<Map<String, Object>> paginate = viewService.getData(id, executeParam, user);
-        return ResponseEntity.ok().body(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(paginate));
+        return paginateResponse(request, paginate, true);
+    }
+
+
+    /**
+     * 关联两个 view 的数据，当前 view 为左侧
+     *
+     * @param id
+     * @param joinParam
+     * @param bindingResult
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get joined data of two views")
+    @PostMapping(value = "/{id}/getjoindata", consumes = MediaType.APPLICATION_JSON_VALUE, produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, RowArrayJsonHttpMessageConverter.MEDIA_TYPE_VALUE})
+    public ResponseEntity getJoinData(@PathVariable Long id,
+                                      @Valid @RequestBody ViewJoinParam joinParam,
+                                      @ApiIgnore BindingResult bindingResult,
+                                      @ApiIgnore @CurrentUser User user,
+                                      HttpServletRequest request) throws SQLException {
+        if (invalidId(id) || invalidId(joinParam.getRightViewId())) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid view id");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        if (bindingResult.hasErrors()) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message(bindingResult.getFieldErrors().get(0).getDefaultMessage());
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        Paginate<Map<String, Object>> paginate = viewService.getJoinData(id, joinParam, user);
+        return paginateResponse(request, paginate, true);
     }
 
 
     @ApiOperation(value = "get distinct value")
-    @PostMapping(value = "/{id}/getdistinctvalue", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @PostMapping(value = "/{id}/getdistinctvalue", consumes = MediaType.APPLICATION_JSON_VALUE, produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, RowArrayJsonHttpMessageConverter.MEDIA_TYPE_VALUE})
     public ResponseEntity getDistinctValue(@PathVariable Long id,
                                            @Valid @RequestBody DistinctParam param,
                                            @ApiIgnore BindingResult bindingResult,
@@ -262,6 +305,11 @@ public class ViewController extends BaseController {
             return ResponseEntity.status(resultMap.getCode()).body(resultMap);
         }
 
+        if (param.getPageSize() > 0) {
+            Paginate<Map<String, Object>> paginate = viewService.getDistinctValuePage(id, param, user);
+            return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(paginate));
+        }
+
         List<Map<String, Object>> distinctValue = viewService.getDistinctValue(id, param, user);
         return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payloads(distinctValue));
     }
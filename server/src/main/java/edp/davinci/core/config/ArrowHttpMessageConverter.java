@@ -0,0 +1,90 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.config;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.support.config.FastJsonConfig;
+import edp.core.common.jdbc.ArrowResultWriter;
+import edp.davinci.core.common.ResultMap;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Arrow IPC stream 格式的响应
+ * <p>
+ * 请求 Accept 为 application/vnd.apache.arrow.stream 或带参数 format=arrow 时，查询结果由 ArrowResultWriter 直接从 ResultSet 写出；
+ * 其余响应（如错误）写出为不含字段的 schema，metadata 中 header、payload 为对应的 json
+ */
+public class ArrowHttpMessageConverter extends AbstractHttpMessageConverter<ResultMap> {
+
+    public static final String FORMAT = "arrow";
+
+    public static final String MEDIA_TYPE_VALUE = "application/vnd.apache.arrow.stream";
+
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE_VALUE);
+
+    private static final String HEADER = "header";
+
+    private static final String PAYLOAD = "payload";
+
+    private final FastJsonConfig fastJsonConfig;
+
+    public ArrowHttpMessageConverter(FastJsonConfig fastJsonConfig) {
+        super(MEDIA_TYPE);
+        this.fastJsonConfig = fastJsonConfig;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ResultMap.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected ResultMap readInternal(Class<? extends ResultMap> clazz, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
+        throw new HttpMessageNotReadableException("Arrow format is write only", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(ResultMap resultMap, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put(HEADER, toJSONString(resultMap.get(HEADER)));
+        if (null != resultMap.get(PAYLOAD)) {
+            metadata.put(PAYLOAD, toJSONString(resultMap.get(PAYLOAD)));
+        }
+        ArrowResultWriter.writeEmpty(outputMessage.getBody(), metadata);
+    }
+
+    private String toJSONString(Object object) {
+        return JSON.toJSONString(object, fastJsonConfig.getSerializeFilters(), fastJsonConfig.getSerializerFeatures());
+    }
+}
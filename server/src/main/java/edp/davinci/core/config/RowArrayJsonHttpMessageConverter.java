@@ -0,0 +1,200 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.core.config;
+
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.SerializeWriter;
+import com.alibaba.fastjson.serializer.ValueFilter;
+import com.alibaba.fastjson.support.config.FastJsonConfig;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.davinci.core.common.ResultMap;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 行数组格式的查询结果
+ * <p>
+ * 请求 Accept 为 application/vnd.davinci.rows+json 或带参数 format=rows 时使用，
+ * 结果中的行以 {"columns": [...], "rows": [[...], ...]} 的形式按列顺序输出为数组，不再逐行重复列名；
+ * 直接从结果行向响应流写出，不生成中间对象，其余内容与 json 格式相同
+ */
+public class RowArrayJsonHttpMessageConverter extends AbstractHttpMessageConverter<ResultMap> {
+
+    public static final String FORMAT = "rows";
+
+    public static final String MEDIA_TYPE_VALUE = "application/vnd.davinci.rows+json;charset=UTF-8";
+
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE_VALUE);
+
+    private static final String PAYLOAD = "payload";
+
+    private final FastJsonConfig fastJsonConfig;
+
+    private final ValueFilter valueFilter;
+
+    public RowArrayJsonHttpMessageConverter(FastJsonConfig fastJsonConfig, ValueFilter valueFilter) {
+        super(MEDIA_TYPE);
+        this.fastJsonConfig = fastJsonConfig;
+        this.valueFilter = valueFilter;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ResultMap.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected ResultMap readInternal(Class<? extends ResultMap> clazz, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
+        throw new HttpMessageNotReadableException("Row array format is write only", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(ResultMap resultMap, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+        Writer writer = new OutputStreamWriter(outputMessage.getBody(), StandardCharsets.UTF_8);
+        SerializeWriter out = new SerializeWriter(writer, fastJsonConfig.getSerializerFeatures());
+        try {
+            JSONSerializer serializer = new JSONSerializer(out);
+            if (null != fastJsonConfig.getSerializeFilters()) {
+                Arrays.stream(fastJsonConfig.getSerializeFilters()).forEach(serializer::addFilter);
+            }
+
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : resultMap.entrySet()) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.writeString(entry.getKey());
+                out.write(':');
+                if (PAYLOAD.equals(entry.getKey())) {
+                    writePayload(serializer, out, entry.getValue());
+                } else {
+                    serializer.write(entry.getValue());
+                }
+            }
+            out.write('}');
+        } finally {
+            out.close();
+        }
+        writer.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writePayload(JSONSerializer serializer, SerializeWriter out, Object payload) {
+        if (payload instanceof PaginateWithQueryColumns && null == ((PaginateWithQueryColumns) payload).getPivot()) {
+            writePaginate(serializer, out, (PaginateWithQueryColumns) payload);
+            return;
+        }
+
+        if (payload instanceof Collection && isRows((Collection<?>) payload)) {
+            Collection<Map<String, Object>> rows = (Collection<Map<String, Object>>) payload;
+            Set<String> names = new LinkedHashSet<>();
+            rows.forEach(row -> names.addAll(row.keySet()));
+            out.write("{\"columns\":");
+            serializer.write(names);
+            out.write(",\"rows\":");
+            writeRows(serializer, out, rows, new ArrayList<>(names));
+            out.write('}');
+            return;
+        }
+
+        serializer.write(payload);
+    }
+
+    private void writePaginate(JSONSerializer serializer, SerializeWriter out, PaginateWithQueryColumns paginate) {
+        List<QueryColumn> columns = paginate.getColumns();
+        List<Map<String, Object>> resultList = paginate.getResultList();
+        List<String> names = new ArrayList<>();
+        if (null != columns) {
+            columns.forEach(column -> names.add(column.getName()));
+        } else if (null != resultList && !resultList.isEmpty()) {
+            names.addAll(resultList.get(0).keySet());
+        }
+
+        out.write("{\"pageNo\":");
+        out.writeInt(paginate.getPageNo());
+        out.write(",\"pageSize\":");
+        out.writeInt(paginate.getPageSize());
+        out.write(",\"totalCount\":");
+        out.writeLong(paginate.getTotalCount());
+        out.write(",\"columns\":");
+        serializer.write(null == columns ? names : columns);
+        out.write(",\"rows\":");
+        writeRows(serializer, out, null == resultList ? Collections.emptyList() : resultList, names);
+        writeField(serializer, out, "seek", paginate.getSeek());
+        writeField(serializer, out, "extractedAt", paginate.getExtractedAt());
+        writeField(serializer, out, "fingerprint", paginate.getFingerprint());
+        out.write('}');
+    }
+
+    private void writeField(JSONSerializer serializer, SerializeWriter out, String name, Object value) {
+        out.write(',');
+        out.writeString(name);
+        out.write(':');
+        serializer.write(valueFilter.process(null, name, value));
+    }
+
+    private void writeRows(JSONSerializer serializer, SerializeWriter out, Collection<Map<String, Object>> rows, List<String> names) {
+        out.write('[');
+        boolean firstRow = true;
+        for (Map<String, Object> row : rows) {
+            if (!firstRow) {
+                out.write(',');
+            }
+            firstRow = false;
+            out.write('[');
+            for (int i = 0; i < names.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                String name = names.get(i);
+                // 与对象格式的值处理一致（null 输出为空字符串，超长整数输出为字符串）
+                serializer.write(valueFilter.process(row, name, row.get(name)));
+            }
+            out.write(']');
+        }
+        out.write(']');
+    }
+
+    private static boolean isRows(Collection<?> collection) {
+        for (Object item : collection) {
+            return item instanceof Map;
+        }
+        return false;
+    }
+}
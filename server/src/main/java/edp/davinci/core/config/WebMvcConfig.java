@@ -29,15 +29,23 @@ import edp.davinci.core.inteceptor.AuthenticationInterceptor;
 import edp.davinci.core.inteceptor.CurrentPlatformMethodArgumentResolver;
 import edp.davinci.core.inteceptor.CurrentUserMethodArgumentResolver;
 import edp.davinci.core.inteceptor.PlatformAuthInterceptor;
+import edp.davinci.core.inteceptor.ResultMemoryInterceptor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.config.annotation.ContentNegotiationConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurationSupport;
+import org.springframework.web.servlet.mvc.method.annotation.ExceptionHandlerExceptionResolver;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -75,6 +83,16 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
         return new PlatformAuthInterceptor();
     }
 
+    /**
+     * 查询结果内存拦截器
+     *
+     * @return
+     */
+    @Bean
+    public ResultMemoryInterceptor resultMemoryInterceptor() {
+        return new ResultMemoryInterceptor();
+    }
+
     /**
      * CurrentUser 注解参数解析器
      *
@@ -120,6 +138,9 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
 
     @Override
     protected void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(resultMemoryInterceptor())
+                .addPathPatterns(Constants.BASE_API_PATH + "/**");
+
         registry.addInterceptor(loginRequiredInterceptor())
                 .addPathPatterns(Constants.BASE_API_PATH + "/**")
                 .excludePathPatterns(Constants.BASE_API_PATH + "/login");
@@ -154,13 +175,14 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
                 SerializerFeature.WriteMapNullValue,
                 SerializerFeature.WriteDateUseDateFormat,
                 SerializerFeature.DisableCircularReferenceDetect);
-        fastJsonConfig.setSerializeFilters((ValueFilter) (o, s, source) -> {
+        ValueFilter valueFilter = (o, s, source) -> {
             if (null != source && (source instanceof Long || source instanceof BigInteger) && source.toString().length() > 15) {
                 return source.toString();
             } else {
                 return null == source ? EMPTY : source;
             }
-        });
+        };
+        fastJsonConfig.setSerializeFilters(valueFilter);
 
         //处理中文乱码问题
         List<MediaType> fastMediaTypes = new ArrayList<>();
@@ -168,6 +190,36 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
         fastConverter.setSupportedMediaTypes(fastMediaTypes);
         fastConverter.setFastJsonConfig(fastJsonConfig);
         converters.add(fastConverter);
+
+        // 行数组格式和 Arrow 格式，需排在 json 之后，未指定格式的请求仍返回 json
+        converters.add(new RowArrayJsonHttpMessageConverter(fastJsonConfig, valueFilter));
+        converters.add(new ArrowHttpMessageConverter(fastJsonConfig));
+    }
+
+    @Override
+    protected void configureContentNegotiation(ContentNegotiationConfigurer configurer) {
+        configurer.favorParameter(true)
+                .parameterName("format")
+                .mediaType(RowArrayJsonHttpMessageConverter.FORMAT, RowArrayJsonHttpMessageConverter.MEDIA_TYPE)
+                .mediaType(ArrowHttpMessageConverter.FORMAT, ArrowHttpMessageConverter.MEDIA_TYPE);
+    }
+
+    /**
+     * 响应已提交（如 Arrow stream 已开始写出）时不再由 @ExceptionHandler 追加错误结果，异常交由容器中断连接，
+     * 客户端收到不完整的响应而不是拼接在数据后的错误信息
+     */
+    @Override
+    protected ExceptionHandlerExceptionResolver createExceptionHandlerExceptionResolver() {
+        return new ExceptionHandlerExceptionResolver() {
+            @Override
+            protected ModelAndView doResolveHandlerMethodException(HttpServletRequest request, HttpServletResponse response,
+                                                                   HandlerMethod handlerMethod, Exception exception) {
+                if (response.isCommitted()) {
+                    return null;
+                }
+                return super.doResolveHandlerMethodException(request, response, handlerMethod, exception);
+            }
+        };
     }
 
 
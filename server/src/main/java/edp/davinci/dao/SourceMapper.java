@@ -73,6 +73,17 @@ public interface SourceMapper {
     })
     SourceWithProject getSourceWithProjectById(@Param("souceId") Long souceId);
 
+    @Select({
+            "SELECT s.* FROM `source` s INNER JOIN (",
+            "	SELECT v.source_id, COUNT(w.id) AS widget_count",
+            "	FROM `view` v INNER JOIN `widget` w ON w.view_id = v.id",
+            "	GROUP BY v.source_id",
+            ") t ON t.source_id = s.id",
+            "ORDER BY t.widget_count DESC",
+            "LIMIT #{limit}"
+    })
+    List<Source> getMostUsedSources(@Param("limit") int limit);
+
     int insertBatch(@Param("list") List<Source> sourceList);
 
     @Delete({"delete from `source` where project_id = #{projectId}"})
@@ -19,6 +19,7 @@
 
 package edp.davinci.dto.cronJobDto;
 
+import edp.davinci.service.extract.ExtractOption;
 import lombok.Data;
 
 import java.util.List;
@@ -36,4 +37,14 @@ public class CronJobConfig {
 
     private Integer imageWidth;
     private List<CronJobContent> contentList;
+
+    /**
+     * 抽取任务的 view
+     */
+    private Long viewId;
+
+    /**
+     * 抽取任务的刷新方式，未设置时全量抽取
+     */
+    private ExtractOption extract;
 }
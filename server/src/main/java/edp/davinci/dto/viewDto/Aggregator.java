@@ -31,6 +31,11 @@ public class Aggregator {
 
     private String func;
 
+    /**
+     * 使用数据源的近似聚合函数（COUNTDISTINCT、MEDIAN），不支持时按精确计算
+     */
+    private boolean approximate = false;
+
     public Aggregator() {
     }
 
@@ -0,0 +1,131 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import com.alibaba.druid.util.StringUtils;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+import static edp.core.consts.Consts.*;
+
+/**
+ * 数值分箱，按 width 或 count 将列划分为等宽区间并在数据库中计数
+ */
+@Data
+public class Bin {
+
+    private String column;
+
+    /**
+     * 区间宽度，与 count 二选一
+     */
+    private Double width;
+
+    /**
+     * 区间个数，未指定 min/max 时先查询列的最小最大值
+     */
+    private Integer count;
+
+    private Double min;
+
+    private Double max;
+
+    public boolean isValid() {
+        return !StringUtils.isEmpty(column)
+                && ((null != width && width > 0) || (null != count && count > 0));
+    }
+
+    public boolean isRangeRequired() {
+        return (null == width || width <= 0) && (null == min || null == max);
+    }
+
+    public Bin copy() {
+        Bin bin = new Bin();
+        bin.setColumn(column);
+        bin.setWidth(width);
+        bin.setCount(count);
+        bin.setMin(min);
+        bin.setMax(max);
+        return bin;
+    }
+
+    public String getBinLabel() {
+        return String.join(EMPTY, "bin", PARENTHESES_START, column.trim(), PARENTHESES_END);
+    }
+
+    public String getCountLabel() {
+        return String.join(EMPTY, "binCount", PARENTHESES_START, column.trim(), PARENTHESES_END);
+    }
+
+    /**
+     * 区间下界表达式：min + FLOOR((x - min) / width) * width，按 count 分箱时最大值归入最后一个区间
+     *
+     * @param field
+     * @return
+     */
+    public String getExpression(String field) {
+        double start = null == min ? 0d : min;
+        double binWidth = getBinWidth();
+        String minValue = format(start);
+        String widthValue = format(binWidth);
+        String index = "FLOOR((" + field + " - " + minValue + ") / " + widthValue + ")";
+        if ((null == width || width <= 0) && null != min && null != max && max > min) {
+            index = "CASE WHEN " + field + " >= " + format(max) + " THEN " + (count - 1) + " ELSE " + index + " END";
+        }
+        return "(" + minValue + " + " + index + " * " + widthValue + ")";
+    }
+
+    public double getBinWidth() {
+        if (null != width && width > 0) {
+            return width;
+        }
+        double range = null == min || null == max ? 0d : max - min;
+        return range > 0 ? range / count : 1d;
+    }
+
+    /**
+     * 指定 min/max 时的范围条件
+     *
+     * @param field
+     * @return
+     */
+    public String getRangeFilter(String field) {
+        if (null == min && null == max) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(PARENTHESES_START);
+        if (null != min) {
+            sb.append(field).append(" >= ").append(format(min));
+        }
+        if (null != max) {
+            if (null != min) {
+                sb.append(" AND ");
+            }
+            sb.append(field).append(" <= ").append(format(max));
+        }
+        sb.append(PARENTHESES_END);
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+}
@@ -40,4 +40,21 @@ public class DistinctParam  extends ConcurrencyStrategy{
     private Boolean cache;
 
     private Long expired;
+
+    /**
+     * 搜索关键字，不区分大小写
+     */
+    private String keyword;
+
+    /**
+     * 是否按前缀匹配关键字，默认包含匹配
+     */
+    private boolean prefix = false;
+
+    private int pageNo = -1;
+
+    /**
+     * 大于 0 时分页返回
+     */
+    private int pageSize = -1;
 }
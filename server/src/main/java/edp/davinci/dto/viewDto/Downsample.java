@@ -0,0 +1,49 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import com.alibaba.druid.util.StringUtils;
+import lombok.Data;
+
+/**
+ * 时序数据降采样（Largest-Triangle-Three-Buckets）
+ */
+@Data
+public class Downsample {
+
+    /**
+     * x 轴列（结果集列名）
+     */
+    private String x;
+
+    /**
+     * y 轴列（结果集列名，聚合列如 sum(amount)）
+     */
+    private String y;
+
+    /**
+     * 目标点数
+     */
+    private int threshold;
+
+    public boolean isValid() {
+        return !StringUtils.isEmpty(x) && !StringUtils.isEmpty(y) && threshold > 2;
+    }
+}
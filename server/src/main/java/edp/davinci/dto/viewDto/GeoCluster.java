@@ -0,0 +1,118 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import com.alibaba.druid.util.StringUtils;
+import edp.core.enums.DataTypeEnum;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static edp.core.consts.Consts.*;
+
+/**
+ * 地图点聚合：按当前视野和缩放级别将点聚合为网格，返回每个网格的中心点和点数
+ */
+@Data
+public class GeoCluster {
+
+    public static final String COUNT_LABEL = "clusterCount";
+
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * 不支持按表达式分组的数据源，在内存中聚合
+     */
+    private static final Set<DataTypeEnum> IN_PROCESS_TYPES = EnumSet.of(
+            DataTypeEnum.MONGODB,
+            DataTypeEnum.ELASTICSEARCH,
+            DataTypeEnum.CASSANDRA,
+            DataTypeEnum.KYLIN,
+            DataTypeEnum.TDENGINE
+    );
+
+    private String latColumn;
+
+    private String lngColumn;
+
+    /**
+     * 视野范围
+     */
+    private Double west;
+
+    private Double south;
+
+    private Double east;
+
+    private Double north;
+
+    private int zoom;
+
+    /**
+     * 网格边长（像素）
+     */
+    private int gridSize = 60;
+
+    public boolean isValid() {
+        return !StringUtils.isEmpty(latColumn) && !StringUtils.isEmpty(lngColumn)
+                && null != west && null != south && null != east && null != north
+                && zoom >= 0 && gridSize > 0;
+    }
+
+    public static boolean isSqlSupported(String jdbcUrl) {
+        return !IN_PROCESS_TYPES.contains(DataTypeEnum.urlOf(jdbcUrl));
+    }
+
+    /**
+     * 网格边长（经纬度）
+     *
+     * @return
+     */
+    public double getCellSize() {
+        return 360d / (TILE_SIZE * Math.pow(2, Math.min(zoom, 30))) * gridSize;
+    }
+
+    public String getCellExpression(String field, double origin) {
+        return "FLOOR((" + field + " - " + format(origin) + ") / " + format(getCellSize()) + ")";
+    }
+
+    /**
+     * 视野过滤条件，west 大于 east 时视野跨越 180 度经线，经度条件拆为两段
+     *
+     * @param latField
+     * @param lngField
+     * @return
+     */
+    public String getBboxFilter(String latField, String lngField) {
+        String lngFilter = west > east
+                ? PARENTHESES_START + lngField + " >= " + format(west) + " OR " + lngField + " <= " + format(east) + PARENTHESES_END
+                : lngField + " >= " + format(west) + " AND " + lngField + " <= " + format(east);
+        return PARENTHESES_START + latField + " IS NOT NULL AND " + lngField + " IS NOT NULL"
+                + " AND " + latField + " >= " + format(south) + " AND " + latField + " <= " + format(north)
+                + " AND " + lngFilter
+                + PARENTHESES_END;
+    }
+
+    private static String format(double value) {
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+}
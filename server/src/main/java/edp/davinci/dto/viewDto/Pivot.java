@@ -0,0 +1,56 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import edp.core.utils.CollectionUtils;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 服务端透视，行维度和列维度需均为分组列
+ */
+@Data
+public class Pivot {
+
+    /**
+     * 行维度
+     */
+    private List<String> rows;
+
+    /**
+     * 列维度
+     */
+    private List<String> columns;
+
+    /**
+     * 指标，聚合列在结果集中的列名（如 SUM(amount)），为空时使用全部聚合列
+     */
+    private List<String> metrics;
+
+    /**
+     * 是否计算各级小计和总计
+     */
+    private boolean subtotals = false;
+
+    public boolean isValid() {
+        return !CollectionUtils.isEmpty(rows) || !CollectionUtils.isEmpty(columns);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import lombok.Data;
+
+/**
+ * 分组时间列的粒度，在数据库中截断后再分组
+ */
+@Data
+public class TimeGrain {
+
+    /**
+     * 分组列
+     */
+    private String column;
+
+    /**
+     * minute, hour, day, week, month, quarter, year
+     */
+    private String grain;
+
+    /**
+     * 周的第一天，monday 或 sunday
+     */
+    private String weekStart = "monday";
+
+    /**
+     * 截断前转换到的时区，如 Asia/Shanghai；oracle、sqlserver、kylin 和自定义截断模板不支持
+     */
+    private String timezone;
+}
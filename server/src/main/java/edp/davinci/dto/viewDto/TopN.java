@@ -0,0 +1,61 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import com.alibaba.druid.util.StringUtils;
+import lombok.Data;
+
+/**
+ * 按聚合列取前 n 个分组，其余分组合并为 Others
+ */
+@Data
+public class TopN {
+
+    public static final String OTHERS = "Others";
+
+    private int n;
+
+    /**
+     * 排名依据的聚合列，与 func 一起须为查询的聚合列之一
+     */
+    private String column;
+
+    private String func;
+
+    private String direction = "DESC";
+
+    /**
+     * 是否返回 Others 分组
+     */
+    private boolean others = true;
+
+    public boolean isValid() {
+        return n > 0 && !StringUtils.isEmpty(column) && !StringUtils.isEmpty(func);
+    }
+
+    /**
+     * 聚合列在结果集中的列名，与 ViewExecuteParam 中聚合列的别名一致
+     *
+     * @return
+     */
+    public String getLabel() {
+        return ViewExecuteParam.getAggregatorLabel(column, func);
+    }
+}
@@ -20,13 +20,20 @@
 package edp.davinci.dto.viewDto;
 
 import com.alibaba.druid.util.StringUtils;
+import edp.core.common.jdbc.PivotAggregator;
+import edp.core.enums.DataTypeEnum;
+import edp.core.enums.TimeGrainEnum;
+import edp.core.exception.ServerException;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.SqlUtils;
+import edp.core.utils.TimeGrainUtils;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -35,6 +42,9 @@ import static edp.core.consts.Consts.*;
 @EqualsAndHashCode(callSuper = true)
 @Data
 public class ViewExecuteParam extends ConcurrencyStrategy{
+
+    private static final String COUNT_DISTINCT = "COUNTDISTINCT";
+
     private List<String> groups;
     private List<Aggregator> aggregators;
     private List<Order> orders;
@@ -50,6 +60,52 @@ public class ViewExecuteParam extends ConcurrencyStrategy{
 
     private boolean nativeQuery = false;
 
+    /**
+     * 服务端游标分页，首次请求物化全量结果，之后的分页直接从游标读取
+     */
+    private boolean cursor = false;
+
+    /**
+     * keyset 分页：上一页最后一行排序列的值（顺序与 orders 一致），
+     * 排序列需构成唯一键，下一页以 (k1, k2) > (v1, v2) 条件读取
+     */
+    private List<Object> seek;
+
+    /**
+     * 明细查询 keyset 分页的唯一列，须为最后一个排序列，否则排序值相同的行会被跳过
+     */
+    private String seekKey;
+
+    /**
+     * 时序降采样，仅对不分页的查询生效
+     */
+    private Downsample downsample;
+
+    /**
+     * 分组前 n 名及 Others，仅对不分页的聚合查询生效
+     */
+    private TopN topN;
+
+    /**
+     * 数值分箱，指定后按区间分组计数
+     */
+    private Bin bin;
+
+    /**
+     * 分组时间列的粒度
+     */
+    private List<TimeGrain> timeGrains;
+
+    /**
+     * 地图点聚合，指定后按视野和缩放级别返回网格中心点及点数
+     */
+    private GeoCluster geoCluster;
+
+    /**
+     * 服务端透视，仅对不分页的聚合查询生效
+     */
+    private Pivot pivot;
+
     public ViewExecuteParam() {
 
     }
@@ -124,7 +180,7 @@ public class ViewExecuteParam extends ConcurrencyStrategy{
         if (!CollectionUtils.isEmpty(excludeColumns) && !CollectionUtils.isEmpty(aggregators)) {
             excludeColumns.addAll(this.aggregators.stream()
                     .filter(a -> !CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(a.getColumn()))
-                    .map(a -> formatColumn(a.getColumn(), a.getFunc(), jdbcUrl, dbVersion, true))
+                    .map(a -> formatColumn(a.getColumn(), a.getFunc(), false, jdbcUrl, dbVersion, true))
                     .collect(Collectors.toSet())
             );
         }
@@ -132,37 +188,60 @@ public class ViewExecuteParam extends ConcurrencyStrategy{
 
     public List<String> getAggregators(String jdbcUrl, String dbVersion) {
         if (!CollectionUtils.isEmpty(aggregators)) {
-            return this.aggregators.stream().map(a -> formatColumn(a.getColumn(), a.getFunc(), jdbcUrl, dbVersion, false)).collect(Collectors.toList());
+            return this.aggregators.stream().map(a -> formatColumn(a.getColumn(), a.getFunc(), a.isApproximate(), jdbcUrl, dbVersion, false)).collect(Collectors.toList());
         }
         return null;
     }
 
 
-    private String formatColumn(String column, String func, String jdbcUrl, String dbVersion, boolean isLable) {
+    private String formatColumn(String column, String func, boolean approximate, String jdbcUrl, String dbVersion, boolean isLable) {
         if (isLable) {
-            return String.join(EMPTY, func.trim(), PARENTHESES_START, column.trim(), PARENTHESES_END);
+            return getAggregatorLabel(column, func);
         } else {
             StringBuilder sb = new StringBuilder();
-            if ("COUNTDISTINCT".equals(func.trim().toUpperCase())) {
+            String approxFunc = approximate ? getApproxFunc(func, jdbcUrl, dbVersion) : null;
+            if (null != approxFunc) {
+                // 别名与精确聚合保持一致
+                sb.append(String.format(approxFunc, ViewExecuteParam.getField(column, jdbcUrl, dbVersion)));
+            } else if (COUNT_DISTINCT.equals(func.trim().toUpperCase())) {
                 sb.append("COUNT").append(PARENTHESES_START).append("DISTINCT").append(SPACE);
                 sb.append(ViewExecuteParam.getField(column, jdbcUrl, dbVersion));
                 sb.append(PARENTHESES_END);
-                sb.append(" AS ").append(SqlUtils.getAliasPrefix(jdbcUrl, dbVersion)).append("COUNTDISTINCT").append(PARENTHESES_START);
-                sb.append(column);
-                sb.append(PARENTHESES_END).append(SqlUtils.getAliasSuffix(jdbcUrl, dbVersion));
             } else {
                 sb.append(func.trim()).append(PARENTHESES_START);
                 sb.append(ViewExecuteParam.getField(column, jdbcUrl, dbVersion));
                 sb.append(PARENTHESES_END);
-                sb.append(" AS ").append(SqlUtils.getAliasPrefix(jdbcUrl, dbVersion));
-                sb.append(func.trim()).append(PARENTHESES_START);
-                sb.append(column);
-                sb.append(PARENTHESES_END).append(SqlUtils.getAliasSuffix(jdbcUrl, dbVersion));
             }
+            sb.append(" AS ").append(SqlUtils.getAliasPrefix(jdbcUrl, dbVersion));
+            sb.append(getAggregatorLabel(column, func));
+            sb.append(SqlUtils.getAliasSuffix(jdbcUrl, dbVersion));
             return sb.toString();
         }
     }
 
+    /**
+     * 聚合列在结果集中的列名，COUNTDISTINCT 不区分大小写统一为大写，精确与近似聚合的列名相同
+     *
+     * @param column
+     * @param func
+     * @return
+     */
+    public static String getAggregatorLabel(String column, String func) {
+        String name = COUNT_DISTINCT.equals(func.trim().toUpperCase()) ? COUNT_DISTINCT : func.trim();
+        return String.join(EMPTY, name, PARENTHESES_START, column.trim(), PARENTHESES_END);
+    }
+
+    private static String getApproxFunc(String func, String jdbcUrl, String dbVersion) {
+        switch (func.trim().toUpperCase()) {
+            case COUNT_DISTINCT:
+                return SqlUtils.getApproxCountDistinct(jdbcUrl, dbVersion);
+            case "MEDIAN":
+                return SqlUtils.getApproxMedian(jdbcUrl, dbVersion);
+            default:
+                return null;
+        }
+    }
+
     public static String getField(String field, String jdbcUrl, String dbVersion) {
         String keywordPrefix = SqlUtils.getKeywordPrefix(jdbcUrl, dbVersion);
         String keywordSuffix = SqlUtils.getKeywordSuffix(jdbcUrl, dbVersion);
@@ -171,4 +250,311 @@ public class ViewExecuteParam extends ConcurrencyStrategy{
         }
         return field;
     }
+
+    /**
+     * 排序列构成唯一键时才能使用 keyset 分页：
+     * 聚合查询的排序列须恰好为全部分组列，明细查询须以 seekKey 作为最后一个排序列；
+     * 时间粒度分组的值为截断后的时间，无法与原始列比较，不使用 keyset 分页；
+     * 数据源默认的 NULL 排序位置未知时无法判断 NULL 行在 seek 值之前还是之后，也不使用 keyset 分页
+     *
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public boolean isSeekable(String jdbcUrl, String dbVersion) {
+        if (CollectionUtils.isEmpty(orders) || !CollectionUtils.isEmpty(timeGrains)) {
+            return false;
+        }
+        if (orders.stream().anyMatch(o -> null == isNullsAfter(jdbcUrl, isDesc(o)))) {
+            return false;
+        }
+        List<String> orderColumns = orders.stream().map(o -> getSeekColumn(o, jdbcUrl, dbVersion)).collect(Collectors.toList());
+        if (CollectionUtils.isEmpty(aggregators)) {
+            return !StringUtils.isEmpty(seekKey) && seekKey.trim().equals(orderColumns.get(orderColumns.size() - 1));
+        }
+        List<String> groupList = getGroups();
+        if (null == groupList) {
+            return false;
+        }
+        return groupList.containsAll(orderColumns) && orderColumns.containsAll(groupList);
+    }
+
+    /**
+     * keyset 分页条件，展开为 (k1 > v1) OR (k1 = v1 AND k2 > v2) 以兼容不支持行值比较的数据源；
+     * NULL 排在非 NULL 值之后时 k > v 补充 OR k IS NULL，否则 NULL 行不会出现在之后的任何一页。
+     * seek 值为 NULL 时返回 null，按页码分页
+     *
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public String getSeekFilter(String jdbcUrl, String dbVersion) {
+        if (CollectionUtils.isEmpty(seek) || CollectionUtils.isEmpty(orders) || seek.size() != orders.size()
+                || !isSeekable(jdbcUrl, dbVersion)) {
+            return null;
+        }
+
+        List<String> fields = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            Object value = seek.get(i);
+            if (null == value) {
+                return null;
+            }
+            fields.add(getField(getSeekColumn(orders.get(i), jdbcUrl, dbVersion), jdbcUrl, dbVersion));
+            values.add(formatLiteral(value, jdbcUrl));
+        }
+
+        StringBuilder sb = new StringBuilder(PARENTHESES_START);
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                sb.append(" OR ");
+            }
+            sb.append(PARENTHESES_START);
+            for (int j = 0; j < i; j++) {
+                sb.append(fields.get(j)).append(" = ").append(values.get(j)).append(" AND ");
+            }
+            boolean desc = isDesc(orders.get(i));
+            String after = fields.get(i) + (desc ? " < " : " > ") + values.get(i);
+            if (isNullsAfter(jdbcUrl, desc)) {
+                after = PARENTHESES_START + after + " OR " + fields.get(i) + " IS NULL" + PARENTHESES_END;
+            }
+            sb.append(after);
+            sb.append(PARENTHESES_END);
+        }
+        sb.append(PARENTHESES_END);
+        return sb.toString();
+    }
+
+    /**
+     * 当前页最后一行排序列的值，作为下一页的 seek
+     *
+     * @param resultList
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public List<Object> getNextSeek(List<Map<String, Object>> resultList, String jdbcUrl, String dbVersion) {
+        if (CollectionUtils.isEmpty(resultList) || !isSeekable(jdbcUrl, dbVersion)) {
+            return null;
+        }
+        Map<String, Object> last = resultList.get(resultList.size() - 1);
+        List<Object> nextSeek = new ArrayList<>();
+        for (Order order : orders) {
+            nextSeek.add(last.get(getSeekColumn(order, jdbcUrl, dbVersion)));
+        }
+        return nextSeek;
+    }
+
+    private static boolean isDesc(Order order) {
+        String direction = order.getDirection();
+        return null != direction && "DESC".equals(direction.trim().toUpperCase());
+    }
+
+    /**
+     * 数据源默认排序中 NULL 是否排在非 NULL 值之后，未知时返回 null
+     *
+     * @param jdbcUrl
+     * @param desc
+     * @return
+     */
+    private static Boolean isNullsAfter(String jdbcUrl, boolean desc) {
+        DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
+        if (null != dataTypeEnum) {
+            switch (dataTypeEnum) {
+                // NULL 视为最小值
+                case MYSQL:
+                case SQLSERVER:
+                case H2:
+                case MOONBOX:
+                    return desc;
+                // NULL 视为最大值
+                case ORACLE:
+                case IMPALA:
+                    return !desc;
+                // 升降序 NULL 都排在最后
+                case PRESTO:
+                case CLICKHOUSE:
+                    return true;
+                default:
+                    return null;
+            }
+        }
+        String url = jdbcUrl.toLowerCase().trim();
+        if (url.startsWith("jdbc:postgresql:") || url.startsWith("jdbc:redshift:") || url.startsWith("jdbc:db2:")) {
+            return !desc;
+        }
+        return null;
+    }
+
+    private static String getSeekColumn(Order order, String jdbcUrl, String dbVersion) {
+        // getOrders 会为排序列加上关键字前后缀
+        return unquoteField(order.getColumn(), jdbcUrl, dbVersion);
+    }
+
+    /**
+     * 去掉列名的关键字前后缀
+     *
+     * @param field
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public static String unquoteField(String field, String jdbcUrl, String dbVersion) {
+        String column = field.trim();
+        String prefix = SqlUtils.getKeywordPrefix(jdbcUrl, dbVersion);
+        String suffix = SqlUtils.getKeywordSuffix(jdbcUrl, dbVersion);
+        if (!StringUtils.isEmpty(prefix) && !StringUtils.isEmpty(suffix)
+                && column.length() > prefix.length() + suffix.length()
+                && column.startsWith(prefix) && column.endsWith(suffix)) {
+            column = column.substring(prefix.length(), column.length() - suffix.length());
+        }
+        return column;
+    }
+
+    private static String formatLiteral(Object value, String jdbcUrl) {
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        if (value instanceof java.util.Date) {
+            return SqlUtils.getTimeLiteral((java.util.Date) value, jdbcUrl);
+        }
+        return APOSTROPHE + String.valueOf(value).replace(APOSTROPHE, APOSTROPHE + APOSTROPHE) + APOSTROPHE;
+    }
+
+    public boolean isTopN() {
+        return null != topN && topN.isValid() && !nativeQuery && pageSize < 1
+                && !CollectionUtils.isEmpty(getGroups()) && !CollectionUtils.isEmpty(aggregators);
+    }
+
+    /**
+     * 前 n 名查询按排名聚合列排序，排名聚合列须为查询的聚合列之一，否则排序的别名不存在
+     *
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     * @throws ServerException
+     */
+    public List<Order> getTopNOrders(String jdbcUrl, String dbVersion) throws ServerException {
+        String label = topN.getLabel();
+        if (aggregators.stream().noneMatch(a -> !StringUtils.isEmpty(a.getColumn()) && !StringUtils.isEmpty(a.getFunc())
+                && label.equals(getAggregatorLabel(a.getColumn(), a.getFunc())))) {
+            throw new ServerException("Top n aggregator " + label + " is not one of the query aggregators");
+        }
+        List<Order> list = new ArrayList<>();
+        list.add(new Order(getField(label, jdbcUrl, dbVersion), topN.getDirection()));
+        return list;
+    }
+
+    /**
+     * 排除前 n 名分组的条件，用于计算 Others；
+     * 使用 CASE 而非 NOT，避免分组列为 NULL 的行因比较结果为 UNKNOWN 被一并排除
+     *
+     * @param topRows
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public String getOthersFilter(List<Map<String, Object>> topRows, String jdbcUrl, String dbVersion) {
+        List<String> groupList = getGroups();
+        Map<String, String> grains = getTimeGrainExpressions(jdbcUrl, dbVersion);
+        StringBuilder sb = new StringBuilder("(CASE WHEN ");
+        for (int i = 0; i < topRows.size(); i++) {
+            if (i > 0) {
+                sb.append(" OR ");
+            }
+            sb.append(PARENTHESES_START);
+            for (int j = 0; j < groupList.size(); j++) {
+                if (j > 0) {
+                    sb.append(" AND ");
+                }
+                String group = groupList.get(j);
+                Object value = topRows.get(i).get(group);
+                sb.append(null != grains && grains.containsKey(group) ? grains.get(group) : getField(group, jdbcUrl, dbVersion));
+                if (null == value) {
+                    sb.append(" IS NULL");
+                } else {
+                    sb.append(" = ").append(formatLiteral(value, jdbcUrl));
+                }
+            }
+            sb.append(PARENTHESES_END);
+        }
+        sb.append(" THEN 1 ELSE 0 END) = 0");
+        return sb.toString();
+    }
+
+    public boolean isBin() {
+        return null != bin && bin.isValid() && !nativeQuery;
+    }
+
+    public boolean isGeoCluster() {
+        return null != geoCluster && geoCluster.isValid() && !nativeQuery && !isBin();
+    }
+
+    public boolean isPivot() {
+        if (null == pivot || !pivot.isValid() || nativeQuery || pageSize > 0 || CollectionUtils.isEmpty(aggregators)
+                || isTopN() || isBin() || isGeoCluster() || (null != downsample && downsample.isValid())) {
+            return false;
+        }
+        List<String> groupList = getGroups();
+        if (null == groupList) {
+            return false;
+        }
+        return (CollectionUtils.isEmpty(pivot.getRows()) || groupList.containsAll(pivot.getRows()))
+                && (CollectionUtils.isEmpty(pivot.getColumns()) || groupList.containsAll(pivot.getColumns()));
+    }
+
+    /**
+     * 透视计算，指标为 pivot 中指定的聚合列，未指定时为全部聚合列
+     *
+     * @param maxCells
+     * @return
+     */
+    public PivotAggregator newPivotAggregator(long maxCells) {
+        List<String> metrics = new ArrayList<>();
+        List<String> funcs = new ArrayList<>();
+        for (Aggregator aggregator : aggregators) {
+            String label = formatColumn(aggregator.getColumn(), aggregator.getFunc(), false, null, null, true);
+            if (CollectionUtils.isEmpty(pivot.getMetrics()) || pivot.getMetrics().contains(label)) {
+                metrics.add(label);
+                funcs.add(aggregator.getFunc());
+            }
+        }
+        if (metrics.isEmpty()) {
+            throw new ServerException("Pivot metrics not found: " + pivot.getMetrics());
+        }
+        return new PivotAggregator(
+                null == pivot.getRows() ? new ArrayList<>() : pivot.getRows(),
+                null == pivot.getColumns() ? new ArrayList<>() : pivot.getColumns(),
+                metrics, funcs, pivot.isSubtotals(), maxCells);
+    }
+
+    /**
+     * 分组列到时间截断表达式的映射
+     *
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     * @throws ServerException
+     */
+    public Map<String, String> getTimeGrainExpressions(String jdbcUrl, String dbVersion) throws ServerException {
+        List<String> groupList = getGroups();
+        if (CollectionUtils.isEmpty(timeGrains) || null == groupList || nativeQuery) {
+            return null;
+        }
+        Map<String, String> expressions = new HashMap<>();
+        for (TimeGrain timeGrain : timeGrains) {
+            if (null == timeGrain || StringUtils.isEmpty(timeGrain.getColumn()) || !groupList.contains(timeGrain.getColumn())) {
+                continue;
+            }
+            TimeGrainEnum grain = TimeGrainEnum.grainOf(timeGrain.getGrain());
+            if (null == grain) {
+                throw new ServerException("Invalid time grain: " + timeGrain.getGrain());
+            }
+            boolean sundayStart = "sunday".equalsIgnoreCase(timeGrain.getWeekStart());
+            expressions.put(timeGrain.getColumn(), TimeGrainUtils.truncate(jdbcUrl, dbVersion,
+                    getField(timeGrain.getColumn(), jdbcUrl, dbVersion), grain, sundayStart, timeGrain.getTimezone()));
+        }
+        return expressions.isEmpty() ? null : expressions;
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+/**
+ * 关联两个 view 的查询
+ * <p>
+ * 两侧分别按各自的查询参数（分组、过滤、变量）和权限查询，按关联列在内存中关联后，
+ * 再执行本参数中的分组、聚合、过滤、排序和分页；右侧列名加上 rightPrefix，右侧关联列不输出
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+public class ViewJoinParam extends ViewExecuteParam {
+
+    public static final String INNER = "INNER";
+
+    public static final String LEFT = "LEFT";
+
+    /**
+     * 左侧（请求路径中的 view）的查询
+     */
+    @NotNull(message = "left query cannot be null")
+    private ViewExecuteParam left;
+
+    @NotNull(message = "right view id cannot be null")
+    private Long rightViewId;
+
+    /**
+     * 右侧 view 的查询，右侧作为构建侧，数据量较小的 view 应放在右侧
+     */
+    @NotNull(message = "right query cannot be null")
+    private ViewExecuteParam right;
+
+    @NotEmpty(message = "left join columns cannot be empty")
+    private List<String> leftKeys;
+
+    @NotEmpty(message = "right join columns cannot be empty")
+    private List<String> rightKeys;
+
+    /**
+     * INNER 或 LEFT
+     */
+    private String joinType = INNER;
+
+    private String rightPrefix = "";
+
+    public boolean isLeftJoin() {
+        return null != joinType && LEFT.equals(joinType.trim().toUpperCase());
+    }
+}
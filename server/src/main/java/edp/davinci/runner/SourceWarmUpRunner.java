@@ -0,0 +1,125 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.runner;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.SqlUtils;
+import edp.davinci.dao.SourceMapper;
+import edp.davinci.model.Source;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动后预热最常用数据源的连接池（驱动加载、连接池初始化、建立 min-idle 个连接），
+ * 预热完成前 /check/ready 返回 503，便于负载均衡在预热结束后再转发流量
+ */
+@Order(4)
+@Component
+@Slf4j
+public class SourceWarmUpRunner implements ApplicationRunner {
+
+    @Getter
+    private static volatile boolean ready = false;
+
+    @Value("${source.warm-up.enable:false}")
+    private boolean enable;
+
+    @Value("${source.warm-up.top:10}")
+    private int top;
+
+    @Value("${source.warm-up.concurrency:4}")
+    private int concurrency;
+
+    @Value("${source.warm-up.timeout:300}")
+    private long timeout;
+
+    @Autowired
+    private SourceMapper sourceMapper;
+
+    @Autowired
+    private SqlUtils sqlUtils;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enable || top <= 0) {
+            ready = true;
+            return;
+        }
+
+        List<Source> sources = null;
+        try {
+            sources = sourceMapper.getMostUsedSources(top);
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+        }
+
+        if (CollectionUtils.isEmpty(sources)) {
+            ready = true;
+            log.info("Warm up source finish, no source found");
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, sources.size())),
+                new ThreadFactoryBuilder().setNameFormat("Source-warmup-%d").setDaemon(true).build());
+
+        long before = System.currentTimeMillis();
+        AtomicInteger success = new AtomicInteger(0);
+        sources.forEach(source -> executor.execute(() -> {
+            try {
+                sqlUtils.init(source).warmUp();
+                success.incrementAndGet();
+                log.info("Source({}) warm up finish", source.getId());
+            } catch (Exception e) {
+                log.warn("Source({}) warm up error, {}", source.getId(), e.getMessage());
+            }
+        }));
+        executor.shutdown();
+
+        int total = sources.size();
+        Thread coordinator = new Thread(() -> {
+            try {
+                if (!executor.awaitTermination(timeout, TimeUnit.SECONDS)) {
+                    log.warn("Warm up source timeout after {}s", timeout);
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+            } finally {
+                ready = true;
+                log.info("Warm up source finish, {}/{} succeeded in {} ms", success.get(), total, System.currentTimeMillis() - before);
+            }
+        }, "Source-warmup-coordinator");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+}
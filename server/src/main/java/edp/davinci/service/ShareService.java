@@ -19,6 +19,7 @@
 
 package edp.davinci.service;
 
+import edp.core.common.jdbc.ArrowResultWriter;
 import edp.core.exception.ForbiddenException;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
@@ -29,6 +30,7 @@ import edp.davinci.dto.userDto.UserLogin;
 import edp.davinci.dto.viewDto.DistinctParam;
 import edp.davinci.dto.viewDto.ViewExecuteParam;
 import edp.davinci.model.User;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.sql.SQLException;
 import java.util.List;
@@ -47,6 +49,10 @@ public interface ShareService {
 
     Paginate<Map<String, Object>> getShareData(ViewExecuteParam executeParam, User user) throws NotFoundException, ServerException, ForbiddenException, UnAuthorizedException, SQLException;
 
+    void writeShareArrowData(ViewExecuteParam executeParam, User user, ArrowResultWriter.Output output) throws NotFoundException, ServerException, ForbiddenException, UnAuthorizedException;
+
+    SseEmitter subscribeShareData(ViewExecuteParam executeParam, int interval, String lastEventId, User user) throws NotFoundException, ServerException, ForbiddenException, UnAuthorizedException;
+
     List<Map<String, Object>> getDistinctValue(DistinctParam param, User user);
 
     void formatShareParam(Long projectId, ShareEntity entity);
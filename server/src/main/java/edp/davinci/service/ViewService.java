@@ -19,6 +19,7 @@
 
 package edp.davinci.service;
 
+import edp.core.common.jdbc.ArrowResultWriter;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedException;
@@ -30,6 +31,8 @@ import edp.davinci.dto.viewDto.*;
 import edp.davinci.model.SqlVariable;
 import edp.davinci.model.User;
 import edp.davinci.service.excel.SQLContext;
+import edp.davinci.service.extract.ExtractMeta;
+import edp.davinci.service.extract.ExtractOption;
 
 import java.sql.SQLException;
 import java.util.List;
@@ -50,15 +53,25 @@ public interface ViewService extends CheckEntityService {
 
     Paginate<Map<String, Object>> getData(Long id, ViewExecuteParam executeParam, User user) throws NotFoundException, UnAuthorizedException, ServerException, SQLException;
 
+    Paginate<Map<String, Object>> getJoinData(Long id, ViewJoinParam joinParam, User user) throws NotFoundException, UnAuthorizedException, ServerException, SQLException;
+
+    void writeArrowData(Long id, ViewExecuteParam executeParam, User user, ArrowResultWriter.Output output) throws NotFoundException, UnAuthorizedException, ServerException;
+
+    void writeArrowData(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user, ArrowResultWriter.Output output) throws ServerException;
+
     PaginateWithQueryColumns getResultDataList(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user) throws ServerException, SQLException;
 
     List<Map<String, Object>> getDistinctValue(Long id, DistinctParam param, User user) throws NotFoundException, ServerException, UnAuthorizedException;
 
+    Paginate<Map<String, Object>> getDistinctValuePage(Long id, DistinctParam param, User user) throws NotFoundException, ServerException, UnAuthorizedException;
+
     List getDistinctValueData(boolean isMaintainer, ViewWithSource viewWithSource, DistinctParam param, User user) throws ServerException;
 
     ViewWithSourceBaseInfo getView(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException;
 
     SQLContext getSQLContext(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user);
 
+    ExtractMeta extractView(Long projectId, Long viewId, ExtractOption option, User user) throws NotFoundException, UnAuthorizedException, ServerException;
+
     void packageParams(boolean isProjectMaintainer, Long viewId, SqlEntity sqlEntity, List<SqlVariable> variables, List<Param> paramList, Set<String> excludeColumns, User user);
 }
@@ -0,0 +1,262 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.aggregate;
+
+import edp.core.common.jdbc.RowDecoder;
+import edp.core.model.QueryColumn;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按列存储的查询结果
+ * <p>
+ * 每列保存原始值，数值列额外保存 long/double 向量供聚合直接按下标计算
+ */
+public class ColumnarTable {
+
+    public static final int KIND_INTEGRAL = 0;
+
+    public static final int KIND_DECIMAL = 1;
+
+    public static final int KIND_FLOATING = 2;
+
+    public static final int KIND_STRING = 3;
+
+    public static final int KIND_OTHER = 4;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    @Getter
+    private final String[] names;
+
+    @Getter
+    private final List<QueryColumn> queryColumns;
+
+    private final Object[][] values;
+
+    private final int[] kinds;
+
+    private final long[][] longs;
+
+    private final double[][] doubles;
+
+    @Getter
+    private final int rowCount;
+
+    @Getter
+    private final long bytes;
+
+    private ColumnarTable(String[] names, List<QueryColumn> queryColumns, Object[][] values, int[] kinds, int rowCount, long bytes) {
+        this.names = names;
+        this.queryColumns = queryColumns;
+        this.values = values;
+        this.kinds = kinds;
+        this.rowCount = rowCount;
+        this.longs = new long[names.length][];
+        this.doubles = new double[names.length][];
+
+        long vectorBytes = 0L;
+        for (int c = 0; c < names.length; c++) {
+            if (kinds[c] == KIND_INTEGRAL) {
+                longs[c] = new long[rowCount];
+                for (int r = 0; r < rowCount; r++) {
+                    Object value = values[c][r];
+                    longs[c][r] = null == value ? 0L : ((Number) value).longValue();
+                }
+                vectorBytes += 8L * rowCount;
+            } else if (kinds[c] == KIND_FLOATING) {
+                doubles[c] = new double[rowCount];
+                for (int r = 0; r < rowCount; r++) {
+                    Object value = values[c][r];
+                    doubles[c][r] = null == value ? 0d : ((Number) value).doubleValue();
+                }
+                vectorBytes += 8L * rowCount;
+            }
+        }
+        this.bytes = bytes + vectorBytes;
+    }
+
+    /**
+     * 读取结果集，行数或估算大小超出限制时返回 null
+     *
+     * @param decoder
+     * @param rs
+     * @param maxRows
+     * @param maxBytes
+     * @return
+     * @throws SQLException
+     */
+    public static ColumnarTable read(RowDecoder decoder, ResultSet rs, int maxRows, long maxBytes) throws SQLException {
+        int columnCount = decoder.size();
+        if (columnCount == 0) {
+            return null;
+        }
+        String[] names = new String[columnCount];
+        Object[][] values = new Object[columnCount][];
+        for (int c = 0; c < columnCount; c++) {
+            names[c] = decoder.getLabel(c);
+            values[c] = new Object[INITIAL_CAPACITY];
+        }
+
+        int rowCount = 0;
+        long bytes = 0L;
+        while (rs.next()) {
+            if (rowCount >= maxRows) {
+                return null;
+            }
+            if (rowCount == values[0].length) {
+                int capacity = rowCount + (rowCount >> 1);
+                for (int c = 0; c < columnCount; c++) {
+                    values[c] = Arrays.copyOf(values[c], capacity);
+                }
+            }
+            for (int c = 0; c < columnCount; c++) {
+                Object value = decoder.getValue(rs, c);
+                values[c][rowCount] = value;
+                bytes += 8L + RowDecoder.estimateBytes(value);
+            }
+            rowCount++;
+            if (bytes > maxBytes) {
+                return null;
+            }
+        }
+
+        return of(names, new ArrayList<>(decoder.getQueryColumns()), values, rowCount, bytes);
+    }
+
+    /**
+     * 由按列存放的值构造，values 每列长度不小于 rowCount
+     *
+     * @param names
+     * @param queryColumns
+     * @param values
+     * @param rowCount
+     * @param bytes        值的估算大小
+     * @return
+     */
+    public static ColumnarTable of(String[] names, List<QueryColumn> queryColumns, Object[][] values, int rowCount, long bytes) {
+        int[] kinds = new int[names.length];
+        for (int c = 0; c < names.length; c++) {
+            if (values[c].length != rowCount) {
+                values[c] = Arrays.copyOf(values[c], rowCount);
+            }
+            kinds[c] = kindOf(values[c]);
+        }
+        return new ColumnarTable(names, queryColumns, values, kinds, rowCount, bytes);
+    }
+
+    /**
+     * 由按行的查询结果构造
+     *
+     * @param queryColumns
+     * @param rows
+     * @return
+     */
+    public static ColumnarTable of(List<QueryColumn> queryColumns, List<Map<String, Object>> rows) {
+        int columnCount = queryColumns.size();
+        String[] names = new String[columnCount];
+        Object[][] values = new Object[columnCount][rows.size()];
+        long bytes = 0L;
+        for (int c = 0; c < columnCount; c++) {
+            names[c] = queryColumns.get(c).getName();
+            for (int r = 0; r < rows.size(); r++) {
+                Object value = rows.get(r).get(names[c]);
+                values[c][r] = value;
+                bytes += 8L + RowDecoder.estimateBytes(value);
+            }
+        }
+        return of(names, new ArrayList<>(queryColumns), values, rows.size(), bytes);
+    }
+
+    private static int kindOf(Object[] column) {
+        int kind = -1;
+        for (Object value : column) {
+            if (null == value) {
+                continue;
+            }
+            int valueKind;
+            if (value instanceof Long || value instanceof Integer || value instanceof Short
+                    || value instanceof Byte || value instanceof BigInteger) {
+                valueKind = KIND_INTEGRAL;
+            } else if (value instanceof BigDecimal) {
+                valueKind = KIND_DECIMAL;
+            } else if (value instanceof Number) {
+                valueKind = KIND_FLOATING;
+            } else if (value instanceof String) {
+                valueKind = KIND_STRING;
+            } else {
+                return KIND_OTHER;
+            }
+            if (kind < 0) {
+                kind = valueKind;
+            } else if (kind != valueKind) {
+                // 整数与小数混合时按浮点计算
+                if (kind != KIND_STRING && valueKind != KIND_STRING) {
+                    kind = KIND_FLOATING;
+                } else {
+                    return KIND_OTHER;
+                }
+            }
+        }
+        // 全部为空的列按字符串处理，比较结果均为 false
+        return kind < 0 ? KIND_STRING : kind;
+    }
+
+    public int indexOf(String name) {
+        for (int c = 0; c < names.length; c++) {
+            if (names[c].equals(name)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    public Object getValue(int column, int row) {
+        return values[column][row];
+    }
+
+    public int getKind(int column) {
+        return kinds[column];
+    }
+
+    public boolean isNumeric(int column) {
+        return kinds[column] == KIND_INTEGRAL || kinds[column] == KIND_DECIMAL || kinds[column] == KIND_FLOATING;
+    }
+
+    public long[] getLongs(int column) {
+        return longs[column];
+    }
+
+    public double[] getDoubles(int column) {
+        return doubles[column];
+    }
+
+    public String getType(int column) {
+        return queryColumns.get(column).getType();
+    }
+}
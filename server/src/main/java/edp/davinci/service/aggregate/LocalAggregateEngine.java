@@ -0,0 +1,763 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.aggregate;
+
+import com.alibaba.fastjson.JSON;
+import edp.core.enums.DataTypeEnum;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.core.utils.CollectionUtils;
+import edp.davinci.core.enums.SqlOperatorEnum;
+import edp.davinci.core.model.SqlFilter;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.Order;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * 在内存中对 ColumnarTable 执行过滤、分组、聚合、排序、limit 和分页
+ * <p>
+ * 过滤按选择向量、分组按分组下标向量、聚合按列向量逐列计算；
+ * 字符串按区分大小写比较，默认排序规则不区分大小写的数据源（如 MySQL）上对字符串列的
+ * 过滤、分组、排序和最值不在本地执行。无法与数据源等价执行的查询返回 null，由数据源执行
+ */
+public final class LocalAggregateEngine {
+
+    private static final String COUNT = "COUNT";
+
+    private static final String COUNT_DISTINCT = "COUNTDISTINCT";
+
+    private static final String SUM = "SUM";
+
+    private static final String AVG = "AVG";
+
+    private static final String MAX = "MAX";
+
+    private static final String MIN = "MIN";
+
+    private static final String DESC = "DESC";
+
+    /**
+     * 默认排序规则不区分大小写的数据源
+     */
+    private static final Set<DataTypeEnum> CASE_INSENSITIVE_TYPES = EnumSet.of(
+            DataTypeEnum.MYSQL,
+            DataTypeEnum.SQLSERVER
+    );
+
+    private LocalAggregateEngine() {
+
+    }
+
+    /**
+     * 时间粒度、分箱、前 n 名等需要数据源函数或多次查询的参数不在本地执行
+     *
+     * @param executeParam
+     * @return
+     */
+    public static boolean isSupported(ViewExecuteParam executeParam) {
+        return !executeParam.isNativeQuery()
+                && !executeParam.isCursor()
+                && !executeParam.isTopN()
+                && !executeParam.isBin()
+                && !executeParam.isGeoCluster()
+                && CollectionUtils.isEmpty(executeParam.getTimeGrains())
+                && CollectionUtils.isEmpty(executeParam.getSeek())
+                && (null == executeParam.getDownsample() || !executeParam.getDownsample().isValid());
+    }
+
+    public static PaginateWithQueryColumns execute(ColumnarTable table, ViewExecuteParam executeParam, Set<String> excludeColumns,
+                                                   String jdbcUrl, String dbVersion) {
+        try {
+            return doExecute(table, executeParam, executeParam.getFilters(), LocalAggregateEngine::detailMeasure,
+                    excludeColumns, jdbcUrl, dbVersion);
+        } catch (UnsupportedQueryException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 由更细粒度分组的聚合结果上卷
+     * <p>
+     * table 的列为细粒度结果的分组列和聚合列（func(column)）：SUM、COUNT 累加，MAX、MIN 取最值，
+     * AVG 由同列的 SUM 和 COUNT 计算，COUNTDISTINCT 要求去重列是细粒度结果的分组列
+     *
+     * @param table
+     * @param tableGroups    细粒度结果的分组
+     * @param executeParam
+     * @param filters        在 table 上执行的过滤，只能引用细粒度结果的分组列
+     * @param excludeColumns
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return 无法上卷时返回 null
+     */
+    public static PaginateWithQueryColumns rollUp(ColumnarTable table, List<String> tableGroups, ViewExecuteParam executeParam,
+                                                  List<String> filters, Set<String> excludeColumns, String jdbcUrl, String dbVersion) {
+        try {
+            return doExecute(table, executeParam, filters, (t, column, func) -> rollUpMeasure(t, tableGroups, column, func),
+                    excludeColumns, jdbcUrl, dbVersion);
+        } catch (UnsupportedQueryException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 是否可由细粒度结果上卷
+     *
+     * @param aggregator
+     * @return
+     */
+    public static boolean isRollUpSupported(Aggregator aggregator) {
+        if (null == aggregator.getFunc() || aggregator.isApproximate()) {
+            return false;
+        }
+        switch (aggregator.getFunc().trim().toUpperCase()) {
+            case COUNT:
+            case COUNT_DISTINCT:
+            case SUM:
+            case AVG:
+            case MAX:
+            case MIN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static PaginateWithQueryColumns doExecute(ColumnarTable table, ViewExecuteParam executeParam, List<String> filters,
+                                                      MeasureResolver resolver, Set<String> excludeColumns,
+                                                      String jdbcUrl, String dbVersion) {
+        List<String> groups = executeParam.getGroups();
+        int[] groupColumns = new int[null == groups ? 0 : groups.size()];
+        boolean caseInsensitive = isCaseInsensitive(jdbcUrl);
+        for (int i = 0; i < groupColumns.length; i++) {
+            groupColumns[i] = columnOf(table, groups.get(i).trim());
+            checkStringColumn(table, groupColumns[i], caseInsensitive);
+        }
+
+        List<Aggregator> aggregators = null == executeParam.getAggregators() ? Collections.emptyList() : executeParam.getAggregators();
+        Measure[] measures = new Measure[aggregators.size()];
+        String[] aggFuncs = new String[aggregators.size()];
+        for (int i = 0; i < measures.length; i++) {
+            Aggregator aggregator = aggregators.get(i);
+            if (null == aggregator.getFunc()) {
+                throw UnsupportedQueryException.INSTANCE;
+            }
+            aggFuncs[i] = aggregator.getFunc().trim().toUpperCase();
+            measures[i] = resolver.resolve(table, aggregator.getColumn().trim(), aggFuncs[i]);
+            if (caseInsensitive && (MAX.equals(aggFuncs[i]) || MIN.equals(aggFuncs[i]) || COUNT_DISTINCT.equals(aggFuncs[i]))
+                    && table.indexOf(aggregator.getColumn().trim()) >= 0) {
+                checkStringColumn(table, table.indexOf(aggregator.getColumn().trim()), true);
+            }
+        }
+
+        // 过滤：选择向量
+        RowFilter filter = compileFilters(filters, table, jdbcUrl, dbVersion);
+        int[] selection = new int[table.getRowCount()];
+        int size = 0;
+        for (int r = 0; r < table.getRowCount(); r++) {
+            if (null == filter || filter.test(r)) {
+                selection[size++] = r;
+            }
+        }
+
+        // 分组：每个选中行的分组下标
+        int[] groupIds = new int[size];
+        List<Integer> firstRows = new ArrayList<>();
+        if (groupColumns.length == 0) {
+            firstRows.add(-1);
+        } else {
+            Map<Object, Integer> groupMap = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                int row = selection[i];
+                Object key;
+                if (groupColumns.length == 1) {
+                    key = table.getValue(groupColumns[0], row);
+                } else {
+                    Object[] values = new Object[groupColumns.length];
+                    for (int g = 0; g < groupColumns.length; g++) {
+                        values[g] = table.getValue(groupColumns[g], row);
+                    }
+                    key = Arrays.asList(values);
+                }
+                Integer groupId = groupMap.get(key);
+                if (null == groupId) {
+                    groupId = firstRows.size();
+                    groupMap.put(key, groupId);
+                    firstRows.add(row);
+                }
+                groupIds[i] = groupId;
+            }
+        }
+        int groupCount = firstRows.size();
+
+        // 聚合：逐列计算
+        Object[][] aggValues = new Object[measures.length][];
+        for (int a = 0; a < measures.length; a++) {
+            aggValues[a] = measures[a].function.compute(selection, size, groupIds, groupCount);
+        }
+
+        List<QueryColumn> columns = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        for (int g = 0; g < groupColumns.length; g++) {
+            String label = table.getNames()[groupColumns[g]];
+            labels.add(label);
+            columns.add(new QueryColumn(label, table.getType(groupColumns[g])));
+        }
+        for (int a = 0; a < measures.length; a++) {
+            String label = ViewExecuteParam.getAggregatorLabel(aggregators.get(a).getColumn(), aggregators.get(a).getFunc());
+            labels.add(label);
+            columns.add(new QueryColumn(label, measures[a].type));
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>(groupCount);
+        for (int g = 0; g < groupCount; g++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (int i = 0; i < groupColumns.length; i++) {
+                row.put(labels.get(i), table.getValue(groupColumns[i], firstRows.get(g)));
+            }
+            for (int a = 0; a < measures.length; a++) {
+                row.put(labels.get(groupColumns.length + a), aggValues[a][g]);
+            }
+            rows.add(row);
+        }
+
+        if (caseInsensitive && !CollectionUtils.isEmpty(executeParam.getOrders())) {
+            for (Order order : executeParam.getOrders()) {
+                int index = table.indexOf(ViewExecuteParam.unquoteField(order.getColumn(), jdbcUrl, dbVersion));
+                if (index >= 0) {
+                    checkStringColumn(table, index, true);
+                }
+            }
+        }
+        sort(rows, executeParam.getOrders(), labels, jdbcUrl, dbVersion);
+
+        if (!CollectionUtils.isEmpty(excludeColumns)) {
+            columns.removeIf(column -> excludeColumns.contains(column.getName()));
+            rows.forEach(row -> row.keySet().removeIf(excludeColumns::contains));
+        }
+
+        int limit = executeParam.getLimit();
+        if (limit > 0 && rows.size() > limit) {
+            rows = rows.subList(0, limit);
+        }
+
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setColumns(columns);
+        int pageNo = executeParam.getPageNo();
+        int pageSize = executeParam.getPageSize();
+        if (pageNo < 1 && pageSize < 1) {
+            paginate.setPageNo(1);
+            paginate.setPageSize(rows.size());
+            paginate.setTotalCount(rows.size());
+            paginate.setResultList(new ArrayList<>(rows));
+        } else {
+            paginate.setPageNo(pageNo);
+            paginate.setPageSize(pageSize);
+            paginate.setTotalCount(rows.size());
+            int start = Math.max(0, (pageNo - 1) * pageSize);
+            int end = pageSize > 0 ? Math.min(rows.size(), start + pageSize) : rows.size();
+            paginate.setResultList(start < end ? new ArrayList<>(rows.subList(start, end)) : new ArrayList<>());
+        }
+        return paginate;
+    }
+
+    /**
+     * 与数据源查询相同的聚合列别名
+     */
+    private static Measure detailMeasure(ColumnarTable table, String column, String func) {
+        int index = columnOf(table, column);
+        return new Measure(typeOf(table, index, func),
+                (selection, size, groupIds, groupCount) -> aggregate(table, index, func, selection, size, groupIds, groupCount));
+    }
+
+    private static Measure rollUpMeasure(ColumnarTable table, List<String> tableGroups, String column, String func) {
+        switch (func) {
+            case SUM:
+            case COUNT:
+            case MAX:
+            case MIN: {
+                int index = aggregateColumnOf(table, column, func);
+                String rollUpFunc = COUNT.equals(func) ? SUM : func;
+                return new Measure(table.getType(index),
+                        (selection, size, groupIds, groupCount) -> aggregate(table, index, rollUpFunc, selection, size, groupIds, groupCount));
+            }
+            case AVG: {
+                int sumIndex = aggregateColumnOf(table, column, SUM);
+                int countIndex = aggregateColumnOf(table, column, COUNT);
+                return new Measure("DOUBLE", (selection, size, groupIds, groupCount) -> {
+                    Object[] sums = aggregate(table, sumIndex, SUM, selection, size, groupIds, groupCount);
+                    Object[] counts = aggregate(table, countIndex, SUM, selection, size, groupIds, groupCount);
+                    Object[] result = new Object[groupCount];
+                    for (int g = 0; g < groupCount; g++) {
+                        double count = null == counts[g] ? 0d : ((Number) counts[g]).doubleValue();
+                        result[g] = null == sums[g] || count == 0d ? null : ((Number) sums[g]).doubleValue() / count;
+                    }
+                    return result;
+                });
+            }
+            case COUNT_DISTINCT: {
+                if (!tableGroups.contains(column)) {
+                    throw UnsupportedQueryException.INSTANCE;
+                }
+                int index = columnOf(table, column);
+                return new Measure("BIGINT",
+                        (selection, size, groupIds, groupCount) -> aggregate(table, index, COUNT_DISTINCT, selection, size, groupIds, groupCount));
+            }
+            default:
+                throw UnsupportedQueryException.INSTANCE;
+        }
+    }
+
+    /**
+     * 细粒度结果中的聚合列，函数名不区分大小写
+     */
+    private static int aggregateColumnOf(ColumnarTable table, String column, String func) {
+        String label = func + "(" + column + ")";
+        String[] names = table.getNames();
+        for (int c = 0; c < names.length; c++) {
+            if (names[c].equalsIgnoreCase(label)) {
+                return c;
+            }
+        }
+        throw UnsupportedQueryException.INSTANCE;
+    }
+
+    /**
+     * 未知方言按不区分大小写处理
+     */
+    private static boolean isCaseInsensitive(String jdbcUrl) {
+        DataTypeEnum dataTypeEnum = null == jdbcUrl ? null : DataTypeEnum.urlOf(jdbcUrl);
+        return null == dataTypeEnum || CASE_INSENSITIVE_TYPES.contains(dataTypeEnum);
+    }
+
+    private static void checkStringColumn(ColumnarTable table, int column, boolean caseInsensitive) {
+        if (caseInsensitive && table.getKind(column) == ColumnarTable.KIND_STRING) {
+            throw UnsupportedQueryException.INSTANCE;
+        }
+    }
+
+    private static int columnOf(ColumnarTable table, String name) {
+        int column = table.indexOf(name);
+        if (column < 0) {
+            throw UnsupportedQueryException.INSTANCE;
+        }
+        return column;
+    }
+
+    private static Object[] aggregate(ColumnarTable table, int column, String func, int[] selection, int size, int[] groupIds, int groupCount) {
+        Object[] result = new Object[groupCount];
+        int kind = table.getKind(column);
+        switch (func) {
+            case COUNT: {
+                long[] counts = new long[groupCount];
+                for (int i = 0; i < size; i++) {
+                    if (null != table.getValue(column, selection[i])) {
+                        counts[groupIds[i]]++;
+                    }
+                }
+                for (int g = 0; g < groupCount; g++) {
+                    result[g] = counts[g];
+                }
+                return result;
+            }
+            case COUNT_DISTINCT: {
+                List<Set<Object>> sets = new ArrayList<>(groupCount);
+                for (int g = 0; g < groupCount; g++) {
+                    sets.add(new HashSet<>());
+                }
+                for (int i = 0; i < size; i++) {
+                    Object value = table.getValue(column, selection[i]);
+                    if (null != value) {
+                        sets.get(groupIds[i]).add(value);
+                    }
+                }
+                for (int g = 0; g < groupCount; g++) {
+                    result[g] = (long) sets.get(g).size();
+                }
+                return result;
+            }
+            case SUM:
+            case AVG: {
+                if (!table.isNumeric(column)) {
+                    throw UnsupportedQueryException.INSTANCE;
+                }
+                long[] counts = new long[groupCount];
+                if (SUM.equals(func) && kind == ColumnarTable.KIND_INTEGRAL) {
+                    long[] vector = table.getLongs(column);
+                    long[] sums = new long[groupCount];
+                    for (int i = 0; i < size; i++) {
+                        int row = selection[i];
+                        if (null != table.getValue(column, row)) {
+                            sums[groupIds[i]] += vector[row];
+                            counts[groupIds[i]]++;
+                        }
+                    }
+                    for (int g = 0; g < groupCount; g++) {
+                        result[g] = counts[g] > 0 ? sums[g] : null;
+                    }
+                } else if (SUM.equals(func) && kind == ColumnarTable.KIND_DECIMAL) {
+                    BigDecimal[] sums = new BigDecimal[groupCount];
+                    for (int i = 0; i < size; i++) {
+                        Object value = table.getValue(column, selection[i]);
+                        if (null != value) {
+                            int g = groupIds[i];
+                            sums[g] = null == sums[g] ? (BigDecimal) value : sums[g].add((BigDecimal) value);
+                        }
+                    }
+                    System.arraycopy(sums, 0, result, 0, groupCount);
+                } else {
+                    double[] vector = table.getDoubles(column);
+                    double[] sums = new double[groupCount];
+                    for (int i = 0; i < size; i++) {
+                        int row = selection[i];
+                        Object value = table.getValue(column, row);
+                        if (null != value) {
+                            sums[groupIds[i]] += null == vector ? ((Number) value).doubleValue() : vector[row];
+                            counts[groupIds[i]]++;
+                        }
+                    }
+                    for (int g = 0; g < groupCount; g++) {
+                        result[g] = counts[g] == 0 ? null : SUM.equals(func) ? sums[g] : sums[g] / counts[g];
+                    }
+                }
+                return result;
+            }
+            case MAX:
+            case MIN: {
+                boolean max = MAX.equals(func);
+                for (int i = 0; i < size; i++) {
+                    Object value = table.getValue(column, selection[i]);
+                    if (null == value) {
+                        continue;
+                    }
+                    int g = groupIds[i];
+                    if (null == result[g]) {
+                        result[g] = value;
+                    } else {
+                        int compare = compareValues(value, result[g]);
+                        if (max ? compare > 0 : compare < 0) {
+                            result[g] = value;
+                        }
+                    }
+                }
+                return result;
+            }
+            default:
+                throw UnsupportedQueryException.INSTANCE;
+        }
+    }
+
+    private static String typeOf(ColumnarTable table, int column, String func) {
+        switch (func) {
+            case COUNT:
+            case COUNT_DISTINCT:
+                return "BIGINT";
+            case AVG:
+                return "DOUBLE";
+            case SUM:
+                return table.getKind(column) == ColumnarTable.KIND_INTEGRAL ? "BIGINT"
+                        : table.getKind(column) == ColumnarTable.KIND_DECIMAL ? "DECIMAL" : "DOUBLE";
+            default:
+                return table.getType(column);
+        }
+    }
+
+    /**
+     * 按 orders 排序，排序列不在 labels 中时不排序并返回 false
+     */
+    static boolean sortRows(List<Map<String, Object>> rows, List<Order> orders, List<String> labels, String jdbcUrl, String dbVersion) {
+        try {
+            sort(rows, orders, labels, jdbcUrl, dbVersion);
+            return true;
+        } catch (UnsupportedQueryException e) {
+            return false;
+        }
+    }
+
+    private static void sort(List<Map<String, Object>> rows, List<Order> orders, List<String> labels, String jdbcUrl, String dbVersion) {
+        if (CollectionUtils.isEmpty(orders)) {
+            return;
+        }
+        Comparator<Map<String, Object>> comparator = null;
+        for (Order order : orders) {
+            String label = ViewExecuteParam.unquoteField(order.getColumn(), jdbcUrl, dbVersion);
+            if (!labels.contains(label)) {
+                throw UnsupportedQueryException.INSTANCE;
+            }
+            Comparator<Map<String, Object>> next = (a, b) -> compareValues(a.get(label), b.get(label));
+            if (null != order.getDirection() && DESC.equalsIgnoreCase(order.getDirection().trim())) {
+                next = next.reversed();
+            }
+            comparator = null == comparator ? next : comparator.thenComparing(next);
+        }
+        rows.sort(comparator);
+    }
+
+    /**
+     * 空值最小
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static int compareValues(Object a, Object b) {
+        if (a == b) {
+            return 0;
+        }
+        if (null == a) {
+            return -1;
+        }
+        if (null == b) {
+            return 1;
+        }
+        if (a instanceof Number && b instanceof Number) {
+            if (a instanceof BigDecimal || b instanceof BigDecimal) {
+                return toBigDecimal((Number) a).compareTo(toBigDecimal((Number) b));
+            }
+            if (isIntegral(a) && isIntegral(b)) {
+                return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            }
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a.getClass() == b.getClass() && a instanceof Comparable) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if (isIntegral(number)) {
+            return BigDecimal.valueOf(number.longValue());
+        }
+        double value = number.doubleValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw UnsupportedQueryException.INSTANCE;
+        }
+        return new BigDecimal(number.toString());
+    }
+
+    private static RowFilter compileFilters(List<String> filterStrs, ColumnarTable table, String jdbcUrl, String dbVersion) {
+        if (CollectionUtils.isEmpty(filterStrs)) {
+            return null;
+        }
+        RowFilter result = null;
+        for (String str : filterStrs) {
+            RowFilter filter = compile(JSON.parseObject(str, SqlFilter.class), table, jdbcUrl, dbVersion);
+            result = null == result ? filter : and(result, filter);
+        }
+        return result;
+    }
+
+    private static RowFilter and(RowFilter left, RowFilter right) {
+        return row -> left.test(row) && right.test(row);
+    }
+
+    private static RowFilter compile(SqlFilter filter, ColumnarTable table, String jdbcUrl, String dbVersion) {
+        if (SqlFilter.Type.relation.equalsIgnoreCase(filter.getType())) {
+            if (CollectionUtils.isEmpty(filter.getChildren()) || null == filter.getValue()) {
+                throw UnsupportedQueryException.INSTANCE;
+            }
+            boolean or = SqlFilter.Type.or.equalsIgnoreCase(filter.getValue().toString().trim());
+            RowFilter result = null;
+            for (SqlFilter child : filter.getChildren()) {
+                RowFilter next = compile(child, table, jdbcUrl, dbVersion);
+                if (null == result) {
+                    result = next;
+                } else {
+                    RowFilter previous = result;
+                    result = or ? row -> previous.test(row) || next.test(row) : and(previous, next);
+                }
+            }
+            return result;
+        }
+
+        if (!SqlFilter.Type.filter.equalsIgnoreCase(filter.getType()) || null == filter.getName() || null == filter.getOperator()) {
+            throw UnsupportedQueryException.INSTANCE;
+        }
+
+        int column = columnOf(table, ViewExecuteParam.unquoteField(filter.getName().trim(), jdbcUrl, dbVersion));
+        String operator = filter.getOperator().trim().toUpperCase();
+        if (SqlOperatorEnum.ISNULL.getValue().equals(operator)) {
+            return row -> null == table.getValue(column, row);
+        }
+
+        int kind = table.getKind(column);
+        if (kind == ColumnarTable.KIND_OTHER || null == filter.getValue()) {
+            throw UnsupportedQueryException.INSTANCE;
+        }
+        checkStringColumn(table, column, isCaseInsensitive(jdbcUrl));
+        Object value = filter.getValue();
+
+        if (SqlOperatorEnum.IN.getValue().equals(operator) || SqlOperatorEnum.NOTIN.getValue().equals(operator)) {
+            if (!(value instanceof List)) {
+                throw UnsupportedQueryException.INSTANCE;
+            }
+            Set<Object> literals = new HashSet<>();
+            for (Object item : (List<?>) value) {
+                literals.add(normalize(toLiteral(item, kind)));
+            }
+            boolean in = SqlOperatorEnum.IN.getValue().equals(operator);
+            return row -> {
+                Object cell = table.getValue(column, row);
+                return null != cell && literals.contains(normalize(cell)) == in;
+            };
+        }
+
+        if (SqlOperatorEnum.BETWEEN.getValue().equals(operator)) {
+            if (!(value instanceof List) || ((List<?>) value).size() != 2) {
+                throw UnsupportedQueryException.INSTANCE;
+            }
+            Object lower = toLiteral(((List<?>) value).get(0), kind);
+            Object upper = toLiteral(((List<?>) value).get(1), kind);
+            return row -> {
+                Object cell = table.getValue(column, row);
+                return null != cell && compareValues(cell, lower) >= 0 && compareValues(cell, upper) <= 0;
+            };
+        }
+
+        if (SqlOperatorEnum.LIKE.getValue().equals(operator) || SqlOperatorEnum.NOTLIKE.getValue().equals(operator)) {
+            String pattern = unquote(value.toString());
+            if (kind != ColumnarTable.KIND_STRING || pattern.contains("%") || pattern.contains("_")) {
+                throw UnsupportedQueryException.INSTANCE;
+            }
+            boolean like = SqlOperatorEnum.LIKE.getValue().equals(operator);
+            return row -> {
+                Object cell = table.getValue(column, row);
+                return null != cell && cell.toString().contains(pattern) == like;
+            };
+        }
+
+        Object literal = toLiteral(value, kind);
+        switch (operator) {
+            case "=":
+                return row -> compare(table, column, row, literal, c -> c == 0);
+            case "!=":
+            case "<>":
+                return row -> compare(table, column, row, literal, c -> c != 0);
+            case ">":
+                return row -> compare(table, column, row, literal, c -> c > 0);
+            case ">=":
+                return row -> compare(table, column, row, literal, c -> c >= 0);
+            case "<":
+                return row -> compare(table, column, row, literal, c -> c < 0);
+            case "<=":
+                return row -> compare(table, column, row, literal, c -> c <= 0);
+            default:
+                throw UnsupportedQueryException.INSTANCE;
+        }
+    }
+
+    private static boolean compare(ColumnarTable table, int column, int row, Object literal, IntPredicate predicate) {
+        Object cell = table.getValue(column, row);
+        return null != cell && predicate.test(compareValues(cell, literal));
+    }
+
+    /**
+     * 过滤值转换为与列相同的类型，数值列的值无法解析为数值时不在本地执行
+     *
+     * @param value
+     * @param kind
+     * @return
+     */
+    private static Object toLiteral(Object value, int kind) {
+        if (null == value) {
+            throw UnsupportedQueryException.INSTANCE;
+        }
+        if (kind == ColumnarTable.KIND_STRING) {
+            return unquote(value.toString());
+        }
+        if (value instanceof Number) {
+            return value;
+        }
+        try {
+            return new BigDecimal(unquote(value.toString()).trim());
+        } catch (NumberFormatException e) {
+            throw UnsupportedQueryException.INSTANCE;
+        }
+    }
+
+    /**
+     * IN 比较时统一数值类型
+     *
+     * @param value
+     * @return
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Number) {
+            return toBigDecimal((Number) value).stripTrailingZeros();
+        }
+        return value;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            return value.substring(1, value.length() - 1).replace("''", "'");
+        }
+        return value;
+    }
+
+    private interface RowFilter {
+        boolean test(int row);
+    }
+
+    private interface MeasureResolver {
+        Measure resolve(ColumnarTable table, String column, String func);
+    }
+
+    private interface MeasureFunction {
+        Object[] compute(int[] selection, int size, int[] groupIds, int groupCount);
+    }
+
+    /**
+     * 聚合列的计算方式和结果类型
+     */
+    private static final class Measure {
+
+        private final String type;
+
+        private final MeasureFunction function;
+
+        private Measure(String type, MeasureFunction function) {
+            this.type = type;
+            this.function = function;
+        }
+    }
+
+    private static final class UnsupportedQueryException extends RuntimeException {
+
+        private static final UnsupportedQueryException INSTANCE = new UnsupportedQueryException();
+
+        private UnsupportedQueryException() {
+            super(null, null, false, false);
+        }
+    }
+}
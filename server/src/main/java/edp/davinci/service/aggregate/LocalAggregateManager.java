@@ -0,0 +1,295 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.aggregate;
+
+import edp.core.common.MetricsProvider;
+import edp.core.exception.ServerException;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.utils.SqlUtils;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地聚合
+ * <p>
+ * 缓存 view 的明细结果（按数据源、view、权限参数和排除列区分），ttl 内同一 view 的
+ * 过滤、分组、聚合变化直接由 LocalAggregateEngine 在内存中计算，不再查询数据源；
+ * 明细超过 max-rows 或 max-table-bytes 的 view 在 ttl 内不再尝试缓存，
+ * 缓存总大小超过 max-bytes 时淘汰最久未使用的明细
+ */
+@Slf4j
+@Component
+public class LocalAggregateManager implements MetricsProvider {
+
+    @Value("${source.local-aggregate.enable:false}")
+    @Getter
+    private boolean enable;
+
+    @Value("${source.local-aggregate.ttl:300}")
+    private long ttl;
+
+    @Value("${source.local-aggregate.max-rows:200000}")
+    private int maxRows;
+
+    @Value("${source.local-aggregate.max-table-bytes:67108864}")
+    private long maxTableBytes;
+
+    @Value("${source.local-aggregate.max-bytes:268435456}")
+    private long maxBytes;
+
+    private final Map<String, FutureTask<CachedTable>> tableMap = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> oversizedMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong cachedBytes = new AtomicLong(0L);
+
+    private final AtomicLong hits = new AtomicLong(0L);
+
+    private final AtomicLong loads = new AtomicLong(0L);
+
+    private final AtomicLong oversized = new AtomicLong(0L);
+
+    private final AtomicLong unsupported = new AtomicLong(0L);
+
+    private final AtomicLong evicted = new AtomicLong(0L);
+
+    /**
+     * 由缓存的明细计算查询结果，无法在本地计算时返回 null
+     *
+     * @param sqlUtils
+     * @param key            明细的缓存 key，需包含权限参数
+     * @param baseSql        view 的明细 sql
+     * @param executeParam
+     * @param baseExcludeColumns 用户不可见的 view 列
+     * @param excludeColumns 结果中需排除的列
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     * @throws ServerException
+     */
+    public PaginateWithQueryColumns query(SqlUtils sqlUtils, String key, String baseSql, ViewExecuteParam executeParam,
+                                          Set<String> baseExcludeColumns, Set<String> excludeColumns,
+                                          String jdbcUrl, String dbVersion) throws ServerException {
+        if (!enable || !LocalAggregateEngine.isSupported(executeParam)) {
+            return null;
+        }
+
+        Long oversizedExpireAt = oversizedMap.get(key);
+        if (null != oversizedExpireAt) {
+            if (oversizedExpireAt > System.currentTimeMillis()) {
+                return null;
+            }
+            oversizedMap.remove(key);
+        }
+
+        CachedTable cached = null;
+        FutureTask<CachedTable> task = tableMap.get(key);
+        if (null != task) {
+            cached = getTable(key, task);
+            if (null != cached && cached.isExpired()) {
+                remove(key, task);
+                cached = null;
+            }
+            if (null != cached) {
+                hits.incrementAndGet();
+            }
+        }
+
+        if (null == cached) {
+            // 数据源的结果行数上限会截断明细，达到上限的明细不能用于聚合
+            int rowLimit = Math.max(0, Math.min(maxRows, sqlUtils.getResultLimit() - 1));
+            long tableBytes = Math.min(maxTableBytes, maxBytes);
+            FutureTask<CachedTable> newTask = new FutureTask<>(() -> {
+                ColumnarTable table = sqlUtils.query4Stream(baseSql, rowLimit + 1, baseExcludeColumns,
+                        (decoder, rs) -> ColumnarTable.read(decoder, rs, rowLimit, tableBytes));
+                return null == table ? null : new CachedTable(table, System.currentTimeMillis() + ttl * 1000L);
+            });
+
+            task = tableMap.putIfAbsent(key, newTask);
+            if (null == task) {
+                task = newTask;
+                newTask.run();
+                loads.incrementAndGet();
+            }
+
+            cached = getTable(key, task);
+            if (null == cached) {
+                tableMap.remove(key, task);
+                oversizedMap.put(key, System.currentTimeMillis() + ttl * 1000L);
+                oversized.incrementAndGet();
+                log.info("Base result of view({}) exceeds local aggregate limit, skip local aggregate", key);
+                return null;
+            }
+            if (task == newTask) {
+                cachedBytes.addAndGet(cached.table.getBytes());
+                evict();
+            }
+        }
+
+        cached.lastAccess = System.currentTimeMillis();
+        PaginateWithQueryColumns paginate = LocalAggregateEngine.execute(cached.table, executeParam, excludeColumns, jdbcUrl, dbVersion);
+        if (null == paginate) {
+            unsupported.incrementAndGet();
+        }
+        return paginate;
+    }
+
+    /**
+     * 刷新查询时丢弃缓存的明细，下次查询重新加载
+     *
+     * @param key
+     */
+    public void invalidate(String key) {
+        oversizedMap.remove(key);
+        FutureTask<CachedTable> task = tableMap.get(key);
+        if (null != task && task.isDone()) {
+            remove(key, task);
+        }
+    }
+
+    private CachedTable getTable(String key, FutureTask<CachedTable> task) throws ServerException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException(e.getMessage());
+        } catch (ExecutionException e) {
+            tableMap.remove(key, task);
+            Throwable cause = null == e.getCause() ? e : e.getCause();
+            log.error(cause.toString(), cause);
+            throw new ServerException(cause.getMessage());
+        }
+    }
+
+    private void remove(String key, FutureTask<CachedTable> task) {
+        if (!tableMap.remove(key, task) || !task.isDone()) {
+            return;
+        }
+        try {
+            CachedTable cached = task.get();
+            if (null != cached) {
+                cachedBytes.addAndGet(-cached.table.getBytes());
+            }
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+
+    /**
+     * 超过 max-bytes 时按最近访问时间淘汰
+     */
+    private synchronized void evict() {
+        if (cachedBytes.get() <= maxBytes) {
+            return;
+        }
+        List<Map.Entry<String, FutureTask<CachedTable>>> entries = new ArrayList<>();
+        Map<FutureTask<CachedTable>, Long> accessMap = new HashMap<>();
+        for (Map.Entry<String, FutureTask<CachedTable>> entry : tableMap.entrySet()) {
+            if (!entry.getValue().isDone()) {
+                continue;
+            }
+            try {
+                CachedTable cached = entry.getValue().get();
+                if (null != cached) {
+                    entries.add(entry);
+                    accessMap.put(entry.getValue(), cached.lastAccess);
+                }
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+        entries.sort(Comparator.comparingLong(entry -> accessMap.get(entry.getValue())));
+        for (Map.Entry<String, FutureTask<CachedTable>> entry : entries) {
+            if (cachedBytes.get() <= maxBytes) {
+                break;
+            }
+            remove(entry.getKey(), entry.getValue());
+            evicted.incrementAndGet();
+        }
+    }
+
+    @Scheduled(cron = "0 0/1 * * * *")
+    public void clearExpired() {
+        long now = System.currentTimeMillis();
+        oversizedMap.entrySet().removeIf(entry -> entry.getValue() <= now);
+        tableMap.forEach((key, task) -> {
+            if (!task.isDone()) {
+                return;
+            }
+            try {
+                CachedTable cached = task.get();
+                if (null == cached || cached.isExpired()) {
+                    remove(key, task);
+                }
+            } catch (Exception e) {
+                tableMap.remove(key, task);
+            }
+        });
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "aggregate";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enable", enable);
+        metrics.put("tables", tableMap.size());
+        metrics.put("cachedBytes", cachedBytes.get());
+        metrics.put("maxBytes", maxBytes);
+        metrics.put("hits", hits.get());
+        metrics.put("loads", loads.get());
+        metrics.put("oversized", oversized.get());
+        metrics.put("unsupported", unsupported.get());
+        metrics.put("evicted", evicted.get());
+        return metrics;
+    }
+
+    private static class CachedTable {
+
+        private final ColumnarTable table;
+
+        private final long expireAt;
+
+        private volatile long lastAccess;
+
+        private CachedTable(ColumnarTable table, long expireAt) {
+            this.table = table;
+            this.expireAt = expireAt;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        private boolean isExpired() {
+            return expireAt <= System.currentTimeMillis();
+        }
+    }
+}
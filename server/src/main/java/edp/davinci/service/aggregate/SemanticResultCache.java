@@ -0,0 +1,309 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.aggregate;
+
+import com.alibaba.fastjson.JSON;
+import edp.core.common.MetricsProvider;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.utils.CollectionUtils;
+import edp.davinci.core.model.SqlFilter;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语义结果缓存
+ * <p>
+ * 按 view 明细（数据源、view、权限参数和排除列）、过滤、分组和聚合索引数据源返回的完整聚合结果；
+ * 请求的分组是已缓存结果分组的子集、过滤包含已缓存结果的全部过滤且多出的过滤只引用其分组列时，
+ * 由已缓存结果在内存中上卷，不再查询数据源
+ */
+@Slf4j
+@Component
+public class SemanticResultCache implements MetricsProvider {
+
+    @Value("${source.semantic-cache.enable:false}")
+    @Getter
+    private boolean enable;
+
+    @Value("${source.semantic-cache.ttl:300}")
+    private long ttl;
+
+    @Value("${source.semantic-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${source.semantic-cache.max-rows:50000}")
+    private int maxRows;
+
+    private final Map<String, List<CachedResult>> scopeMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong(0L);
+
+    private final AtomicLong misses = new AtomicLong(0L);
+
+    private final AtomicLong stored = new AtomicLong(0L);
+
+    private final AtomicLong evicted = new AtomicLong(0L);
+
+    /**
+     * 由已缓存的结果上卷出查询结果，没有可用的结果时返回 null
+     *
+     * @param scope          view 明细的 key，需包含权限参数
+     * @param executeParam
+     * @param excludeColumns 结果中需排除的列
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public PaginateWithQueryColumns query(String scope, ViewExecuteParam executeParam, Set<String> excludeColumns,
+                                          String jdbcUrl, String dbVersion) {
+        if (!enable || !isCacheable(executeParam)) {
+            return null;
+        }
+        List<CachedResult> results = scopeMap.get(scope);
+        if (CollectionUtils.isEmpty(results)) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        List<String> groups = getGroups(executeParam);
+        Set<String> filters = getFilters(executeParam);
+
+        // 优先由行数最少的结果上卷
+        List<CachedResult> candidates = new ArrayList<>(results);
+        candidates.sort(Comparator.comparingInt(cached -> cached.table.getRowCount()));
+        for (CachedResult cached : candidates) {
+            if (cached.isExpired() || !cached.groups.containsAll(groups) || !filters.containsAll(cached.filters)) {
+                continue;
+            }
+            List<String> extraFilters = new ArrayList<>();
+            for (String filter : filters) {
+                if (!cached.filters.contains(filter)) {
+                    extraFilters.add(filter);
+                }
+            }
+            if (!isOnGroups(extraFilters, cached.groups, jdbcUrl, dbVersion)) {
+                continue;
+            }
+            PaginateWithQueryColumns paginate = LocalAggregateEngine.rollUp(cached.table, cached.groups, executeParam,
+                    extraFilters, excludeColumns, jdbcUrl, dbVersion);
+            if (null != paginate) {
+                cached.lastAccess = System.currentTimeMillis();
+                hits.incrementAndGet();
+                return paginate;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 缓存数据源返回的聚合结果；分页、limit 或数据源结果行数上限截断的结果不完整，不缓存
+     *
+     * @param scope
+     * @param executeParam
+     * @param paginate
+     * @param resultLimit  数据源的结果行数上限
+     */
+    public void put(String scope, ViewExecuteParam executeParam, PaginateWithQueryColumns paginate, int resultLimit) {
+        if (!enable || null == paginate || null == paginate.getResultList() || null == paginate.getColumns()
+                || !isCacheable(executeParam) || CollectionUtils.isEmpty(executeParam.getGroups())
+                || executeParam.getLimit() > 0 || executeParam.getPageNo() > 0 || executeParam.getPageSize() > 0) {
+            return;
+        }
+        List<Map<String, Object>> rows = paginate.getResultList();
+        if (rows.size() > maxRows || rows.size() >= resultLimit) {
+            return;
+        }
+
+        CachedResult cached = new CachedResult(getGroups(executeParam), getFilters(executeParam), getMeasures(executeParam),
+                ColumnarTable.of(paginate.getColumns(), rows), System.currentTimeMillis() + ttl * 1000L);
+        List<CachedResult> results = scopeMap.computeIfAbsent(scope, k -> new CopyOnWriteArrayList<>());
+        // 过滤相同、分组和聚合都不多于新结果的旧结果可由新结果上卷
+        results.removeIf(old -> old.filters.equals(cached.filters) && cached.groups.containsAll(old.groups)
+                && cached.measures.containsAll(old.measures));
+        results.add(cached);
+        stored.incrementAndGet();
+        evict();
+    }
+
+    private static boolean isCacheable(ViewExecuteParam executeParam) {
+        if (!LocalAggregateEngine.isSupported(executeParam)) {
+            return false;
+        }
+        if (!CollectionUtils.isEmpty(executeParam.getAggregators())) {
+            for (Aggregator aggregator : executeParam.getAggregators()) {
+                if (!LocalAggregateEngine.isRollUpSupported(aggregator)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static List<String> getGroups(ViewExecuteParam executeParam) {
+        List<String> groups = new ArrayList<>();
+        if (!CollectionUtils.isEmpty(executeParam.getGroups())) {
+            executeParam.getGroups().forEach(group -> groups.add(group.trim()));
+        }
+        return groups;
+    }
+
+    private static Set<String> getFilters(ViewExecuteParam executeParam) {
+        Set<String> filters = new HashSet<>();
+        if (!CollectionUtils.isEmpty(executeParam.getFilters())) {
+            executeParam.getFilters().forEach(filter -> filters.add(filter.trim()));
+        }
+        return filters;
+    }
+
+    private static Set<String> getMeasures(ViewExecuteParam executeParam) {
+        Set<String> measures = new HashSet<>();
+        if (!CollectionUtils.isEmpty(executeParam.getAggregators())) {
+            executeParam.getAggregators().forEach(aggregator ->
+                    measures.add(aggregator.getFunc().trim().toUpperCase() + "(" + aggregator.getColumn().trim() + ")"));
+        }
+        return measures;
+    }
+
+    /**
+     * 过滤是否只引用 groups 中的列
+     */
+    private static boolean isOnGroups(List<String> filters, List<String> groups, String jdbcUrl, String dbVersion) {
+        try {
+            for (String filter : filters) {
+                if (!isOnGroups(JSON.parseObject(filter, SqlFilter.class), groups, jdbcUrl, dbVersion)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean isOnGroups(SqlFilter filter, List<String> groups, String jdbcUrl, String dbVersion) {
+        if (SqlFilter.Type.relation.equalsIgnoreCase(filter.getType())) {
+            if (CollectionUtils.isEmpty(filter.getChildren())) {
+                return false;
+            }
+            for (SqlFilter child : filter.getChildren()) {
+                if (!isOnGroups(child, groups, jdbcUrl, dbVersion)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return null != filter.getName()
+                && groups.contains(ViewExecuteParam.unquoteField(filter.getName().trim(), jdbcUrl, dbVersion));
+    }
+
+    /**
+     * 超过 max-entries 时按最近访问时间淘汰
+     */
+    private synchronized void evict() {
+        List<Map.Entry<String, CachedResult>> entries = new ArrayList<>();
+        scopeMap.forEach((scope, results) -> results.forEach(cached -> entries.add(new AbstractMap.SimpleEntry<>(scope, cached))));
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        for (int i = 0; i < entries.size() - maxEntries; i++) {
+            remove(entries.get(i).getKey(), entries.get(i).getValue());
+            evicted.incrementAndGet();
+        }
+    }
+
+    private void remove(String scope, CachedResult cached) {
+        List<CachedResult> results = scopeMap.get(scope);
+        if (null != results) {
+            results.remove(cached);
+            scopeMap.computeIfPresent(scope, (k, v) -> v.isEmpty() ? null : v);
+        }
+    }
+
+    @Scheduled(cron = "0 0/1 * * * *")
+    public void clearExpired() {
+        scopeMap.forEach((scope, results) -> results.forEach(cached -> {
+            if (cached.isExpired()) {
+                remove(scope, cached);
+            }
+        }));
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "semantic-cache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        int entries = 0;
+        for (List<CachedResult> results : scopeMap.values()) {
+            entries += results.size();
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enable", enable);
+        metrics.put("scopes", scopeMap.size());
+        metrics.put("entries", entries);
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("stored", stored.get());
+        metrics.put("evicted", evicted.get());
+        return metrics;
+    }
+
+    private static class CachedResult {
+
+        private final List<String> groups;
+
+        private final Set<String> filters;
+
+        private final Set<String> measures;
+
+        private final ColumnarTable table;
+
+        private final long expireAt;
+
+        private volatile long lastAccess;
+
+        private CachedResult(List<String> groups, Set<String> filters, Set<String> measures, ColumnarTable table, long expireAt) {
+            this.groups = groups;
+            this.filters = filters;
+            this.measures = measures;
+            this.table = table;
+            this.expireAt = expireAt;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        private boolean isExpired() {
+            return expireAt <= System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,609 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.aggregate;
+
+import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSON;
+import edp.core.common.MetricsProvider;
+import edp.core.enums.TimeGrainEnum;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.MD5Util;
+import edp.davinci.core.enums.SqlOperatorEnum;
+import edp.davinci.core.model.SqlFilter;
+import edp.davinci.dto.viewDto.TimeGrain;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 时间分桶缓存
+ * <p>
+ * 按时间粒度分组且带时间范围过滤的查询（如最近 30 天按天），按桶缓存完整且已结束的桶；
+ * 再次查询时只从数据源查询第一个未缓存或未结束的桶及之后的数据，与缓存的桶合并后返回。
+ * 桶结束 close-delay 秒后才视为已结束，以容纳迟到的数据，当前时间按 timezone（数据源的时区）计算；
+ * 指定了时区的时间粒度不缓存；刷新查询不使用缓存的桶，但缓存查询到的桶
+ */
+@Slf4j
+@Component
+public class TimeBucketCache implements MetricsProvider {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final DateTimeFormatter MINUTE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private static final int MAX_QUERY_BUCKETS = 10000;
+
+    @Value("${source.time-bucket.enable:false}")
+    @Getter
+    private boolean enable;
+
+    @Value("${source.time-bucket.ttl:86400}")
+    private long ttl;
+
+    @Value("${source.time-bucket.close-delay:300}")
+    private long closeDelay;
+
+    @Value("${source.time-bucket.max-buckets:20000}")
+    private int maxBuckets;
+
+    /**
+     * 数据源的时区，为空时使用服务器时区
+     */
+    @Value("${source.time-bucket.timezone:}")
+    private String timezone;
+
+    private ZoneId zoneId;
+
+    private final Map<String, Series> seriesMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong(0L);
+
+    private final AtomicLong fetches = new AtomicLong(0L);
+
+    private final AtomicLong stored = new AtomicLong(0L);
+
+    private final AtomicLong evicted = new AtomicLong(0L);
+
+    @PostConstruct
+    public void init() {
+        zoneId = StringUtils.isEmpty(timezone) ? ZoneId.systemDefault() : ZoneId.of(timezone.trim());
+    }
+
+    /**
+     * 计算需要从数据源查询的范围，不能按桶缓存的查询返回 null；刷新查询从第一个桶开始查询
+     *
+     * @param scope          view 明细的 key，需包含权限参数
+     * @param executeParam
+     * @param excludeColumns 结果中需排除的列
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public Plan plan(String scope, ViewExecuteParam executeParam, Set<String> excludeColumns, String jdbcUrl, String dbVersion) {
+        if (!enable || !isSupported(executeParam)) {
+            return null;
+        }
+        TimeGrain timeGrain = executeParam.getTimeGrains().get(0);
+        String column = timeGrain.getColumn().trim();
+        TimeGrainEnum grain = TimeGrainEnum.grainOf(timeGrain.getGrain());
+        if (null == grain || !StringUtils.isEmpty(timeGrain.getTimezone())
+                || !executeParam.getGroups().contains(timeGrain.getColumn())
+                || (null != excludeColumns && excludeColumns.contains(column))) {
+            return null;
+        }
+
+        // 时间列上的范围过滤决定桶的范围，其他过滤作为缓存 key 的一部分
+        Range range = new Range();
+        List<String> otherFilters = new ArrayList<>();
+        if (!CollectionUtils.isEmpty(executeParam.getFilters())) {
+            for (String str : executeParam.getFilters()) {
+                SqlFilter filter;
+                try {
+                    filter = JSON.parseObject(str, SqlFilter.class);
+                } catch (Exception e) {
+                    return null;
+                }
+                if (SqlFilter.Type.filter.equalsIgnoreCase(filter.getType()) && null != filter.getName()
+                        && column.equals(ViewExecuteParam.unquoteField(filter.getName().trim(), jdbcUrl, dbVersion))) {
+                    if (!range.add(filter)) {
+                        return null;
+                    }
+                } else {
+                    otherFilters.add(str.trim());
+                }
+            }
+        }
+        if (null == range.lower) {
+            return null;
+        }
+
+        boolean sundayStart = "sunday".equalsIgnoreCase(timeGrain.getWeekStart());
+        LocalDateTime now = LocalDateTime.now(zoneId);
+        LocalDateTime closedBefore = now.minusSeconds(Math.max(0L, closeDelay));
+        LocalDateTime end = null == range.upper || range.upper.isAfter(now) ? now : range.upper;
+
+        List<LocalDateTime> starts = new ArrayList<>();
+        List<Boolean> cacheable = new ArrayList<>();
+        LocalDateTime start = truncate(range.lower, grain, sundayStart);
+        while (start.isBefore(end) || (start.equals(end) && (end.equals(now) || range.upperInclusive))) {
+            if (starts.size() >= MAX_QUERY_BUCKETS) {
+                return null;
+            }
+            LocalDateTime next = next(start, grain);
+            boolean full = (start.isAfter(range.lower) || (start.equals(range.lower) && range.lowerInclusive))
+                    && (null == range.upper || !next.isAfter(range.upper));
+            starts.add(start);
+            cacheable.add(full && !next.isAfter(closedBefore));
+            start = next;
+        }
+        if (starts.isEmpty()) {
+            return null;
+        }
+
+        Collections.sort(otherFilters);
+        List<String> sortedExcludeColumns = null == excludeColumns ? new ArrayList<>() : new ArrayList<>(excludeColumns);
+        Collections.sort(sortedExcludeColumns);
+        String key = MD5Util.getMD5(scope + JSON.toJSONString(executeParam.getGroups()) + JSON.toJSONString(executeParam.getAggregators())
+                + JSON.toJSONString(timeGrain) + JSON.toJSONString(otherFilters) + JSON.toJSONString(sortedExcludeColumns), true, 32);
+
+        Series series = executeParam.getFlush() ? null : seriesMap.get(key);
+        int fetchIndex = starts.size();
+        for (int i = 0; i < starts.size(); i++) {
+            if (!cacheable.get(i) || null == series || null == series.get(starts.get(i))) {
+                fetchIndex = i;
+                break;
+            }
+        }
+
+        Plan plan = new Plan(key, column, grain, sundayStart, starts, cacheable, fetchIndex);
+        if (fetchIndex > 0 && fetchIndex < starts.size()) {
+            plan.rangeFilter = getRangeFilter(range, starts.get(fetchIndex));
+        }
+        return plan;
+    }
+
+    /**
+     * 合并缓存的桶与数据源查询的结果，并缓存新结束的桶；无法合并时返回 null
+     *
+     * @param plan
+     * @param executeParam
+     * @param fetched      按 plan 从数据源查询的结果，不需要查询时为 null
+     * @param resultLimit  数据源的结果行数上限
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     */
+    public PaginateWithQueryColumns merge(Plan plan, ViewExecuteParam executeParam, PaginateWithQueryColumns fetched, int resultLimit,
+                                          String jdbcUrl, String dbVersion) {
+        boolean complete = plan.fetchIndex == 0;
+        if (null != fetched && (null == fetched.getResultList() || fetched.getResultList().size() >= resultLimit)) {
+            return complete ? fetched : null;
+        }
+
+        List<QueryColumn> columns = null;
+        List<Map<String, Object>> rows = new ArrayList<>();
+        if (plan.fetchIndex > 0) {
+            Series series = seriesMap.get(plan.key);
+            if (null == series || (null != fetched && !isSameColumns(series.columns, fetched.getColumns()))) {
+                return null;
+            }
+            for (int i = 0; i < plan.fetchIndex; i++) {
+                List<Map<String, Object>> bucketRows = series.get(plan.starts.get(i));
+                if (null == bucketRows) {
+                    return null;
+                }
+                bucketRows.forEach(row -> rows.add(new LinkedHashMap<>(row)));
+            }
+            columns = series.columns;
+            hits.addAndGet(plan.fetchIndex);
+        }
+
+        if (null != fetched) {
+            fetches.incrementAndGet();
+            columns = fetched.getColumns();
+            rows.addAll(fetched.getResultList());
+            store(plan, fetched);
+        }
+
+        List<String> labels = new ArrayList<>();
+        columns.forEach(queryColumn -> labels.add(queryColumn.getName()));
+        if (!LocalAggregateEngine.sortRows(rows, executeParam.getOrders(), labels, jdbcUrl, dbVersion)) {
+            return complete ? fetched : null;
+        }
+
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setColumns(columns);
+        paginate.setPageNo(1);
+        paginate.setPageSize(rows.size());
+        paginate.setTotalCount(rows.size());
+        paginate.setResultList(rows);
+        return paginate;
+    }
+
+    private void store(Plan plan, PaginateWithQueryColumns fetched) {
+        Map<LocalDateTime, List<Map<String, Object>>> bucketMap = new HashMap<>();
+        for (Map<String, Object> row : fetched.getResultList()) {
+            LocalDateTime time = parseTime(row.get(plan.column));
+            // 数据源截断的结果与本地计算的桶不一致时不缓存
+            if (null == time || !time.equals(truncate(time, plan.grain, plan.sundayStart))) {
+                log.debug("Time bucket value {} of {} is not aligned, skip caching", row.get(plan.column), plan.column);
+                return;
+            }
+            bucketMap.computeIfAbsent(time, k -> new ArrayList<>()).add(new LinkedHashMap<>(row));
+        }
+
+        Series series = seriesMap.compute(plan.key, (k, v) ->
+                null == v || !isSameColumns(v.columns, fetched.getColumns()) ? new Series(fetched.getColumns()) : v);
+        long expireAt = System.currentTimeMillis() + ttl * 1000L;
+        for (int i = plan.fetchIndex; i < plan.starts.size(); i++) {
+            if (plan.cacheable.get(i)) {
+                LocalDateTime start = plan.starts.get(i);
+                series.buckets.put(start, new CachedBucket(bucketMap.getOrDefault(start, Collections.emptyList()), expireAt));
+                stored.incrementAndGet();
+            }
+        }
+        evict();
+    }
+
+    private static boolean isSupported(ViewExecuteParam executeParam) {
+        return !executeParam.isNativeQuery()
+                && !executeParam.isCursor()
+                && !executeParam.isTopN()
+                && !executeParam.isBin()
+                && !executeParam.isGeoCluster()
+                && CollectionUtils.isEmpty(executeParam.getSeek())
+                && (null == executeParam.getDownsample() || !executeParam.getDownsample().isValid())
+                && null != executeParam.getTimeGrains() && executeParam.getTimeGrains().size() == 1
+                && null != executeParam.getTimeGrains().get(0) && !StringUtils.isEmpty(executeParam.getTimeGrains().get(0).getColumn())
+                && !CollectionUtils.isEmpty(executeParam.getGroups())
+                && executeParam.getLimit() <= 0 && executeParam.getPageNo() < 1 && executeParam.getPageSize() < 1;
+    }
+
+    private static boolean isSameColumns(List<QueryColumn> a, List<QueryColumn> b) {
+        if (null == a || null == b || a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).getName().equals(b.get(i).getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从 fetchFrom 开始查询的过滤，沿用原下界过滤的列名和类型
+     */
+    private static String getRangeFilter(Range range, LocalDateTime fetchFrom) {
+        SqlFilter filter = new SqlFilter();
+        filter.setName(range.lowerFilter.getName());
+        filter.setType(SqlFilter.Type.filter);
+        filter.setSqlType(range.lowerFilter.getSqlType());
+        filter.setOperator(">=");
+        boolean dateOnly = range.lowerDateOnly && fetchFrom.equals(fetchFrom.truncatedTo(ChronoUnit.DAYS));
+        filter.setValue("'" + (dateOnly ? DATE_FORMATTER.format(fetchFrom) : DATE_TIME_FORMATTER.format(fetchFrom)) + "'");
+        return JSON.toJSONString(filter);
+    }
+
+    static LocalDateTime truncate(LocalDateTime time, TimeGrainEnum grain, boolean sundayStart) {
+        switch (grain) {
+            case MINUTE:
+                return time.truncatedTo(ChronoUnit.MINUTES);
+            case HOUR:
+                return time.truncatedTo(ChronoUnit.HOURS);
+            case DAY:
+                return time.truncatedTo(ChronoUnit.DAYS);
+            case WEEK:
+                return time.truncatedTo(ChronoUnit.DAYS)
+                        .with(TemporalAdjusters.previousOrSame(sundayStart ? DayOfWeek.SUNDAY : DayOfWeek.MONDAY));
+            case MONTH:
+                return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+            case QUARTER:
+                LocalDateTime month = time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+                return month.withMonth((month.getMonthValue() - 1) / 3 * 3 + 1);
+            default:
+                return time.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1);
+        }
+    }
+
+    private static LocalDateTime next(LocalDateTime start, TimeGrainEnum grain) {
+        switch (grain) {
+            case MINUTE:
+                return start.plusMinutes(1L);
+            case HOUR:
+                return start.plusHours(1L);
+            case DAY:
+                return start.plusDays(1L);
+            case WEEK:
+                return start.plusWeeks(1L);
+            case MONTH:
+                return start.plusMonths(1L);
+            case QUARTER:
+                return start.plusMonths(3L);
+            default:
+                return start.plusYears(1L);
+        }
+    }
+
+    static LocalDateTime parseTime(Object value) {
+        if (null == value) {
+            return null;
+        }
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime();
+        }
+        if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate().atStartOfDay();
+        }
+        if (value instanceof Date) {
+            return LocalDateTime.ofInstant(((Date) value).toInstant(), ZoneId.systemDefault());
+        }
+        if (value instanceof LocalDateTime) {
+            return (LocalDateTime) value;
+        }
+        if (value instanceof LocalDate) {
+            return ((LocalDate) value).atStartOfDay();
+        }
+        String str = value.toString().trim();
+        if (str.length() >= 2 && str.startsWith("'") && str.endsWith("'")) {
+            str = str.substring(1, str.length() - 1).trim();
+        }
+        int dot = str.indexOf('.');
+        if (dot > 0) {
+            str = str.substring(0, dot);
+        }
+        str = str.replace('T', ' ');
+        try {
+            switch (str.length()) {
+                case 10:
+                    return LocalDate.parse(str, DATE_FORMATTER).atStartOfDay();
+                case 16:
+                    return LocalDateTime.parse(str, MINUTE_FORMATTER);
+                default:
+                    return LocalDateTime.parse(str, DATE_TIME_FORMATTER);
+            }
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 超过 max-buckets 时按最近访问时间淘汰
+     */
+    private synchronized void evict() {
+        List<Object[]> entries = new ArrayList<>();
+        seriesMap.forEach((key, series) -> series.buckets.forEach((start, bucket) -> entries.add(new Object[]{key, start, bucket})));
+        if (entries.size() <= maxBuckets) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(entry -> ((CachedBucket) entry[2]).lastAccess));
+        for (int i = 0; i < entries.size() - maxBuckets; i++) {
+            Series series = seriesMap.get(entries.get(i)[0]);
+            if (null != series) {
+                series.buckets.remove(entries.get(i)[1], entries.get(i)[2]);
+            }
+            evicted.incrementAndGet();
+        }
+        seriesMap.entrySet().removeIf(entry -> entry.getValue().buckets.isEmpty());
+    }
+
+    @Scheduled(cron = "0 0/1 * * * *")
+    public void clearExpired() {
+        seriesMap.forEach((key, series) -> series.buckets.entrySet().removeIf(entry -> entry.getValue().isExpired()));
+        seriesMap.entrySet().removeIf(entry -> entry.getValue().buckets.isEmpty());
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "time-bucket";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        int buckets = 0;
+        for (Series series : seriesMap.values()) {
+            buckets += series.buckets.size();
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enable", enable);
+        metrics.put("series", seriesMap.size());
+        metrics.put("buckets", buckets);
+        metrics.put("maxBuckets", maxBuckets);
+        metrics.put("bucketHits", hits.get());
+        metrics.put("fetches", fetches.get());
+        metrics.put("stored", stored.get());
+        metrics.put("evicted", evicted.get());
+        return metrics;
+    }
+
+    /**
+     * 一次查询的分桶和需要从数据源查询的范围
+     */
+    public static class Plan {
+
+        private final String key;
+
+        private final String column;
+
+        private final TimeGrainEnum grain;
+
+        private final boolean sundayStart;
+
+        private final List<LocalDateTime> starts;
+
+        private final List<Boolean> cacheable;
+
+        /**
+         * 从该下标的桶开始从数据源查询，之前的桶由缓存提供
+         */
+        private final int fetchIndex;
+
+        /**
+         * 只查询部分范围时追加的过滤，为 null 时查询完整范围
+         */
+        @Getter
+        private String rangeFilter;
+
+        private Plan(String key, String column, TimeGrainEnum grain, boolean sundayStart,
+                     List<LocalDateTime> starts, List<Boolean> cacheable, int fetchIndex) {
+            this.key = key;
+            this.column = column;
+            this.grain = grain;
+            this.sundayStart = sundayStart;
+            this.starts = starts;
+            this.cacheable = cacheable;
+            this.fetchIndex = fetchIndex;
+        }
+
+        public boolean isFetchRequired() {
+            return fetchIndex < starts.size();
+        }
+    }
+
+    /**
+     * 时间列上的范围过滤
+     */
+    private static class Range {
+
+        private LocalDateTime lower;
+
+        private boolean lowerInclusive;
+
+        private boolean lowerDateOnly;
+
+        private SqlFilter lowerFilter;
+
+        private LocalDateTime upper;
+
+        private boolean upperInclusive;
+
+        private boolean add(SqlFilter filter) {
+            if (null == filter.getOperator() || null == filter.getValue()) {
+                return false;
+            }
+            String operator = filter.getOperator().trim().toUpperCase();
+            Object value = filter.getValue();
+            if (SqlOperatorEnum.BETWEEN.getValue().equals(operator)) {
+                if (!(value instanceof List) || ((List<?>) value).size() != 2) {
+                    return false;
+                }
+                return addLower(((List<?>) value).get(0), true, filter) && addUpper(((List<?>) value).get(1), true);
+            }
+            switch (operator) {
+                case ">=":
+                    return addLower(value, true, filter);
+                case ">":
+                    return addLower(value, false, filter);
+                case "<=":
+                    return addUpper(value, true);
+                case "<":
+                    return addUpper(value, false);
+                default:
+                    return false;
+            }
+        }
+
+        private boolean addLower(Object value, boolean inclusive, SqlFilter filter) {
+            LocalDateTime time = parseTime(value);
+            if (null == time) {
+                return false;
+            }
+            if (null == lower || time.isAfter(lower) || (time.equals(lower) && !inclusive)) {
+                lower = time;
+                lowerInclusive = inclusive;
+                lowerDateOnly = value.toString().replace("'", "").trim().length() == 10;
+                lowerFilter = filter;
+            }
+            return true;
+        }
+
+        private boolean addUpper(Object value, boolean inclusive) {
+            LocalDateTime time = parseTime(value);
+            if (null == time) {
+                return false;
+            }
+            if (null == upper || time.isBefore(upper) || (time.equals(upper) && !inclusive)) {
+                upper = time;
+                upperInclusive = inclusive;
+            }
+            return true;
+        }
+    }
+
+    private static class Series {
+
+        private final List<QueryColumn> columns;
+
+        private final Map<LocalDateTime, CachedBucket> buckets = new ConcurrentHashMap<>();
+
+        private Series(List<QueryColumn> columns) {
+            this.columns = columns;
+        }
+
+        private List<Map<String, Object>> get(LocalDateTime start) {
+            CachedBucket bucket = buckets.get(start);
+            if (null == bucket || bucket.isExpired()) {
+                return null;
+            }
+            bucket.lastAccess = System.currentTimeMillis();
+            return bucket.rows;
+        }
+    }
+
+    private static class CachedBucket {
+
+        private final List<Map<String, Object>> rows;
+
+        private final long expireAt;
+
+        private volatile long lastAccess;
+
+        private CachedBucket(List<Map<String, Object>> rows, long expireAt) {
+            this.rows = rows;
+            this.expireAt = expireAt;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        private boolean isExpired() {
+            return expireAt <= System.currentTimeMillis();
+        }
+    }
+}
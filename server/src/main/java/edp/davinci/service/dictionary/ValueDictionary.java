@@ -0,0 +1,217 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.dictionary;
+
+import com.alibaba.druid.util.StringUtils;
+import edp.core.model.Paginate;
+import edp.davinci.service.aggregate.LocalAggregateEngine;
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * 单列去重值的有序索引
+ * <p>
+ * 值按自然顺序排列用于分页；另保存按小写字符串排序的下标，前缀匹配二分查找，包含匹配逐个比较小写字符串
+ */
+public class ValueDictionary {
+
+    private final String label;
+
+    private final Object[] values;
+
+    private final String[] lowerValues;
+
+    private final Integer[] prefixOrder;
+
+    @Getter
+    private final long builtAt;
+
+    private ValueDictionary(String label, Object[] values) {
+        this.label = label;
+        this.values = values;
+        this.lowerValues = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            lowerValues[i] = null == values[i] ? null : values[i].toString().toLowerCase();
+        }
+        this.prefixOrder = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            prefixOrder[i] = i;
+        }
+        Arrays.sort(prefixOrder, (a, b) -> compareLower(lowerValues[a], lowerValues[b]));
+        this.builtAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 由单列 distinct 查询结果构造
+     *
+     * @param column
+     * @param rows
+     * @return
+     */
+    public static ValueDictionary of(String column, List<Map<String, Object>> rows) {
+        String label = column;
+        Object[] values = new Object[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, Object> row = rows.get(i);
+            if (row.isEmpty()) {
+                continue;
+            }
+            Map.Entry<String, Object> entry = row.entrySet().iterator().next();
+            label = entry.getKey();
+            values[i] = entry.getValue();
+        }
+        Arrays.sort(values, LocalAggregateEngine::compareValues);
+        return new ValueDictionary(label, values);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * 按关键字（不区分大小写）搜索并分页，结果按值的自然顺序排列
+     *
+     * @param keyword  为空时返回全部值
+     * @param prefix   前缀匹配，否则包含匹配
+     * @param pageNo
+     * @param pageSize 小于 1 时不分页
+     * @return
+     */
+    public Paginate<Map<String, Object>> search(String keyword, boolean prefix, int pageNo, int pageSize) {
+        int[] matches;
+        int count = 0;
+        if (StringUtils.isEmpty(keyword)) {
+            matches = null;
+            count = values.length;
+        } else {
+            String lower = keyword.toLowerCase();
+            matches = new int[values.length];
+            if (prefix) {
+                int from = lowerBound(lower);
+                for (int i = from; i < prefixOrder.length; i++) {
+                    String value = lowerValues[prefixOrder[i]];
+                    if (null == value || !value.startsWith(lower)) {
+                        break;
+                    }
+                    matches[count++] = prefixOrder[i];
+                }
+                Arrays.sort(matches, 0, count);
+            } else {
+                for (int i = 0; i < lowerValues.length; i++) {
+                    if (null != lowerValues[i] && lowerValues[i].contains(lower)) {
+                        matches[count++] = i;
+                    }
+                }
+            }
+        }
+
+        int start = 0;
+        int end = count;
+        Paginate<Map<String, Object>> paginate = new Paginate<>();
+        if (pageSize > 0) {
+            int page = Math.max(1, pageNo);
+            start = (int) Math.min(count, (long) (page - 1) * pageSize);
+            end = (int) Math.min(count, (long) start + pageSize);
+            paginate.setPageNo(page);
+            paginate.setPageSize(pageSize);
+        } else {
+            paginate.setPageNo(1);
+            paginate.setPageSize(count);
+        }
+        paginate.setTotalCount(count);
+
+        List<Map<String, Object>> resultList = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            Map<String, Object> row = new LinkedHashMap<>(2);
+            row.put(label, values[null == matches ? i : matches[i]]);
+            resultList.add(row);
+        }
+        paginate.setResultList(resultList);
+        return paginate;
+    }
+
+    /**
+     * 在任意列上按关键字过滤并分页，用于未建索引的多列 distinct 结果
+     *
+     * @param rows
+     * @param keyword
+     * @param prefix
+     * @param pageNo
+     * @param pageSize
+     * @return
+     */
+    public static Paginate<Map<String, Object>> search(List<Map<String, Object>> rows, String keyword, boolean prefix, int pageNo, int pageSize) {
+        List<Map<String, Object>> matches = rows;
+        if (!StringUtils.isEmpty(keyword)) {
+            String lower = keyword.toLowerCase();
+            matches = new ArrayList<>();
+            for (Map<String, Object> row : rows) {
+                for (Object value : row.values()) {
+                    String str = null == value ? null : value.toString().toLowerCase();
+                    if (null != str && (prefix ? str.startsWith(lower) : str.contains(lower))) {
+                        matches.add(row);
+                        break;
+                    }
+                }
+            }
+        }
+
+        Paginate<Map<String, Object>> paginate = new Paginate<>();
+        paginate.setTotalCount(matches.size());
+        if (pageSize > 0) {
+            int page = Math.max(1, pageNo);
+            int start = (int) Math.min(matches.size(), (long) (page - 1) * pageSize);
+            int end = (int) Math.min(matches.size(), (long) start + pageSize);
+            paginate.setPageNo(page);
+            paginate.setPageSize(pageSize);
+            paginate.setResultList(new ArrayList<>(matches.subList(start, end)));
+        } else {
+            paginate.setPageNo(1);
+            paginate.setPageSize(matches.size());
+            paginate.setResultList(matches);
+        }
+        return paginate;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = prefixOrder.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareLower(lowerValues[prefixOrder[mid]], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 空值排在最前
+     */
+    private static int compareLower(String a, String b) {
+        if (null == a) {
+            return null == b ? 0 : -1;
+        }
+        return null == b ? 1 : a.compareTo(b);
+    }
+}
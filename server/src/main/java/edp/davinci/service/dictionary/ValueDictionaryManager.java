@@ -0,0 +1,249 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.dictionary;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.common.MetricsProvider;
+import edp.core.exception.ServerException;
+import edp.core.model.Paginate;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 控制器去重值字典
+ * <p>
+ * 按 (数据源, distinct sql) 缓存单列去重值的有序索引，关键字搜索和分页在内存中完成；
+ * 首次访问同步构建，过期后继续使用旧字典并在后台重建，同一字典同时只有一个构建任务
+ */
+@Slf4j
+@Component
+public class ValueDictionaryManager implements MetricsProvider {
+
+    @Value("${source.value-dictionary.enable:false}")
+    @Getter
+    private boolean enable;
+
+    @Value("${source.value-dictionary.ttl:600}")
+    private long ttl;
+
+    @Value("${source.value-dictionary.max-dictionaries:200}")
+    private int maxDictionaries;
+
+    @Value("${source.value-dictionary.concurrency:2}")
+    private int concurrency;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<String, Entry> dictionaryMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong(0L);
+
+    private final AtomicLong builds = new AtomicLong(0L);
+
+    private final AtomicLong refreshes = new AtomicLong(0L);
+
+    private final AtomicLong failed = new AtomicLong(0L);
+
+    private final AtomicLong evicted = new AtomicLong(0L);
+
+    @PostConstruct
+    public void init() {
+        int threads = Math.max(1, concurrency);
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(Math.max(16, maxDictionaries)),
+                new ThreadFactoryBuilder().setNameFormat("Value-dictionary-%d").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在字典中搜索去重值
+     *
+     * @param key      字典 key，需包含数据源和权限变量渲染后的 sql
+     * @param column   去重列
+     * @param loader   查询全部去重值
+     * @param keyword
+     * @param prefix
+     * @param pageNo
+     * @param pageSize
+     * @return
+     * @throws ServerException
+     */
+    public Paginate<Map<String, Object>> search(String key, String column, Callable<List<Map<String, Object>>> loader,
+                                                String keyword, boolean prefix, int pageNo, int pageSize) throws ServerException {
+        Entry entry = dictionaryMap.computeIfAbsent(key, k -> new Entry());
+        entry.lastAccess = System.currentTimeMillis();
+
+        ValueDictionary dictionary = entry.dictionary;
+        if (null == dictionary) {
+            dictionary = await(entry, entry.build(key, column, loader));
+            builds.incrementAndGet();
+            evictIfNecessary();
+        } else {
+            hits.incrementAndGet();
+            if (dictionary.getBuiltAt() + ttl * 1000L <= System.currentTimeMillis()) {
+                FutureTask<ValueDictionary> task = entry.build(key, column, loader);
+                if (null != task) {
+                    try {
+                        executor.execute(task);
+                        refreshes.incrementAndGet();
+                    } catch (RejectedExecutionException e) {
+                        entry.reset(task);
+                    }
+                }
+            }
+        }
+        return dictionary.search(keyword, prefix, pageNo, pageSize);
+    }
+
+    private ValueDictionary await(Entry entry, FutureTask<ValueDictionary> task) throws ServerException {
+        FutureTask<ValueDictionary> current = null == task ? entry.task : task;
+        if (null != task) {
+            task.run();
+        }
+        try {
+            if (null != current) {
+                return current.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = null == e.getCause() ? e : e.getCause();
+            throw cause instanceof ServerException ? (ServerException) cause : new ServerException(cause.getMessage());
+        }
+        // 等待期间其他线程已完成构建
+        if (null == entry.dictionary) {
+            throw new ServerException("Build value dictionary failed");
+        }
+        return entry.dictionary;
+    }
+
+    public void evict(String key) {
+        dictionaryMap.remove(key);
+    }
+
+    private void evictIfNecessary() {
+        int overflow = dictionaryMap.size() - Math.max(1, maxDictionaries);
+        if (overflow <= 0) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(dictionaryMap.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (int i = 0; i < overflow && i < entries.size(); i++) {
+            if (dictionaryMap.remove(entries.get(i).getKey(), entries.get(i).getValue())) {
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    @Scheduled(cron = "0 0/1 * * * *")
+    public void clearExpired() {
+        // 长时间未被访问的字典不再后台刷新，直接移除
+        long expiredAt = System.currentTimeMillis() - ttl * 1000L * 3;
+        dictionaryMap.entrySet().removeIf(e -> {
+            Entry entry = e.getValue();
+            if (null == entry.task && entry.lastAccess <= expiredAt) {
+                evicted.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+        evictIfNecessary();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "value-dictionary";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        long values = 0L;
+        for (Entry entry : dictionaryMap.values()) {
+            ValueDictionary dictionary = entry.dictionary;
+            if (null != dictionary) {
+                values += dictionary.size();
+            }
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enable", enable);
+        metrics.put("dictionaries", dictionaryMap.size());
+        metrics.put("values", values);
+        metrics.put("hits", hits.get());
+        metrics.put("builds", builds.get());
+        metrics.put("refreshes", refreshes.get());
+        metrics.put("failed", failed.get());
+        metrics.put("evicted", evicted.get());
+        metrics.put("queueSize", executor.getQueue().size());
+        return metrics;
+    }
+
+    private class Entry {
+
+        private volatile ValueDictionary dictionary;
+
+        private volatile FutureTask<ValueDictionary> task;
+
+        private volatile long lastAccess;
+
+        /**
+         * 创建构建任务，已有任务在执行时返回 null
+         */
+        private synchronized FutureTask<ValueDictionary> build(String key, String column, Callable<List<Map<String, Object>>> loader) {
+            if (null != task) {
+                return null;
+            }
+            FutureTask<ValueDictionary> created = new FutureTask<>(() -> {
+                try {
+                    ValueDictionary built = ValueDictionary.of(column, loader.call());
+                    dictionary = built;
+                    return built;
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.warn("Build value dictionary {} error, {}", key, e.getMessage());
+                    throw e;
+                } finally {
+                    reset(null);
+                }
+            });
+            task = created;
+            return created;
+        }
+
+        private synchronized void reset(FutureTask<ValueDictionary> expected) {
+            if (null == expected || task == expected) {
+                task = null;
+            }
+        }
+    }
+}
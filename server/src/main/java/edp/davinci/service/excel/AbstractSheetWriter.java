@@ -21,6 +21,8 @@ package edp.davinci.service.excel;
 
 import com.alibaba.druid.util.StringUtils;
 import edp.core.enums.SqlTypeEnum;
+import edp.core.model.PivotHeader;
+import edp.core.model.PivotTable;
 import edp.core.model.QueryColumn;
 import edp.core.utils.CollectionUtils;
 import edp.davinci.core.enums.NumericUnitEnum;
@@ -50,6 +52,10 @@ import static edp.core.consts.Consts.EMPTY;
 @Slf4j
 public abstract class AbstractSheetWriter {
 
+    private static final String PIVOT_SUBTOTAL = "Subtotal";
+
+    private static final String PIVOT_TOTAL = "Total";
+
     private CellStyle header;
 
     private CellStyle myDefault;
@@ -217,6 +223,157 @@ public abstract class AbstractSheetWriter {
     protected void writeBody(SheetContext context) {
     }
 
+    /**
+     * 按透视结果写出表格：左侧为行表头，上方为列表头（多个指标时最后一行为指标名），与页面上的透视表一致
+     *
+     * @param context
+     * @param pivot
+     */
+    protected void writePivot(SheetContext context, PivotTable pivot) {
+        Sheet sheet = context.getSheet();
+        int rowDepth = pivot.getRows().size();
+        int columnDepth = pivot.getColumns().size();
+        int metricCount = pivot.getMetrics().size();
+        boolean metricRow = metricCount > 1 || columnDepth == 0;
+        int headerRows = columnDepth + (metricRow ? 1 : 0);
+        int width = rowDepth + pivot.getColumnCount() * metricCount;
+        int[] widths = new int[width];
+
+        //列表头
+        Row[] headerRowList = new Row[headerRows];
+        for (int i = 0; i < headerRows; i++) {
+            headerRowList[i] = sheet.createRow(nextRowNum++);
+            for (int j = 0; j < width; j++) {
+                headerRowList[i].createCell(j).setCellStyle(header);
+            }
+        }
+        String[][] columnLabels = new String[columnDepth][pivot.getColumnCount()];
+        layoutPivotHeaders(sheet, pivot.getColumnHeaders(), 0, columnDepth, columnLabels, true, rowDepth, metricCount);
+        for (int i = 0; i < columnDepth; i++) {
+            for (int c = 0; c < pivot.getColumnCount(); c++) {
+                if (null != columnLabels[i][c]) {
+                    setPivotCell(headerRowList[i].getCell(rowDepth + c * metricCount), columnLabels[i][c], widths);
+                }
+            }
+        }
+        if (metricRow) {
+            Row row = headerRowList[headerRows - 1];
+            for (int c = 0; c < pivot.getColumnCount(); c++) {
+                for (int m = 0; m < metricCount; m++) {
+                    setPivotCell(row.getCell(rowDepth + c * metricCount + m), pivot.getMetrics().get(m), widths);
+                }
+            }
+        }
+        for (int i = 0; i < rowDepth; i++) {
+            setPivotCell(headerRowList[headerRows - 1].getCell(i), pivot.getRows().get(i), widths);
+            if (headerRows > 1) {
+                sheet.addMergedRegion(new CellRangeAddress(0, headerRows - 1, i, i));
+            }
+        }
+
+        //行表头在写数据行时一并写出，SXSSF 不能回写已刷出的行
+        String[][] rowLabels = new String[pivot.getRowCount()][rowDepth];
+        String[][] transposed = new String[rowDepth][pivot.getRowCount()];
+        layoutPivotHeaders(sheet, pivot.getRowHeaders(), 0, rowDepth, transposed, false, headerRows, 1);
+        for (int i = 0; i < rowDepth; i++) {
+            for (int r = 0; r < pivot.getRowCount(); r++) {
+                rowLabels[r][i] = transposed[i][r];
+            }
+        }
+
+        for (int r = 0; r < pivot.getRowCount(); r++) {
+            Row row = sheet.createRow(nextRowNum++);
+            for (int i = 0; i < rowDepth; i++) {
+                Cell cell = row.createCell(i);
+                cell.setCellStyle(header);
+                if (null != rowLabels[r][i]) {
+                    setPivotCell(cell, rowLabels[r][i], widths);
+                }
+            }
+            List<Object> line = pivot.getCells().get(r);
+            for (int j = 0; j < line.size(); j++) {
+                Object value = line.get(j);
+                Cell cell = row.createCell(rowDepth + j);
+                if (null == value) {
+                    cell.setCellValue(EMPTY);
+                    continue;
+                }
+                Double v = value instanceof Number ? formatNumber(value, null) : null;
+                if (null != v) {
+                    cell.setCellValue(v);
+                    cell.setCellStyle(general);
+                } else {
+                    cell.setCellValue(String.valueOf(value));
+                }
+                widths[rowDepth + j] = Math.max(widths[rowDepth + j], String.valueOf(value).getBytes().length);
+            }
+        }
+
+        sheet.setDefaultRowHeight((short) (20 * 20));
+        for (int i = 0; i < width; i++) {
+            if (widths[i] > 0) {
+                sheet.setColumnWidth(i, Math.min(255, widths[i] + 2) * 256);
+            }
+        }
+    }
+
+    /**
+     * 计算表头树中每个节点的标签位置并合并单元格，返回节点覆盖的 [起始位置, 结束位置]
+     */
+    private int[] layoutPivotHeaders(Sheet sheet, List<PivotHeader> headers, int level, int depth, String[][] labels,
+                                     boolean horizontal, int offset, int span) {
+        int[] range = null;
+        for (PivotHeader pivotHeader : headers) {
+            int[] childRange;
+            if (null == pivotHeader.getValue() && pivotHeader.isTotal() && CollectionUtils.isEmpty(pivotHeader.getChildren())) {
+                //总计占满所有层级
+                childRange = new int[]{pivotHeader.getIndex(), pivotHeader.getIndex()};
+                labels[level][pivotHeader.getIndex()] = PIVOT_TOTAL;
+                mergePivotHeader(sheet, horizontal, offset, span, level, depth - 1, childRange);
+            } else {
+                String label = null == pivotHeader.getValue() ? EMPTY : String.valueOf(pivotHeader.getValue());
+                if (CollectionUtils.isEmpty(pivotHeader.getChildren())) {
+                    childRange = new int[]{pivotHeader.getIndex(), pivotHeader.getIndex()};
+                } else {
+                    childRange = layoutPivotHeaders(sheet, pivotHeader.getChildren(), level + 1, depth, labels, horizontal, offset, span);
+                    if (pivotHeader.isTotal() && pivotHeader.getIndex() >= 0) {
+                        childRange[1] = pivotHeader.getIndex();
+                        labels[level + 1][pivotHeader.getIndex()] = PIVOT_SUBTOTAL;
+                        mergePivotHeader(sheet, horizontal, offset, span, level + 1, depth - 1,
+                                new int[]{pivotHeader.getIndex(), pivotHeader.getIndex()});
+                    }
+                }
+                labels[level][childRange[0]] = label;
+                mergePivotHeader(sheet, horizontal, offset, span, level, level, childRange);
+            }
+            if (null == range) {
+                range = childRange;
+            } else {
+                range[1] = childRange[1];
+            }
+        }
+        return null == range ? new int[]{0, 0} : range;
+    }
+
+    private void mergePivotHeader(Sheet sheet, boolean horizontal, int offset, int span, int firstLevel, int lastLevel, int[] range) {
+        int first = offset + range[0] * span;
+        int last = offset + (range[1] + 1) * span - 1;
+        if (first == last && firstLevel == lastLevel) {
+            return;
+        }
+        if (horizontal) {
+            sheet.addMergedRegion(new CellRangeAddress(firstLevel, lastLevel, first, last));
+        } else {
+            sheet.addMergedRegion(new CellRangeAddress(first, last, firstLevel, lastLevel));
+        }
+    }
+
+    private void setPivotCell(Cell cell, String value, int[] widths) {
+        cell.setCellValue(value);
+        int column = cell.getColumnIndex();
+        widths[column] = Math.max(widths[column], value.getBytes().length);
+    }
+
     protected Boolean refreshHeightWidth(SheetContext context) {
         context.getSheet().setDefaultRowHeight((short) (20 * 20));
         for (int i = 0; i < context.getQueryColumns().size(); i++) {
@@ -19,6 +19,7 @@
 
 package edp.davinci.service.excel;
 
+import edp.core.common.jdbc.PivotAggregator;
 import edp.core.model.QueryColumn;
 import edp.davinci.dto.viewDto.ViewExecuteParam;
 
@@ -44,6 +45,8 @@ public class SQLContext implements Serializable {
 
     private List<String> excludeColumns;
 
+    private PivotAggregator pivotAggregator;
+
 
     public List<String> getExecuteSql() {
         return executeSql;
@@ -84,4 +87,12 @@ public class SQLContext implements Serializable {
     public void setExcludeColumns(List<String> excludeColumns) {
         this.excludeColumns = excludeColumns;
     }
+
+    public PivotAggregator getPivotAggregator() {
+        return pivotAggregator;
+    }
+
+    public void setPivotAggregator(PivotAggregator pivotAggregator) {
+        this.pivotAggregator = pivotAggregator;
+    }
 }
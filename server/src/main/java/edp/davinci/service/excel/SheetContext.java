@@ -19,6 +19,7 @@
 
 package edp.davinci.service.excel;
 
+import edp.core.common.jdbc.PivotAggregator;
 import edp.core.model.QueryColumn;
 import edp.core.utils.SqlUtils;
 import edp.davinci.core.model.ExcelHeader;
@@ -58,6 +59,7 @@ public class SheetContext implements Serializable {
     private int resultLimit;
     private String taskKey;
     private Logger customLogger;
+    private PivotAggregator pivotAggregator;
 
 
     public static final class SheetContextBuilder {
@@ -80,6 +82,7 @@ public class SheetContext implements Serializable {
         private int resultLimit;
         private String taskKey;
         private Logger customLogger;
+        private PivotAggregator pivotAggregator;
 
         private SheetContextBuilder() {
         }
@@ -183,6 +186,11 @@ public class SheetContext implements Serializable {
             return this;
         }
 
+        public SheetContextBuilder withPivotAggregator(PivotAggregator pivotAggregator) {
+            this.pivotAggregator = pivotAggregator;
+            return this;
+        }
+
         public SheetContext build() {
             SheetContext sheetContext = new SheetContext();
             sheetContext.setExecuteSql(executeSql);
@@ -204,6 +212,7 @@ public class SheetContext implements Serializable {
             sheetContext.setResultLimit(resultLimit);
             sheetContext.setTaskKey(taskKey);
             sheetContext.setCustomLogger(customLogger);
+            sheetContext.setPivotAggregator(pivotAggregator);
             return sheetContext;
         }
     }
@@ -20,8 +20,9 @@
 package edp.davinci.service.excel;
 
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Maps;
-import edp.core.enums.DataTypeEnum;
+import edp.core.common.jdbc.ResultMemoryGovernor;
+import edp.core.common.jdbc.RowDecoder;
+import edp.core.model.PaginateWithQueryColumns;
 import edp.core.model.QueryColumn;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.MD5Util;
@@ -31,6 +32,7 @@ import edp.davinci.core.utils.SqlParseUtils;
 import edp.davinci.dto.cronJobDto.MsgMailExcel;
 import org.slf4j.Logger;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 
 import java.sql.ResultSetMetaData;
 import java.util.*;
@@ -53,6 +55,11 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
 
     private int maxRows = 1000000;
 
+    /**
+     * 与 WorkbookWorker 中 SXSSFWorkbook 的 rowAccessWindowSize 保持一致
+     */
+    private static final int WINDOW_ROWS = 1000;
+
     public SheetWorker(SheetContext context) {
         this.context = context;
     }
@@ -71,17 +78,15 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
             interrupted(context);
 
             SqlUtils utils = context.getSqlUtils();
-            JdbcTemplate template = utils.jdbcTemplate();
+            JdbcTemplate template = utils.streamingJdbcTemplate();
             propertiesSet(template);
             buildQueryColumn(template);
             super.init(context);
-            super.writeHeader(context);
-            template.setMaxRows(context.getResultLimit() > 0 && context.getResultLimit() <= maxRows ? context.getResultLimit() : maxRows);
-
-            // special for mysql
-            if(utils.getDataTypeEnum() == DataTypeEnum.MYSQL) {
-            	template.setFetchSize(Integer.MIN_VALUE);
+            boolean pivot = null != context.getPivotAggregator();
+            if (!pivot) {
+                super.writeHeader(context);
             }
+            template.setMaxRows(context.getResultLimit() > 0 && context.getResultLimit() <= maxRows ? context.getResultLimit() : maxRows);
 
             String sql = context.getQuerySql().get(context.getQuerySql().size() - 1);
             sql = SqlParseUtils.rebuildSqlWithFragment(sql);
@@ -93,24 +98,40 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
             }
 
             final AtomicInteger count = new AtomicInteger(0);
-            template.query(sql, rs -> {
-
+            if (pivot) {
+                // 与页面使用同一透视计算，导出与页面一致
+                PaginateWithQueryColumns paginate = template.query(sql, (ResultSetExtractor<PaginateWithQueryColumns>) rs ->
+                        context.getPivotAggregator().handle(RowDecoder.of(rs.getMetaData(), queryFromsAndJoins, context.getExcludeColumns()), rs));
                 interrupted(context);
-
-                Map<String, Object> dataMap = Maps.newHashMap();
-                for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-                    dataMap.put(SqlUtils.getColumnLabel(queryFromsAndJoins, rs.getMetaData().getColumnLabel(i)), rs.getObject(rs.getMetaData().getColumnLabel(i)));
-                }
-                writeLine(context, dataMap);
-                count.incrementAndGet();
-            });
+                count.set(paginate.getTotalCount());
+                super.writePivot(context, paginate.getPivot());
+            } else {
+                template.query(sql, (ResultSetExtractor<Object>) rs -> {
+                    RowDecoder decoder = RowDecoder.of(rs.getMetaData(), queryFromsAndJoins, context.getExcludeColumns());
+                    // SXSSF 仅在内存中保留最近的 WINDOW_ROWS 行，按窗口大小申请内存
+                    try (ResultMemoryGovernor.Lease lease = utils.getMemoryGovernor().newLease()) {
+                        while (rs.next()) {
+                            interrupted(context);
+                            Map<String, Object> row = decoder.decode(rs);
+                            if (count.get() < WINDOW_ROWS) {
+                                lease.acquire(RowDecoder.estimateRowBytes(row));
+                            }
+                            writeLine(context, row);
+                            count.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
 
             if (log) {
                 logger.info("Task({}) sheet worker(name:{}, sheetNo:{}, sheetName:{}) query finish md5:{}, count:{}",
                         context.getTaskKey(), context.getName(), context.getSheetNo(), context.getSheet().getSheetName(), md5, count.get());
             }
 
-            super.refreshHeightWidth(context);
+            if (!pivot) {
+                super.refreshHeightWidth(context);
+            }
 
         } catch (Exception e) {
             if (context.getWrapper().getAction() == ActionEnum.MAIL) {
@@ -268,6 +268,7 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                     .withResultLimit(this.context.getResultLimit())
                     .withTaskKey(this.context.getTaskKey())
                     .withCustomLogger(this.context.getCustomLogger())
+                    .withPivotAggregator(sqlContext.getPivotAggregator())
                     .build();
             sheetContextList.add(sheetContext);
         }
@@ -0,0 +1,563 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.extract;
+
+import edp.core.common.jdbc.RowDecoder;
+import edp.core.common.jdbc.ValueCodec;
+import edp.core.exception.ServerException;
+import edp.core.model.QueryColumn;
+import edp.davinci.service.aggregate.ColumnarTable;
+
+import java.io.*;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * view 抽取文件
+ * <p>
+ * 文件头为列名和列类型，之后是若干行组：[int 行数][int 压缩后长度][压缩数据]，
+ * 行组内按列依次写入各行的值并以 deflate 压缩；增量刷新时在文件末尾追加行组
+ */
+public class ExtractFile {
+
+    private static final int MAGIC = 0x44565831;
+
+    private static final int GROUP_ROWS = 65536;
+
+    private ExtractFile() {
+
+    }
+
+    /**
+     * 写入新文件
+     *
+     * @param file
+     * @param columns
+     * @param rows
+     * @param maxRows        超过时抛出异常
+     * @param watermarkIndex 水位列下标，小于 0 时不记录
+     * @return
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static WriteResult write(File file, List<QueryColumn> columns, RowSource rows, long maxRows, int watermarkIndex) throws SQLException, IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            writeHeader(out, columns);
+            return writeGroups(out, columns.size(), rows, maxRows, watermarkIndex);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, List<QueryColumn> columns) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(columns.size());
+        for (QueryColumn column : columns) {
+            ValueCodec.writeString(out, column.getName());
+            ValueCodec.writeString(out, null == column.getType() ? "" : column.getType());
+        }
+    }
+
+    /**
+     * 在已有文件末尾追加，列需与文件一致
+     *
+     * @param file
+     * @param columns
+     * @param rows
+     * @param maxRows        超过时抛出异常
+     * @param watermarkIndex 水位列下标，小于 0 时不记录
+     * @return
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static WriteResult append(File file, List<QueryColumn> columns, RowSource rows, long maxRows, int watermarkIndex) throws SQLException, IOException {
+        checkColumns(readColumns(file), columns);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            return writeGroups(out, columns.size(), rows, maxRows, watermarkIndex);
+        }
+    }
+
+    public static void checkColumns(List<QueryColumn> expected, List<QueryColumn> actual) throws ServerException {
+        List<String> expectedNames = new ArrayList<>();
+        expected.forEach(column -> expectedNames.add(column.getName()));
+        List<String> actualNames = new ArrayList<>();
+        actual.forEach(column -> actualNames.add(column.getName()));
+        if (!expectedNames.equals(actualNames)) {
+            throw new ServerException("Columns of extract changed, expected:" + expectedNames + ", actual:" + actualNames);
+        }
+    }
+
+    private static WriteResult writeGroups(DataOutputStream out, int columnCount, RowSource rows, long maxRows, int watermarkIndex) throws SQLException, IOException {
+        WriteResult result = new WriteResult();
+        Object[][] group = new Object[columnCount][GROUP_ROWS];
+        int size = 0;
+        Object watermark = null;
+        while (rows.next()) {
+            if (++result.rows > maxRows) {
+                throw new ServerException("Extract exceeds max rows " + maxRows);
+            }
+            for (int c = 0; c < columnCount; c++) {
+                group[c][size] = rows.getValue(c);
+            }
+            if (watermarkIndex >= 0) {
+                watermark = Watermark.max(watermark, group[watermarkIndex][size]);
+            }
+            if (++size == GROUP_ROWS) {
+                writeGroup(out, group, size);
+                result.watermarks.add(watermark);
+                size = 0;
+                watermark = null;
+            }
+        }
+        if (size > 0) {
+            writeGroup(out, group, size);
+            result.watermarks.add(watermark);
+        }
+        return result;
+    }
+
+    public static List<QueryColumn> readColumns(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return readHeader(in);
+        }
+    }
+
+    private static List<QueryColumn> readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Invalid extract file");
+        }
+        int columnCount = in.readInt();
+        List<QueryColumn> columns = new ArrayList<>(columnCount);
+        for (int c = 0; c < columnCount; c++) {
+            columns.add(new QueryColumn(ValueCodec.readString(in), ValueCodec.readString(in)));
+        }
+        return columns;
+    }
+
+    /**
+     * 各行组在文件中的位置和行数
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static List<long[]> readGroups(File file) throws IOException {
+        List<long[]> groups = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long offset = skipHeader(raf);
+            long length = raf.length();
+            while (offset < length) {
+                raf.seek(offset);
+                int rows = raf.readInt();
+                int size = raf.readInt();
+                groups.add(new long[]{offset, rows});
+                offset += 8L + size;
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * 逐行读取 offset 之后的行组
+     *
+     * @param file
+     * @param offset 行组的起始位置
+     * @return
+     * @throws IOException
+     */
+    public static FileRowSource openRows(File file, long offset) throws IOException {
+        int columnCount = readColumns(file).size();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new FileRowSource(new DataInputStream(new BufferedInputStream(in)), columnCount);
+    }
+
+    /**
+     * 第一个行组的位置
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static long getDataOffset(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return skipHeader(raf);
+        }
+    }
+
+    private static long skipHeader(RandomAccessFile raf) throws IOException {
+        raf.seek(0L);
+        if (raf.readInt() != MAGIC) {
+            throw new IOException("Invalid extract file");
+        }
+        int columnCount = raf.readInt();
+        for (int i = 0; i < columnCount * 2; i++) {
+            int length = raf.readInt();
+            raf.seek(raf.getFilePointer() + length);
+        }
+        return raf.getFilePointer();
+    }
+
+    public static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    /**
+     * 读取全部行组
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ColumnarTable read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            List<QueryColumn> columns = readHeader(in);
+            int columnCount = columns.size();
+            if (columnCount == 0) {
+                throw new IOException("Extract file has no column");
+            }
+            String[] names = new String[columnCount];
+            Object[][] values = new Object[columnCount][];
+            for (int c = 0; c < columnCount; c++) {
+                names[c] = columns.get(c).getName();
+                values[c] = new Object[GROUP_ROWS];
+            }
+
+            int rowCount = 0;
+            long bytes = 0L;
+            while (true) {
+                int rows;
+                try {
+                    rows = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                Object[][] group = readGroup(in, columnCount, rows);
+                if (rowCount + rows > values[0].length) {
+                    int capacity = Math.max(rowCount + rows, values[0].length + (values[0].length >> 1));
+                    for (int c = 0; c < columnCount; c++) {
+                        values[c] = Arrays.copyOf(values[c], capacity);
+                    }
+                }
+                for (int c = 0; c < columnCount; c++) {
+                    for (int r = 0; r < rows; r++) {
+                        values[c][rowCount + r] = group[c][r];
+                        bytes += 8L + RowDecoder.estimateBytes(group[c][r]);
+                    }
+                }
+                rowCount += rows;
+            }
+            return ColumnarTable.of(names, columns, values, rowCount, bytes);
+        }
+    }
+
+    private static void writeGroup(DataOutputStream out, Object[][] group, int rows) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream groupOut = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(buffer, deflater)))) {
+            for (Object[] column : group) {
+                for (int r = 0; r < rows; r++) {
+                    ValueCodec.writeValue(groupOut, column[r]);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        out.writeInt(rows);
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+    }
+
+    private static Object[][] readGroup(DataInputStream in, int columnCount, int rows) throws IOException {
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        Object[][] group = new Object[columnCount][rows];
+        try (DataInputStream groupIn = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(compressed))))) {
+            for (int c = 0; c < columnCount; c++) {
+                for (int r = 0; r < rows; r++) {
+                    group[c][r] = ValueCodec.readValue(groupIn);
+                }
+            }
+        }
+        return group;
+    }
+
+    /**
+     * 逐行读取的数据
+     */
+    public interface RowSource {
+
+        boolean next() throws SQLException;
+
+        Object getValue(int column) throws SQLException;
+    }
+
+    public static RowSource of(RowDecoder decoder, ResultSet rs) {
+        return new RowSource() {
+            @Override
+            public boolean next() throws SQLException {
+                return rs.next();
+            }
+
+            @Override
+            public Object getValue(int column) throws SQLException {
+                return decoder.getValue(rs, column);
+            }
+        };
+    }
+
+    public static RowSource of(List<Object[]> rows) {
+        Iterator<Object[]> iterator = rows.iterator();
+        return new RowSource() {
+            private Object[] row;
+
+            @Override
+            public boolean next() {
+                row = iterator.hasNext() ? iterator.next() : null;
+                return null != row;
+            }
+
+            @Override
+            public Object getValue(int column) {
+                return row[column];
+            }
+        };
+    }
+
+    public static RowSource concat(RowSource first, RowSource second) {
+        return new RowSource() {
+            private boolean firstDone = false;
+
+            @Override
+            public boolean next() throws SQLException {
+                if (!firstDone) {
+                    if (first.next()) {
+                        return true;
+                    }
+                    firstDone = true;
+                }
+                return second.next();
+            }
+
+            @Override
+            public Object getValue(int column) throws SQLException {
+                return firstDone ? second.getValue(column) : first.getValue(column);
+            }
+        };
+    }
+
+    /**
+     * 行过滤条件
+     */
+    public interface RowPredicate {
+
+        boolean test(RowSource row) throws SQLException;
+    }
+
+    public static RowSource filter(RowSource source, RowPredicate predicate) {
+        return new RowSource() {
+            @Override
+            public boolean next() throws SQLException {
+                while (source.next()) {
+                    if (predicate.test(source)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public Object getValue(int column) throws SQLException {
+                return source.getValue(column);
+            }
+        };
+    }
+
+    /**
+     * 读取到内存
+     *
+     * @param source
+     * @param columnCount
+     * @param maxRows     超过时抛出异常
+     * @return
+     * @throws SQLException
+     */
+    public static List<Object[]> toList(RowSource source, int columnCount, long maxRows) throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        while (source.next()) {
+            if (rows.size() >= maxRows) {
+                throw new ServerException("Extract exceeds max rows " + maxRows);
+            }
+            Object[] row = new Object[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                row[c] = source.getValue(c);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * 按行组解压，逐行读取
+     */
+    public static class FileRowSource implements RowSource, Closeable {
+
+        private final DataInputStream in;
+
+        private final int columnCount;
+
+        private Object[][] group;
+
+        private int rows = 0;
+
+        private int index = 0;
+
+        private FileRowSource(DataInputStream in, int columnCount) {
+            this.in = in;
+            this.columnCount = columnCount;
+        }
+
+        @Override
+        public boolean next() throws SQLException {
+            if (++index < rows) {
+                return true;
+            }
+            try {
+                try {
+                    rows = in.readInt();
+                } catch (EOFException e) {
+                    return false;
+                }
+                group = readGroup(in, columnCount, rows);
+                index = 0;
+                return rows > 0 || next();
+            } catch (IOException e) {
+                throw new SQLException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Object getValue(int column) {
+            return group[column][index];
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * 逐行写入新文件，行组按需扩容到 groupRows 行，用于将一个结果集一次分发到多个文件
+     */
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        private final int groupRows;
+
+        private Object[][] group;
+
+        private int capacity;
+
+        private int size = 0;
+
+        private long rows = 0L;
+
+        public Writer(File file, List<QueryColumn> columns, int groupRows) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            this.groupRows = Math.max(1, groupRows);
+            this.capacity = Math.min(this.groupRows, 1024);
+            this.group = new Object[columns.size()][capacity];
+            try {
+                writeHeader(out, columns);
+            } catch (IOException e) {
+                out.close();
+                throw e;
+            }
+        }
+
+        public void add(Object[] row) throws IOException {
+            if (size == capacity) {
+                if (capacity < groupRows) {
+                    capacity = Math.min(groupRows, capacity * 2);
+                    for (int c = 0; c < group.length; c++) {
+                        group[c] = Arrays.copyOf(group[c], capacity);
+                    }
+                } else {
+                    writeGroup(out, group, size);
+                    size = 0;
+                }
+            }
+            for (int c = 0; c < group.length; c++) {
+                group[c][size] = row[c];
+            }
+            size++;
+            rows++;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (size > 0) {
+                    writeGroup(out, group, size);
+                    size = 0;
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    public static class WriteResult {
+
+        private long rows = 0L;
+
+        /**
+         * 每个行组水位列的最大值
+         */
+        private final List<Object> watermarks = new ArrayList<>();
+
+        public long getRows() {
+            return rows;
+        }
+
+        public List<Object> getWatermarks() {
+            return watermarks;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.extract;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * view 抽取信息，与抽取文件一同保存
+ */
+@Data
+public class ExtractMeta {
+
+    private Long viewId;
+
+    /**
+     * 抽取时 view sql（已替换变量）的摘要，与查询时的 sql 一致才使用抽取
+     */
+    private String sqlDigest;
+
+    /**
+     * 数据文件版本，文件名为 viewId.generation.dcx
+     */
+    private Long generation;
+
+    /**
+     * 抽取完成时间
+     */
+    private long extractedAt;
+
+    private long rowCount;
+
+    private long fileSize;
+
+    /**
+     * 抽取耗时（毫秒）
+     */
+    private long elapsed;
+
+    /**
+     * 刷新方式：full 全量、append 追加、window 重写回看窗口、merge 按主键合并
+     */
+    private String mode;
+
+    /**
+     * 本次刷新从数据源拉取的行数
+     */
+    private long fetchedRows;
+
+    private String watermarkColumn;
+
+    /**
+     * 水位列类型：number、time、string
+     */
+    private String watermarkType;
+
+    /**
+     * 已抽取数据中水位列的最大值
+     */
+    private String watermark;
+
+    /**
+     * 每个行组水位列的最大值，用于定位回看窗口所在的行组
+     */
+    private List<String> groupWatermarks;
+
+    private List<String> primaryKeys;
+}
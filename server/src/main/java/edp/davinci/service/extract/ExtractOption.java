@@ -0,0 +1,46 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.extract;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 抽取刷新方式，未设置水位列时每次全量抽取
+ */
+@Data
+public class ExtractOption {
+
+    /**
+     * 水位列，只增不减的数值或时间列；刷新时只拉取大于上次水位的行
+     */
+    private String watermarkColumn;
+
+    /**
+     * 回看窗口，时间列为秒，数值列为数值；窗口内的行重新拉取，用于补齐迟到的数据
+     */
+    private long lookback = 0L;
+
+    /**
+     * 主键列，设置后按主键合并更新的行，未设置时新拉取的行直接追加
+     */
+    private List<String> primaryKeys;
+}
@@ -0,0 +1,568 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.extract;
+
+import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSON;
+import edp.core.consts.Consts;
+import edp.core.exception.ServerException;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.FileUtils;
+import edp.core.utils.SqlUtils;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import edp.davinci.service.aggregate.ColumnarTable;
+import edp.davinci.service.aggregate.LocalAggregateEngine;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * view 抽取
+ * <p>
+ * 定时任务（jobType 为 extract）将 view 的明细写入 userfiles/extract 下的列式文件，可按水位列增量刷新，
+ * 查询时若 view sql 与抽取时一致且抽取时间未超过 max-age，由抽取文件在内存中计算结果，不再查询数据源；
+ * 最近使用的 max-loaded 个抽取保留在内存中
+ * <p>
+ * 每次刷新写入新版本的数据文件，写入 meta 后新版本生效，meta 始终指向完整的数据文件
+ */
+@Slf4j
+@Component
+public class ViewExtractManager {
+
+    private static final String DATA_SUFFIX = ".dcx";
+
+    private static final String META_SUFFIX = ".json";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String MODE_FULL = "full";
+
+    private static final String MODE_APPEND = "append";
+
+    private static final String MODE_WINDOW = "window";
+
+    private static final String MODE_MERGE = "merge";
+
+    @Value("${source.extract.enable:true}")
+    @Getter
+    private boolean enable;
+
+    @Value("${source.extract.max-rows:5000000}")
+    private long maxRows;
+
+    @Value("${source.extract.max-loaded:8}")
+    private int maxLoaded;
+
+    /**
+     * 抽取的最长使用时间（秒），定时任务停止后超过该时间的抽取不再使用，0 为不限制
+     */
+    @Value("${source.extract.max-age:172800}")
+    private long maxAge;
+
+    @Autowired
+    private FileUtils fileUtils;
+
+    private File extractDir;
+
+    private final Map<Long, LoadedExtract> loadedMap = new ConcurrentHashMap<>();
+
+    private final Map<Long, Object> lockMap = new ConcurrentHashMap<>();
+
+    private final Map<Long, Object> refreshLockMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        extractDir = new File(fileUtils.fileBasePath + Consts.DIR_EXTRACT);
+    }
+
+    /**
+     * 抽取 view 明细
+     * <p>
+     * 设置水位列且上次抽取的 sql、水位列和主键与本次一致时，只拉取大于水位（减去回看窗口）的行：
+     * 没有主键时追加到文件末尾，有回看窗口时重写窗口所在的行组；有主键时按主键合并；
+     * 其他情况全量抽取
+     *
+     * @param viewId
+     * @param sqlDigest view sql 的摘要
+     * @param sqlUtils
+     * @param sql       view 的明细 sql
+     * @param option    刷新方式，为 null 时全量抽取
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     * @throws ServerException
+     */
+    public ExtractMeta refresh(Long viewId, String sqlDigest, SqlUtils sqlUtils, String sql, ExtractOption option,
+                               String jdbcUrl, String dbVersion) throws ServerException {
+        // 同一 view 的刷新串行执行，构建新版本文件时不阻塞查询，只在切换版本时持有 view 的锁
+        synchronized (getRefreshLock(viewId)) {
+            if (!extractDir.exists()) {
+                extractDir.mkdirs();
+            }
+            long start = System.currentTimeMillis();
+            ExtractOption extractOption = null == option ? new ExtractOption() : option;
+            ExtractMeta meta = new ExtractMeta();
+            meta.setViewId(viewId);
+            meta.setSqlDigest(sqlDigest);
+            boolean committed = false;
+            try {
+                ExtractMeta previous = getMeta(viewId);
+                deleteDataFiles(viewId, null == previous ? null : getDataFile(previous));
+                meta.setGeneration(nextGeneration(previous));
+                if (isIncremental(previous, meta, extractOption)) {
+                    refreshIncremental(meta, previous, sqlUtils, sql, extractOption, jdbcUrl, dbVersion);
+                } else {
+                    refreshFull(meta, sqlUtils, sql, extractOption);
+                }
+                commit(meta, previous, start);
+                committed = true;
+                log.info("View({}) extracted, mode:{}, fetched:{}, rows:{}, size:{}, elapsed:{}ms",
+                        viewId, meta.getMode(), meta.getFetchedRows(), meta.getRowCount(), meta.getFileSize(), meta.getElapsed());
+                return meta;
+            } catch (ServerException e) {
+                throw e;
+            } catch (Exception e) {
+                log.error(e.toString(), e);
+                throw new ServerException(e.getMessage());
+            } finally {
+                if (!committed && null != meta.getGeneration()) {
+                    getDataFile(meta).delete();
+                }
+            }
+        }
+    }
+
+    private boolean isIncremental(ExtractMeta previous, ExtractMeta meta, ExtractOption option) {
+        return !StringUtils.isEmpty(option.getWatermarkColumn())
+                && null != previous
+                && getDataFile(previous).exists()
+                && meta.getSqlDigest().equals(previous.getSqlDigest())
+                && option.getWatermarkColumn().equals(previous.getWatermarkColumn())
+                && getPrimaryKeys(option.getPrimaryKeys()).equals(getPrimaryKeys(previous.getPrimaryKeys()))
+                && null != previous.getWatermark()
+                && null != previous.getWatermarkType()
+                && null != previous.getGroupWatermarks();
+    }
+
+    private void refreshFull(ExtractMeta meta, SqlUtils sqlUtils, String sql, ExtractOption option) throws Exception {
+        File dataFile = getDataFile(meta);
+        ExtractFile.WriteResult result = sqlUtils.query4Stream(sql, getLimit(maxRows), null, (decoder, rs) -> {
+            int watermarkIndex = StringUtils.isEmpty(option.getWatermarkColumn()) ? -1 : indexOf(decoder.getQueryColumns(), option.getWatermarkColumn());
+            try {
+                return ExtractFile.write(dataFile, decoder.getQueryColumns(), ExtractFile.of(decoder, rs), maxRows, watermarkIndex);
+            } catch (IOException e) {
+                throw new ServerException(e.getMessage());
+            }
+        });
+        checkResultLimit(meta.getViewId(), sqlUtils, result.getRows());
+
+        String watermarkType = null;
+        List<String> groupWatermarks = new ArrayList<>();
+        for (Object watermark : result.getWatermarks()) {
+            if (null == watermarkType && null != watermark) {
+                watermarkType = Watermark.typeOf(watermark);
+            }
+            groupWatermarks.add(Watermark.format(watermark));
+        }
+
+        meta.setMode(MODE_FULL);
+        meta.setFetchedRows(result.getRows());
+        meta.setRowCount(result.getRows());
+        if (!StringUtils.isEmpty(option.getWatermarkColumn())) {
+            setWatermarks(meta, option, watermarkType, groupWatermarks);
+        }
+    }
+
+    private void refreshIncremental(ExtractMeta meta, ExtractMeta previous, SqlUtils sqlUtils, String sql, ExtractOption option,
+                                    String jdbcUrl, String dbVersion) throws Exception {
+        File dataFile = getDataFile(previous);
+        List<long[]> groups = ExtractFile.readGroups(dataFile);
+        List<String> groupWatermarks = previous.getGroupWatermarks();
+        if (groups.size() != groupWatermarks.size()) {
+            log.warn("Extract of view({}) does not match its meta, refresh fully", meta.getViewId());
+            refreshFull(meta, sqlUtils, sql, option);
+            return;
+        }
+
+        List<QueryColumn> columns = ExtractFile.readColumns(dataFile);
+        int watermarkIndex = indexOf(columns, option.getWatermarkColumn());
+        String type = previous.getWatermarkType();
+        String lower = Watermark.lowerBound(previous.getWatermark(), type, option.getLookback());
+        String deltaSql = String.format(Consts.QUERY_WATERMARK_SQL, sql,
+                ViewExecuteParam.getField(option.getWatermarkColumn(), jdbcUrl, dbVersion), Watermark.toLiteral(lower, type, jdbcUrl));
+
+        if (CollectionUtils.isEmpty(option.getPrimaryKeys())) {
+            // 没有本地行高于下界的行组时直接追加，否则从第一个这样的行组开始重写
+            int first = groups.size();
+            for (int i = 0; i < groups.size(); i++) {
+                if (Watermark.isAbove(groupWatermarks.get(i), lower, type)) {
+                    first = i;
+                    break;
+                }
+            }
+            appendRows(meta, previous, sqlUtils, deltaSql, option, columns, groups, first, watermarkIndex, lower);
+        } else {
+            mergeRows(meta, previous, sqlUtils, deltaSql, option, columns, watermarkIndex, lower);
+        }
+    }
+
+    /**
+     * 复制上一版本文件并保留前 keepGroups 个行组，其后的行组中只保留不高于下界的行，再追加新拉取的行
+     */
+    private void appendRows(ExtractMeta meta, ExtractMeta previous, SqlUtils sqlUtils, String deltaSql, ExtractOption option,
+                            List<QueryColumn> columns, List<long[]> groups, int keepGroups, int watermarkIndex, String lower) throws Exception {
+        File previousFile = getDataFile(previous);
+        File dataFile = getDataFile(meta);
+        String type = previous.getWatermarkType();
+        long offset = keepGroups < groups.size() ? groups.get(keepGroups)[0] : previousFile.length();
+        long keptRows = 0L;
+        for (int i = 0; i < keepGroups; i++) {
+            keptRows += groups.get(i)[1];
+        }
+
+        List<Object[]> retained = Collections.emptyList();
+        if (keepGroups < groups.size()) {
+            try (ExtractFile.FileRowSource tail = ExtractFile.openRows(previousFile, offset)) {
+                retained = ExtractFile.toList(ExtractFile.filter(tail, row -> !Watermark.isAbove(row.getValue(watermarkIndex), lower, type)),
+                        columns.size(), maxRows);
+            }
+        }
+        long limit = maxRows - keptRows;
+
+        Files.copy(previousFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        ExtractFile.truncate(dataFile, offset);
+        List<Object[]> rows = retained;
+        ExtractFile.WriteResult result = sqlUtils.query4Stream(deltaSql, getLimit(limit), null, (decoder, rs) -> {
+            ExtractFile.checkColumns(columns, decoder.getQueryColumns());
+            try {
+                return ExtractFile.append(dataFile, columns, ExtractFile.concat(ExtractFile.of(rows), ExtractFile.of(decoder, rs)), limit, watermarkIndex);
+            } catch (IOException e) {
+                throw new ServerException(e.getMessage());
+            }
+        });
+        long fetchedRows = result.getRows() - retained.size();
+        checkResultLimit(meta.getViewId(), sqlUtils, fetchedRows);
+
+        List<String> groupWatermarks = new ArrayList<>(previous.getGroupWatermarks().subList(0, keepGroups));
+        result.getWatermarks().forEach(watermark -> groupWatermarks.add(Watermark.format(watermark)));
+
+        meta.setMode(keepGroups < groups.size() ? MODE_WINDOW : MODE_APPEND);
+        meta.setFetchedRows(fetchedRows);
+        meta.setRowCount(keptRows + result.getRows());
+        setWatermarks(meta, option, type, groupWatermarks);
+    }
+
+    /**
+     * 按主键合并：拉取的行替换主键相同的本地行，本地高于下界的行视为已重新拉取；合并结果写入新版本文件
+     */
+    private void mergeRows(ExtractMeta meta, ExtractMeta previous, SqlUtils sqlUtils, String deltaSql, ExtractOption option,
+                           List<QueryColumn> columns, int watermarkIndex, String lower) throws Exception {
+        File previousFile = getDataFile(previous);
+        String type = previous.getWatermarkType();
+        int[] keyIndexes = new int[option.getPrimaryKeys().size()];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            keyIndexes[i] = indexOf(columns, option.getPrimaryKeys().get(i));
+        }
+
+        List<Object[]> delta = sqlUtils.query4Stream(deltaSql, getLimit(maxRows), null, (decoder, rs) -> {
+            ExtractFile.checkColumns(columns, decoder.getQueryColumns());
+            return ExtractFile.toList(ExtractFile.of(decoder, rs), columns.size(), maxRows);
+        });
+        checkResultLimit(meta.getViewId(), sqlUtils, delta.size());
+
+        Set<List<Object>> keys = new HashSet<>(delta.size() * 2);
+        ExtractFile.RowSource deltaRows = ExtractFile.of(delta);
+        while (deltaRows.next()) {
+            keys.add(getKey(deltaRows, keyIndexes));
+        }
+
+        ExtractFile.WriteResult result;
+        try (ExtractFile.FileRowSource old = ExtractFile.openRows(previousFile, ExtractFile.getDataOffset(previousFile))) {
+            ExtractFile.RowSource kept = ExtractFile.filter(old, row -> !keys.contains(getKey(row, keyIndexes))
+                    && !Watermark.isAbove(row.getValue(watermarkIndex), lower, type));
+            result = ExtractFile.write(getDataFile(meta), columns, ExtractFile.concat(kept, ExtractFile.of(delta)), maxRows, watermarkIndex);
+        }
+
+        List<String> groupWatermarks = new ArrayList<>();
+        result.getWatermarks().forEach(watermark -> groupWatermarks.add(Watermark.format(watermark)));
+
+        meta.setMode(MODE_MERGE);
+        meta.setFetchedRows(delta.size());
+        meta.setRowCount(result.getRows());
+        setWatermarks(meta, option, type, groupWatermarks);
+    }
+
+    /**
+     * 写入 meta 使新版本生效，再删除上一版本的数据文件
+     */
+    private void commit(ExtractMeta meta, ExtractMeta previous, long start) throws IOException {
+        meta.setFileSize(getDataFile(meta).length());
+        meta.setExtractedAt(System.currentTimeMillis());
+        meta.setElapsed(meta.getExtractedAt() - start);
+        synchronized (getLock(meta.getViewId())) {
+            writeMeta(meta);
+            loadedMap.remove(meta.getViewId());
+            if (null != previous) {
+                getDataFile(previous).delete();
+            }
+        }
+    }
+
+    private static long nextGeneration(ExtractMeta previous) {
+        long generation = System.currentTimeMillis();
+        if (null != previous && null != previous.getGeneration() && generation <= previous.getGeneration()) {
+            generation = previous.getGeneration() + 1;
+        }
+        return generation;
+    }
+
+    private static void setWatermarks(ExtractMeta meta, ExtractOption option, String watermarkType, List<String> groupWatermarks) {
+        String watermark = null;
+        for (String groupWatermark : groupWatermarks) {
+            watermark = null == watermarkType ? null : Watermark.max(watermark, groupWatermark, watermarkType);
+        }
+        meta.setWatermarkColumn(option.getWatermarkColumn());
+        meta.setWatermarkType(watermarkType);
+        meta.setWatermark(watermark);
+        meta.setGroupWatermarks(groupWatermarks);
+        meta.setPrimaryKeys(getPrimaryKeys(option.getPrimaryKeys()));
+    }
+
+    private static List<String> getPrimaryKeys(List<String> primaryKeys) {
+        return CollectionUtils.isEmpty(primaryKeys) ? Collections.emptyList() : primaryKeys;
+    }
+
+    /**
+     * 主键值，数值统一比较以免数据源与文件中的数值类型不同
+     */
+    private static List<Object> getKey(ExtractFile.RowSource row, int[] keyIndexes) throws SQLException {
+        List<Object> key = new ArrayList<>(keyIndexes.length);
+        for (int index : keyIndexes) {
+            Object value = row.getValue(index);
+            if (value instanceof Double || value instanceof Float) {
+                key.add(((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                key.add(new BigDecimal(value.toString()).stripTrailingZeros());
+            } else {
+                key.add(value);
+            }
+        }
+        return key;
+    }
+
+    private static int indexOf(List<QueryColumn> columns, String name) throws ServerException {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new ServerException("Column " + name + " is not found in view");
+    }
+
+    private static int getLimit(long rows) {
+        return (int) Math.max(1L, Math.min(Integer.MAX_VALUE, rows + 1));
+    }
+
+    /**
+     * 数据源的结果行数上限会截断明细
+     */
+    private static void checkResultLimit(Long viewId, SqlUtils sqlUtils, long rows) throws ServerException {
+        if (rows >= sqlUtils.getResultLimit()) {
+            throw new ServerException("Extract of view(" + viewId + ") reaches source result limit " + sqlUtils.getResultLimit());
+        }
+    }
+
+    /**
+     * 由抽取计算查询结果，没有抽取、sql 已变化或无法在本地计算时返回 null
+     *
+     * @param viewId
+     * @param sqlDigest
+     * @param executeParam
+     * @param excludeColumns
+     * @param jdbcUrl
+     * @param dbVersion
+     * @return
+     * @throws ServerException
+     */
+    public PaginateWithQueryColumns query(Long viewId, String sqlDigest, ViewExecuteParam executeParam, Set<String> excludeColumns,
+                                          String jdbcUrl, String dbVersion) throws ServerException {
+        if (!enable || !getMetaFile(viewId).exists() || !LocalAggregateEngine.isSupported(executeParam)) {
+            return null;
+        }
+
+        LoadedExtract loaded = load(viewId);
+        if (null == loaded || !sqlDigest.equals(loaded.meta.getSqlDigest())) {
+            return null;
+        }
+        if (maxAge > 0L && System.currentTimeMillis() - loaded.meta.getExtractedAt() > maxAge * 1000L) {
+            log.warn("Extract of view({}) is older than {}s, query source instead", viewId, maxAge);
+            return null;
+        }
+
+        loaded.lastAccess = System.currentTimeMillis();
+        PaginateWithQueryColumns paginate = LocalAggregateEngine.execute(loaded.table, executeParam, excludeColumns, jdbcUrl, dbVersion);
+        if (null != paginate) {
+            paginate.setExtractedAt(loaded.meta.getExtractedAt());
+        }
+        return paginate;
+    }
+
+    public ExtractMeta getMeta(Long viewId) {
+        File metaFile = getMetaFile(viewId);
+        if (!metaFile.exists()) {
+            return null;
+        }
+        try {
+            return JSON.parseObject(new String(Files.readAllBytes(metaFile.toPath()), StandardCharsets.UTF_8), ExtractMeta.class);
+        } catch (IOException e) {
+            log.warn("Read extract meta of view({}) error, {}", viewId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 删除 view 的抽取
+     *
+     * @param viewId
+     */
+    public void remove(Long viewId) {
+        synchronized (getLock(viewId)) {
+            getMetaFile(viewId).delete();
+            deleteDataFiles(viewId, null);
+            loadedMap.remove(viewId);
+        }
+    }
+
+    private LoadedExtract load(Long viewId) throws ServerException {
+        File metaFile = getMetaFile(viewId);
+        LoadedExtract loaded = loadedMap.get(viewId);
+        if (null != loaded && loaded.metaModified == metaFile.lastModified()) {
+            return loaded;
+        }
+
+        synchronized (getLock(viewId)) {
+            loaded = loadedMap.get(viewId);
+            long metaModified = metaFile.lastModified();
+            if (null != loaded && loaded.metaModified == metaModified) {
+                return loaded;
+            }
+            ExtractMeta meta = getMeta(viewId);
+            File dataFile = null == meta ? null : getDataFile(meta);
+            if (null == meta || !dataFile.exists()) {
+                return null;
+            }
+            try {
+                loaded = new LoadedExtract(meta, ExtractFile.read(dataFile), metaModified);
+            } catch (IOException e) {
+                log.error(e.toString(), e);
+                throw new ServerException(e.getMessage());
+            }
+            loadedMap.put(viewId, loaded);
+        }
+
+        while (loadedMap.size() > Math.max(1, maxLoaded)) {
+            loadedMap.entrySet().stream()
+                    .min(Comparator.comparingLong(entry -> entry.getValue().lastAccess))
+                    .ifPresent(entry -> loadedMap.remove(entry.getKey(), entry.getValue()));
+        }
+        return loaded;
+    }
+
+    private void writeMeta(ExtractMeta meta) throws IOException {
+        File metaFile = getMetaFile(meta.getViewId());
+        File temp = new File(extractDir, meta.getViewId() + META_SUFFIX + TEMP_SUFFIX);
+        Files.write(temp.toPath(), JSON.toJSONString(meta).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Object getLock(Long viewId) {
+        return lockMap.computeIfAbsent(viewId, k -> new Object());
+    }
+
+    private Object getRefreshLock(Long viewId) {
+        return refreshLockMap.computeIfAbsent(viewId, k -> new Object());
+    }
+
+    /**
+     * meta 对应版本的数据文件，没有版本的 meta 使用 viewId.dcx
+     */
+    private File getDataFile(ExtractMeta meta) {
+        if (null == meta.getGeneration()) {
+            return new File(extractDir, meta.getViewId() + DATA_SUFFIX);
+        }
+        return new File(extractDir, meta.getViewId() + Consts.DOT + meta.getGeneration() + DATA_SUFFIX);
+    }
+
+    /**
+     * 删除 view 除 keep 之外的数据文件（含中断的刷新留下的文件）
+     */
+    private void deleteDataFiles(Long viewId, File keep) {
+        String prefix = viewId + Consts.DOT;
+        File[] files = extractDir.listFiles((dir, name) -> name.startsWith(prefix)
+                && (name.endsWith(DATA_SUFFIX) || name.endsWith(DATA_SUFFIX + TEMP_SUFFIX)));
+        if (null == files) {
+            return;
+        }
+        synchronized (getLock(viewId)) {
+            for (File file : files) {
+                if (!file.equals(keep)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private File getMetaFile(Long viewId) {
+        return new File(extractDir, viewId + META_SUFFIX);
+    }
+
+    private static class LoadedExtract {
+
+        private final ExtractMeta meta;
+
+        private final ColumnarTable table;
+
+        private final long metaModified;
+
+        private volatile long lastAccess;
+
+        private LoadedExtract(ExtractMeta meta, ColumnarTable table, long metaModified) {
+            this.meta = meta;
+            this.table = table;
+            this.metaModified = metaModified;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+}
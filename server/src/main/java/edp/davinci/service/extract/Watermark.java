@@ -0,0 +1,178 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.extract;
+
+import edp.core.utils.SqlUtils;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 增量抽取的水位值
+ * <p>
+ * 数值列按 BigDecimal、时间列按毫秒时间戳、其他列按字符串保存和比较
+ */
+final class Watermark {
+
+    static final String NUMBER = "number";
+
+    static final String TIME = "time";
+
+    static final String STRING = "string";
+
+    private Watermark() {
+
+    }
+
+    static String typeOf(Object value) {
+        if (value instanceof Number) {
+            return NUMBER;
+        }
+        if (value instanceof Date) {
+            return TIME;
+        }
+        return STRING;
+    }
+
+    /**
+     * 转换为可比较的值，无法比较时返回 null
+     *
+     * @param value
+     * @return
+     */
+    private static Comparable normalize(Object value) {
+        if (null == value) {
+            return null;
+        }
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return null;
+            }
+            return new BigDecimal(value.toString());
+        }
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        return value.toString();
+    }
+
+    private static Comparable parse(String watermark, String type) {
+        if (null == watermark) {
+            return null;
+        }
+        switch (type) {
+            case NUMBER:
+                return new BigDecimal(watermark);
+            case TIME:
+                return Long.parseLong(watermark);
+            default:
+                return watermark;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Comparable a, Comparable b) {
+        if (a.getClass() == b.getClass()) {
+            return a.compareTo(b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    static Object max(Object current, Object value) {
+        Comparable normalized = normalize(value);
+        if (null == normalized) {
+            return current;
+        }
+        if (null == current || compare(normalized, normalize(current)) > 0) {
+            return value;
+        }
+        return current;
+    }
+
+    static String format(Object value) {
+        Comparable normalized = normalize(value);
+        if (null == normalized) {
+            return null;
+        }
+        return normalized instanceof BigDecimal ? ((BigDecimal) normalized).toPlainString() : normalized.toString();
+    }
+
+    static String max(String a, String b, String type) {
+        if (null == a) {
+            return b;
+        }
+        if (null == b) {
+            return a;
+        }
+        return compare(parse(a, type), parse(b, type)) >= 0 ? a : b;
+    }
+
+    /**
+     * 单元格的值是否大于水位
+     *
+     * @param value
+     * @param watermark
+     * @param type
+     * @return
+     */
+    static boolean isAbove(Object value, String watermark, String type) {
+        Comparable normalized = normalize(value);
+        return null != normalized && compare(normalized, parse(watermark, type)) > 0;
+    }
+
+    static boolean isAbove(String groupWatermark, String watermark, String type) {
+        return null != groupWatermark && compare(parse(groupWatermark, type), parse(watermark, type)) > 0;
+    }
+
+    /**
+     * 减去回看窗口后的下界；时间按秒取整，与 sql 中的时间字面量一致，字符串不支持回看
+     *
+     * @param watermark
+     * @param type
+     * @param lookback  数值列为数值，时间列为秒
+     * @return
+     */
+    static String lowerBound(String watermark, String type, long lookback) {
+        switch (type) {
+            case NUMBER:
+                return new BigDecimal(watermark).subtract(BigDecimal.valueOf(Math.max(0L, lookback))).toPlainString();
+            case TIME:
+                long millis = Long.parseLong(watermark) - Math.max(0L, lookback) * 1000L;
+                return String.valueOf(Math.floorDiv(millis, 1000L) * 1000L);
+            default:
+                return watermark;
+        }
+    }
+
+    static String toLiteral(String bound, String type, String jdbcUrl) {
+        switch (type) {
+            case NUMBER:
+                return bound;
+            case TIME:
+                return SqlUtils.getTimeLiteral(new Date(Long.parseLong(bound)), jdbcUrl);
+            default:
+                return "'" + bound.replace("'", "''") + "'";
+        }
+    }
+}
@@ -34,12 +34,14 @@ import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.model.RedisMessageEntity;
 import edp.davinci.dao.CronJobMapper;
 import edp.davinci.dto.cronJobDto.CronJobBaseInfo;
+import edp.davinci.dto.cronJobDto.CronJobConfig;
 import edp.davinci.dto.cronJobDto.CronJobInfo;
 import edp.davinci.dto.cronJobDto.CronJobUpdate;
 import edp.davinci.model.CronJob;
 import edp.davinci.model.User;
 import edp.davinci.service.CronJobService;
 import edp.davinci.service.excel.ExecutorUtil;
+import edp.davinci.service.extract.ViewExtractManager;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.SchedulerException;
 import org.slf4j.Logger;
@@ -77,6 +79,12 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 	@Autowired
 	private WeChatWorkScheduleServiceImpl weChatWorkScheduleService;
 
+	@Autowired
+	private ExtractScheduleServiceImpl extractScheduleService;
+
+	@Autowired
+	private ViewExtractManager viewExtractManager;
+
 	private static final CheckEntityEnum entity = CheckEntityEnum.CRONJOB;
 
 	@Override
@@ -251,12 +259,32 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 		if (cronJobMapper.deleteById(id) == 1) {
 			optLogger.info("Cronjob({}) is delete by user({})", cronJob.toString(), user.getId());
 			quartzHandler.removeJob(cronJob);
+			removeExtract(cronJob);
 			return true;
 		}
 
 		return false;
 	}
 
+	/**
+	 * 删除抽取任务时一并删除 view 的抽取，避免继续使用不再刷新的数据
+	 *
+	 * @param cronJob
+	 */
+	private void removeExtract(CronJob cronJob) {
+		if (!"extract".equals(cronJob.getJobType().trim()) || StringUtils.isEmpty(cronJob.getConfig())) {
+			return;
+		}
+		try {
+			CronJobConfig cronJobConfig = JSON.parseObject(cronJob.getConfig(), CronJobConfig.class);
+			if (null != cronJobConfig.getViewId()) {
+				viewExtractManager.remove(cronJobConfig.getViewId());
+			}
+		} catch (Exception e) {
+			log.warn("CronJob({}) remove extract error, {}", cronJob.getId(), e.getMessage());
+		}
+	}
+
 	@Override
 	@Transactional
 	public CronJob startCronJob(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException {
@@ -365,6 +393,13 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 							log.error(e.toString(), e);
 							scheduleLogger.error(e.getMessage());
 						}
+					} else if (jobType.equals("extract")) {
+						try {
+							extractScheduleService.execute(cronJob.getId());
+						} catch (Exception e) {
+							log.error(e.toString(), e);
+							scheduleLogger.error(e.getMessage());
+						}
 					}
 
 				} else {
@@ -0,0 +1,91 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.impl;
+
+import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSONObject;
+import edp.core.common.quartz.ScheduleService;
+import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dao.UserMapper;
+import edp.davinci.dto.cronJobDto.CronJobConfig;
+import edp.davinci.model.CronJob;
+import edp.davinci.model.User;
+import edp.davinci.service.ViewService;
+import edp.davinci.service.extract.ExtractMeta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * view 抽取任务，config 中 viewId 为需要抽取的 view
+ */
+@Service("extractScheduleService")
+public class ExtractScheduleServiceImpl implements ScheduleService {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    @Autowired
+    private CronJobMapper cronJobMapper;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private ViewService viewService;
+
+    @Override
+    public void execute(long jobId) throws Exception {
+        CronJob cronJob = cronJobMapper.getById(jobId);
+        if (null == cronJob || StringUtils.isEmpty(cronJob.getConfig())) {
+            scheduleLogger.error("CronJob({}) config is empty", jobId);
+            return;
+        }
+        cronJobMapper.updateExecLog(jobId, "");
+        CronJobConfig cronJobConfig = null;
+        try {
+            cronJobConfig = JSONObject.parseObject(cronJob.getConfig(), CronJobConfig.class);
+        } catch (Exception e) {
+            scheduleLogger.error("Cronjob({}) parse config({}) error:{}", jobId, cronJob.getConfig(), e.getMessage());
+            return;
+        }
+
+        if (null == cronJobConfig.getViewId()) {
+            scheduleLogger.error("Cronjob({}) config viewId is empty", jobId);
+            return;
+        }
+
+        scheduleLogger.info("CronJob({}) is start! --------------", jobId);
+
+        User creator = userMapper.getById(cronJob.getCreateBy());
+        try {
+            ExtractMeta meta = viewService.extractView(cronJob.getProjectId(), cronJobConfig.getViewId(),
+                    cronJobConfig.getExtract(), creator);
+            scheduleLogger.info("CronJob({}) extract view({}) finish, mode:{}, fetched:{}, rows:{}, size:{}, elapsed:{}ms",
+                    jobId, cronJobConfig.getViewId(), meta.getMode(), meta.getFetchedRows(), meta.getRowCount(), meta.getFileSize(), meta.getElapsed());
+        } catch (Exception e) {
+            cronJobMapper.updateExecLog(jobId, e.getMessage());
+            throw e;
+        }
+
+        scheduleLogger.info("CronJob({}) is finish! --------------", jobId);
+    }
+}
@@ -21,6 +21,7 @@ package edp.davinci.service.impl;
 
 import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSON;
+import edp.core.common.jdbc.ArrowResultWriter;
 import edp.core.exception.ForbiddenException;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
@@ -28,6 +29,7 @@ import edp.core.exception.UnAuthorizedException;
 import edp.core.model.Paginate;
 import edp.core.utils.AESUtils;
 import edp.core.utils.CollectionUtils;
+import edp.core.utils.MD5Util;
 import edp.core.utils.TokenUtils;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ErrorMsg;
@@ -48,6 +50,7 @@ import edp.davinci.service.ProjectService;
 import edp.davinci.service.ShareService;
 import edp.davinci.service.UserService;
 import edp.davinci.service.ViewService;
+import edp.davinci.service.push.SharePushHub;
 import edp.davinci.service.share.ShareDataPermission;
 import edp.davinci.service.share.ShareFactor;
 import edp.davinci.service.share.ShareMode;
@@ -58,6 +61,7 @@ import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.sql.SQLException;
 import java.util.*;
@@ -112,6 +116,9 @@ public class ShareServiceImpl implements ShareService {
     @Autowired
     private String TOKEN_SECRET;
 
+    @Autowired
+    private SharePushHub sharePushHub;
+
     @Override
     public User shareLogin(UserLogin userLogin) throws NotFoundException, ServerException, UnAuthorizedException {
         ShareFactor shareFactor = ShareAuthAspect.SHARE_FACTOR_THREAD_LOCAL.get();
@@ -306,7 +313,64 @@ public class ShareServiceImpl implements ShareService {
 
         ShareFactor shareFactor = ShareAuthAspect.SHARE_FACTOR_THREAD_LOCAL.get();
         Widget widget = (Widget) shareFactor.getShareEntity();
+
+        User user;
+        if (shareFactor.getPermission() == ShareDataPermission.SHARER) {
+            user = shareFactor.getUser();
+        } else {
+            user = currentUser;
+        }
+
+        return queryWidgetData(widget.getId(), executeParam, user);
+    }
+
+    /**
+     * 以 Arrow IPC stream 格式写出分享 widget 的数据
+     *
+     * @param executeParam
+     * @param currentUser
+     * @param output
+     */
+    @Override
+    public void writeShareArrowData(ViewExecuteParam executeParam, User currentUser, ArrowResultWriter.Output output)
+            throws NotFoundException, ServerException, ForbiddenException, UnAuthorizedException {
+
+        ShareFactor shareFactor = ShareAuthAspect.SHARE_FACTOR_THREAD_LOCAL.get();
+        Widget widget = (Widget) shareFactor.getShareEntity();
+
+        User user;
+        if (shareFactor.getPermission() == ShareDataPermission.SHARER) {
+            user = shareFactor.getUser();
+        } else {
+            user = currentUser;
+        }
+
         ViewWithProjectAndSource viewWithProjectAndSource = viewMapper.getViewWithProjectAndSourceByWidgetId(widget.getId());
+        if (null == viewWithProjectAndSource) {
+            throw new NotFoundException("View is not found");
+        }
+
+        ProjectDetail projectDetail = projectService.getProjectDetail(viewWithProjectAndSource.getProjectId(), user, false);
+        boolean maintainer = projectService.isMaintainer(projectDetail, user);
+
+        viewService.writeArrowData(maintainer, viewWithProjectAndSource, executeParam, user, output);
+    }
+
+    /**
+     * 订阅分享页数据，相同 widget、权限用户和查询参数的订阅共享一次查询
+     *
+     * @param executeParam
+     * @param interval     刷新间隔（秒）
+     * @param lastEventId  重连时回传的上次结果指纹
+     * @param currentUser
+     * @return
+     */
+    @Override
+    public SseEmitter subscribeShareData(ViewExecuteParam executeParam, int interval, String lastEventId, User currentUser)
+            throws NotFoundException, ServerException, ForbiddenException, UnAuthorizedException {
+
+        ShareFactor shareFactor = ShareAuthAspect.SHARE_FACTOR_THREAD_LOCAL.get();
+        Widget widget = (Widget) shareFactor.getShareEntity();
 
         User user;
         if (shareFactor.getPermission() == ShareDataPermission.SHARER) {
@@ -315,6 +379,63 @@ public class ShareServiceImpl implements ShareService {
             user = currentUser;
         }
 
+        // 订阅时由 ShareAuthAspect 校验 token，之后每次刷新重新校验 token 的有效期、分享者和授权用户以及项目权限
+        ViewWithProjectAndSource viewWithProjectAndSource = viewMapper.getViewWithProjectAndSourceByWidgetId(widget.getId());
+        if (null == viewWithProjectAndSource) {
+            throw new NotFoundException("View is not found");
+        }
+        projectService.getProjectDetail(viewWithProjectAndSource.getProjectId(), user, false);
+
+        Long widgetId = widget.getId();
+        Long viewerId = null == currentUser ? null : currentUser.getId();
+        Long expired = null == shareFactor.getExpired() ? null : shareFactor.getExpired().getTime();
+        // 频道按订阅者的 token 校验，校验条件不同的订阅不共享频道
+        String key = MD5Util.getMD5(widgetId + "@" + (null == user ? EMPTY : user.getId()) + "@" + shareFactor.getMode()
+                + "@" + viewerId + "@" + expired + "@" + JSON.toJSONString(executeParam), true, 32);
+        return sharePushHub.subscribe(key, interval, lastEventId, () -> {
+            User dataUser = verifyShareFactor(shareFactor, currentUser);
+            return queryWidgetData(widgetId, executeParam, dataUser);
+        });
+    }
+
+    /**
+     * 重新校验分享 token：已过期、分享者已删除或授权模式下查看者已不在授权的用户和角色中时抛出异常
+     *
+     * @param shareFactor
+     * @param viewer
+     * @return 按数据权限实际查询的用户
+     */
+    private User verifyShareFactor(ShareFactor shareFactor, User viewer) throws UnAuthorizedException, ForbiddenException {
+        if (null != shareFactor.getExpired() && System.currentTimeMillis() > shareFactor.getExpired().getTime()) {
+            throw new UnAuthorizedException("Share token expired");
+        }
+
+        User sharer = userMapper.getById(shareFactor.getSharerId());
+        if (null == sharer) {
+            throw new ForbiddenException(ErrorMsg.ERR_INVALID_SHARER);
+        }
+
+        if (shareFactor.getMode() == ShareMode.AUTH) {
+            if (null == viewer || null == viewer.getId()) {
+                throw new UnAuthorizedException(ErrorMsg.ERR_MSG_AUTHENTICATION);
+            }
+            if (null == shareFactor.getViewers() || !shareFactor.getViewers().contains(viewer.getId())) {
+                Set<RelRoleUser> relRoleUsers = relRoleUserMapper.selectByUserAndRoles(viewer.getId(), shareFactor.getRoles());
+                if (CollectionUtils.isEmpty(relRoleUsers)) {
+                    throw new ForbiddenException(ErrorMsg.ERR_MSG_PERMISSION);
+                }
+            }
+        }
+
+        return shareFactor.getPermission() == ShareDataPermission.SHARER ? sharer : viewer;
+    }
+
+    private Paginate<Map<String, Object>> queryWidgetData(Long widgetId, ViewExecuteParam executeParam, User user) throws SQLException {
+        ViewWithProjectAndSource viewWithProjectAndSource = viewMapper.getViewWithProjectAndSourceByWidgetId(widgetId);
+        if (null == viewWithProjectAndSource) {
+            throw new NotFoundException("View is not found");
+        }
+
         ProjectDetail projectDetail = projectService.getProjectDetail(viewWithProjectAndSource.getProjectId(), user, false);
         boolean maintainer = projectService.isMaintainer(projectDetail, user);
 
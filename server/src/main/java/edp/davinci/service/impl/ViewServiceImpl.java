@@ -23,11 +23,16 @@ import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import edp.core.common.jdbc.ArrowResultWriter;
+import edp.core.common.jdbc.GeoClusterAggregator;
+import edp.core.common.jdbc.PivotAggregator;
+import edp.core.common.jdbc.ResultCursorManager;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedException;
 import edp.core.model.Paginate;
 import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
 import edp.core.utils.*;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.enums.*;
@@ -45,7 +50,20 @@ import edp.davinci.dto.viewDto.*;
 import edp.davinci.model.*;
 import edp.davinci.service.ProjectService;
 import edp.davinci.service.ViewService;
+import edp.davinci.service.aggregate.ColumnarTable;
+import edp.davinci.service.aggregate.LocalAggregateEngine;
+import edp.davinci.service.aggregate.LocalAggregateManager;
+import edp.davinci.service.aggregate.SemanticResultCache;
+import edp.davinci.service.aggregate.TimeBucketCache;
+import edp.davinci.service.dictionary.ValueDictionary;
+import edp.davinci.service.dictionary.ValueDictionaryManager;
 import edp.davinci.service.excel.SQLContext;
+import edp.davinci.service.extract.ExtractMeta;
+import edp.davinci.service.extract.ExtractOption;
+import edp.davinci.service.extract.ViewExtractManager;
+import edp.davinci.service.join.JoinSide;
+import edp.davinci.service.join.ViewJoinEngine;
+import edp.davinci.service.prefetch.PagePrefetcher;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -94,6 +112,30 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     @Autowired
     private RedisUtils redisUtils;
 
+    @Autowired
+    private ResultCursorManager resultCursorManager;
+
+    @Autowired
+    private PagePrefetcher pagePrefetcher;
+
+    @Autowired
+    private LocalAggregateManager localAggregateManager;
+
+    @Autowired
+    private ViewExtractManager viewExtractManager;
+
+    @Autowired
+    private SemanticResultCache semanticResultCache;
+
+    @Autowired
+    private TimeBucketCache timeBucketCache;
+
+    @Autowired
+    private ValueDictionaryManager valueDictionaryManager;
+
+    @Autowired
+    private ViewJoinEngine viewJoinEngine;
+
     @Autowired
     private ProjectService projectService;
 
@@ -103,6 +145,18 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     @Value("${sql_template_delimiter:$}")
     private String sqlTempDelimiter;
 
+    @Value("${source.pivot.max-cells:1000000}")
+    private long pivotMaxCells;
+
+    @Value("${source.fingerprint.enable:true}")
+    private boolean fingerprintEnable;
+
+    @Value("${source.arrow.enable:true}")
+    private boolean arrowEnable;
+
+    @Value("${source.arrow.batch-rows:8192}")
+    private int arrowBatchRows;
+
     private static final String SQL_VARABLE_KEY = "name";
 
     private static final CheckEntityEnum entity = CheckEntityEnum.VIEW;
@@ -174,7 +228,8 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     @Override
     public SQLContext getSQLContext(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user) {
 
-        if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators()))) {
+        if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators())
+                && !executeParam.isBin() && !executeParam.isGeoCluster())) {
             return null;
         }
 
@@ -203,10 +258,27 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
         List<String> querySqlList = sqlParseUtils.getSqls(srcSql, Boolean.TRUE);
         if (!CollectionUtils.isEmpty(querySqlList)) {
-            buildQuerySql(querySqlList, source, executeParam);
+            Bin bin = executeParam.isBin() ? executeParam.getBin() : null;
+            if (null != bin && bin.isRangeRequired()) {
+                try {
+                    SqlUtils sqlUtils = this.sqlUtils.init(source);
+                    if (!CollectionUtils.isEmpty(context.getExecuteSql())) {
+                        context.getExecuteSql().forEach(sqlUtils::execute);
+                    }
+                    bin = resolveBinRange(sqlUtils, querySqlList.get(querySqlList.size() - 1), source, executeParam);
+                } catch (ServerException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new ServerException(e.getMessage());
+                }
+            }
+            buildQuerySql(querySqlList, source, executeParam, bin);
             executeParam.addExcludeColumn(excludeColumns, source.getJdbcUrl(), source.getDbVersion());
             context.setQuerySql(querySqlList);
             context.setViewExecuteParam(executeParam);
+            if (executeParam.isPivot()) {
+                context.setPivotAggregator(executeParam.newPivotAggregator(pivotMaxCells));
+            }
         }
         if (!CollectionUtils.isEmpty(excludeColumns)) {
             List<String> excludeList = excludeColumns.stream().collect(Collectors.toList());
@@ -387,6 +459,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
         optLogger.info("View({}) is delete by user({})", view.toString(), user.getId());
         relRoleViewMapper.deleteByViewId(id);
+        viewExtractManager.remove(id);
         return true;
     }
 
@@ -480,7 +553,8 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     @Override
     public Paginate<Map<String, Object>> getData(Long id, ViewExecuteParam executeParam, User user) throws NotFoundException, UnAuthorizedException, ServerException, SQLException {
 
-        if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators()))) {
+        if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators())
+                && !executeParam.isBin() && !executeParam.isGeoCluster())) {
             return null;
         }
 
@@ -493,6 +567,170 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         return getResultDataList(projectService.isMaintainer(projectDetail, user), viewWithSource, executeParam, user);
     }
 
+    /**
+     * 以 Arrow IPC stream 格式写出 view 的查询结果
+     *
+     * @param id
+     * @param executeParam
+     * @param user
+     * @param output
+     */
+    @Override
+    public void writeArrowData(Long id, ViewExecuteParam executeParam, User user, ArrowResultWriter.Output output) throws NotFoundException, UnAuthorizedException, ServerException {
+        ViewWithSource viewWithSource = getViewWithSource(id);
+        ProjectDetail projectDetail = projectService.getProjectDetail(viewWithSource.getProjectId(), user, false);
+        if (!projectService.allowGetData(projectDetail, user)) {
+            throw new UnAuthorizedException("You have not permission to get data");
+        }
+
+        writeArrowData(projectService.isMaintainer(projectDetail, user), viewWithSource, executeParam, user, output);
+    }
+
+    /**
+     * 以 Arrow IPC stream 格式写出查询结果，批次由 ResultSet 直接构造，不经过结果缓存和本地聚合；
+     * 透视、降采样、top n 的其他项和需在服务端计算的点聚合不支持，分页按 pageNo、pageSize 跳过和截取
+     *
+     * @param isMaintainer
+     * @param viewWithSource
+     * @param executeParam
+     * @param user
+     * @param output    查询成功后才打开
+     */
+    @Override
+    public void writeArrowData(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user, ArrowResultWriter.Output output) throws ServerException {
+        if (!arrowEnable) {
+            throw new ServerException("Arrow format is disabled");
+        }
+
+        Source source = viewWithSource.getSource();
+        if (null == source) {
+            throw new NotFoundException("Source is not found");
+        }
+
+        if (null != executeParam && (executeParam.isPivot() || (executeParam.isTopN() && executeParam.getTopN().isOthers())
+                || (null != executeParam.getDownsample() && executeParam.getDownsample().isValid())
+                || (executeParam.isGeoCluster() && !GeoCluster.isSqlSupported(source.getJdbcUrl())))) {
+            throw new ServerException("Pivot, downsampling, top n others and geo clusters of this source are not supported in arrow format");
+        }
+
+        SQLContext context = getSQLContext(isMaintainer, viewWithSource, executeParam, user);
+        if (null == context || CollectionUtils.isEmpty(context.getQuerySql())) {
+            throw new ServerException("Groups or aggregators and the sql of view are required in arrow format");
+        }
+
+        int limit = executeParam.getLimit();
+        if (executeParam.isTopN()) {
+            int n = executeParam.getTopN().getN();
+            limit = limit > 0 ? Math.min(limit, n) : n;
+        }
+        int offset = 0;
+        int maxRows = 0;
+        if (executeParam.getPageNo() > 0 && executeParam.getPageSize() > 0) {
+            // seek 分页的过滤条件已在 sql 中
+            boolean seek = null != executeParam.getSeekFilter(source.getJdbcUrl(), source.getDbVersion());
+            offset = seek ? 0 : (executeParam.getPageNo() - 1) * executeParam.getPageSize();
+            maxRows = executeParam.getPageSize();
+            limit = limit > 0 ? Math.min(limit, offset + maxRows) : offset + maxRows;
+        }
+
+        try {
+            SqlUtils sqlUtils = this.sqlUtils.init(source);
+            if (!CollectionUtils.isEmpty(context.getExecuteSql())) {
+                context.getExecuteSql().forEach(sqlUtils::execute);
+            }
+            List<String> querySqlList = context.getQuerySql();
+            String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+            Set<String> excludeColumns = null == context.getExcludeColumns() ? null : new HashSet<>(context.getExcludeColumns());
+            sqlUtils.query4Stream(sql, limit, excludeColumns, new ArrowResultWriter(output, arrowBatchRows, offset, maxRows));
+        } catch (ServerException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error(e.toString(), e);
+            throw new ServerException(e.getMessage());
+        }
+    }
+
+    /**
+     * 关联两个 view 的数据
+     *
+     * @param id        左侧 view
+     * @param joinParam
+     * @param user
+     * @return
+     */
+    @Override
+    public Paginate<Map<String, Object>> getJoinData(Long id, ViewJoinParam joinParam, User user) throws NotFoundException, UnAuthorizedException, ServerException, SQLException {
+
+        if (!viewJoinEngine.isEnable()) {
+            throw new ServerException("View join is disabled");
+        }
+
+        if (!LocalAggregateEngine.isSupported(joinParam) || joinParam.isCursor()) {
+            throw new ServerException("Time grains, bins, top n, downsampling and cursors are not supported on joined views");
+        }
+
+        ViewWithSource leftView = getViewWithSource(id);
+        ViewWithSource rightView = getViewWithSource(joinParam.getRightViewId());
+        JoinSide left = getJoinSide(leftView, joinParam.getLeft(), joinParam.getLeftKeys(), user);
+        JoinSide right = getJoinSide(rightView, joinParam.getRight(), joinParam.getRightKeys(), user);
+
+        ColumnarTable table = viewJoinEngine.join(left, right, joinParam.isLeftJoin(), joinParam.getRightPrefix(),
+                sqlUtils.getResultLimit());
+
+        Source source = leftView.getSource();
+        boolean pivot = joinParam.isPivot();
+        if (pivot) {
+            joinParam.setPageNo(-1);
+        }
+        PaginateWithQueryColumns paginate = LocalAggregateEngine.execute(table, joinParam, null, source.getJdbcUrl(), source.getDbVersion());
+        if (null == paginate) {
+            throw new ServerException("Unsupported aggregation on joined views");
+        }
+        if (pivot) {
+            List<QueryColumn> columns = paginate.getColumns();
+            paginate = joinParam.newPivotAggregator(pivotMaxCells).aggregate(paginate.getResultList());
+            paginate.setColumns(columns);
+        }
+        return paginate;
+    }
+
+    /**
+     * 按 view 自身的权限和查询参数构造关联一侧的查询，由 ViewJoinEngine 流式读取全部结果
+     */
+    private JoinSide getJoinSide(ViewWithSource viewWithSource, ViewExecuteParam executeParam, List<String> keys, User user) {
+        if (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators())) {
+            throw new ServerException("Query of view " + viewWithSource.getId() + " must specify groups or aggregators");
+        }
+        if (executeParam.isTopN() || executeParam.isGeoCluster()
+                || (null != executeParam.getDownsample() && executeParam.getDownsample().isValid())) {
+            throw new ServerException("Top n, geo clusters and downsampling are not supported on join sides");
+        }
+
+        ProjectDetail projectDetail = projectService.getProjectDetail(viewWithSource.getProjectId(), user, false);
+        if (!projectService.allowGetData(projectDetail, user)) {
+            throw new UnAuthorizedException("You have not permission to get data");
+        }
+
+        executeParam.setPageNo(-1);
+        executeParam.setPageSize(-1);
+        executeParam.setCursor(false);
+        executeParam.setSeek(null);
+        executeParam.setPivot(null);
+        SQLContext context = getSQLContext(projectService.isMaintainer(projectDetail, user), viewWithSource, executeParam, user);
+        if (null == context || CollectionUtils.isEmpty(context.getQuerySql())) {
+            throw new ServerException("Query of view " + viewWithSource.getId() + " returns no columns");
+        }
+
+        SqlUtils sqlUtils = this.sqlUtils.init(viewWithSource.getSource());
+        if (!CollectionUtils.isEmpty(context.getExecuteSql())) {
+            context.getExecuteSql().forEach(sqlUtils::execute);
+        }
+        List<String> querySqlList = context.getQuerySql();
+        String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+        Set<String> excludeColumns = null == context.getExcludeColumns() ? null : new HashSet<>(context.getExcludeColumns());
+        return new JoinSide("view(" + viewWithSource.getId() + ")", sqlUtils, sql, executeParam.getLimit(), excludeColumns, keys);
+    }
+
     private ViewWithSource getViewWithSource(Long id) {
         ViewWithSource viewWithSource = viewMapper.getViewWithSource(id);
         if (null == viewWithSource) {
@@ -503,23 +741,60 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     }
 
     public void buildQuerySql(List<String> querySqlList, Source source, ViewExecuteParam executeParam) {
+        buildQuerySql(querySqlList, source, executeParam, null == executeParam ? null : executeParam.getBin());
+    }
+
+    /**
+     * 构造查询 sql，bin 为已补全 min/max 的分箱参数，不修改 executeParam 中的原始分箱
+     *
+     * @param querySqlList
+     * @param source
+     * @param executeParam
+     * @param bin
+     */
+    private void buildQuerySql(List<String> querySqlList, Source source, ViewExecuteParam executeParam, Bin bin) {
         if (null == executeParam) {
             return;
         }
 
         // 构造参数， 原有的被传入的替换
         STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+        if (executeParam.isBin() && null != bin && !bin.isRangeRequired()) {
+            buildBinSql(stg, querySqlList, source, executeParam, bin);
+            return;
+        }
+        if (executeParam.isGeoCluster()) {
+            buildGeoClusterSql(stg, querySqlList, source, executeParam);
+            return;
+        }
+
         ST st = stg.getInstanceOf("querySql");
         st.add("nativeQuery", executeParam.isNativeQuery());
         st.add("groups", executeParam.getGroups());
+        st.add("timeGrains", executeParam.getTimeGrainExpressions(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("aliasPrefix", SqlUtils.getAliasPrefix(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("aliasSuffix", SqlUtils.getAliasSuffix(source.getJdbcUrl(), source.getDbVersion()));
 
         if (executeParam.isNativeQuery()) {
             st.add("aggregators", executeParam.getAggregators());
         } else {
             st.add("aggregators", executeParam.getAggregators(source.getJdbcUrl(), source.getDbVersion()));
         }
-        st.add("orders", executeParam.getOrders(source.getJdbcUrl(), source.getDbVersion()));
-        st.add("filters", convertFilters(executeParam.getFilters(), source));
+        if (executeParam.isTopN()) {
+            st.add("orders", executeParam.getTopNOrders(source.getJdbcUrl(), source.getDbVersion()));
+        } else {
+            st.add("orders", executeParam.getOrders(source.getJdbcUrl(), source.getDbVersion()));
+        }
+
+        List<String> filters = convertFilters(executeParam.getFilters(), source);
+        String seekFilter = executeParam.getSeekFilter(source.getJdbcUrl(), source.getDbVersion());
+        if (null != seekFilter) {
+            if (null == filters) {
+                filters = new ArrayList<>();
+            }
+            filters.add(seekFilter);
+        }
+        st.add("filters", filters);
         st.add("keywordPrefix", sqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()));
         st.add("keywordSuffix", sqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()));
 
@@ -529,6 +804,128 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         }
     }
 
+    private void buildBinSql(STGroup stg, List<String> querySqlList, Source source, ViewExecuteParam executeParam, Bin bin) {
+        String field = ViewExecuteParam.getField(bin.getColumn().trim(), source.getJdbcUrl(), source.getDbVersion());
+        String aliasPrefix = SqlUtils.getAliasPrefix(source.getJdbcUrl(), source.getDbVersion());
+        String aliasSuffix = SqlUtils.getAliasSuffix(source.getJdbcUrl(), source.getDbVersion());
+
+        List<String> filters = convertFilters(executeParam.getFilters(), source);
+        String rangeFilter = bin.getRangeFilter(field);
+        if (null != rangeFilter) {
+            if (null == filters) {
+                filters = new ArrayList<>();
+            }
+            filters.add(rangeFilter);
+        }
+
+        ST st = stg.getInstanceOf("queryBinSql");
+        st.add("binExpression", bin.getExpression(field));
+        st.add("binAlias", aliasPrefix + bin.getBinLabel() + aliasSuffix);
+        st.add("countAlias", aliasPrefix + bin.getCountLabel() + aliasSuffix);
+        st.add("binField", field);
+        st.add("aggregators", executeParam.getAggregators(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("filters", filters);
+
+        for (int i = 0; i < querySqlList.size(); i++) {
+            st.remove("sql");
+            st.add("sql", querySqlList.get(i));
+            querySqlList.set(i, st.render());
+        }
+    }
+
+    /**
+     * 数据源支持时在 sql 中按网格分组，否则只按视野过滤，由 GeoClusterAggregator 在内存中聚合
+     *
+     * @param stg
+     * @param querySqlList
+     * @param source
+     * @param executeParam
+     */
+    private void buildGeoClusterSql(STGroup stg, List<String> querySqlList, Source source, ViewExecuteParam executeParam) {
+        GeoCluster geoCluster = executeParam.getGeoCluster();
+        String latField = ViewExecuteParam.getField(geoCluster.getLatColumn().trim(), source.getJdbcUrl(), source.getDbVersion());
+        String lngField = ViewExecuteParam.getField(geoCluster.getLngColumn().trim(), source.getJdbcUrl(), source.getDbVersion());
+
+        List<String> filters = convertFilters(executeParam.getFilters(), source);
+        if (null == filters) {
+            filters = new ArrayList<>();
+        }
+        filters.add(geoCluster.getBboxFilter(latField, lngField));
+
+        ST st;
+        if (GeoCluster.isSqlSupported(source.getJdbcUrl())) {
+            String aliasPrefix = SqlUtils.getAliasPrefix(source.getJdbcUrl(), source.getDbVersion());
+            String aliasSuffix = SqlUtils.getAliasSuffix(source.getJdbcUrl(), source.getDbVersion());
+            st = stg.getInstanceOf("queryGeoClusterSql");
+            st.add("latField", latField);
+            st.add("lngField", lngField);
+            st.add("latAlias", aliasPrefix + geoCluster.getLatColumn().trim() + aliasSuffix);
+            st.add("lngAlias", aliasPrefix + geoCluster.getLngColumn().trim() + aliasSuffix);
+            st.add("countAlias", aliasPrefix + GeoCluster.COUNT_LABEL + aliasSuffix);
+            st.add("cellX", geoCluster.getCellExpression(lngField, geoCluster.getWest()));
+            st.add("cellY", geoCluster.getCellExpression(latField, geoCluster.getSouth()));
+        } else {
+            st = stg.getInstanceOf("querySql");
+            st.add("nativeQuery", false);
+            st.add("keywordPrefix", SqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()));
+            st.add("keywordSuffix", SqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()));
+        }
+        st.add("filters", filters);
+
+        for (int i = 0; i < querySqlList.size(); i++) {
+            st.remove("sql");
+            st.add("sql", querySqlList.get(i));
+            querySqlList.set(i, st.render());
+        }
+    }
+
+    /**
+     * 按个数分箱且未指定 min/max 时，先查询列的最小最大值，返回补全后的分箱副本
+     *
+     * @param sqlUtils
+     * @param sql
+     * @param source
+     * @param executeParam
+     * @return
+     * @throws Exception
+     */
+    private Bin resolveBinRange(SqlUtils sqlUtils, String sql, Source source, ViewExecuteParam executeParam) throws Exception {
+        Bin bin = executeParam.getBin().copy();
+        String field = ViewExecuteParam.getField(bin.getColumn().trim(), source.getJdbcUrl(), source.getDbVersion());
+        String aliasPrefix = SqlUtils.getAliasPrefix(source.getJdbcUrl(), source.getDbVersion());
+        String aliasSuffix = SqlUtils.getAliasSuffix(source.getJdbcUrl(), source.getDbVersion());
+
+        List<String> filters = convertFilters(executeParam.getFilters(), source);
+        StringBuilder rangeSql = new StringBuilder("SELECT MIN(").append(field).append(") AS ")
+                .append(aliasPrefix).append("binMin").append(aliasSuffix)
+                .append(", MAX(").append(field).append(") AS ")
+                .append(aliasPrefix).append("binMax").append(aliasSuffix)
+                .append(" FROM (").append(sql).append(") T");
+        if (!CollectionUtils.isEmpty(filters)) {
+            rangeSql.append(" WHERE ").append(String.join(" AND ", filters));
+        }
+
+        List<Map<String, Object>> list = sqlUtils.query4List(SqlParseUtils.rebuildSqlWithFragment(rangeSql.toString()), 1);
+        if (!CollectionUtils.isEmpty(list)) {
+            Map<String, Object> range = list.get(0);
+            Object min = range.get("binMin");
+            Object max = range.get("binMax");
+            if (null == bin.getMin() && min instanceof Number) {
+                bin.setMin(((Number) min).doubleValue());
+            }
+            if (null == bin.getMax() && max instanceof Number) {
+                bin.setMax(((Number) max).doubleValue());
+            }
+        }
+        if (null == bin.getMin()) {
+            bin.setMin(0d);
+        }
+        if (null == bin.getMax()) {
+            bin.setMax(bin.getMin());
+        }
+        return bin;
+    }
+
     public List<String> convertFilters(List<String> filterStrs, Source source) {
         List<String> whereClauses = new ArrayList<>();
         List<SqlFilter> filters = new ArrayList<>();
@@ -573,7 +970,8 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
         PaginateWithQueryColumns paginate = null;
 
-        if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators()))) {
+        if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators())
+                && !executeParam.isBin() && !executeParam.isGeoCluster())) {
             return null;
         }
 
@@ -606,26 +1004,32 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
             List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
             if (!CollectionUtils.isEmpty(querySqlList)) {
+                String baseSql = querySqlList.get(querySqlList.size() - 1);
+                // 待查询 min/max 的分箱先按客户端参数计算缓存 key，命中缓存时不再查询范围
+                boolean binRange = executeParam.isBin() && executeParam.getBin().isRangeRequired();
+                List<String> baseQuerySqlList = binRange ? new ArrayList<>(querySqlList) : null;
+                Set<String> baseExcludeColumns = new HashSet<>(excludeColumns);
                 buildQuerySql(querySqlList, source, executeParam);
                 executeParam.addExcludeColumn(excludeColumns, source.getJdbcUrl(), source.getDbVersion());
 
+                boolean seek = null != executeParam.getSeekFilter(source.getJdbcUrl(), source.getDbVersion());
+                boolean downsample = null != executeParam.getDownsample() && executeParam.getDownsample().isValid()
+                        && executeParam.getPageSize() < 1;
+
                 if (null != executeParam.getCache() && executeParam.getCache() && executeParam.getExpired() > 0L) {
 
-                    StringBuilder saltBuilder = new StringBuilder();
-                    saltBuilder.append(executeParam.getPageNo());
-                    saltBuilder.append(MINUS);
-                    saltBuilder.append(executeParam.getLimit());
-                    saltBuilder.append(MINUS);
-                    saltBuilder.append(executeParam.getPageSize());
-                    excludeColumns.forEach(saltBuilder::append);
-                    cacheKey = MD5Util.getMD5(saltBuilder.toString() + querySqlList.get(querySqlList.size() - 1), true,
-                            32);
+                    cacheKey = getPaginateCacheKey(executeParam.getPageNo(), executeParam, excludeColumns,
+                            querySqlList.get(querySqlList.size() - 1));
                     if (!executeParam.getFlush()) {
 
                         try {
                             Object object = redisUtils.get(cacheKey);
+                            pagePrefetcher.onCacheLookup(cacheKey, null != object);
                             if (null != object && executeParam.getCache()) {
                                 paginate = (PaginateWithQueryColumns) object;
+                                if (!seek) {
+                                    prefetchNextPage(sqlUtils, executeParam, excludeColumns, querySqlList, source, paginate);
+                                }
                                 return paginate;
                             }
                         } catch (Exception e) {
@@ -634,10 +1038,79 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                     }
                 }
 
-                for (String sql : querySqlList) {
-                    paginate = sqlUtils.syncQuery4Paginate(SqlParseUtils.rebuildSqlWithFragment(sql),
-                            executeParam.getPageNo(), executeParam.getPageSize(), executeParam.getTotalCount(),
-                            executeParam.getLimit(), excludeColumns);
+                if (binRange) {
+                    Bin bin = resolveBinRange(sqlUtils, baseSql, source, executeParam);
+                    querySqlList = baseQuerySqlList;
+                    buildQuerySql(querySqlList, source, executeParam, bin);
+                }
+
+                if (viewExtractManager.isEnable()) {
+                    paginate = viewExtractManager.query(viewWithSource.getId(), getExtractDigest(srcSql), executeParam,
+                            excludeColumns, source.getJdbcUrl(), source.getDbVersion());
+                }
+                String localKey = getLocalAggregateKey(source, viewWithSource.getId(), sqlEntity.getAuthParams(),
+                        baseExcludeColumns, baseSql);
+                if (null == paginate && semanticResultCache.isEnable() && !executeParam.getFlush()) {
+                    paginate = semanticResultCache.query(localKey, executeParam, excludeColumns, source.getJdbcUrl(), source.getDbVersion());
+                }
+                if (null == paginate && localAggregateManager.isEnable()) {
+                    if (executeParam.getFlush()) {
+                        localAggregateManager.invalidate(localKey);
+                    } else {
+                        paginate = localAggregateManager.query(sqlUtils, localKey, SqlParseUtils.rebuildSqlWithFragment(baseSql),
+                                executeParam, baseExcludeColumns, excludeColumns, source.getJdbcUrl(), source.getDbVersion());
+                    }
+                }
+                if (null == paginate && timeBucketCache.isEnable()) {
+                    TimeBucketCache.Plan plan = timeBucketCache.plan(localKey, executeParam, excludeColumns,
+                            source.getJdbcUrl(), source.getDbVersion());
+                    if (null != plan) {
+                        PaginateWithQueryColumns fetched = null;
+                        if (plan.isFetchRequired()) {
+                            String sql = null == plan.getRangeFilter() ? querySqlList.get(querySqlList.size() - 1)
+                                    : buildTimeBucketSql(baseSql, source, executeParam, plan.getRangeFilter());
+                            fetched = sqlUtils.syncQuery4Paginate(SqlParseUtils.rebuildSqlWithFragment(sql), null, null, null,
+                                    executeParam.getLimit(), excludeColumns);
+                        }
+                        paginate = timeBucketCache.merge(plan, executeParam, fetched, sqlUtils.getResultLimit(),
+                                source.getJdbcUrl(), source.getDbVersion());
+                    }
+                }
+                boolean local = null != paginate;
+
+                if (executeParam.isPivot()) {
+                    PivotAggregator pivotAggregator = executeParam.newPivotAggregator(pivotMaxCells);
+                    if (local) {
+                        List<QueryColumn> columns = paginate.getColumns();
+                        paginate = pivotAggregator.aggregate(paginate.getResultList());
+                        paginate.setColumns(columns);
+                    } else {
+                        String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+                        paginate = sqlUtils.query4Stream(sql, executeParam.getLimit(), excludeColumns, pivotAggregator);
+                    }
+                } else if (!local) {
+                    // 本地结果只在不含 top n、降采样、seek 和游标的查询中产生，已有本地结果时不再查询数据库
+                    paginate = queryDatabase(sqlUtils, baseSql, querySqlList, source, executeParam, excludeColumns, seek, downsample);
+                }
+
+                if (null == paginate) {
+                    for (String sql : querySqlList) {
+                        paginate = sqlUtils.syncQuery4Paginate(SqlParseUtils.rebuildSqlWithFragment(sql),
+                                executeParam.getPageNo(), executeParam.getPageSize(), executeParam.getTotalCount(),
+                                executeParam.getLimit(), excludeColumns);
+                    }
+                }
+
+                if (null != paginate && executeParam.getPageSize() > 0) {
+                    paginate.setSeek(executeParam.getNextSeek(paginate.getResultList(), source.getJdbcUrl(), source.getDbVersion()));
+                }
+
+                if (!seek && !executeParam.isCursor() && !local) {
+                    prefetchNextPage(sqlUtils, executeParam, excludeColumns, querySqlList, source, paginate);
+                }
+
+                if (!local && !executeParam.isPivot() && semanticResultCache.isEnable()) {
+                    semanticResultCache.put(localKey, executeParam, paginate, sqlUtils.getResultLimit());
                 }
             }
 
@@ -647,27 +1120,327 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         }
 
         if (null != executeParam.getCache() && executeParam.getCache() && executeParam.getExpired() > 0L
-                && null != paginate && !CollectionUtils.isEmpty(paginate.getResultList())) {
+                && null != paginate && (!CollectionUtils.isEmpty(paginate.getResultList()) || null != paginate.getPivot())) {
+            // 随结果一起缓存，命中时不再重复计算；未缓存的结果只在请求携带 If-None-Match 时才计算
+            if (fingerprintEnable) {
+                paginate.setFingerprint(FingerprintUtils.fingerprint(paginate));
+            }
             redisUtils.set(cacheKey, paginate, executeParam.getExpired(), TimeUnit.SECONDS);
         }
 
         return paginate;
     }
 
+    /**
+     * 在数据库中执行 top n、点聚合、降采样、seek 和游标查询，均不适用时返回 null
+     */
+    private PaginateWithQueryColumns queryDatabase(SqlUtils sqlUtils, String baseSql, List<String> querySqlList, Source source,
+                                                   ViewExecuteParam executeParam, Set<String> excludeColumns,
+                                                   boolean seek, boolean downsample) throws Exception {
+        PaginateWithQueryColumns paginate = null;
+        if (executeParam.isTopN()) {
+            String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+            int n = executeParam.getTopN().getN();
+            int limit = executeParam.getLimit() > 0 ? Math.min(executeParam.getLimit(), n) : n;
+            paginate = sqlUtils.syncQuery4Paginate(sql, null, null, null, limit, excludeColumns);
+            if (executeParam.getTopN().isOthers() && paginate.getResultList().size() >= n) {
+                appendOthers(sqlUtils, baseSql, source, executeParam, excludeColumns, paginate);
+            }
+        } else if (executeParam.isGeoCluster() && !GeoCluster.isSqlSupported(source.getJdbcUrl())) {
+            String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+            GeoCluster geoCluster = executeParam.getGeoCluster();
+            paginate = sqlUtils.query4Stream(sql, executeParam.getLimit(), excludeColumns,
+                    new GeoClusterAggregator(geoCluster.getLatColumn().trim(), geoCluster.getLngColumn().trim(),
+                            GeoCluster.COUNT_LABEL, geoCluster.getSouth(), geoCluster.getWest(), geoCluster.getCellSize()));
+        } else if (downsample) {
+            String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+            Downsample ds = executeParam.getDownsample();
+            paginate = sqlUtils.query4Downsample(sql, executeParam.getLimit(), excludeColumns,
+                    ds.getX(), ds.getY(), ds.getThreshold());
+        } else if (seek) {
+            String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+            paginate = sqlUtils.query4Seek(sql, executeParam.getPageNo(), executeParam.getPageSize(),
+                    executeParam.getTotalCount(), executeParam.getLimit(), excludeColumns);
+        } else if (executeParam.isCursor()) {
+            String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+            StringBuilder cursorBuilder = new StringBuilder();
+            cursorBuilder.append(source.getId());
+            cursorBuilder.append(MINUS);
+            cursorBuilder.append(executeParam.getLimit());
+            cursorBuilder.append(MINUS);
+            excludeColumns.forEach(cursorBuilder::append);
+            String cursorKey = MD5Util.getMD5(cursorBuilder.toString() + sql, true, 32);
+            paginate = resultCursorManager.query(sqlUtils, cursorKey, sql, executeParam.getPageNo(),
+                    executeParam.getPageSize(), executeParam.getLimit(), excludeColumns);
+        }
+        return paginate;
+    }
+
+    /**
+     * 只查询 rangeFilter 之后的时间分桶，排序在与缓存的桶合并后进行
+     *
+     * @param baseSql
+     * @param source
+     * @param executeParam
+     * @param rangeFilter
+     * @return
+     */
+    private String buildTimeBucketSql(String baseSql, Source source, ViewExecuteParam executeParam, String rangeFilter) {
+        List<String> filterStrs = new ArrayList<>(executeParam.getFilters());
+        filterStrs.add(rangeFilter);
+
+        STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+        ST st = stg.getInstanceOf("querySql");
+        st.add("nativeQuery", false);
+        st.add("groups", executeParam.getGroups());
+        st.add("timeGrains", executeParam.getTimeGrainExpressions(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("aliasPrefix", SqlUtils.getAliasPrefix(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("aliasSuffix", SqlUtils.getAliasSuffix(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("aggregators", executeParam.getAggregators(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("filters", convertFilters(filterStrs, source));
+        st.add("keywordPrefix", SqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("keywordSuffix", SqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("sql", baseSql);
+        return st.render();
+    }
+
+    /**
+     * 汇总前 n 名以外的分组为 Others
+     *
+     * @param sqlUtils
+     * @param baseSql
+     * @param source
+     * @param executeParam
+     * @param excludeColumns
+     * @param paginate
+     * @throws Exception
+     */
+    private void appendOthers(SqlUtils sqlUtils, String baseSql, Source source, ViewExecuteParam executeParam,
+                              Set<String> excludeColumns, PaginateWithQueryColumns paginate) throws Exception {
+        List<String> filters = convertFilters(executeParam.getFilters(), source);
+        if (null == filters) {
+            filters = new ArrayList<>();
+        }
+        filters.add(executeParam.getOthersFilter(paginate.getResultList(), source.getJdbcUrl(), source.getDbVersion()));
+
+        STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+        ST st = stg.getInstanceOf("querySql");
+        st.add("nativeQuery", false);
+        st.add("aggregators", executeParam.getAggregators(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("filters", filters);
+        st.add("keywordPrefix", SqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("keywordSuffix", SqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()));
+        st.add("sql", baseSql);
+
+        PaginateWithQueryColumns others = sqlUtils.syncQuery4Paginate(SqlParseUtils.rebuildSqlWithFragment(st.render()),
+                null, null, null, 1, excludeColumns);
+        if (CollectionUtils.isEmpty(others.getResultList())) {
+            return;
+        }
+
+        Map<String, Object> othersRow = others.getResultList().get(0);
+        if (othersRow.values().stream().allMatch(Objects::isNull)) {
+            return;
+        }
+
+        List<String> groups = executeParam.getGroups();
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (QueryColumn column : paginate.getColumns()) {
+            String name = column.getName();
+            row.put(name, groups.contains(name) ? TopN.OTHERS : othersRow.get(name));
+        }
+
+        List<Map<String, Object>> resultList = new ArrayList<>(paginate.getResultList());
+        resultList.add(row);
+        paginate.setResultList(resultList);
+        paginate.setPageSize(resultList.size());
+        paginate.setTotalCount(resultList.size());
+    }
+
+    /**
+     * 以项目维护者身份（不带行权限、查询变量取默认值）抽取 view 明细
+     *
+     * @param projectId 抽取任务所属项目
+     * @param viewId
+     * @param option    刷新方式，为 null 时全量抽取
+     * @param user      抽取任务的创建者
+     * @return
+     * @throws NotFoundException
+     * @throws UnAuthorizedException
+     * @throws ServerException
+     */
+    @Override
+    public ExtractMeta extractView(Long projectId, Long viewId, ExtractOption option, User user) throws NotFoundException, UnAuthorizedException, ServerException {
+        ViewWithSource viewWithSource = getViewWithSource(viewId);
+        if (!viewWithSource.getProjectId().equals(projectId)) {
+            throw new UnAuthorizedException("View(" + viewId + ") is not in project(" + projectId + ")");
+        }
+        if (null == viewWithSource.getSource()) {
+            throw new NotFoundException("source is not found");
+        }
+        if (StringUtils.isEmpty(viewWithSource.getSql())) {
+            throw new NotFoundException("Sql is not found");
+        }
+
+        List<SqlVariable> variables = viewWithSource.getVariables();
+        SqlEntity sqlEntity = sqlParseUtils.parseSql(viewWithSource.getSql(), variables, sqlTempDelimiter, user, true);
+        packageParams(true, viewId, sqlEntity, variables, null, null, user);
+        String srcSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQuaryParams(), sqlEntity.getAuthParams(), sqlTempDelimiter);
+
+        SqlUtils sqlUtils = this.sqlUtils.init(viewWithSource.getSource());
+        List<String> executeSqlList = sqlParseUtils.getSqls(srcSql, false);
+        if (!CollectionUtils.isEmpty(executeSqlList)) {
+            executeSqlList.forEach(sqlUtils::execute);
+        }
+        List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
+        if (CollectionUtils.isEmpty(querySqlList)) {
+            throw new ServerException("View(" + viewId + ") has no query sql");
+        }
+
+        String sql = SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+        return viewExtractManager.refresh(viewId, getExtractDigest(srcSql), sqlUtils, sql, option,
+                viewWithSource.getSource().getJdbcUrl(), viewWithSource.getSource().getDbVersion());
+    }
+
+    private String getExtractDigest(String srcSql) {
+        return MD5Util.getMD5(srcSql, true, 32);
+    }
+
+    /**
+     * 本地聚合明细的缓存 key，权限参数已替换进 sql，这里仍显式加入以免不同权限的用户共用明细
+     *
+     * @param source
+     * @param viewId
+     * @param authParams
+     * @param excludeColumns
+     * @param sql
+     * @return
+     */
+    private String getLocalAggregateKey(Source source, Long viewId, Map<String, List<String>> authParams,
+                                        Set<String> excludeColumns, String sql) {
+        StringBuilder keyBuilder = new StringBuilder();
+        keyBuilder.append(source.getId());
+        keyBuilder.append(MINUS);
+        keyBuilder.append(viewId);
+        keyBuilder.append(MINUS);
+        if (null != authParams) {
+            keyBuilder.append(JSON.toJSONString(new TreeMap<>(authParams)));
+        }
+        keyBuilder.append(MINUS);
+        new TreeSet<>(excludeColumns).forEach(keyBuilder::append);
+        return MD5Util.getMD5(keyBuilder.toString() + sql, true, 32);
+    }
+
+    private String getPaginateCacheKey(int pageNo, ViewExecuteParam executeParam, Set<String> excludeColumns, String sql) {
+        StringBuilder saltBuilder = new StringBuilder();
+        saltBuilder.append(pageNo);
+        saltBuilder.append(MINUS);
+        saltBuilder.append(executeParam.getLimit());
+        saltBuilder.append(MINUS);
+        saltBuilder.append(executeParam.getPageSize());
+        excludeColumns.forEach(saltBuilder::append);
+        if (executeParam.isTopN()) {
+            TopN topN = executeParam.getTopN();
+            saltBuilder.append(MINUS);
+            saltBuilder.append(topN.getN());
+            saltBuilder.append(topN.getLabel());
+            saltBuilder.append(topN.getDirection());
+            saltBuilder.append(topN.isOthers());
+        }
+        Downsample downsample = executeParam.getDownsample();
+        if (null != downsample && downsample.isValid()) {
+            saltBuilder.append(MINUS);
+            saltBuilder.append(downsample.getX());
+            saltBuilder.append(downsample.getY());
+            saltBuilder.append(downsample.getThreshold());
+        }
+        if (executeParam.isBin()) {
+            Bin bin = executeParam.getBin();
+            saltBuilder.append(MINUS);
+            saltBuilder.append(bin.getWidth());
+            saltBuilder.append(bin.getCount());
+            saltBuilder.append(bin.getMin());
+            saltBuilder.append(bin.getMax());
+        }
+        if (executeParam.isGeoCluster()) {
+            saltBuilder.append(MINUS);
+            saltBuilder.append(executeParam.getGeoCluster().getCellSize());
+        }
+        if (executeParam.isPivot()) {
+            Pivot pivot = executeParam.getPivot();
+            saltBuilder.append(MINUS);
+            saltBuilder.append(pivot.getRows());
+            saltBuilder.append(pivot.getColumns());
+            saltBuilder.append(pivot.getMetrics());
+            saltBuilder.append(pivot.isSubtotals());
+        }
+        return MD5Util.getMD5(saltBuilder.toString() + sql, true, 32);
+    }
+
+    /**
+     * 预取下一页到结果缓存
+     *
+     * @param sqlUtils
+     * @param executeParam
+     * @param excludeColumns
+     * @param querySqlList
+     * @param source
+     * @param paginate
+     */
+    private void prefetchNextPage(SqlUtils sqlUtils, ViewExecuteParam executeParam, Set<String> excludeColumns,
+                                  List<String> querySqlList, Source source, PaginateWithQueryColumns paginate) {
+        if (!pagePrefetcher.isEnable() || null == paginate || executeParam.isBin()
+                || null == executeParam.getCache() || !executeParam.getCache() || executeParam.getExpired() <= 0L
+                || executeParam.getPageNo() < 1 || executeParam.getPageSize() < 1) {
+            return;
+        }
+
+        int nextPageNo = executeParam.getPageNo() + 1;
+        int pageSize = executeParam.getPageSize();
+        int totalCount = (int) paginate.getTotalCount();
+        if ((long) executeParam.getPageNo() * pageSize >= totalCount) {
+            return;
+        }
+
+        String lastSql = querySqlList.get(querySqlList.size() - 1);
+        String nextCacheKey = getPaginateCacheKey(nextPageNo, executeParam, excludeColumns, lastSql);
+        String sql = SqlParseUtils.rebuildSqlWithFragment(lastSql);
+        pagePrefetcher.prefetch(sqlUtils, nextCacheKey, executeParam.getExpired(), () -> {
+            PaginateWithQueryColumns next = sqlUtils.syncQuery4Paginate(sql, nextPageNo, pageSize, totalCount,
+                    executeParam.getLimit(), excludeColumns);
+            next.setSeek(executeParam.getNextSeek(next.getResultList(), source.getJdbcUrl(), source.getDbVersion()));
+            return next;
+        });
+    }
 
     @Override
     public List<Map<String, Object>> getDistinctValue(Long id, DistinctParam param, User user) throws NotFoundException, ServerException, UnAuthorizedException {
+        Paginate<Map<String, Object>> paginate = getDistinctValuePage(id, param, user);
+        return null == paginate ? null : paginate.getResultList();
+    }
+
+    @Override
+    public Paginate<Map<String, Object>> getDistinctValuePage(Long id, DistinctParam param, User user) throws NotFoundException, ServerException, UnAuthorizedException {
         ViewWithSource viewWithSource = getViewWithSource(id);
         ProjectDetail projectDetail = projectService.getProjectDetail(viewWithSource.getProjectId(), user, false);
         if (!projectService.allowGetData(projectDetail, user)) {
             throw new UnAuthorizedException();
         }
-        return getDistinctValueData(projectService.isMaintainer(projectDetail, user), viewWithSource, param, user);
+        return getDistinctValuePaginate(projectService.isMaintainer(projectDetail, user), viewWithSource, param, user);
     }
 
 
     @Override
     public List<Map<String, Object>> getDistinctValueData(boolean isMaintainer, ViewWithSource viewWithSource, DistinctParam param, User user) throws ServerException {
+        Paginate<Map<String, Object>> paginate = getDistinctValuePaginate(isMaintainer, viewWithSource, param, user);
+        return null == paginate ? null : paginate.getResultList();
+    }
+
+    /**
+     * 查询去重值，按 keyword 过滤并按 pageNo、pageSize 分页；
+     * 开启字典时单列去重值由 ValueDictionaryManager 缓存索引，其余情况在查询结果上过滤分页
+     */
+    private Paginate<Map<String, Object>> getDistinctValuePaginate(boolean isMaintainer, ViewWithSource viewWithSource, DistinctParam param, User user) throws ServerException {
 
         try {
 
@@ -685,10 +1458,8 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
             SqlUtils sqlUtils = this.sqlUtils.init(source);
 
+            // 执行语句在查询前执行，字典或缓存命中时不执行
             List<String> executeSqlList = sqlParseUtils.getSqls(srcSql, false);
-            if (!CollectionUtils.isEmpty(executeSqlList)) {
-                executeSqlList.forEach(sqlUtils::execute);
-            }
 
             List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
             if (!CollectionUtils.isEmpty(querySqlList)) {
@@ -705,19 +1476,37 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                     String sql = st.render();
                     querySqlList.set(querySqlList.size() - 1, sql);
 
+                    if (valueDictionaryManager.isEnable() && param.getColumns().size() == 1) {
+                        // sql 中已替换权限变量，不同权限的用户使用各自的字典
+                        String dictionaryKey = MD5Util.getMD5(source.getId() + sql, true, 32);
+                        return valueDictionaryManager.search(dictionaryKey, param.getColumns().get(0), () -> {
+                            if (!CollectionUtils.isEmpty(executeSqlList)) {
+                                executeSqlList.forEach(sqlUtils::execute);
+                            }
+                            List<Map<String, Object>> rows = null;
+                            for (String querySql : querySqlList) {
+                                rows = sqlUtils.query4List(SqlParseUtils.rebuildSqlWithFragment(querySql), -1);
+                            }
+                            return null == rows ? new ArrayList<>() : rows;
+                        }, param.getKeyword(), param.isPrefix(), param.getPageNo(), param.getPageSize());
+                    }
+
                     if (null != param.getCache() && param.getCache() && param.getExpired().longValue() > 0L) {
                         cacheKey = MD5Util.getMD5(sql, true, 32);
 
                         try {
                             Object object = redisUtils.get(cacheKey);
                             if (null != object) {
-                                return (List) object;
+                                return ValueDictionary.search((List<Map<String, Object>>) object, param.getKeyword(), param.isPrefix(), param.getPageNo(), param.getPageSize());
                             }
                         } catch (Exception e) {
                             log.warn("Get distinct value by cache error, {}", e.getMessage());
                         }
                     }
                 }
+                if (!CollectionUtils.isEmpty(executeSqlList)) {
+                    executeSqlList.forEach(sqlUtils::execute);
+                }
                 List<Map<String, Object>> list = null;
                 for (String sql : querySqlList) {
                     list = sqlUtils.query4List(SqlParseUtils.rebuildSqlWithFragment(sql), -1);
@@ -728,7 +1517,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                 }
 
                 if (null != list) {
-                    return list;
+                    return ValueDictionary.search(list, param.getKeyword(), param.isPrefix(), param.getPageNo(), param.getPageSize());
                 }
             }
 
@@ -0,0 +1,58 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.join;
+
+import edp.core.utils.SqlUtils;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 关联的一侧：已按 view 的权限和查询参数构造的 sql，由 ViewJoinEngine 流式读取
+ */
+@Getter
+public class JoinSide {
+
+    /**
+     * 用于错误信息，如 view(1)
+     */
+    private final String name;
+
+    private final SqlUtils sqlUtils;
+
+    private final String sql;
+
+    private final int limit;
+
+    private final Set<String> excludeColumns;
+
+    private final List<String> keys;
+
+    public JoinSide(String name, SqlUtils sqlUtils, String sql, int limit, Set<String> excludeColumns, List<String> keys) {
+        this.name = name;
+        this.sqlUtils = sqlUtils;
+        this.sql = sql;
+        this.limit = limit;
+        this.excludeColumns = excludeColumns;
+        this.keys = keys;
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.join;
+
+import edp.core.common.MetricsProvider;
+import edp.core.common.jdbc.ResultMemoryGovernor;
+import edp.core.common.jdbc.RowDecoder;
+import edp.core.consts.Consts;
+import edp.core.exception.ServerException;
+import edp.core.model.QueryColumn;
+import edp.core.utils.FileUtils;
+import edp.davinci.service.aggregate.ColumnarTable;
+import edp.davinci.service.extract.ExtractFile;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 两个 view 查询结果的哈希关联
+ * <p>
+ * 两侧均从数据源流式读取：以右侧为构建侧建立关联列到行的哈希表，逐行探测左侧；
+ * 构建侧估算大小超过 memory-limit 时，两侧读取时按关联列的哈希值一次写入 max-partitions 个临时文件，
+ * 再逐个分区关联，每次只在内存中保留一个分区的哈希表。
+ * 任一侧达到数据源的结果行数上限时失败；关联结果按行申请 ResultMemoryGovernor 预算
+ */
+@Slf4j
+@Component
+public class ViewJoinEngine implements MetricsProvider {
+
+    private static final String SPILL_PREFIX = "join-";
+
+    private static final String SPILL_SUFFIX = ".tmp";
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int SPILL_GROUP_ROWS = 8192;
+
+    @Value("${source.view-join.enable:true}")
+    @Getter
+    private boolean enable;
+
+    @Value("${source.view-join.memory-limit:67108864}")
+    private long memoryLimit;
+
+    @Value("${source.view-join.max-partitions:64}")
+    private int maxPartitions;
+
+    @Autowired
+    private FileUtils fileUtils;
+
+    @Autowired
+    private ResultMemoryGovernor memoryGovernor;
+
+    private File spillDir;
+
+    private final AtomicLong joins = new AtomicLong(0L);
+
+    private final AtomicLong spilled = new AtomicLong(0L);
+
+    private final AtomicLong outputRows = new AtomicLong(0L);
+
+    private final AtomicLong failed = new AtomicLong(0L);
+
+    @PostConstruct
+    public void init() {
+        spillDir = new File(fileUtils.fileBasePath + Consts.DIR_TEMP);
+    }
+
+    /**
+     * 关联两侧查询结果：先流式读取右侧建立哈希表，再流式读取左侧逐行探测
+     *
+     * @param left
+     * @param right       构建侧
+     * @param leftJoin    是否保留左侧未关联的行
+     * @param rightPrefix 右侧列名前缀
+     * @param maxRows     关联结果行数上限，超过时抛出异常
+     * @return
+     * @throws ServerException
+     */
+    public ColumnarTable join(JoinSide left, JoinSide right, boolean leftJoin, String rightPrefix, int maxRows) throws ServerException {
+        if (left.getKeys().size() != right.getKeys().size()) {
+            throw new ServerException("The number of join columns of both views must be the same");
+        }
+        joins.incrementAndGet();
+        Build build = new Build();
+        try (ResultMemoryGovernor.Lease lease = memoryGovernor.newLease()) {
+            right.getSqlUtils().query4Stream(right.getSql(), right.getLimit(), right.getExcludeColumns(),
+                    (decoder, rs) -> build(build, right, decoder, rs, lease));
+            Output output = left.getSqlUtils().query4Stream(left.getSql(), left.getLimit(), left.getExcludeColumns(),
+                    (decoder, rs) -> probe(build, left, decoder, rs, leftJoin, rightPrefix, maxRows, lease));
+            if (build.isSpilled()) {
+                for (int p = 0; p < build.rightFiles.length; p++) {
+                    try (ExtractFile.FileRowSource leftRows = ExtractFile.openRows(build.leftFiles[p], ExtractFile.getDataOffset(build.leftFiles[p]));
+                         ExtractFile.FileRowSource rightRows = ExtractFile.openRows(build.rightFiles[p], ExtractFile.getDataOffset(build.rightFiles[p]))) {
+                        Map<Object, List<Object[]>> table = hash(ExtractFile.toList(rightRows, build.columns.size(), Long.MAX_VALUE), build.keyIndexes);
+                        probe(leftRows, build.leftKeyIndexes, table, leftJoin, output);
+                    }
+                }
+            }
+            outputRows.addAndGet(output.rowCount);
+            return output.toTable();
+        } catch (ServerException e) {
+            failed.incrementAndGet();
+            throw e;
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("Join views error", e);
+            throw new ServerException(e.getMessage());
+        } finally {
+            build.delete();
+        }
+    }
+
+    /**
+     * 读取构建侧，估算大小超过 memory-limit 时将已读取和剩余的行按关联列的哈希值一次写入各分区文件
+     */
+    private Build build(Build build, JoinSide side, RowDecoder decoder, ResultSet rs, ResultMemoryGovernor.Lease lease) throws SQLException {
+        build.columns = decoder.getQueryColumns();
+        build.keyIndexes = indexesOf(build.columns, side.getKeys());
+        int columnCount = build.columns.size();
+        ExtractFile.RowSource rows = limited(side, ExtractFile.of(decoder, rs));
+        List<Object[]> buffered = new ArrayList<>();
+        long bytes = 0L;
+        ExtractFile.Writer[] writers = null;
+        try {
+            while (rows.next()) {
+                Object[] row = new Object[columnCount];
+                for (int c = 0; c < columnCount; c++) {
+                    row[c] = rows.getValue(c);
+                    bytes += 8L + RowDecoder.estimateBytes(row[c]);
+                }
+                if (null != writers) {
+                    writers[partitionOf(keyOf(row, build.keyIndexes), writers.length)].add(row);
+                    continue;
+                }
+                buffered.add(row);
+                if (bytes > memoryLimit) {
+                    spill(build);
+                    writers = open(build.rightFiles, build.columns);
+                    for (Object[] bufferedRow : buffered) {
+                        writers[partitionOf(keyOf(bufferedRow, build.keyIndexes), writers.length)].add(bufferedRow);
+                    }
+                    buffered = null;
+                }
+            }
+            if (null != writers) {
+                close(writers);
+                writers = null;
+            }
+        } catch (IOException e) {
+            throw new SQLException(e.getMessage(), e);
+        } finally {
+            closeQuietly(writers);
+        }
+        if (!build.isSpilled()) {
+            lease.acquire(bytes);
+            build.table = hash(buffered, build.keyIndexes);
+        }
+        return build;
+    }
+
+    /**
+     * 读取左侧：构建侧在内存中时直接探测，否则按关联列的哈希值一次写入各分区文件
+     */
+    private Output probe(Build build, JoinSide side, RowDecoder decoder, ResultSet rs, boolean leftJoin, String rightPrefix,
+                         int maxRows, ResultMemoryGovernor.Lease lease) throws SQLException {
+        List<QueryColumn> leftColumns = decoder.getQueryColumns();
+        build.leftKeyIndexes = indexesOf(leftColumns, side.getKeys());
+        Output output = newOutput(leftColumns, build.columns, build.keyIndexes, rightPrefix, maxRows);
+        output.lease = lease;
+        ExtractFile.RowSource rows = limited(side, ExtractFile.of(decoder, rs));
+        if (!build.isSpilled()) {
+            probe(rows, build.leftKeyIndexes, build.table, leftJoin, output);
+            return output;
+        }
+
+        ExtractFile.Writer[] writers = null;
+        try {
+            writers = open(build.leftFiles, leftColumns);
+            while (rows.next()) {
+                Object[] row = new Object[leftColumns.size()];
+                for (int c = 0; c < row.length; c++) {
+                    row[c] = rows.getValue(c);
+                }
+                writers[partitionOf(keyOf(row, build.leftKeyIndexes), writers.length)].add(row);
+            }
+            close(writers);
+            writers = null;
+        } catch (IOException e) {
+            throw new SQLException(e.getMessage(), e);
+        } finally {
+            closeQuietly(writers);
+        }
+        return output;
+    }
+
+    private void spill(Build build) {
+        spilled.incrementAndGet();
+        if (!spillDir.exists()) {
+            spillDir.mkdirs();
+        }
+        String id = SPILL_PREFIX + UUID.randomUUID().toString().replace("-", "");
+        int partitions = Math.max(2, maxPartitions);
+        build.leftFiles = new File[partitions];
+        build.rightFiles = new File[partitions];
+        for (int p = 0; p < partitions; p++) {
+            build.leftFiles[p] = new File(spillDir, id + "-l" + p + SPILL_SUFFIX);
+            build.rightFiles[p] = new File(spillDir, id + "-r" + p + SPILL_SUFFIX);
+        }
+        log.info("Join spilled {} partitions to {}", partitions, spillDir.getPath());
+    }
+
+    private static ExtractFile.Writer[] open(File[] files, List<QueryColumn> columns) throws IOException {
+        ExtractFile.Writer[] writers = new ExtractFile.Writer[files.length];
+        try {
+            for (int p = 0; p < files.length; p++) {
+                writers[p] = new ExtractFile.Writer(files[p], columns, SPILL_GROUP_ROWS);
+            }
+        } catch (IOException e) {
+            closeQuietly(writers);
+            throw e;
+        }
+        return writers;
+    }
+
+    private static void close(ExtractFile.Writer[] writers) throws IOException {
+        for (ExtractFile.Writer writer : writers) {
+            writer.close();
+        }
+    }
+
+    private static void closeQuietly(ExtractFile.Writer[] writers) {
+        if (null == writers) {
+            return;
+        }
+        for (ExtractFile.Writer writer : writers) {
+            if (null != writer) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * 数据源的结果行数上限会截断一侧的结果，达到上限时关联结果不完整
+     */
+    private static ExtractFile.RowSource limited(JoinSide side, ExtractFile.RowSource rows) {
+        int resultLimit = side.getSqlUtils().getResultLimit();
+        return new ExtractFile.RowSource() {
+            private long count = 0L;
+
+            @Override
+            public boolean next() throws SQLException {
+                if (!rows.next()) {
+                    return false;
+                }
+                if (++count >= resultLimit) {
+                    throw new ServerException("Query of " + side.getName() + " reaches source result limit " + resultLimit
+                            + ", the joined result would be incomplete");
+                }
+                return true;
+            }
+
+            @Override
+            public Object getValue(int column) throws SQLException {
+                return rows.getValue(column);
+            }
+        };
+    }
+
+    /**
+     * 输出列：左侧全部列，右侧除关联列外的列
+     */
+    private static Output newOutput(List<QueryColumn> leftColumns, List<QueryColumn> rightColumns, int[] rightKeyIndexes,
+                                    String rightPrefix, int maxRows) {
+        List<QueryColumn> columns = new ArrayList<>(leftColumns);
+        Set<String> names = new HashSet<>();
+        leftColumns.forEach(column -> names.add(column.getName()));
+        List<Integer> rightOutput = new ArrayList<>();
+        for (int i = 0; i < rightColumns.size(); i++) {
+            if (contains(rightKeyIndexes, i)) {
+                continue;
+            }
+            String name = (null == rightPrefix ? "" : rightPrefix) + rightColumns.get(i).getName();
+            if (!names.add(name)) {
+                throw new ServerException("Column " + name + " of the right view conflicts with the left view, please set a right prefix");
+            }
+            columns.add(new QueryColumn(name, rightColumns.get(i).getType()));
+            rightOutput.add(i);
+        }
+        return new Output(columns, leftColumns.size(), rightOutput.stream().mapToInt(Integer::intValue).toArray(), maxRows);
+    }
+
+    private static Map<Object, List<Object[]>> hash(List<Object[]> rows, int[] keyIndexes) {
+        Map<Object, List<Object[]>> table = new HashMap<>();
+        for (Object[] row : rows) {
+            Object key = keyOf(row, keyIndexes);
+            if (null != key) {
+                table.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+            }
+        }
+        return table;
+    }
+
+    private static void probe(ExtractFile.RowSource leftRows, int[] leftKeyIndexes, Map<Object, List<Object[]>> table,
+                              boolean leftJoin, Output output) throws SQLException {
+        while (leftRows.next()) {
+            Object key = keyOf(leftRows, leftKeyIndexes);
+            List<Object[]> matches = null == key ? null : table.get(key);
+            if (null != matches) {
+                for (Object[] match : matches) {
+                    output.add(leftRows, match);
+                }
+            } else if (leftJoin) {
+                output.add(leftRows, null);
+            }
+        }
+    }
+
+    private static int[] indexesOf(List<QueryColumn> columns, List<String> keys) {
+        int[] indexes = new int[keys.size()];
+        for (int k = 0; k < keys.size(); k++) {
+            indexes[k] = -1;
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).getName().equals(keys.get(k).trim())) {
+                    indexes[k] = i;
+                    break;
+                }
+            }
+            if (indexes[k] < 0) {
+                throw new ServerException("Join column not found: " + keys.get(k));
+            }
+        }
+        return indexes;
+    }
+
+    private static boolean contains(int[] indexes, int index) {
+        for (int i : indexes) {
+            if (i == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object keyOf(ExtractFile.RowSource row, int[] keyIndexes) throws SQLException {
+        if (keyIndexes.length == 1) {
+            return normalize(row.getValue(keyIndexes[0]));
+        }
+        Object[] values = new Object[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            values[i] = normalize(row.getValue(keyIndexes[i]));
+            if (null == values[i]) {
+                return null;
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    private static Object keyOf(Object[] row, int[] keyIndexes) {
+        if (keyIndexes.length == 1) {
+            return normalize(row[keyIndexes[0]]);
+        }
+        Object[] values = new Object[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            values[i] = normalize(row[keyIndexes[i]]);
+            if (null == values[i]) {
+                return null;
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * 两侧来自不同数据源，同一关联值的 Java 类型可能不同（如 Integer 与 BigDecimal），统一后再比较
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if ((value instanceof Double && !Double.isFinite((Double) value)) || (value instanceof Float && !Float.isFinite((Float) value))) {
+            return value;
+        }
+        if (value instanceof BigInteger || value instanceof BigDecimal || value instanceof Double || value instanceof Float) {
+            BigDecimal decimal = new BigDecimal(value.toString()).stripTrailingZeros();
+            if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() <= 19 && decimal.toBigInteger().bitLength() < 64) {
+                return decimal.longValue();
+            }
+            return decimal;
+        }
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).getTime();
+        }
+        return value;
+    }
+
+    private static int partitionOf(Object key, int partitions) {
+        return null == key ? 0 : (key.hashCode() & Integer.MAX_VALUE) % partitions;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "view-join";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enable", enable);
+        metrics.put("memoryLimit", memoryLimit);
+        metrics.put("joins", joins.get());
+        metrics.put("spilled", spilled.get());
+        metrics.put("outputRows", outputRows.get());
+        metrics.put("failed", failed.get());
+        return metrics;
+    }
+
+    /**
+     * 构建侧：未落盘时为内存中的哈希表，落盘时为两侧的分区文件
+     */
+    private static class Build {
+
+        private List<QueryColumn> columns;
+
+        private int[] keyIndexes;
+
+        private int[] leftKeyIndexes;
+
+        private Map<Object, List<Object[]>> table;
+
+        private File[] leftFiles;
+
+        private File[] rightFiles;
+
+        private boolean isSpilled() {
+            return null != rightFiles;
+        }
+
+        private void delete() {
+            for (File[] files : new File[][]{leftFiles, rightFiles}) {
+                if (null == files) {
+                    continue;
+                }
+                for (File file : files) {
+                    if (null != file) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 按列存放的关联结果
+     */
+    private static class Output {
+
+        private final List<QueryColumn> columns;
+
+        private final int leftColumnCount;
+
+        private final int[] rightOutput;
+
+        private final int maxRows;
+
+        private final Object[][] values;
+
+        private ResultMemoryGovernor.Lease lease;
+
+        private int rowCount = 0;
+
+        private long bytes = 0L;
+
+        private Output(List<QueryColumn> columns, int leftColumnCount, int[] rightOutput, int maxRows) {
+            this.columns = columns;
+            this.leftColumnCount = leftColumnCount;
+            this.rightOutput = rightOutput;
+            this.maxRows = maxRows;
+            this.values = new Object[columns.size()][INITIAL_CAPACITY];
+        }
+
+        private void add(ExtractFile.RowSource left, Object[] right) throws SQLException {
+            if (maxRows > 0 && rowCount >= maxRows) {
+                throw new ServerException("Joined result exceeds max rows " + maxRows + ", please narrow down the query");
+            }
+            if (rowCount == values[0].length) {
+                int capacity = rowCount + (rowCount >> 1);
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = Arrays.copyOf(values[c], capacity);
+                }
+            }
+            long rowBytes = 0L;
+            for (int c = 0; c < leftColumnCount; c++) {
+                Object value = left.getValue(c);
+                values[c][rowCount] = value;
+                rowBytes += 8L + RowDecoder.estimateBytes(value);
+            }
+            for (int i = 0; i < rightOutput.length; i++) {
+                Object value = null == right ? null : right[rightOutput[i]];
+                values[leftColumnCount + i][rowCount] = value;
+                rowBytes += 8L + RowDecoder.estimateBytes(value);
+            }
+            lease.acquire(rowBytes);
+            bytes += rowBytes;
+            rowCount++;
+        }
+
+        private ColumnarTable toTable() {
+            String[] names = new String[columns.size()];
+            for (int c = 0; c < names.length; c++) {
+                names[c] = columns.get(c).getName();
+            }
+            return ColumnarTable.of(names, columns, values, rowCount, bytes);
+        }
+    }
+}
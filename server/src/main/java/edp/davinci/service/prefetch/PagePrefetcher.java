@@ -0,0 +1,204 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.prefetch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.common.MetricsProvider;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.RedisUtils;
+import edp.core.utils.SqlUtils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分页结果预取
+ * <p>
+ * 返回第 n 页后，在低优先级线程中查询第 n+1 页并写入结果缓存；
+ * 每个数据源同时只允许 max-per-source 个预取，且仅在连接池空闲时执行
+ */
+@Slf4j
+@Component
+public class PagePrefetcher implements MetricsProvider {
+
+    @Value("${source.prefetch.enable:false}")
+    @Getter
+    private boolean enable;
+
+    @Value("${source.prefetch.concurrency:2}")
+    private int concurrency;
+
+    @Value("${source.prefetch.queue-size:64}")
+    private int queueSize;
+
+    @Value("${source.prefetch.max-per-source:1}")
+    private int maxPerSource;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 各数据源正在执行的预取数，数据源数量有限，计数器不回收，避免与 prefetch 并发时丢失计数
+     */
+    private final Map<String, AtomicInteger> inflightMap = new ConcurrentHashMap<>();
+
+    /**
+     * 已预取的缓存 key 及其过期时间
+     */
+    private final Map<String, Long> prefetchedMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong(0L);
+
+    private final AtomicLong rejected = new AtomicLong(0L);
+
+    private final AtomicLong completed = new AtomicLong(0L);
+
+    private final AtomicLong failed = new AtomicLong(0L);
+
+    private final AtomicLong hits = new AtomicLong(0L);
+
+    private final AtomicLong misses = new AtomicLong(0L);
+
+    private final AtomicLong wasted = new AtomicLong(0L);
+
+    @PostConstruct
+    public void init() {
+        int threads = Math.max(1, concurrency);
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, queueSize)),
+                new ThreadFactoryBuilder().setNameFormat("Page-prefetch-%d").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交预取任务
+     *
+     * @param sqlUtils
+     * @param cacheKey 预取页的缓存 key
+     * @param expired  缓存过期时间（秒）
+     * @param query    预取页的查询
+     */
+    public void prefetch(SqlUtils sqlUtils, String cacheKey, long expired, Callable<PaginateWithQueryColumns> query) {
+        if (!enable || !redisUtils.isRedisEnable() || prefetchedMap.containsKey(cacheKey)) {
+            return;
+        }
+
+        String sourceKey = sqlUtils.getSourceKey();
+        AtomicInteger inflight = inflightMap.computeIfAbsent(sourceKey, k -> new AtomicInteger(0));
+        if (inflight.incrementAndGet() > maxPerSource || !sqlUtils.isPoolIdle()) {
+            inflight.decrementAndGet();
+            rejected.incrementAndGet();
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    if (null != redisUtils.get(cacheKey)) {
+                        return;
+                    }
+                    PaginateWithQueryColumns paginate = query.call();
+                    if (null != paginate && !CollectionUtils.isEmpty(paginate.getResultList())) {
+                        redisUtils.set(cacheKey, paginate, expired, TimeUnit.SECONDS);
+                        prefetchedMap.put(cacheKey, System.currentTimeMillis() + expired * 1000L);
+                    }
+                    completed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.warn("Prefetch page error, {}", e.getMessage());
+                } finally {
+                    inflight.decrementAndGet();
+                }
+            });
+            submitted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            inflight.decrementAndGet();
+            rejected.incrementAndGet();
+        }
+    }
+
+    /**
+     * 记录结果缓存的读取，统计预取命中
+     *
+     * @param cacheKey
+     * @param hit
+     */
+    public void onCacheLookup(String cacheKey, boolean hit) {
+        if (null == prefetchedMap.remove(cacheKey)) {
+            return;
+        }
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    @Scheduled(cron = "0 0/1 * * * *")
+    public void clearExpired() {
+        long now = System.currentTimeMillis();
+        prefetchedMap.entrySet().removeIf(entry -> {
+            if (entry.getValue() <= now) {
+                wasted.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "prefetch";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enable", enable);
+        metrics.put("submitted", submitted.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("completed", completed.get());
+        metrics.put("failed", failed.get());
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("wasted", wasted.get());
+        metrics.put("pending", prefetchedMap.size());
+        metrics.put("queueSize", executor.getQueue().size());
+        return metrics;
+    }
+}
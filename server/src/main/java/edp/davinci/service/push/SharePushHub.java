@@ -0,0 +1,417 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.push;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.common.MetricsProvider;
+import edp.core.exception.ForbiddenException;
+import edp.core.exception.NotFoundException;
+import edp.core.exception.ServerException;
+import edp.core.exception.UnAuthorizedException;
+import edp.core.model.Paginate;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.utils.FingerprintUtils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分享页数据推送
+ * <p>
+ * 订阅按 widget 和实际生效的查询（权限用户、查询参数）归并到同一个频道，
+ * 每个频道按订阅者中最短的刷新间隔执行一次查询，结果有变化时推送 data 事件，否则推送 unchanged 事件；
+ * 数据源的查询次数与同时打开分享页的终端数量无关。
+ * 查询在 scheduler 线程上执行，推送交给独立的发送线程池，每个订阅者同一时间只有一个发送任务，
+ * 发送未完成时新的事件覆盖尚未发出的旧事件，慢连接不会阻塞查询和其他订阅者；
+ * 查询因分享 token 失效（过期、无权限）失败时关闭整个频道
+ */
+@Slf4j
+@Component
+public class SharePushHub implements MetricsProvider {
+
+    public static final String EVENT_DATA = "data";
+
+    public static final String EVENT_UNCHANGED = "unchanged";
+
+    public static final String EVENT_ERROR = "error";
+
+    @Value("${source.share-push.enable:true}")
+    @Getter
+    private boolean enable;
+
+    @Value("${source.share-push.concurrency:4}")
+    private int concurrency;
+
+    @Value("${source.share-push.send-concurrency:8}")
+    private int sendConcurrency;
+
+    @Value("${source.share-push.min-interval:5}")
+    private int minInterval;
+
+    @Value("${source.share-push.max-subscribers:2000}")
+    private int maxSubscribers;
+
+    @Value("${source.share-push.emitter-timeout:1800000}")
+    private long emitterTimeout;
+
+    private ScheduledThreadPoolExecutor scheduler;
+
+    private ExecutorService sender;
+
+    private final Map<String, Channel> channelMap = new ConcurrentHashMap<>();
+
+    private final AtomicInteger subscribers = new AtomicInteger(0);
+
+    private final AtomicLong executions = new AtomicLong(0L);
+
+    private final AtomicLong failures = new AtomicLong(0L);
+
+    private final AtomicLong dataEvents = new AtomicLong(0L);
+
+    private final AtomicLong unchangedEvents = new AtomicLong(0L);
+
+    private final AtomicLong rejected = new AtomicLong(0L);
+
+    @PostConstruct
+    public void init() {
+        scheduler = new ScheduledThreadPoolExecutor(Math.max(1, concurrency),
+                new ThreadFactoryBuilder().setNameFormat("Share-push-%d").setDaemon(true).build());
+        scheduler.setRemoveOnCancelPolicy(true);
+        sender = Executors.newFixedThreadPool(Math.max(1, sendConcurrency),
+                new ThreadFactoryBuilder().setNameFormat("Share-push-send-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+        sender.shutdownNow();
+        channelMap.values().forEach(Channel::close);
+        channelMap.clear();
+    }
+
+    /**
+     * 订阅频道
+     *
+     * @param key         widget 和实际生效查询的标识，相同 key 的订阅共享一次查询
+     * @param interval    刷新间隔（秒）
+     * @param lastEventId 客户端重连时回传的上次结果指纹
+     * @param query       频道的查询
+     * @return
+     */
+    public SseEmitter subscribe(String key, int interval, String lastEventId, Callable<Paginate<Map<String, Object>>> query) throws ServerException {
+        if (!enable) {
+            throw new ServerException("Share data push is disabled");
+        }
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new ServerException("Too many share data subscribers, please try again later");
+        }
+
+        SseEmitter emitter = new SseEmitter(emitterTimeout);
+        Subscriber subscriber = new Subscriber(emitter, Math.max(minInterval, interval) * 1000L);
+
+        Channel channel;
+        while (true) {
+            channel = channelMap.computeIfAbsent(key, k -> new Channel(k, query));
+            if (channel.add(subscriber)) {
+                break;
+            }
+            // 频道刚好在最后一个订阅者离开时关闭
+            channelMap.remove(key, channel);
+        }
+
+        Channel joined = channel;
+        emitter.onCompletion(() -> leave(joined, subscriber));
+        emitter.onTimeout(() -> leave(joined, subscriber));
+        emitter.onError(e -> leave(joined, subscriber));
+        channel.welcome(subscriber, lastEventId);
+        return emitter;
+    }
+
+    private void leave(Channel channel, Subscriber subscriber) {
+        if (channel.remove(subscriber)) {
+            subscribers.decrementAndGet();
+        }
+        if (channel.isClosed()) {
+            channelMap.remove(channel.key, channel);
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "share-push";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enable", enable);
+        metrics.put("channels", channelMap.size());
+        metrics.put("subscribers", subscribers.get());
+        metrics.put("executions", executions.get());
+        metrics.put("failures", failures.get());
+        metrics.put("dataEvents", dataEvents.get());
+        metrics.put("unchangedEvents", unchangedEvents.get());
+        metrics.put("rejected", rejected.get());
+        return metrics;
+    }
+
+    private static class Subscriber {
+
+        private final SseEmitter emitter;
+
+        private final long interval;
+
+        /**
+         * 尚未发出的最新事件
+         */
+        private final AtomicReference<Event> pending = new AtomicReference<>();
+
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+
+        private Subscriber(SseEmitter emitter, long interval) {
+            this.emitter = emitter;
+            this.interval = interval;
+        }
+    }
+
+    private static class Event {
+
+        private final String name;
+
+        private final String id;
+
+        private final String data;
+
+        private final boolean complete;
+
+        private Event(String name, String id, String data, boolean complete) {
+            this.name = name;
+            this.id = id;
+            this.data = data;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * 同一查询的订阅者集合
+     */
+    private class Channel {
+
+        private final String key;
+
+        private final Callable<Paginate<Map<String, Object>>> query;
+
+        private final List<Subscriber> subscriberList = new CopyOnWriteArrayList<>();
+
+        private volatile String fingerprint;
+
+        private volatile String payload;
+
+        private ScheduledFuture<?> future;
+
+        private boolean closed = false;
+
+        private Channel(String key, Callable<Paginate<Map<String, Object>>> query) {
+            this.key = key;
+            this.query = query;
+        }
+
+        private synchronized boolean add(Subscriber subscriber) {
+            if (closed) {
+                return false;
+            }
+            subscriberList.add(subscriber);
+            if (null == future) {
+                future = scheduler.schedule(this::refresh, 0L, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        private synchronized boolean remove(Subscriber subscriber) {
+            boolean removed = subscriberList.remove(subscriber);
+            if (subscriberList.isEmpty()) {
+                close();
+            }
+            return removed;
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        private synchronized void close() {
+            closed = true;
+            if (null != future) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * 新订阅者立即获得频道的最近一次结果
+         */
+        private void welcome(Subscriber subscriber, String lastEventId) {
+            String current = fingerprint;
+            if (null == current) {
+                return;
+            }
+            if (current.equals(lastEventId)) {
+                send(subscriber, EVENT_UNCHANGED, current, current);
+            } else {
+                send(subscriber, EVENT_DATA, current, payload);
+            }
+        }
+
+        private void refresh() {
+            if (isClosed()) {
+                return;
+            }
+            executions.incrementAndGet();
+            try {
+                Paginate<Map<String, Object>> paginate = query.call();
+                String current = fingerprintOf(paginate);
+
+                if (null != current && current.equals(fingerprint)) {
+                    subscriberList.forEach(subscriber -> send(subscriber, EVENT_UNCHANGED, current, current));
+                } else {
+                    String data = JSON.toJSONString(paginate);
+                    payload = data;
+                    fingerprint = current;
+                    subscriberList.forEach(subscriber -> send(subscriber, EVENT_DATA, current, data));
+                }
+            } catch (UnAuthorizedException | ForbiddenException | NotFoundException e) {
+                // 分享 token 已失效或分享内容已删除，不再推送
+                failures.incrementAndGet();
+                log.info("Share push channel closed, channel:{}, {}", key, e.getMessage());
+                String data = JSON.toJSONString(e.getMessage());
+                subscriberList.forEach(subscriber -> send(subscriber, EVENT_ERROR, null, data, true));
+                close();
+                return;
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                log.warn("Share push query error, channel:{}, {}", key, e.getMessage());
+                String data = JSON.toJSONString(e.getMessage());
+                subscriberList.forEach(subscriber -> send(subscriber, EVENT_ERROR, null, data));
+            }
+            schedule();
+        }
+
+        private String fingerprintOf(Paginate<Map<String, Object>> paginate) {
+            if (!(paginate instanceof PaginateWithQueryColumns)) {
+                return null;
+            }
+            PaginateWithQueryColumns columnsPaginate = (PaginateWithQueryColumns) paginate;
+            return null == columnsPaginate.getFingerprint() ? FingerprintUtils.fingerprint(columnsPaginate) : columnsPaginate.getFingerprint();
+        }
+
+        private synchronized void schedule() {
+            if (closed) {
+                return;
+            }
+            long interval = Long.MAX_VALUE;
+            for (Subscriber subscriber : subscriberList) {
+                interval = Math.min(interval, subscriber.interval);
+            }
+            future = scheduler.schedule(this::refresh, interval, TimeUnit.MILLISECONDS);
+        }
+
+        private void send(Subscriber subscriber, String event, String id, String data) {
+            send(subscriber, event, id, data, false);
+        }
+
+        /**
+         * 事件交给发送线程池，订阅者已有发送任务时只替换待发送的事件
+         *
+         * @param complete 发送后结束连接
+         */
+        private void send(Subscriber subscriber, String event, String id, String data, boolean complete) {
+            subscriber.pending.set(new Event(event, id, data, complete));
+            dispatch(subscriber);
+        }
+
+        private void dispatch(Subscriber subscriber) {
+            if (null == subscriber.pending.get() || !subscriber.sending.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                sender.execute(() -> drain(subscriber));
+            } catch (RejectedExecutionException e) {
+                subscriber.sending.set(false);
+            }
+        }
+
+        private void drain(Subscriber subscriber) {
+            Event event;
+            while (null != (event = subscriber.pending.getAndSet(null))) {
+                if (!emit(subscriber, event)) {
+                    subscriber.pending.set(null);
+                    break;
+                }
+            }
+            subscriber.sending.set(false);
+            // 释放发送标记前可能有新的事件
+            dispatch(subscriber);
+        }
+
+        private boolean emit(Subscriber subscriber, Event event) {
+            SseEmitter.SseEventBuilder builder = SseEmitter.event().name(event.name);
+            if (null != event.id) {
+                builder.id(event.id);
+            }
+            try {
+                subscriber.emitter.send(builder.data(null == event.data ? "" : event.data, MediaType.APPLICATION_JSON));
+                if (EVENT_DATA.equals(event.name)) {
+                    dataEvents.incrementAndGet();
+                } else if (EVENT_UNCHANGED.equals(event.name)) {
+                    unchangedEvents.incrementAndGet();
+                }
+                if (event.complete) {
+                    subscriber.emitter.complete();
+                    leave(this, subscriber);
+                    return false;
+                }
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                // 连接已断开
+                subscriber.emitter.completeWithError(e);
+                leave(this, subscriber);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import edp.core.exception.ServerException;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.*;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 用 Arrow Java 的 ArrowStreamReader 读回 ArrowResultWriter 写出的 stream，逐列核对类型与取值
+ */
+public class ArrowResultWriterTest {
+
+    private static final String[] LABELS = {"id", "name", "amount", "price", "created", "birthday", "active", "big", "ratio"};
+
+    private static final int[] TYPES = {Types.INTEGER, Types.VARCHAR, Types.DECIMAL, Types.DOUBLE, Types.TIMESTAMP, Types.DATE, Types.BOOLEAN, Types.BIGINT, Types.NUMERIC};
+
+    private static final String[] TYPE_NAMES = {"INT", "VARCHAR", "DECIMAL", "DOUBLE", "DATETIME", "DATE", "BOOLEAN", "BIGINT UNSIGNED", "NUMBER"};
+
+    private static final int[] PRECISIONS = {10, 64, 10, 22, 19, 10, 1, 20, 0};
+
+    private static final int[] SCALES = {0, 0, 2, 0, 0, 0, 0, 0, -127};
+
+    private static final Object[][] ROWS = {
+            {1, "北京", new BigDecimal("12.345"), 1.5D, Timestamp.valueOf("2020-01-02 03:04:05.123456"), Date.valueOf("1990-05-06"), true, new BigInteger("18446744073709551615"), new BigDecimal("0.25")},
+            {2L, null, null, null, null, null, null, null, null},
+            {3, "", new BigDecimal("-0.5"), -2.25D, Timestamp.valueOf("1969-12-31 23:59:59.5"), Date.valueOf("1969-12-31"), false, BigInteger.ONE, 3},
+            {4, "a", BigDecimal.ZERO, 0D, Timestamp.valueOf("2000-02-29 00:00:00"), Date.valueOf("2000-02-29"), true, BigInteger.TEN, "1e-3"},
+            {5, "b", new BigDecimal("99999999.99"), 1e10D, Timestamp.valueOf("2038-01-19 03:14:08"), Date.valueOf("2038-01-19"), false, BigInteger.ZERO, null}
+    };
+
+    @Test
+    public void readBackWithArrowReader() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int rows = write(ROWS, () -> out, 2, 0, 0);
+        Assert.assertEquals(ROWS.length, rows);
+
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+             ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            Schema schema = root.getSchema();
+            Assert.assertEquals(new ArrowType.Int(64, true), type(schema, 0));
+            Assert.assertEquals(ArrowType.Utf8.INSTANCE, type(schema, 1));
+            Assert.assertEquals(new ArrowType.Decimal(10, 2, 128), type(schema, 2));
+            Assert.assertEquals(ArrowType.ArrowTypeID.FloatingPoint, type(schema, 3).getTypeID());
+            Assert.assertEquals(ArrowType.ArrowTypeID.Timestamp, type(schema, 4).getTypeID());
+            Assert.assertNull(((ArrowType.Timestamp) type(schema, 4)).getTimezone());
+            Assert.assertEquals(ArrowType.ArrowTypeID.Date, type(schema, 5).getTypeID());
+            Assert.assertEquals(ArrowType.Bool.INSTANCE, type(schema, 6));
+            Assert.assertEquals(new ArrowType.Decimal(20, 0, 128), type(schema, 7));
+            Assert.assertEquals(ArrowType.ArrowTypeID.FloatingPoint, type(schema, 8).getTypeID());
+            for (int i = 0; i < LABELS.length; i++) {
+                Field field = schema.getFields().get(i);
+                Assert.assertEquals(LABELS[i], field.getName());
+                Assert.assertEquals(TYPE_NAMES[i], field.getMetadata().get("type"));
+            }
+
+            List<Integer> batchSizes = new ArrayList<>();
+            List<List<Object>> values = new ArrayList<>();
+            while (reader.loadNextBatch()) {
+                batchSizes.add(root.getRowCount());
+                for (int row = 0; row < root.getRowCount(); row++) {
+                    List<Object> rowValues = new ArrayList<>();
+                    for (FieldVector vector : root.getFieldVectors()) {
+                        Object value = vector.getObject(row);
+                        rowValues.add(vector instanceof VarCharVector && null != value ? value.toString() : value);
+                    }
+                    values.add(rowValues);
+                }
+            }
+            Assert.assertEquals(Arrays.asList(2, 2, 1), batchSizes);
+
+            Assert.assertEquals(Arrays.asList(1L, "北京", new BigDecimal("12.35"), 1.5D, LocalDateTime.of(2020, 1, 2, 3, 4, 5, 123456000),
+                    (int) LocalDate.of(1990, 5, 6).toEpochDay(), true, new BigDecimal("18446744073709551615"), 0.25D), values.get(0));
+            Assert.assertEquals(Arrays.asList(2L, null, null, null, null, null, null, null, null), values.get(1));
+            Assert.assertEquals(Arrays.asList(3L, "", new BigDecimal("-0.50"), -2.25D, LocalDateTime.of(1969, 12, 31, 23, 59, 59, 500000000),
+                    -1, false, BigDecimal.ONE, 3D), values.get(2));
+            Assert.assertEquals(new BigDecimal("0.00"), values.get(3).get(2));
+            Assert.assertEquals(0.001D, values.get(3).get(8));
+            Assert.assertEquals(new BigDecimal("99999999.99"), values.get(4).get(2));
+            Assert.assertEquals(LocalDateTime.of(2038, 1, 19, 3, 14, 8), values.get(4).get(4));
+        }
+    }
+
+    @Test
+    public void skipOffsetAndLimitRows() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(2, write(ROWS, () -> out, 8192, 1, 2));
+
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+             ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            Assert.assertTrue(reader.loadNextBatch());
+            Assert.assertEquals(2, root.getRowCount());
+            Assert.assertEquals(2L, root.getVector(0).getObject(0));
+            Assert.assertEquals(3L, root.getVector(0).getObject(1));
+            Assert.assertFalse(reader.loadNextBatch());
+        }
+    }
+
+    @Test
+    public void emptyResultHasSchemaOnly() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(0, write(ROWS, () -> out, 2, ROWS.length, 0));
+
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+             ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            Assert.assertEquals(LABELS.length, reader.getVectorSchemaRoot().getSchema().getFields().size());
+            Assert.assertFalse(reader.loadNextBatch());
+        }
+    }
+
+    @Test
+    public void outputNotOpenedWhenFirstBatchFails() throws Exception {
+        Object[][] rows = {ROWS[0], {"x", null, null, null, null, null, null, null, null}};
+        boolean[] opened = {false};
+        try {
+            write(rows, () -> {
+                opened[0] = true;
+                return new ByteArrayOutputStream();
+            }, 2, 0, 0);
+            Assert.fail();
+        } catch (ServerException e) {
+            Assert.assertFalse(opened[0]);
+        }
+    }
+
+    @Test
+    public void writeEmptyWithMetadata() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArrowResultWriter.writeEmpty(out, Collections.singletonMap("header", "{\"code\":400}"));
+
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+             ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            Schema schema = reader.getVectorSchemaRoot().getSchema();
+            Assert.assertTrue(schema.getFields().isEmpty());
+            Assert.assertEquals("{\"code\":400}", schema.getCustomMetadata().get("header"));
+            Assert.assertFalse(reader.loadNextBatch());
+        }
+    }
+
+    private static ArrowType type(Schema schema, int i) {
+        return schema.getFields().get(i).getType();
+    }
+
+    private static int write(Object[][] rows, ArrowResultWriter.Output output, int batchRows, int offset, int maxRows) throws SQLException {
+        ResultSet rs = newResultSet(rows);
+        RowDecoder decoder = RowDecoder.of(rs.getMetaData(), null, null);
+        return new ArrowResultWriter(output, batchRows, offset, maxRows).handle(decoder, rs);
+    }
+
+    /**
+     * 内存中的只进结果集
+     */
+    private static ResultSet newResultSet(Object[][] rows) {
+        ClassLoader classLoader = ArrowResultWriterTest.class.getClassLoader();
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(classLoader, new Class[]{ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return LABELS.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return LABELS[(Integer) args[0] - 1];
+                        case "getColumnType":
+                            return TYPES[(Integer) args[0] - 1];
+                        case "getColumnTypeName":
+                            return TYPE_NAMES[(Integer) args[0] - 1];
+                        case "getPrecision":
+                            return PRECISIONS[(Integer) args[0] - 1];
+                        case "getScale":
+                            return SCALES[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        int[] cursor = {-1};
+        return (ResultSet) Proxy.newProxyInstance(classLoader, new Class[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMetaData":
+                            return metaData;
+                        case "next":
+                            return ++cursor[0] < rows.length;
+                        case "getObject":
+                        case "getString":
+                            Object value = rows[cursor[0]][(Integer) args[0] - 1];
+                            return "getString".equals(method.getName()) && null != value ? value.toString() : value;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.common.jdbc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * RowDecoder 与原逐行逐列读取元数据、按列名取值的解码方式的耗时对比
+ * <p>
+ * 结果集为内存中的数据，按列名取值时与多数驱动一样先查找列下标；
+ * 默认随 skipTests 跳过，执行 mvn test -DskipTests=false -Dtest=RowDecoderBenchmarkTest 查看耗时
+ */
+public class RowDecoderBenchmarkTest {
+
+    private static final int ROWS = 200000;
+
+    private static final int ROUNDS = 5;
+
+    private static final String[] LABELS = {"t.id", "t.name", "t.city", "t.amount", "t.price", "t.created", "t.status", "t.memo"};
+
+    private static final int[] TYPES = {Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.DECIMAL, Types.DOUBLE, Types.TIMESTAMP, Types.INTEGER, Types.VARCHAR};
+
+    private static final Set<String> PREFIXES = new HashSet<>(Collections.singletonList("t."));
+
+    private static final Set<String> EXCLUDE_COLUMNS = new HashSet<>(Collections.singletonList("memo"));
+
+    @Test
+    public void decodeFasterThanGetObjectByLabel() throws SQLException {
+        Object[][] rows = newRows();
+
+        // 先比较两种方式的结果，再交替预热和计时
+        Assert.assertEquals(decodeByLabel(newResultSet(rows)), decodeByDecoder(newResultSet(rows)));
+
+        long labelNanos = Long.MAX_VALUE;
+        long decoderNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            ResultSet rs = newResultSet(rows);
+            long start = System.nanoTime();
+            decodeByLabel(rs);
+            labelNanos = Math.min(labelNanos, System.nanoTime() - start);
+
+            rs = newResultSet(rows);
+            start = System.nanoTime();
+            decodeByDecoder(rs);
+            decoderNanos = Math.min(decoderNanos, System.nanoTime() - start);
+        }
+
+        System.out.println(String.format("decode %d rows x %d columns, getObject by label: %d ms, RowDecoder: %d ms",
+                ROWS, LABELS.length, labelNanos / 1000000L, decoderNanos / 1000000L));
+        Assert.assertTrue(decoderNanos < labelNanos);
+    }
+
+    /**
+     * 原 SqlUtils.getResultObjectMap 的解码方式
+     */
+    private static List<Map<String, Object>> decodeByLabel(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        List<Map<String, Object>> resultList = new ArrayList<>();
+        while (rs.next()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                String key = metaData.getColumnLabel(i);
+                String label = getColumnLabelByRegex(PREFIXES, key);
+                if (EXCLUDE_COLUMNS.contains(label)) {
+                    continue;
+                }
+                Object value = rs.getObject(key);
+                map.put(label, value instanceof byte[] ? new String((byte[]) value) : value);
+            }
+            resultList.add(map);
+        }
+        return resultList;
+    }
+
+    private static List<Map<String, Object>> decodeByDecoder(ResultSet rs) throws SQLException {
+        RowDecoder decoder = RowDecoder.of(rs.getMetaData(), PREFIXES, EXCLUDE_COLUMNS);
+        List<Map<String, Object>> resultList = new ArrayList<>();
+        while (rs.next()) {
+            resultList.add(decoder.decode(rs));
+        }
+        return resultList;
+    }
+
+    /**
+     * 原 SqlUtils.getColumnLabel 的实现
+     */
+    private static String getColumnLabelByRegex(Set<String> columnPrefixs, String columnLable) {
+        for (String prefix : columnPrefixs) {
+            if (columnLable.startsWith(prefix)) {
+                return columnLable.replaceFirst(prefix, "");
+            }
+            if (columnLable.startsWith(prefix.toLowerCase())) {
+                return columnLable.replaceFirst(prefix.toLowerCase(), "");
+            }
+            if (columnLable.startsWith(prefix.toUpperCase())) {
+                return columnLable.replaceFirst(prefix.toUpperCase(), "");
+            }
+        }
+        return columnLable;
+    }
+
+    private static Object[][] newRows() {
+        Random random = new Random(42L);
+        String[] cities = {"Beijing", "Shanghai", "Shenzhen", "Hangzhou", "Chengdu"};
+        Object[][] rows = new Object[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new Object[]{
+                    (long) i,
+                    "user" + i,
+                    cities[random.nextInt(cities.length)],
+                    BigDecimal.valueOf(random.nextInt(1000000), 2),
+                    random.nextDouble() * 100,
+                    new Timestamp(1546300800000L + i * 60000L),
+                    random.nextInt(3),
+                    random.nextBoolean() ? null : "memo" + i
+            };
+        }
+        return rows;
+    }
+
+    /**
+     * 内存中的只进结果集，按列名取值时先按忽略大小写的列名查找下标
+     */
+    private static ResultSet newResultSet(Object[][] rows) {
+        ClassLoader classLoader = RowDecoderBenchmarkTest.class.getClassLoader();
+        Map<String, Integer> columnIndexes = new HashMap<>();
+        for (int i = 0; i < LABELS.length; i++) {
+            columnIndexes.put(LABELS[i].toLowerCase(), i + 1);
+        }
+
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(classLoader, new Class[]{ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return LABELS.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return LABELS[(Integer) args[0] - 1];
+                        case "getColumnType":
+                            return TYPES[(Integer) args[0] - 1];
+                        case "getColumnTypeName":
+                            return typeName(TYPES[(Integer) args[0] - 1]);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        int[] cursor = {-1};
+        return (ResultSet) Proxy.newProxyInstance(classLoader, new Class[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMetaData":
+                            return metaData;
+                        case "next":
+                            return ++cursor[0] < rows.length;
+                        case "getObject":
+                        case "getString":
+                            int index = args[0] instanceof String ? columnIndexes.get(((String) args[0]).toLowerCase()) : (Integer) args[0];
+                            Object value = rows[cursor[0]][index - 1];
+                            return "getString".equals(method.getName()) && null != value ? value.toString() : value;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static String typeName(int type) {
+        switch (type) {
+            case Types.BIGINT:
+                return "BIGINT";
+            case Types.VARCHAR:
+                return "VARCHAR";
+            case Types.DECIMAL:
+                return "DECIMAL";
+            case Types.DOUBLE:
+                return "DOUBLE";
+            case Types.TIMESTAMP:
+                return "TIMESTAMP";
+            default:
+                return "INT";
+        }
+    }
+}